@@ -27,6 +27,10 @@ public class QPredictor extends RelationalPathSpatial<QPredictor> {
 
     public static final QPredictor predictor = new QPredictor("PREDICTOR");
 
+    public final DateTimePath<org.joda.time.DateTime> claimExpires = createDateTime("claimExpires", org.joda.time.DateTime.class);
+
+    public final StringPath claimToken = createString("claimToken");
+
     public final EnumPath<fi.hsl.parkandride.core.domain.CapacityType> capacityType = createEnum("capacityType", fi.hsl.parkandride.core.domain.CapacityType.class);
 
     public final NumberPath<Long> facilityId = createNumber("facilityId", Long.class);
@@ -39,6 +43,8 @@ public class QPredictor extends RelationalPathSpatial<QPredictor> {
 
     public final BooleanPath moreUtilizations = createBoolean("moreUtilizations");
 
+    public final NumberPath<Long> signalVersion = createNumber("signalVersion", Long.class);
+
     public final StringPath type = createString("type");
 
     public final EnumPath<fi.hsl.parkandride.core.domain.Usage> usage = createEnum("usage", fi.hsl.parkandride.core.domain.Usage.class);
@@ -53,6 +59,8 @@ public class QPredictor extends RelationalPathSpatial<QPredictor> {
 
     public final com.querydsl.sql.ForeignKey<QFacilityPredictionHistory> _facilityPredictionHistoryPredictorIdFk = createInvForeignKey(id, "PREDICTOR_ID");
 
+    public final com.querydsl.sql.ForeignKey<QPredictionAccuracy> _predictionAccuracyPredictorIdFk = createInvForeignKey(id, "PREDICTOR_ID");
+
     public QPredictor(String variable) {
         super(QPredictor.class, forVariable(variable), "PUBLIC", "PREDICTOR");
         addMetadata();
@@ -75,11 +83,14 @@ public class QPredictor extends RelationalPathSpatial<QPredictor> {
 
     public void addMetadata() {
         addMetadata(capacityType, ColumnMetadata.named("CAPACITY_TYPE").withIndex(4).ofType(Types.VARCHAR).withSize(64).notNull());
+        addMetadata(claimExpires, ColumnMetadata.named("CLAIM_EXPIRES").withIndex(10).ofType(Types.TIMESTAMP).withSize(23).withDigits(10));
+        addMetadata(claimToken, ColumnMetadata.named("CLAIM_TOKEN").withIndex(9).ofType(Types.VARCHAR).withSize(64));
         addMetadata(facilityId, ColumnMetadata.named("FACILITY_ID").withIndex(3).ofType(Types.BIGINT).withSize(19).notNull());
         addMetadata(id, ColumnMetadata.named("ID").withIndex(1).ofType(Types.BIGINT).withSize(19).notNull());
         addMetadata(internalState, ColumnMetadata.named("INTERNAL_STATE").withIndex(8).ofType(Types.CLOB).withSize(2147483647).notNull());
         addMetadata(latestUtilization, ColumnMetadata.named("LATEST_UTILIZATION").withIndex(6).ofType(Types.TIMESTAMP).withSize(23).withDigits(10).notNull());
         addMetadata(moreUtilizations, ColumnMetadata.named("MORE_UTILIZATIONS").withIndex(7).ofType(Types.BOOLEAN).withSize(1).notNull());
+        addMetadata(signalVersion, ColumnMetadata.named("SIGNAL_VERSION").withIndex(11).ofType(Types.BIGINT).withSize(19).notNull());
         addMetadata(type, ColumnMetadata.named("TYPE").withIndex(2).ofType(Types.VARCHAR).withSize(64).notNull());
         addMetadata(usage, ColumnMetadata.named("USAGE").withIndex(5).ofType(Types.VARCHAR).withSize(64).notNull());
     }
@@ -0,0 +1,123 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back;
+
+import fi.hsl.parkandride.core.domain.Facility;
+import fi.hsl.parkandride.core.domain.FacilityCacheStatus;
+import fi.hsl.parkandride.util.CacheVersion;
+import org.joda.time.Duration;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * In-process cache of facilities for read paths which are executed much more often than facilities change,
+ * such as registering utilizations. Changes made on this node invalidate the cached facility (see
+ * {@link CacheVersion}); changes made on other cluster nodes are seen when the cached facility expires.
+ * Since the cached facility may thus be stale, it must not be used for authorization.
+ */
+public class FacilityCache {
+
+    private final long maxAgeMillis;
+    private final Map<Long, Entry> facilities = new ConcurrentHashMap<>();
+    private final CacheVersion version = new CacheVersion();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public FacilityCache(Duration maxAge) {
+        this.maxAgeMillis = maxAge.getMillis();
+    }
+
+    /**
+     * The returned facility is shared between callers and must not be modified.
+     */
+    public Facility get(long facilityId, LongFunction<Facility> loader) {
+        Facility facility = getIfFresh(facilityId, System.currentTimeMillis());
+        if (facility != null) {
+            hits.incrementAndGet();
+            return facility;
+        }
+        misses.incrementAndGet();
+        long versionBeforeLoad = version.get();
+        long expires = System.currentTimeMillis() + maxAgeMillis;
+        Facility loaded = loader.apply(facilityId);
+        version.storeIfCurrent(versionBeforeLoad, () -> facilities.put(facilityId, new Entry(loaded, expires)));
+        return loaded;
+    }
+
+    /**
+     * Same as {@link #get(long, LongFunction)} for many facilities. The loader is called once with the ids of
+     * the facilities which are not cached.
+     */
+    public Map<Long, Facility> getAll(Collection<Long> facilityIds, Function<Set<Long>, Map<Long, Facility>> loader) {
+        long now = System.currentTimeMillis();
+        Map<Long, Facility> results = new HashMap<>();
+        Set<Long> missing = new HashSet<>();
+        for (Long facilityId : facilityIds) {
+            Facility facility = getIfFresh(facilityId, now);
+            if (facility != null) {
+                results.put(facilityId, facility);
+            } else {
+                missing.add(facilityId);
+            }
+        }
+        hits.addAndGet(results.size());
+        if (missing.isEmpty()) {
+            return results;
+        }
+        misses.addAndGet(missing.size());
+        long versionBeforeLoad = version.get();
+        long expires = System.currentTimeMillis() + maxAgeMillis;
+        Map<Long, Facility> loaded = loader.apply(missing);
+        version.storeIfCurrent(versionBeforeLoad, () -> loaded.forEach((facilityId, facility) -> facilities.put(facilityId, new Entry(facility, expires))));
+        results.putAll(loaded);
+        return results;
+    }
+
+    public void invalidate(long facilityId) {
+        version.invalidate(() -> facilities.remove(facilityId));
+    }
+
+    public void invalidateAll() {
+        version.invalidate(facilities::clear);
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public FacilityCacheStatus getStatus() {
+        FacilityCacheStatus status = new FacilityCacheStatus();
+        status.size = facilities.size();
+        status.hitCount = getHitCount();
+        status.missCount = getMissCount();
+        return status;
+    }
+
+    private Facility getIfFresh(long facilityId, long now) {
+        Entry entry = facilities.get(facilityId);
+        return entry != null && now < entry.expires ? entry.facility : null;
+    }
+
+    private static final class Entry {
+        final Facility facility;
+        final long expires;
+
+        Entry(Facility facility, long expires) {
+            this.facility = facility;
+            this.expires = expires;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import fi.hsl.parkandride.back.sql.*;
 import fi.hsl.parkandride.core.back.FacilityHistoryRepository;
 import fi.hsl.parkandride.core.back.FacilityRepository;
 import fi.hsl.parkandride.core.domain.*;
+import fi.hsl.parkandride.core.service.LatestUtilizationsCache;
 import fi.hsl.parkandride.core.service.TransactionalRead;
 import fi.hsl.parkandride.core.service.TransactionalWrite;
 import fi.hsl.parkandride.core.service.ValidationException;
@@ -41,6 +42,7 @@ import static fi.hsl.parkandride.core.domain.CapacityType.*;
 import static fi.hsl.parkandride.core.domain.Sort.Dir.ASC;
 import static fi.hsl.parkandride.core.domain.Sort.Dir.DESC;
 import static fi.hsl.parkandride.core.domain.Usage.*;
+import static java.util.stream.Collectors.toMap;
 import static org.springframework.util.CollectionUtils.isEmpty;
 
 public class FacilityDao implements FacilityRepository {
@@ -205,10 +207,15 @@ public class FacilityDao implements FacilityRepository {
 
     private final PostgreSQLQueryFactory queryFactory;
     private final FacilityHistoryRepository facilityHistoryRepository;
+    private final FacilityCache facilityCache;
+    private final LatestUtilizationsCache latestUtilizationsCache;
 
-    public FacilityDao(PostgreSQLQueryFactory queryFactory, FacilityHistoryRepository facilityHistoryRepository) {
+    public FacilityDao(PostgreSQLQueryFactory queryFactory, FacilityHistoryRepository facilityHistoryRepository,
+                       FacilityCache facilityCache, LatestUtilizationsCache latestUtilizationsCache) {
         this.queryFactory = queryFactory;
         this.facilityHistoryRepository = facilityHistoryRepository;
+        this.facilityCache = facilityCache;
+        this.latestUtilizationsCache = latestUtilizationsCache;
     }
 
     @TransactionalWrite
@@ -226,6 +233,8 @@ public class FacilityDao implements FacilityRepository {
         insert.set(qFacility.id, facilityId);
         populate(facility, insert);
         insert.execute();
+        facilityCache.invalidate(facilityId);
+        latestUtilizationsCache.invalidate();
 
         insertAliases(facilityId, facility.aliases);
         insertPorts(facilityId, facility.ports);
@@ -260,6 +269,8 @@ public class FacilityDao implements FacilityRepository {
         if (update.execute() != 1) {
             throw new FacilityNotFoundException(facilityId);
         }
+        facilityCache.invalidate(facilityId);
+        latestUtilizationsCache.invalidate(); // the pricing determines which utilizations are shown
 
         updateAliases(facilityId, newFacility.aliases, oldFacility.aliases);
         updatePorts(facilityId, newFacility.ports, oldFacility.ports);
@@ -308,6 +319,36 @@ public class FacilityDao implements FacilityRepository {
         return facility;
     }
 
+    @TransactionalRead
+    @Override
+    public Facility getCachedFacility(long facilityId) {
+        return facilityCache.get(facilityId, id -> getFacility(id, false));
+    }
+
+    @TransactionalRead
+    @Override
+    public Map<Long, Facility> getCachedFacilities(Collection<Long> facilityIds) {
+        return facilityCache.getAll(facilityIds, this::getFacilities);
+    }
+
+    @Override
+    public FacilityCacheStatus getCacheStatus() {
+        return facilityCache.getStatus();
+    }
+
+    @TransactionalRead
+    @Override
+    public Map<Long, Long> getOperatorIds(Collection<Long> facilityIds) {
+        if (facilityIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return queryFactory.from(qFacility)
+                .select(qFacility.id, qFacility.operatorId)
+                .where(qFacility.id.in(facilityIds))
+                .fetch().stream()
+                .collect(toMap(row -> row.get(qFacility.id), row -> row.get(qFacility.operatorId)));
+    }
+
     @TransactionalWrite
     @Override
     public Facility getFacilityForUpdate(long facilityId) {
@@ -335,6 +376,21 @@ public class FacilityDao implements FacilityRepository {
         return facility;
     }
 
+    private Map<Long, Facility> getFacilities(Set<Long> facilityIds) {
+        Map<Long, Facility> facilityMap = new HashMap<>();
+        fromFacility().select(facilityMapping).where(qFacility.id.in(facilityIds)).fetch()
+                .forEach(facility -> facilityMap.put(facility.id, facility));
+        fetchAliases(facilityMap);
+        fetchPorts(facilityMap);
+        fetchServices(facilityMap);
+        fetchPaymentMethods(facilityMap);
+        fetchPricing(facilityMap);
+        fetchUnavailableCapacity(facilityMap);
+
+        facilityMap.values().forEach(Facility::initialize);
+        return facilityMap;
+    }
+
     @TransactionalRead
     @Override
     public SearchResults<FacilityInfo> findFacilities(PageableFacilitySearch search) {
@@ -0,0 +1,40 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * Savepoints let a statement fail without aborting the whole transaction, which PostgreSQL does on any error.
+ */
+public class SavepointUtil {
+
+    public static Savepoint setSavepoint(Connection connection) {
+        try {
+            return connection.setSavepoint();
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Failed to set a savepoint", e);
+        }
+    }
+
+    public static void rollback(Connection connection, Savepoint savepoint) {
+        try {
+            connection.rollback(savepoint);
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Failed to roll back to a savepoint", e);
+        }
+    }
+
+    public static void releaseSavepoint(Connection connection, Savepoint savepoint) {
+        try {
+            connection.releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Failed to release a savepoint", e);
+        }
+    }
+}
@@ -5,41 +5,62 @@ package fi.hsl.parkandride.back;
 
 import com.mysema.commons.lang.CloseableIterator;
 import com.querydsl.core.Tuple;
+import com.querydsl.core.types.ExpressionUtils;
 import com.querydsl.core.types.MappingProjection;
+import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Predicate;
-import com.querydsl.core.types.SubQueryExpression;
 import com.querydsl.core.types.dsl.ComparableExpressionBase;
 import com.querydsl.sql.StatementOptions;
+import com.querydsl.sql.dml.SQLDeleteClause;
 import com.querydsl.sql.dml.SQLInsertClause;
+import com.querydsl.sql.dml.SQLUpdateClause;
 import com.querydsl.sql.postgresql.PostgreSQLQuery;
 import com.querydsl.sql.postgresql.PostgreSQLQueryFactory;
 import fi.hsl.parkandride.back.sql.QFacilityUtilization;
+import fi.hsl.parkandride.back.sql.QFacilityUtilizationLatest;
+import fi.hsl.parkandride.back.sql.QFacilityUtilizationRollup;
 import fi.hsl.parkandride.back.sql.QPricing;
 import fi.hsl.parkandride.core.back.UtilizationRepository;
 import fi.hsl.parkandride.core.domain.*;
+import fi.hsl.parkandride.core.service.LatestUtilizationsCache;
 import fi.hsl.parkandride.core.service.TransactionalRead;
 import fi.hsl.parkandride.core.service.TransactionalWrite;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDateTime;
 import org.joda.time.Minutes;
+import org.joda.time.Period;
+import org.joda.time.YearMonth;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 import org.springframework.dao.DataAccessResourceFailureException;
-import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+import static fi.hsl.parkandride.back.SavepointUtil.releaseSavepoint;
+import static fi.hsl.parkandride.back.SavepointUtil.rollback;
+import static fi.hsl.parkandride.back.SavepointUtil.setSavepoint;
 import static org.springframework.transaction.annotation.Isolation.READ_COMMITTED;
 import static org.springframework.transaction.annotation.Propagation.MANDATORY;
 
 public class UtilizationDao implements UtilizationRepository {
 
     private static final QFacilityUtilization qUtilization = QFacilityUtilization.facilityUtilization;
+    private static final QFacilityUtilizationLatest qLatest = QFacilityUtilizationLatest.facilityUtilizationLatest;
+    private static final QFacilityUtilizationRollup qRollup = QFacilityUtilizationRollup.facilityUtilizationRollup;
     private static final QPricing qPricing = QPricing.pricing;
     private static final MappingProjection<Utilization> utilizationMapping = new MappingProjection<Utilization>(Utilization.class, qUtilization.all()) {
         @Override
@@ -54,21 +75,67 @@ public class UtilizationDao implements UtilizationRepository {
             return u;
         }
     };
-    private static final RowMapper<Utilization> utilizationRowMapper = (rs, rowNum) -> {
-        Utilization u = new Utilization();
-        u.facilityId = rs.getLong("facility_id");
-        u.capacityType = CapacityType.valueOf(rs.getString("capacity_type"));
-        u.usage = Usage.valueOf(rs.getString("usage"));
-        u.timestamp = new DateTime(rs.getTimestamp("ts").toInstant().toEpochMilli());
-        u.spacesAvailable = rs.getInt("spaces_available");
-        u.capacity = rs.getInt("capacity");
-        return u;
+    private static final MappingProjection<Utilization> latestUtilizationMapping = new MappingProjection<Utilization>(Utilization.class, qLatest.all()) {
+        @Override
+        protected Utilization map(Tuple row) {
+            Utilization u = new Utilization();
+            u.facilityId = row.get(qLatest.facilityId);
+            u.capacityType = row.get(qLatest.capacityType);
+            u.usage = row.get(qLatest.usage);
+            u.timestamp = row.get(qLatest.ts);
+            u.spacesAvailable = row.get(qLatest.spacesAvailable);
+            u.capacity = row.get(qLatest.capacity);
+            return u;
+        }
+    };
+    private static final MappingProjection<UtilizationRollup> rollupMapping = new MappingProjection<UtilizationRollup>(UtilizationRollup.class, qRollup.all()) {
+        @Override
+        protected UtilizationRollup map(Tuple row) {
+            UtilizationRollup r = new UtilizationRollup();
+            r.facilityId = row.get(qRollup.facilityId);
+            r.capacityType = row.get(qRollup.capacityType);
+            r.usage = row.get(qRollup.usage);
+            r.resolution = row.get(qRollup.resolution);
+            r.periodStart = row.get(qRollup.periodStart);
+            r.minSpacesAvailable = row.get(qRollup.minSpacesAvailable);
+            r.maxSpacesAvailable = row.get(qRollup.maxSpacesAvailable);
+            r.sumSpacesAvailable = row.get(qRollup.sumSpacesAvailable);
+            r.sampleCount = row.get(qRollup.sampleCount);
+            r.lastTimestamp = row.get(qRollup.lastTs);
+            r.lastSpacesAvailable = row.get(qRollup.lastSpacesAvailable);
+            r.lastCapacity = row.get(qRollup.lastCapacity);
+            return r;
+        }
     };
 
+    private static final Period RECENT_PERIOD = Period.months(1);
+    private static final Pattern PARTITION_NAME = Pattern.compile("facility_utilization_y(\\d{4})m(\\d{2})");
+
+    private static final int MAX_UPSERT_ATTEMPTS = 3;
+    private static final int CURSOR_FETCH_SIZE = 1000;
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String RESAMPLE_UTILIZATIONS = "" +
+            "SELECT s.step, u.spaces_available, u.capacity " +
+            "FROM generate_series(CAST(? AS TIMESTAMPTZ), CAST(? AS TIMESTAMPTZ), CAST(? AS INTERVAL)) AS s(step) " +
+            "LEFT JOIN LATERAL (" +
+            "  SELECT spaces_available, capacity " +
+            "  FROM facility_utilization " +
+            "  WHERE facility_id = ? AND capacity_type = ? AND usage = ? AND ts >= ? AND ts <= CAST(s.step AS TIMESTAMP) " +
+            "  ORDER BY ts DESC " +
+            "  LIMIT 1) u ON TRUE " +
+            "ORDER BY s.step";
+
+    private static final String COPY_UTILIZATIONS = "" +
+            "COPY facility_utilization (facility_id, capacity_type, usage, ts, spaces_available, capacity) " +
+            "FROM STDIN WITH (FORMAT csv)";
+
     private final PostgreSQLQueryFactory queryFactory;
+    private final LatestUtilizationsCache latestUtilizationsCache;
 
-    public UtilizationDao(PostgreSQLQueryFactory queryFactory) {
+    public UtilizationDao(PostgreSQLQueryFactory queryFactory, LatestUtilizationsCache latestUtilizationsCache) {
         this.queryFactory = queryFactory;
+        this.latestUtilizationsCache = latestUtilizationsCache;
     }
 
     @TransactionalWrite
@@ -77,6 +144,337 @@ public class UtilizationDao implements UtilizationRepository {
         if (utilizations.isEmpty()) {
             return;
         }
+        Connection connection = queryFactory.getConnection();
+        if (isPostgreSQL(connection)) {
+            copyUtilizationsPostgreSQL(utilizations, connection);
+        } else {
+            insertUtilizationsH2(utilizations);
+        }
+        upsert(() -> updateLatestUtilizations(utilizations));
+        upsert(() -> updateUtilizationRollups(utilizations));
+        latestUtilizationsCache.utilizationsAdded(utilizations);
+    }
+
+    /**
+     * Runs an upsert which locks the existing rows with SELECT ... FOR UPDATE, and inserts the missing ones.
+     * A concurrent transaction may insert a missing row first, since PostgreSQL 9.3 has no INSERT ... ON CONFLICT
+     * and nothing locks a row which doesn't exist yet. The upsert is therefore run in a savepoint, and on a duplicate
+     * key it is rolled back and run again, so that it finds and locks the row which the other transaction inserted.
+     * A duplicate key which persists over the retries is not caused by a concurrent insert, so it is rethrown.
+     */
+    private void upsert(Runnable upsert) {
+        Connection connection = queryFactory.getConnection();
+        for (int attempt = 1; ; attempt++) {
+            Savepoint savepoint = setSavepoint(connection);
+            try {
+                upsert.run();
+            } catch (RuntimeException e) {
+                if (!isDuplicateKey(e) || attempt >= MAX_UPSERT_ATTEMPTS) {
+                    throw e;
+                }
+                rollback(connection, savepoint);
+                continue;
+            }
+            releaseSavepoint(connection, savepoint);
+            return;
+        }
+    }
+
+    private static boolean isDuplicateKey(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                for (SQLException ex = (SQLException) cause; ex != null; ex = ex.getNextException()) {
+                    if ("23505".equals(ex.getSQLState())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps facility_utilization_latest up to date, so that reading the latest utilizations
+     * doesn't need to search facility_utilization. Utilizations older than the stored ones are ignored.
+     */
+    private void updateLatestUtilizations(List<Utilization> utilizations) {
+        Map<UtilizationKey, Utilization> newest = new LinkedHashMap<>();
+        for (Utilization u : utilizations) {
+            newest.merge(u.getUtilizationKey(), u, (a, b) -> b.timestamp.isBefore(a.timestamp) ? a : b);
+        }
+        Set<Long> facilityIds = newest.keySet().stream().map(key -> key.facilityId).collect(Collectors.toSet());
+        Map<UtilizationKey, Utilization> stored = queryFactory.from(qLatest)
+                .select(latestUtilizationMapping)
+                .where(qLatest.facilityId.in(facilityIds))
+                .forUpdate()
+                .fetch()
+                .stream()
+                .collect(Collectors.toMap(Utilization::getUtilizationKey, u -> u));
+
+        List<Utilization> inserts = new ArrayList<>();
+        List<Utilization> updates = new ArrayList<>();
+        for (Utilization u : newest.values()) {
+            Utilization current = stored.get(u.getUtilizationKey());
+            if (current == null) {
+                inserts.add(u);
+            } else if (!u.timestamp.isBefore(current.timestamp)) {
+                updates.add(u);
+            }
+        }
+        if (!inserts.isEmpty()) {
+            SQLInsertClause insert = queryFactory.insert(qLatest);
+            for (Utilization u : inserts) {
+                insert.set(qLatest.facilityId, u.facilityId)
+                        .set(qLatest.capacityType, u.capacityType)
+                        .set(qLatest.usage, u.usage)
+                        .set(qLatest.ts, u.timestamp)
+                        .set(qLatest.spacesAvailable, u.spacesAvailable)
+                        .set(qLatest.capacity, u.capacity)
+                        .addBatch();
+            }
+            insert.execute();
+        }
+        if (!updates.isEmpty()) {
+            SQLUpdateClause update = queryFactory.update(qLatest);
+            for (Utilization u : updates) {
+                update.set(qLatest.ts, u.timestamp)
+                        .set(qLatest.spacesAvailable, u.spacesAvailable)
+                        .set(qLatest.capacity, u.capacity)
+                        .where(qLatest.facilityId.eq(u.facilityId),
+                                qLatest.capacityType.eq(u.capacityType),
+                                qLatest.usage.eq(u.usage))
+                        .addBatch();
+            }
+            update.execute();
+        }
+    }
+
+    /**
+     * Adds the utilizations to the rollups of their periods, so that aggregates over long time ranges
+     * don't need to read facility_utilization.
+     */
+    private void updateUtilizationRollups(List<Utilization> utilizations) {
+        Map<RollupId, UtilizationRollup> rollups = rollUp(utilizations.iterator(), RollupResolution.values());
+        Map<RollupPeriod, Set<Long>> facilityIdsByPeriod = new LinkedHashMap<>();
+        rollups.forEach((id, rollup) -> facilityIdsByPeriod
+                .computeIfAbsent(id.period, period -> new HashSet<>())
+                .add(rollup.facilityId));
+        // lock only the rollups of the written periods, not those of all resolutions between them
+        List<Predicate> periods = new ArrayList<>();
+        facilityIdsByPeriod.forEach((period, facilityIds) -> periods.add(ExpressionUtils.allOf(
+                qRollup.resolution.eq(period.resolution),
+                qRollup.periodStart.eq(period.start),
+                qRollup.facilityId.in(facilityIds))));
+        Map<RollupId, UtilizationRollup> stored = toRollupMap(queryFactory.from(qRollup)
+                .select(rollupMapping)
+                .where(ExpressionUtils.anyOf(periods))
+                .orderBy(rollupOrder())
+                .forUpdate()
+                .fetch());
+
+        List<UtilizationRollup> inserts = new ArrayList<>();
+        List<UtilizationRollup> updates = new ArrayList<>();
+        rollups.forEach((id, rollup) -> {
+            UtilizationRollup current = stored.get(id);
+            if (current == null) {
+                inserts.add(rollup);
+            } else {
+                current.merge(rollup);
+                updates.add(current);
+            }
+        });
+        insertRollups(inserts);
+        updateRollups(updates);
+    }
+
+    @TransactionalWrite
+    @Override
+    public int rebuildUtilizationRollups(DateTime start, DateTime end) {
+        DateTime from = RollupResolution.HOUR.periodStart(start);
+        DateTime until = RollupResolution.HOUR.nextPeriodStart(RollupResolution.HOUR.periodStart(end));
+        AtomicInteger fixed = new AtomicInteger();
+        upsert(() -> fixed.set(rebuildUtilizationRollupsBetween(from, until)));
+        return fixed.get();
+    }
+
+    /**
+     * The stored rollups are locked before the utilizations are read, so that a concurrent ingest either commits
+     * before the utilizations are read, or waits and merges its utilizations to the rebuilt rollups. The daily
+     * rollups are merged from the hourly ones, so that only the utilizations of the rebuilt hours are read.
+     */
+    private int rebuildUtilizationRollupsBetween(DateTime from, DateTime until) {
+        DateTime dayFrom = RollupResolution.DAY.periodStart(from);
+        DateTime dayUntil = RollupResolution.DAY.nextPeriodStart(RollupResolution.DAY.periodStart(until.minusMillis(1)));
+        Map<RollupId, UtilizationRollup> stored = toRollupMap(queryFactory.from(qRollup)
+                .select(rollupMapping)
+                .where(qRollup.resolution.eq(RollupResolution.FIVE_MINUTES)
+                        .and(qRollup.periodStart.goe(from))
+                        .and(qRollup.periodStart.lt(until))
+                        .or(qRollup.resolution.ne(RollupResolution.FIVE_MINUTES)
+                                .and(qRollup.periodStart.goe(dayFrom))
+                                .and(qRollup.periodStart.lt(dayUntil))))
+                .orderBy(rollupOrder())
+                .forUpdate()
+                .fetch());
+
+        UtilizationSearch search = new UtilizationSearch();
+        search.start = from;
+        search.end = until.minusMillis(1);
+        Map<RollupId, UtilizationRollup> expected;
+        try (CloseableIterator<Utilization> utilizations = findUtilizations(search)) {
+            expected = rollUp(utilizations, RollupResolution.FIVE_MINUTES, RollupResolution.HOUR);
+        }
+        // the other hours of the days are not rebuilt, but the daily rollups are merged from them too
+        stored.forEach((id, rollup) -> {
+            if (rollup.resolution == RollupResolution.HOUR
+                    && (rollup.periodStart.isBefore(from) || !rollup.periodStart.isBefore(until))) {
+                expected.put(id, rollup);
+            }
+        });
+        Map<RollupId, UtilizationRollup> days = new LinkedHashMap<>();
+        expected.values().stream()
+                .filter(r -> r.resolution == RollupResolution.HOUR)
+                .forEach(hour -> merge(days, hour.rollUpTo(RollupResolution.DAY)));
+        expected.putAll(days);
+
+        List<UtilizationRollup> inserts = new ArrayList<>();
+        List<UtilizationRollup> updates = new ArrayList<>();
+        expected.forEach((id, rollup) -> {
+            UtilizationRollup current = stored.remove(id);
+            if (current == null) {
+                inserts.add(rollup);
+            } else {
+                // the same stored period, even if the other instant of a repeated local time
+                rollup.periodStart = current.periodStart;
+                if (!current.equals(rollup)) {
+                    updates.add(rollup);
+                }
+            }
+        });
+        insertRollups(inserts);
+        updateRollups(updates);
+        deleteRollups(stored.values());
+        return inserts.size() + updates.size() + stored.size();
+    }
+
+    private void insertRollups(List<UtilizationRollup> rollups) {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        SQLInsertClause insert = queryFactory.insert(qRollup);
+        for (UtilizationRollup r : rollups) {
+            insert.set(qRollup.facilityId, r.facilityId)
+                    .set(qRollup.capacityType, r.capacityType)
+                    .set(qRollup.usage, r.usage)
+                    .set(qRollup.resolution, r.resolution)
+                    .set(qRollup.periodStart, r.periodStart)
+                    .set(qRollup.minSpacesAvailable, r.minSpacesAvailable)
+                    .set(qRollup.maxSpacesAvailable, r.maxSpacesAvailable)
+                    .set(qRollup.sumSpacesAvailable, r.sumSpacesAvailable)
+                    .set(qRollup.sampleCount, r.sampleCount)
+                    .set(qRollup.lastTs, r.lastTimestamp)
+                    .set(qRollup.lastSpacesAvailable, r.lastSpacesAvailable)
+                    .set(qRollup.lastCapacity, r.lastCapacity)
+                    .addBatch();
+        }
+        insert.execute();
+    }
+
+    private void updateRollups(List<UtilizationRollup> rollups) {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        SQLUpdateClause update = queryFactory.update(qRollup);
+        for (UtilizationRollup r : rollups) {
+            update.set(qRollup.minSpacesAvailable, r.minSpacesAvailable)
+                    .set(qRollup.maxSpacesAvailable, r.maxSpacesAvailable)
+                    .set(qRollup.sumSpacesAvailable, r.sumSpacesAvailable)
+                    .set(qRollup.sampleCount, r.sampleCount)
+                    .set(qRollup.lastTs, r.lastTimestamp)
+                    .set(qRollup.lastSpacesAvailable, r.lastSpacesAvailable)
+                    .set(qRollup.lastCapacity, r.lastCapacity)
+                    .where(rollupIdentity(r))
+                    .addBatch();
+        }
+        update.execute();
+    }
+
+    private void deleteRollups(Collection<UtilizationRollup> rollups) {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        SQLDeleteClause delete = queryFactory.delete(qRollup);
+        for (UtilizationRollup r : rollups) {
+            delete.where(rollupIdentity(r)).addBatch();
+        }
+        delete.execute();
+    }
+
+    private static Predicate rollupIdentity(UtilizationRollup r) {
+        return ExpressionUtils.allOf(
+                qRollup.facilityId.eq(r.facilityId),
+                qRollup.capacityType.eq(r.capacityType),
+                qRollup.usage.eq(r.usage),
+                qRollup.resolution.eq(r.resolution),
+                qRollup.periodStart.eq(r.periodStart));
+    }
+
+    private static Map<RollupId, UtilizationRollup> rollUp(Iterator<Utilization> utilizations, RollupResolution... resolutions) {
+        Map<RollupId, UtilizationRollup> rollups = new LinkedHashMap<>();
+        while (utilizations.hasNext()) {
+            Utilization u = utilizations.next();
+            for (RollupResolution resolution : resolutions) {
+                merge(rollups, UtilizationRollup.of(u, resolution));
+            }
+        }
+        return rollups;
+    }
+
+    private static void merge(Map<RollupId, UtilizationRollup> rollups, UtilizationRollup rollup) {
+        rollups.merge(new RollupId(rollup), rollup, (a, b) -> {
+            a.merge(b);
+            return a;
+        });
+    }
+
+    private static OrderSpecifier<?>[] rollupOrder() {
+        // lock the rollups in the order of their primary key, so that concurrent transactions don't deadlock
+        return new OrderSpecifier<?>[]{
+                qRollup.facilityId.asc(),
+                qRollup.capacityType.asc(),
+                qRollup.usage.asc(),
+                qRollup.resolution.asc(),
+                qRollup.periodStart.asc()};
+    }
+
+    private static Map<RollupId, UtilizationRollup> toRollupMap(List<UtilizationRollup> rollups) {
+        Map<RollupId, UtilizationRollup> map = new HashMap<>();
+        rollups.forEach(r -> map.put(new RollupId(r), r));
+        return map;
+    }
+
+    private void copyUtilizationsPostgreSQL(List<Utilization> utilizations, Connection connection) {
+        StringBuilder rows = new StringBuilder(utilizations.size() * 64);
+        for (Utilization u : utilizations) {
+            // same local time representation as the TIMESTAMP column gets through DateTimeType
+            rows.append(u.facilityId).append(',')
+                    .append(u.capacityType.name()).append(',')
+                    .append(u.usage.name()).append(',')
+                    .append(new Timestamp(u.timestamp.getMillis())).append(',')
+                    .append(u.spacesAvailable).append(',')
+                    .append(u.capacity).append('\n');
+        }
+        try {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            copyManager.copyIn(COPY_UTILIZATIONS, new StringReader(rows.toString()));
+        } catch (SQLException e) {
+            throw queryFactory.getConfiguration().translate(COPY_UTILIZATIONS, Collections.emptyList(), e);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Failed to copy utilizations", e);
+        }
+    }
+
+    private void insertUtilizationsH2(List<Utilization> utilizations) {
         SQLInsertClause insertBatch = queryFactory.insert(qUtilization);
         utilizations.forEach(u -> {
             insertBatch.set(qUtilization.facilityId, u.facilityId);
@@ -93,12 +491,21 @@ public class UtilizationDao implements UtilizationRepository {
     @TransactionalRead
     @Override
     public Set<Utilization> findLatestUtilization(Long... facilityIds) {
-        Connection connection = queryFactory.getConnection();
-        if (isPostgreSQL(connection)) {
-            return findLatestUtilizationPostgreSQL(facilityIds, new SingleConnectionDataSource(connection, true));
-        } else {
-            return findLatestUtilizationH2(facilityIds);
+        PostgreSQLQuery<Utilization> q = queryFactory.from(qLatest).select(latestUtilizationMapping);
+        if (facilityIds.length > 0) {
+            q.where(qLatest.facilityId.in(facilityIds));
         }
+        // only capacity type and usage combinations which the facility currently has pricing for
+        q.where(queryFactory.selectOne()
+                .from(qPricing)
+                .where(qPricing.facilityId.eq(qLatest.facilityId),
+                        qPricing.capacityType.eq(qLatest.capacityType),
+                        qPricing.usage.eq(qLatest.usage))
+                .exists());
+        return new LinkedHashSet<>(q.orderBy(qLatest.facilityId.asc(),
+                qLatest.capacityType.asc(),
+                qLatest.usage.asc())
+                .fetch());
     }
 
     private static boolean isPostgreSQL(Connection connection) {
@@ -109,77 +516,92 @@ public class UtilizationDao implements UtilizationRepository {
         }
     }
 
-    private Set<Utilization> findLatestUtilizationPostgreSQL(Long[] facilityIds, SingleConnectionDataSource dataSource) {
-        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
-        return new LinkedHashSet<>(jdbcTemplate.query("" +
-                        "SELECT latest.* " +
-                        "FROM (" +
-                        "  SELECT DISTINCT facility_id, capacity_type, usage " +
-                        "  FROM pricing " +
-                        (facilityIds.length > 0 ? "  WHERE facility_id IN (:facility_ids) " : "") +
-                        ") p " +
-                        "JOIN LATERAL ( " +
-                        "  SELECT * " +
-                        "  FROM facility_utilization " +
-                        "  WHERE facility_id = p.facility_id AND capacity_type = p.capacity_type AND usage = p.usage " +
-                        "  ORDER BY ts DESC " +
-                        "  LIMIT 1 " +
-                        ") latest ON TRUE " +
-                        "ORDER BY facility_id, capacity_type, usage",
-                new MapSqlParameterSource("facility_ids", Arrays.asList(facilityIds)),
-                utilizationRowMapper));
-    }
-
-    private Set<Utilization> findLatestUtilizationH2(Long[] facilityIds) {
-        List<Tuple> utilizationKeys = queryFactory.from(qPricing)
-                .select(qPricing.facilityId,
-                        qPricing.capacityType,
-                        qPricing.usage)
-                .where(facilityIds.length > 0 ? new Predicate[]{qPricing.facilityId.in((Number[]) facilityIds)} : new Predicate[0])
-                .distinct()
-                .fetch();
-        // XXX: H2 doesn't support lateral join, so we must do loop unrolling with union
-        List<SubQueryExpression<Utilization>> queries = new ArrayList<>();
-        for (Tuple utilizationKey : utilizationKeys) {
-            Long facilityId = utilizationKey.get(qPricing.facilityId);
-            CapacityType capacityType = utilizationKey.get(qPricing.capacityType);
-            Usage usage = utilizationKey.get(qPricing.usage);
-            queries.add(queryFactory.from(qUtilization)
-                    .select(utilizationMapping)
-                    .where(qUtilization.facilityId.eq(facilityId),
-                            qUtilization.capacityType.eq(capacityType),
-                            qUtilization.usage.eq(usage))
-                    .orderBy(qUtilization.ts.desc())
-                    .limit(1));
-        }
-        if (queries.isEmpty()) {
-            return Collections.emptySet();
-        }
-        return new LinkedHashSet<>(queryFactory.query()
-                .union(queries)
-                .orderBy(qUtilization.facilityId.asc(),
-                        qUtilization.capacityType.asc(),
-                        qUtilization.usage.asc())
-                .fetch());
-    }
-
     @TransactionalRead
     @Override
     public Optional<Utilization> findUtilizationAtInstant(UtilizationKey utilizationKey, DateTime instant) {
-        return Optional.ofNullable(queryFactory.from(qUtilization)
-                .select(utilizationMapping)
-                .where(qUtilization.facilityId.eq(utilizationKey.facilityId),
-                        qUtilization.capacityType.eq(utilizationKey.capacityType),
-                        qUtilization.usage.eq(utilizationKey.usage),
-                        qUtilization.ts.eq(instant).or(qUtilization.ts.before(instant)))
-                .orderBy(qUtilization.ts.desc())
-                .fetchFirst())
+        // look first from the recent past, so that on partitioned storage only the latest partitions are searched
+        Utilization latest = findLatestUtilizationBefore(utilizationKey, instant, instant.minus(RECENT_PERIOD));
+        if (latest == null) {
+            latest = findLatestUtilizationBefore(utilizationKey, instant, null);
+        }
+        return Optional.ofNullable(latest)
                 .map(u -> {
                     u.timestamp = instant;
                     return u;
                 });
     }
 
+    private Utilization findLatestUtilizationBefore(UtilizationKey utilizationKey, DateTime instant, DateTime notBefore) {
+        PostgreSQLQuery<Utilization> q = queryFactory.from(qUtilization)
+                .select(utilizationMapping)
+                .where(qUtilization.facilityId.eq(utilizationKey.facilityId),
+                        qUtilization.capacityType.eq(utilizationKey.capacityType),
+                        qUtilization.usage.eq(utilizationKey.usage),
+                        qUtilization.ts.eq(instant).or(qUtilization.ts.before(instant)));
+        if (notBefore != null) {
+            q.where(qUtilization.ts.goe(notBefore));
+        }
+        return q.orderBy(qUtilization.ts.desc()).fetchFirst();
+    }
+
+    @TransactionalWrite
+    @Override
+    public void createUtilizationPartitions(YearMonth from, YearMonth until) {
+        Connection connection = queryFactory.getConnection();
+        if (!isPostgreSQL(connection)) {
+            return;
+        }
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+        for (YearMonth month = from; !month.isAfter(until); month = month.plusMonths(1)) {
+            jdbcTemplate.queryForObject("SELECT create_facility_utilization_partition(?)", String.class,
+                    new Timestamp(month.toLocalDate(1).toDateTimeAtStartOfDay().getMillis()));
+        }
+        refreshUtilizationRouting(jdbcTemplate);
+    }
+
+    /**
+     * Regenerates the insert trigger of facility_utilization to route the rows to the current partitions
+     * with static statements. Only the partition maintenance runs this, so it is never run concurrently.
+     */
+    private static void refreshUtilizationRouting(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.execute("SELECT refresh_facility_utilization_routing()");
+    }
+
+    @TransactionalWrite
+    @Override
+    public List<YearMonth> removeUtilizationPartitionsBefore(YearMonth limit, boolean archive) {
+        Connection connection = queryFactory.getConnection();
+        if (!isPostgreSQL(connection)) {
+            return Collections.emptyList();
+        }
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+        List<String> partitions = jdbcTemplate.queryForList("" +
+                "SELECT c.relname " +
+                "FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = 'facility_utilization'::regclass " +
+                "ORDER BY c.relname", String.class);
+        List<YearMonth> removed = new ArrayList<>();
+        for (String partition : partitions) {
+            Matcher m = PARTITION_NAME.matcher(partition);
+            if (!m.matches()) {
+                continue;
+            }
+            YearMonth month = new YearMonth(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)));
+            if (month.isBefore(limit)) {
+                // the name is safe to use in SQL, because it matched the pattern
+                jdbcTemplate.execute(archive
+                        ? "ALTER TABLE " + partition + " NO INHERIT facility_utilization"
+                        : "DROP TABLE " + partition);
+                removed.add(month);
+            }
+        }
+        if (!removed.isEmpty()) {
+            refreshUtilizationRouting(jdbcTemplate);
+        }
+        return removed;
+    }
+
     @Transactional(readOnly = true, isolation = READ_COMMITTED, propagation = MANDATORY)
     @Override
     public CloseableIterator<Utilization> findUtilizationsBetween(UtilizationKey utilizationKey, DateTime start, DateTime end) {
@@ -195,23 +617,72 @@ public class UtilizationDao implements UtilizationRepository {
     @Transactional(readOnly = true, isolation = READ_COMMITTED, propagation = MANDATORY)
     @Override
     public List<Utilization> findUtilizationsWithResolution(UtilizationKey utilizationKey, DateTime start, DateTime end, Minutes resolution) {
-        ArrayList<Utilization> results = new ArrayList<>();
+        if (end.isBefore(start)) {
+            return Collections.emptyList();
+        }
         Optional<Utilization> first = findUtilizationAtInstant(utilizationKey, start);
+        Connection connection = queryFactory.getConnection();
+        if (isPostgreSQL(connection)) {
+            return resamplePostgreSQL(utilizationKey, first, start, end, resolution, connection);
+        }
         try (CloseableIterator<Utilization> rest = findUtilizationsBetween(utilizationKey, start, end)) {
-            LinkedList<Utilization> utilizations = Stream.concat(
-                    StreamUtil.asStream(first),
-                    StreamUtil.asStream(rest))
-                    .collect(Collectors.toCollection(LinkedList::new));
-
-            Utilization current = null;
-            for (DateTime instant = start; !instant.isAfter(end); instant = instant.plus(resolution)) {
-                while (!utilizations.isEmpty() && !utilizations.getFirst().timestamp.isAfter(instant)) {
-                    current = utilizations.removeFirst();
-                }
-                if (current != null) {
-                    current.timestamp = instant;
-                    results.add(current.copy());
-                }
+            return resample(first, rest, start, end, resolution);
+        }
+    }
+
+    /**
+     * Takes the last utilization at or before each resolution step in the database, so that only one row
+     * per step is transferred. The lateral lookup is limited to the time range, so that on partitioned
+     * storage only the partitions of the range are searched; the utilization at start fills the steps
+     * before the first utilization of the range. The steps are generated in absolute time, like in
+     * {@link #resample}, and only compared in local time, so that they don't skip or repeat an hour when
+     * the daylight saving time changes.
+     */
+    private List<Utilization> resamplePostgreSQL(UtilizationKey utilizationKey, Optional<Utilization> first,
+                                                 DateTime start, DateTime end, Minutes resolution, Connection connection) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+        Timestamp startTs = new Timestamp(start.getMillis());
+        List<Utilization> results = new ArrayList<>();
+        jdbcTemplate.query(RESAMPLE_UTILIZATIONS, (RowCallbackHandler) rs -> {
+            Integer spacesAvailable = (Integer) rs.getObject("spaces_available");
+            Utilization u;
+            if (spacesAvailable != null) {
+                u = new Utilization();
+                u.facilityId = utilizationKey.facilityId;
+                u.capacityType = utilizationKey.capacityType;
+                u.usage = utilizationKey.usage;
+                u.spacesAvailable = spacesAvailable;
+                u.capacity = rs.getInt("capacity");
+            } else if (first.isPresent()) {
+                u = first.get().copy();
+            } else {
+                return;
+            }
+            u.timestamp = new DateTime(rs.getTimestamp("step").getTime());
+            results.add(u);
+        }, startTs, new Timestamp(end.getMillis()), resolution.getMinutes() + " minutes",
+                utilizationKey.facilityId, utilizationKey.capacityType.name(), utilizationKey.usage.name(), startTs);
+        return results;
+    }
+
+    /**
+     * Walks the utilizations in time order once, without buffering them, and repeats the latest one
+     * at each resolution step.
+     */
+    private static List<Utilization> resample(Optional<Utilization> first, Iterator<Utilization> rest,
+                                              DateTime start, DateTime end, Minutes resolution) {
+        List<Utilization> results = new ArrayList<>();
+        Utilization current = first.orElse(null);
+        Utilization next = rest.hasNext() ? rest.next() : null;
+        for (DateTime instant = start; !instant.isAfter(end); instant = instant.plus(resolution)) {
+            while (next != null && !next.timestamp.isAfter(instant)) {
+                current = next;
+                next = rest.hasNext() ? rest.next() : null;
+            }
+            if (current != null) {
+                Utilization u = current.copy();
+                u.timestamp = instant;
+                results.add(u);
             }
         }
         return results;
@@ -220,14 +691,118 @@ public class UtilizationDao implements UtilizationRepository {
     @Transactional(readOnly = true, isolation = READ_COMMITTED, propagation = MANDATORY)
     @Override
     public CloseableIterator<Utilization> findUtilizations(UtilizationSearch search) {
-        // TODO: add support for JDBC setFetchSize to QueryDSL, without it PostgreSQL will not stream results, but instead reads all results to memory
-        final PostgreSQLQuery<Utilization> q = queryFactory.from(qUtilization).select(utilizationMapping);
+        Connection connection = queryFactory.getConnection();
+        if (!isPostgreSQL(connection)) {
+            return iteratePages(search);
+        }
+        // PostgreSQL reads the whole result to memory, unless it's read using a cursor,
+        // which it does only with a fetch size and outside auto-commit mode
+        try {
+            if (connection.getAutoCommit()) {
+                throw new IllegalStateException("Utilizations can be streamed only in a transaction");
+            }
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Failed to read connection auto-commit mode", e);
+        }
+        PostgreSQLQuery<Utilization> q = utilizationSearchQuery(search);
+        q.setStatementOptions(StatementOptions.builder().setFetchSize(CURSOR_FETCH_SIZE).build());
+        return q.iterate();
+    }
+
+    /**
+     * H2 reads whole results to memory, so the utilizations are read in pages of limited size. A page ends
+     * before the last timestamp it has, so that utilizations with the same timestamp are not split between pages.
+     */
+    private CloseableIterator<Utilization> iteratePages(UtilizationSearch search) {
+        return new CloseableIterator<Utilization>() {
+            private Iterator<Utilization> page = Collections.emptyIterator();
+            private DateTime pageStartExclusive;
+            private boolean lastPage;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !lastPage) {
+                    page = nextPage().iterator();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public Utilization next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            private List<Utilization> nextPage() {
+                PostgreSQLQuery<Utilization> q = utilizationSearchQuery(search);
+                if (pageStartExclusive != null) {
+                    q.where(qUtilization.ts.after(pageStartExclusive));
+                }
+                List<Utilization> rows = q.limit(PAGE_SIZE).fetch();
+                if (rows.size() < PAGE_SIZE) {
+                    lastPage = true;
+                    return rows;
+                }
+                DateTime lastTs = rows.get(rows.size() - 1).timestamp;
+                int end = rows.size();
+                while (end > 0 && rows.get(end - 1).timestamp.isEqual(lastTs)) {
+                    end--;
+                }
+                if (end == 0) {
+                    // the whole page has the same timestamp, so read all utilizations of that timestamp at once
+                    rows = utilizationSearchQuery(search).where(qUtilization.ts.eq(lastTs)).fetch();
+                    end = rows.size();
+                }
+                rows = rows.subList(0, end);
+                pageStartExclusive = rows.get(end - 1).timestamp;
+                return rows;
+            }
+        };
+    }
+
+    private PostgreSQLQuery<Utilization> utilizationSearchQuery(UtilizationSearch search) {
+        PostgreSQLQuery<Utilization> q = queryFactory.from(qUtilization).select(utilizationMapping);
         q.where(qUtilization.ts.between(search.start, search.end));
         addCriteria(q, search.facilityIds, qUtilization.facilityId);
         addCriteria(q, search.capacityTypes, qUtilization.capacityType);
         addCriteria(q, search.usages, qUtilization.usage);
-        q.setStatementOptions(StatementOptions.builder().setFetchSize(100).build());
-        return q.orderBy(qUtilization.ts.asc()).iterate();
+        return q.orderBy(qUtilization.ts.asc());
+    }
+
+    @TransactionalRead
+    @Override
+    public List<UtilizationRollup> findUtilizationRollups(UtilizationKey utilizationKey, DateTime start, DateTime end, Minutes resolution) {
+        UtilizationSearch search = new UtilizationSearch();
+        search.facilityIds.add(utilizationKey.facilityId);
+        search.usages.add(utilizationKey.usage);
+        search.capacityTypes.add(utilizationKey.capacityType);
+        search.start = start;
+        search.end = end;
+        return findUtilizationRollups(search, resolution);
+    }
+
+    @TransactionalRead
+    @Override
+    public List<UtilizationRollup> findUtilizationRollups(UtilizationSearch search, Minutes resolution) {
+        RollupResolution rollupResolution = RollupResolution.coarsestFor(resolution)
+                .orElseThrow(() -> new IllegalArgumentException("No utilization rollups for resolution " + resolution));
+        PostgreSQLQuery<UtilizationRollup> q = queryFactory.from(qRollup).select(rollupMapping);
+        q.where(qRollup.resolution.eq(rollupResolution),
+                qRollup.periodStart.between(rollupResolution.periodStart(search.start), search.end));
+        addCriteria(q, search.facilityIds, qRollup.facilityId);
+        addCriteria(q, search.capacityTypes, qRollup.capacityType);
+        addCriteria(q, search.usages, qRollup.usage);
+        return q.orderBy(qRollup.periodStart.asc(),
+                qRollup.facilityId.asc(),
+                qRollup.capacityType.asc(),
+                qRollup.usage.asc())
+                .fetch();
     }
 
     private static <S, T extends Comparable<T>> PostgreSQLQuery<S> addCriteria(PostgreSQLQuery<S> q, Collection<T> collection, ComparableExpressionBase<T> path) {
@@ -240,4 +815,64 @@ public class UtilizationDao implements UtilizationRepository {
                 return q.where(path.in(collection));
         }
     }
+
+    /**
+     * Identifies a rollup the way its primary key does.
+     */
+    private static final class RollupId {
+        private final UtilizationKey utilizationKey;
+        private final RollupPeriod period;
+
+        RollupId(UtilizationRollup rollup) {
+            this.utilizationKey = rollup.getUtilizationKey();
+            this.period = new RollupPeriod(rollup);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RollupId)) {
+                return false;
+            }
+            RollupId that = (RollupId) obj;
+            return this.utilizationKey.equals(that.utilizationKey)
+                    && this.period.equals(that.period);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(utilizationKey, period);
+        }
+    }
+
+    /**
+     * The period start is stored as a local TIMESTAMP, so during the repeated hour of a daylight saving time
+     * fall-back two periods have the same stored start, and they are rolled up together.
+     */
+    private static final class RollupPeriod {
+        private final RollupResolution resolution;
+        private final DateTime start;
+        private final LocalDateTime localStart;
+
+        RollupPeriod(UtilizationRollup rollup) {
+            this.resolution = rollup.resolution;
+            this.start = rollup.periodStart;
+            // same local time representation as the TIMESTAMP column gets through DateTimeType
+            this.localStart = LocalDateTime.fromDateFields(new Timestamp(rollup.periodStart.getMillis()));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RollupPeriod)) {
+                return false;
+            }
+            RollupPeriod that = (RollupPeriod) obj;
+            return this.resolution == that.resolution
+                    && this.localStart.equals(that.localStart);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resolution, localStart);
+        }
+    }
 }
@@ -0,0 +1,153 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back.prediction;
+
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import fi.hsl.parkandride.util.SnapshotCache;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_WINDOW;
+import static java.util.stream.Collectors.groupingBy;
+
+/**
+ * Holds the latest prediction curves of all utilization keys, so that reading predictions doesn't need
+ * a database connection. The curves saved on this node replace the cached ones when their transaction commits.
+ * Predictions saved by other cluster nodes are seen when the snapshot expires, so the max age should be well below
+ * the prediction resolution.
+ */
+public class PredictionCache {
+
+    static final int SLOTS = PREDICTION_WINDOW.toStandardMinutes().getMinutes() / PREDICTION_RESOLUTION.getMinutes();
+    static final int NO_PREDICTION = Integer.MIN_VALUE;
+
+    private final SnapshotCache<Snapshot> snapshots;
+
+    public PredictionCache(Duration maxAge) {
+        this.snapshots = new SnapshotCache<>(maxAge);
+    }
+
+    Snapshot get(Supplier<List<Curve>> loader) {
+        return snapshots.get(() -> new Snapshot(loader.get()));
+    }
+
+    /**
+     * Replaces the cached curves of the same utilization keys once the current transaction has committed.
+     */
+    void curvesSaved(Collection<Curve> curves) {
+        List<Curve> copy = new ArrayList<>(curves);
+        snapshots.updateAfterCommit(snapshot -> snapshot.withCurves(copy));
+    }
+
+    public void invalidate() {
+        snapshots.invalidate();
+    }
+
+    static class Snapshot {
+        private final Map<UtilizationKey, Curve> curvesByKey = new HashMap<>();
+        private final Map<Long, List<Curve>> curvesByFacility;
+
+        Snapshot(Collection<Curve> curves) {
+            curves.forEach(curve -> curvesByKey.put(curve.utilizationKey, curve));
+            this.curvesByFacility = curves.stream().collect(groupingBy(curve -> curve.utilizationKey.facilityId));
+        }
+
+        Optional<Curve> get(UtilizationKey utilizationKey) {
+            return Optional.ofNullable(curvesByKey.get(utilizationKey));
+        }
+
+        List<Curve> getByFacility(long facilityId) {
+            return curvesByFacility.getOrDefault(facilityId, Collections.emptyList());
+        }
+
+        /**
+         * @return a copy of this snapshot with the curves replaced, except by older ones, or this snapshot if nothing changed
+         */
+        Snapshot withCurves(Collection<Curve> curves) {
+            Map<UtilizationKey, Curve> replaced = new HashMap<>(curvesByKey);
+            boolean changed = false;
+            for (Curve curve : curves) {
+                Curve current = replaced.get(curve.utilizationKey);
+                if (current == null || !curve.start.isBefore(current.start)) {
+                    replaced.put(curve.utilizationKey, curve);
+                    changed = true;
+                }
+            }
+            return changed ? new Snapshot(replaced.values()) : this;
+        }
+    }
+
+    /**
+     * The predictions of one utilization key, as they are in the facility_prediction table:
+     * one slot for each time of day (in UTC) in prediction resolution.
+     */
+    static class Curve {
+        final UtilizationKey utilizationKey;
+        final DateTime start;
+        private final int[] spacesAvailable;
+
+        /**
+         * @param spacesAvailable {@link #SLOTS} values indexed by {@link #slotOf(DateTime)}, {@link #NO_PREDICTION} if missing
+         */
+        Curve(UtilizationKey utilizationKey, DateTime start, int[] spacesAvailable) {
+            this.utilizationKey = utilizationKey;
+            this.start = start;
+            this.spacesAvailable = spacesAvailable;
+        }
+
+        static int slotOf(DateTime time) {
+            return time.withZone(DateTimeZone.UTC).getMinuteOfDay() / PREDICTION_RESOLUTION.getMinutes();
+        }
+
+        /**
+         * @param time in prediction resolution
+         */
+        boolean isWithinPredictionWindow(DateTime time) {
+            return !start.isAfter(time) && start.isAfter(time.minus(PREDICTION_WINDOW));
+        }
+
+        /**
+         * @param time in prediction resolution
+         */
+        OptionalInt spacesAvailableAt(DateTime time) {
+            int value = spacesAvailable[slotOf(time)];
+            return value == NO_PREDICTION ? OptionalInt.empty() : OptionalInt.of(value);
+        }
+
+        /**
+         * @return spaces available of the time of day slot, or {@link #NO_PREDICTION}
+         */
+        int getBySlot(int slot) {
+            return spacesAvailable[slot];
+        }
+
+        /**
+         * @return the curve after saving the predictions over this curve: the predicted slots are replaced
+         * and the others are kept
+         */
+        Curve withPredictions(PredictionSlots slots) {
+            int[] values = spacesAvailable.clone();
+            BitSet predictedSlots = slots.getPredictedSlots();
+            for (int slot = predictedSlots.nextSetBit(0); slot >= 0; slot = predictedSlots.nextSetBit(slot + 1)) {
+                values[slot] = slots.getBySlot(slot);
+            }
+            return new Curve(utilizationKey, slots.start, values);
+        }
+
+        Curve withStart(DateTime start) {
+            return new Curve(utilizationKey, start, spacesAvailable);
+        }
+
+        static Curve empty(UtilizationKey utilizationKey) {
+            int[] spacesAvailable = new int[SLOTS];
+            Arrays.fill(spacesAvailable, NO_PREDICTION);
+            return new Curve(utilizationKey, null, spacesAvailable);
+        }
+    }
+}
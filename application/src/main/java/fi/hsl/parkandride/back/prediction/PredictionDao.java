@@ -3,42 +3,49 @@
 
 package fi.hsl.parkandride.back.prediction;
 
-import com.querydsl.core.QueryException;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
-import com.querydsl.core.types.MappingProjection;
 import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.Projections;
-import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.NumberExpression;
+import com.querydsl.sql.SQLExpressions;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.dml.SQLDeleteClause;
 import com.querydsl.sql.dml.SQLInsertClause;
 import com.querydsl.sql.dml.SQLUpdateClause;
 import com.querydsl.sql.postgresql.PostgreSQLQueryFactory;
 import fi.hsl.parkandride.back.TimeUtil;
 import fi.hsl.parkandride.back.sql.QFacilityPrediction;
 import fi.hsl.parkandride.back.sql.QFacilityPredictionHistory;
+import fi.hsl.parkandride.back.sql.QFacilityUtilization;
+import fi.hsl.parkandride.back.sql.QPredictionAccuracy;
+import fi.hsl.parkandride.back.sql.QPredictor;
 import fi.hsl.parkandride.core.back.PredictionRepository;
 import fi.hsl.parkandride.core.domain.UtilizationKey;
 import fi.hsl.parkandride.core.domain.prediction.Prediction;
+import fi.hsl.parkandride.core.domain.prediction.PredictionAccuracy;
 import fi.hsl.parkandride.core.domain.prediction.PredictionBatch;
 import fi.hsl.parkandride.core.service.TransactionalRead;
 import fi.hsl.parkandride.core.service.TransactionalWrite;
 import fi.hsl.parkandride.core.service.ValidationService;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
-import org.joda.time.format.DateTimeFormat;
+import org.joda.time.Minutes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.*;
-import java.util.function.BinaryOperator;
 import java.util.function.Function;
-import java.util.function.Predicate;
-import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static org.joda.time.Duration.standardHours;
 import static org.joda.time.Duration.standardMinutes;
 
@@ -48,6 +55,9 @@ public class PredictionDao implements PredictionRepository {
 
     private static final QFacilityPrediction qPrediction = QFacilityPrediction.facilityPrediction;
     private static final QFacilityPredictionHistory qPredictionHistory = QFacilityPredictionHistory.facilityPredictionHistory;
+    private static final QPredictionAccuracy qAccuracy = QPredictionAccuracy.predictionAccuracy;
+    private static final QPredictor qPredictor = QPredictor.predictor;
+    private static final QFacilityUtilization qUtilization = QFacilityUtilization.facilityUtilization;
     private static final Map<String, Path<Integer>> spacesAvailableColumnsByHHmm = Collections.unmodifiableMap(
             Stream.of(qPrediction.all())
                     .filter(p -> p.getMetadata().getName().startsWith("spacesAvailableAt"))
@@ -56,172 +66,261 @@ public class PredictionDao implements PredictionRepository {
                             p -> p.getMetadata().getName().substring("spacesAvailableAt".length()),
                             Function.identity())));
 
+    private static final List<Path<Integer>> spacesAvailableColumnsBySlot = Collections.unmodifiableList(
+            IntStream.range(0, PredictionCache.SLOTS)
+                    .map(slot -> slot * PREDICTION_RESOLUTION.getMinutes())
+                    .mapToObj(minutes -> spacesAvailableColumnsByHHmm.get(String.format("%02d%02d", minutes / 60, minutes % 60)))
+                    .collect(toList()));
+
     public static final List<Duration> predictionsDistancesToStore = Collections.unmodifiableList(
             Arrays.<Duration>asList(standardMinutes(5), standardMinutes(10), standardMinutes(15), standardMinutes(20),
                     standardMinutes(30), standardMinutes(45), standardHours(1), standardHours(2), standardHours(4),
                     standardHours(8), standardHours(12), standardHours(16), standardHours(20), standardHours(24)));
+    // the distances to store as indexes of the prediction window; the window ends before 24 hours
+    private static final int[] historyIndexes = predictionsDistancesToStore.stream()
+            .mapToLong(distance -> distance.getStandardMinutes() / PREDICTION_RESOLUTION.getMinutes())
+            .filter(index -> index < PredictionCache.SLOTS)
+            .mapToInt(index -> (int) index)
+            .toArray();
 
     private final PostgreSQLQueryFactory queryFactory;
     private final ValidationService validationService;
-
-    public PredictionDao(PostgreSQLQueryFactory queryFactory, ValidationService validationService) {
+    private final PredictionCache predictionCache;
+    private final TransactionTemplate readTxTemplate;
+    private final int unchangedTolerance;
+
+    /**
+     * @param unchangedTolerance how many spaces the predictions may differ from the saved ones and still be considered
+     *                           unchanged, so that they are not written again; negative to always write them
+     */
+    public PredictionDao(PostgreSQLQueryFactory queryFactory, ValidationService validationService, PredictionCache predictionCache,
+                         PlatformTransactionManager transactionManager, int unchangedTolerance) {
         this.queryFactory = queryFactory;
         this.validationService = validationService;
+        this.predictionCache = predictionCache;
+        this.readTxTemplate = new TransactionTemplate(transactionManager);
+        this.readTxTemplate.setReadOnly(true);
+        this.readTxTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.unchangedTolerance = unchangedTolerance;
     }
 
     @TransactionalWrite
     @Override
     public void updatePredictions(PredictionBatch pb, Long predictorId) {
-        validationService.validate(pb);
-        UtilizationKey utilizationKey = pb.utilizationKey;
-        DateTime start = toPredictionResolution(pb.sourceTimestamp);
-        List<Prediction> predictions = normalizeToPredictionWindow(start, pb.predictions);
-
-        long updatedRows = maybeUpdatePredictionLookupTable(utilizationKey, start, predictions);
-        if (updatedRows == 0) {
-            initializePredictionLookupTable(utilizationKey);
-            updatePredictions(pb, predictorId); // retry now that the lookup table exists
-        } else {
-            savePredictionHistory(predictorId, start, filterToSelectedPredictionDistances(start, predictions));
-        }
+        updatePredictions(Collections.singletonMap(predictorId, pb));
     }
 
     @TransactionalWrite
     @Override
-    public void updateOnlyPredictionHistory(PredictionBatch pb, Long predictorId) {
-        validationService.validate(pb);
-        DateTime start = toPredictionResolution(pb.sourceTimestamp);
-        List<Prediction> predictions = normalizeToPredictionWindow(start, pb.predictions);
-        savePredictionHistory(predictorId, start, filterToSelectedPredictionDistances(start, predictions));
-    }
-
-    private List<Prediction> filterToSelectedPredictionDistances(DateTime start, List<Prediction> predictions) {
-        return predictions.stream()
-                .filter(p -> predictionsDistancesToStore.contains(new Duration(start, p.timestamp)))
-                .collect(toList());
-    }
-
-    private static List<Prediction> normalizeToPredictionWindow(DateTime start, List<Prediction> predictions) {
-        DateTime end = start.plus(PREDICTION_WINDOW).minus(PREDICTION_RESOLUTION);
-        return predictions.stream()
-                // remove too fine-grained predictions
-                .collect(groupByRoundedTimeKeepingNewest()) // -> Map<DateTime, Prediction>
-                .values().stream()
-                        // normalize resolution
-                .map(roundTimestampsToPredictionResolution())
-                        // interpolate too coarse-grained predictions
-                .sorted(Comparator.comparing(p -> p.timestamp))
-                .map(Collections::singletonList)                            // 1. wrap values in immutable singleton lists
-                .reduce(new ArrayList<>(), linearInterpolation()).stream()  // 2. mutable ArrayList as accumulator
-                        // normalize range
-                .filter(isWithin(start, end)) // after interpolation because of PredictionDaoTest.does_linear_interpolation_also_between_values_outside_the_prediction_window
-                .collect(toList());
-    }
-
-    private static Predicate<Prediction> isWithin(DateTime start, DateTime end) {
-        return p -> !p.timestamp.isBefore(start) && !p.timestamp.isAfter(end);
-    }
-
-    private static Function<Prediction, Prediction> roundTimestampsToPredictionResolution() {
-        return p -> new Prediction(toPredictionResolution(p.timestamp), p.spacesAvailable);
+    public void updatePredictions(Map<Long, PredictionBatch> predictionsByPredictorId) {
+        if (predictionsByPredictorId.isEmpty()) {
+            return;
+        }
+        predictionsByPredictorId.values().forEach(validationService::validate);
+        Map<UtilizationKey, PredictionCache.Curve> saved = initializePredictionLookupTable(predictionsByPredictorId.values().stream()
+                .map(pb -> pb.utilizationKey)
+                .collect(toSet()));
+
+        // PostgreSQL 9.3 has no INSERT ... ON CONFLICT, so the lookup rows are created first and then updated in batches
+        Map<BitSet, SQLUpdateClause> updatesByColumns = new HashMap<>();
+        SQLUpdateClause startUpdate = queryFactory.update(qPrediction);
+        HistoryBatch history = new HistoryBatch();
+        List<PredictionCache.Curve> written = new ArrayList<>();
+        predictionsByPredictorId.forEach((predictorId, pb) -> {
+            PredictionSlots slots = PredictionSlots.normalize(toPredictionResolution(pb.sourceTimestamp), pb.predictions);
+            PredictionCache.Curve curve = saved.get(pb.utilizationKey);
+            if (isUnchanged(curve, slots)) {
+                // the saved values are valid for the new window too, so only its start is moved; the history is still
+                // written for the new timestamps, because the predictions are scored against it
+                if (!slots.start.isEqual(curve.start)) {
+                    addPredictionStartUpdate(startUpdate, pb.utilizationKey, slots.start);
+                    history.add(predictorId, slots);
+                    written.add(curve.withStart(slots.start));
+                }
+            } else {
+                addPredictionLookupTableUpdate(updatesByColumns, pb.utilizationKey, slots);
+                history.add(predictorId, slots);
+                written.add((curve != null ? curve : PredictionCache.Curve.empty(pb.utilizationKey)).withPredictions(slots));
+            }
+        });
+        if (updatesByColumns.isEmpty() && startUpdate.isEmpty()) {
+            log.debug("Predictions of {} predictors unchanged, nothing to write", predictionsByPredictorId.size());
+            return;
+        }
+        updatesByColumns.values().forEach(SQLUpdateClause::execute);
+        if (!startUpdate.isEmpty()) {
+            startUpdate.execute();
+        }
+        history.save();
+        predictionCache.curvesSaved(written);
     }
 
-    private static Collector<Prediction, ?, Map<DateTime, Prediction>> groupByRoundedTimeKeepingNewest() {
-        return Collectors.toMap(
-                p -> toPredictionResolution(p.timestamp),
-                Function.identity(),
-                (a, b) -> a.timestamp.isAfter(b.timestamp) ? a : b,
-                HashMap::new
-        );
+    /**
+     * @return true if the saved predictions are within the tolerance of all the new predictions; the slots at the end
+     * of the new window are compared to the saved values of one window earlier, which would otherwise be overwritten
+     */
+    private boolean isUnchanged(PredictionCache.Curve curve, PredictionSlots slots) {
+        if (unchangedTolerance < 0 || curve == null || curve.start == null || slots.start.isBefore(curve.start)) {
+            return false;
+        }
+        BitSet predictedSlots = slots.getPredictedSlots();
+        for (int slot = predictedSlots.nextSetBit(0); slot >= 0; slot = predictedSlots.nextSetBit(slot + 1)) {
+            int saved = curve.getBySlot(slot);
+            if (saved == PredictionCache.NO_PREDICTION || Math.abs(saved - slots.getBySlot(slot)) > unchangedTolerance) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private static BinaryOperator<List<Prediction>> linearInterpolation() {
-        return (interpolated, input) -> {
-            if (input.size() != 1) {
-                throw new IllegalArgumentException("expected one element, but got " + input);
-            }
-            if (interpolated.isEmpty()) {
-                interpolated.addAll(input);
-                return interpolated;
-            }
-            Prediction previous = interpolated.get(interpolated.size() - 1);
-            Prediction next = input.get(0);
-            for (DateTime timestamp = previous.timestamp.plus(PREDICTION_RESOLUTION);
-                 timestamp.isBefore(next.timestamp);
-                 timestamp = timestamp.plus(PREDICTION_RESOLUTION)) {
-                double totalDuration = new Duration(previous.timestamp, next.timestamp).getMillis();
-                double currentDuration = new Duration(previous.timestamp, timestamp).getMillis();
-                double proportion = currentDuration / totalDuration;
-                int totalChange = next.spacesAvailable - previous.spacesAvailable;
-                int currentChange = (int) Math.round(totalChange * proportion);
-                int spacesAvailable = previous.spacesAvailable + currentChange;
-                interpolated.add(new Prediction(timestamp, spacesAvailable));
-            }
-            interpolated.add(next);
-            return interpolated;
-        };
+    @TransactionalWrite
+    @Override
+    public void updateOnlyPredictionHistory(PredictionBatch pb, Long predictorId) {
+        validationService.validate(pb);
+        HistoryBatch history = new HistoryBatch();
+        history.add(predictorId, PredictionSlots.normalize(toPredictionResolution(pb.sourceTimestamp), pb.predictions));
+        history.save();
     }
 
-    private void initializePredictionLookupTable(UtilizationKey utilizationKey) {
-        queryFactory.insert(qPrediction)
-                .set(qPrediction.facilityId, utilizationKey.facilityId)
-                .set(qPrediction.capacityType, utilizationKey.capacityType)
-                .set(qPrediction.usage, utilizationKey.usage)
-                .execute();
+    /**
+     * @return the saved predictions of the utilization keys whose lookup rows already existed
+     */
+    private Map<UtilizationKey, PredictionCache.Curve> initializePredictionLookupTable(Set<UtilizationKey> utilizationKeys) {
+        Map<UtilizationKey, PredictionCache.Curve> existing = queryFactory.from(qPrediction)
+                .where(PredictorDao.utilizationKeyIn(utilizationKeys, qPrediction.facilityId, qPrediction.capacityType, qPrediction.usage))
+                .select(curveColumns())
+                .fetch().stream()
+                .map(PredictionDao::toCurve)
+                .collect(Collectors.toMap(curve -> curve.utilizationKey, Function.identity()));
+        SQLInsertClause insert = queryFactory.insert(qPrediction);
+        utilizationKeys.stream()
+                .filter(utilizationKey -> !existing.containsKey(utilizationKey))
+                .forEach(utilizationKey -> insert
+                        .set(qPrediction.facilityId, utilizationKey.facilityId)
+                        .set(qPrediction.capacityType, utilizationKey.capacityType)
+                        .set(qPrediction.usage, utilizationKey.usage)
+                        .addBatch());
+        if (!insert.isEmpty()) {
+            insert.execute();
+        }
+        return existing;
     }
 
-    private long maybeUpdatePredictionLookupTable(UtilizationKey utilizationKey, DateTime start, List<Prediction> predictions) {
-        SQLUpdateClause update = queryFactory.update(qPrediction)
+    private static void addPredictionStartUpdate(SQLUpdateClause update, UtilizationKey utilizationKey, DateTime start) {
+        update.set(qPrediction.start, start)
                 .where(qPrediction.facilityId.eq(utilizationKey.facilityId),
                         qPrediction.capacityType.eq(utilizationKey.capacityType),
                         qPrediction.usage.eq(utilizationKey.usage))
-                .set(qPrediction.start, start);
-        predictions.forEach(p -> update.set(spacesAvailableAt(p.timestamp), p.spacesAvailable));
+                .addBatch();
+    }
 
-        return update.execute();
+    private void addPredictionLookupTableUpdate(Map<BitSet, SQLUpdateClause> updatesByColumns,
+                                                UtilizationKey utilizationKey, PredictionSlots slots) {
+        // all rows of a batch are executed with the SQL of the first row, so the rows are grouped by their columns,
+        // which are set in slot order; predictions covering the whole window all go to the same batch
+        BitSet predictedSlots = slots.getPredictedSlots();
+        SQLUpdateClause update = updatesByColumns.computeIfAbsent(predictedSlots, columns -> queryFactory.update(qPrediction));
+        update.set(qPrediction.start, slots.start);
+        for (int slot = predictedSlots.nextSetBit(0); slot >= 0; slot = predictedSlots.nextSetBit(slot + 1)) {
+            update.set(spacesAvailableColumnsBySlot.get(slot), slots.getBySlot(slot));
+        }
+        update.where(qPrediction.facilityId.eq(utilizationKey.facilityId),
+                qPrediction.capacityType.eq(utilizationKey.capacityType),
+                qPrediction.usage.eq(utilizationKey.usage))
+                .addBatch();
     }
 
-    private void savePredictionHistory(Long predictorId, DateTime start, List<Prediction> predictions) {
-        if (predictions.isEmpty()) {
-            return;
+    /**
+     * Replaces the prediction history rows of the same predictor, forecast distance and time, so that
+     * predicting again for the same utilization doesn't fail on a primary key conflict.
+     */
+    private class HistoryBatch {
+        private final SQLDeleteClause delete = queryFactory.delete(qPredictionHistory);
+        private final SQLInsertClause insert = queryFactory.insert(qPredictionHistory);
+
+        void add(Long predictorId, PredictionSlots slots) {
+            for (int index : historyIndexes) {
+                int spacesAvailable = slots.getAt(index);
+                if (spacesAvailable == PredictionCache.NO_PREDICTION) {
+                    continue;
+                }
+                int forecastDistanceInMinutes = index * PREDICTION_RESOLUTION.getMinutes();
+                DateTime timestamp = slots.timestampAt(index);
+                delete.where(qPredictionHistory.predictorId.eq(predictorId),
+                        qPredictionHistory.forecastDistanceInMinutes.eq(forecastDistanceInMinutes),
+                        qPredictionHistory.ts.eq(timestamp))
+                        .addBatch();
+                insert.set(qPredictionHistory.predictorId, predictorId)
+                        .set(qPredictionHistory.forecastDistanceInMinutes, forecastDistanceInMinutes)
+                        .set(qPredictionHistory.ts, timestamp)
+                        .set(qPredictionHistory.spacesAvailable, spacesAvailable)
+                        .addBatch();
+            }
         }
-        SQLInsertClause insert = queryFactory.insert(qPredictionHistory);
-        predictions.forEach(p -> insert
-                .set(qPredictionHistory.predictorId, predictorId)
-                .set(qPredictionHistory.forecastDistanceInMinutes, ((int) new Duration(start, p.timestamp).getStandardMinutes()))
-                .set(qPredictionHistory.ts, p.timestamp)
-                .set(qPredictionHistory.spacesAvailable, p.spacesAvailable)
-                .addBatch());
-        try {
-            insert.execute();
-        } catch (QueryException e) {
-            // XXX: upsert would be a better way to ignore primary key conflicts, but this shall do for now
-            log.error("Failed save prediction history for predictor " + predictorId, e);
+
+        void save() {
+            if (!insert.isEmpty()) {
+                delete.execute();
+                insert.execute();
+            }
         }
     }
 
-    @TransactionalRead
     @Override
     public Optional<PredictionBatch> getPrediction(UtilizationKey utilizationKey, DateTime time) {
-        return asOptional(queryFactory
-                .from(qPrediction)
-                .select(predictionMapping(time))
-                .where(qPrediction.facilityId.eq(utilizationKey.facilityId),
-                        qPrediction.capacityType.eq(utilizationKey.capacityType),
-                        qPrediction.usage.eq(utilizationKey.usage))
-                .where(isWithinPredictionWindow(time))
-                .fetchOne());
+        DateTime t = toPredictionResolution(time);
+        return cachedPredictions().get(utilizationKey)
+                .filter(curve -> curve.isWithinPredictionWindow(t))
+                .map(curve -> toPredictionBatch(curve, t))
+                .filter(pb -> !pb.predictions.isEmpty());
     }
 
-    @TransactionalRead
     @Override
     public List<PredictionBatch> getPredictionsByFacility(Long facilityId, DateTime time) {
-        return queryFactory
-                .from(qPrediction)
-                .select(predictionMapping(time))
-                .where(qPrediction.facilityId.eq(facilityId))
-                .where(isWithinPredictionWindow(time))
-                .fetch();
+        return getPredictionsByFacilities(Collections.singleton(facilityId), time);
+    }
+
+    @Override
+    public List<PredictionBatch> getPredictionsByFacilities(Collection<Long> facilityIds, DateTime time) {
+        DateTime t = toPredictionResolution(time);
+        PredictionCache.Snapshot snapshot = cachedPredictions();
+        return facilityIds.stream()
+                .distinct()
+                .flatMap(facilityId -> snapshot.getByFacility(facilityId).stream())
+                .filter(curve -> curve.isWithinPredictionWindow(t))
+                .map(curve -> toPredictionBatch(curve, t))
+                .collect(toList());
+    }
+
+    @Override
+    public List<PredictionBatch> getPredictionsByFacilities(Collection<Long> facilityIds, DateTime start, Minutes step, int count) {
+        if (!start.equals(toPredictionResolution(start))) {
+            throw new IllegalArgumentException("Start is not in prediction resolution: " + start);
+        }
+        if (step.getMinutes() <= 0 || step.getMinutes() % PREDICTION_RESOLUTION.getMinutes() != 0) {
+            throw new IllegalArgumentException("Step is not a positive multiple of the prediction resolution: " + step);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count: " + count);
+        }
+        PredictionCache.Snapshot snapshot = cachedPredictions();
+        return facilityIds.stream()
+                .distinct()
+                .flatMap(facilityId -> snapshot.getByFacility(facilityId).stream())
+                .map(curve -> {
+                    PredictionBatch pb = new PredictionBatch();
+                    pb.utilizationKey = curve.utilizationKey;
+                    pb.sourceTimestamp = curve.start;
+                    for (int i = 0; i < count; i++) {
+                        DateTime time = start.plus(step.multipliedBy(i));
+                        if (curve.isWithinPredictionWindow(time)) {
+                            curve.spacesAvailableAt(time).ifPresent(spacesAvailable -> pb.predictions.add(new Prediction(time, spacesAvailable)));
+                        }
+                    }
+                    return pb;
+                })
+                .filter(pb -> !pb.predictions.isEmpty())
+                .collect(toList());
     }
 
     @TransactionalRead
@@ -236,62 +335,157 @@ public class PredictionDao implements PredictionRepository {
                 .fetch();
     }
 
+    @TransactionalWrite
+    @Override
+    public int updatePredictionAccuracy(DateTime start, DateTime end, Minutes maxUtilizationAge) {
+        SQLQuery<Integer> actualSpacesAvailable = SQLExpressions.select(qUtilization.spacesAvailable)
+                .from(qUtilization)
+                .where(qUtilization.facilityId.eq(qPredictor.facilityId),
+                        qUtilization.capacityType.eq(qPredictor.capacityType),
+                        qUtilization.usage.eq(qPredictor.usage),
+                        qUtilization.ts.loe(qPredictionHistory.ts),
+                        qUtilization.ts.gt(SQLExpressions.addMinutes(qPredictionHistory.ts, -maxUtilizationAge.getMinutes())))
+                .orderBy(qUtilization.ts.desc())
+                .limit(1);
+        // null when there is no recent enough utilization before the predicted time, so that the aggregates skip it
+        NumberExpression<Long> error = qPredictionHistory.spacesAvailable.subtract(actualSpacesAvailable).castToNum(Long.class);
+        NumberExpression<Long> sampleCount = error.count();
+        NumberExpression<Long> sumError = error.sum();
+        NumberExpression<Long> sumAbsoluteError = error.abs().sum();
+        Expression<DateTime> scoredUntil = qPredictionHistory.ts.max();
+
+        List<Tuple> scores = queryFactory.from(qPredictionHistory)
+                .innerJoin(qPredictor).on(qPredictor.id.eq(qPredictionHistory.predictorId))
+                .leftJoin(qAccuracy).on(qAccuracy.predictorId.eq(qPredictionHistory.predictorId),
+                        qAccuracy.forecastDistanceInMinutes.eq(qPredictionHistory.forecastDistanceInMinutes))
+                .where(qPredictionHistory.ts.gt(start),
+                        qPredictionHistory.ts.loe(end),
+                        qAccuracy.scoredUntil.isNull().or(qPredictionHistory.ts.gt(qAccuracy.scoredUntil)))
+                .groupBy(qPredictionHistory.predictorId, qPredictionHistory.forecastDistanceInMinutes, qAccuracy.predictorId)
+                .select(qPredictionHistory.predictorId, qPredictionHistory.forecastDistanceInMinutes, qAccuracy.predictorId,
+                        sampleCount, sumError, sumAbsoluteError, scoredUntil)
+                .fetch();
+
+        SQLInsertClause insert = queryFactory.insert(qAccuracy);
+        SQLUpdateClause update = queryFactory.update(qAccuracy);
+        for (Tuple row : scores) {
+            Long predictorId = row.get(qPredictionHistory.predictorId);
+            Integer forecastDistanceInMinutes = row.get(qPredictionHistory.forecastDistanceInMinutes);
+            long count = zeroIfNull(row.get(sampleCount));
+            long errors = zeroIfNull(row.get(sumError));
+            long absoluteErrors = zeroIfNull(row.get(sumAbsoluteError));
+            if (row.get(qAccuracy.predictorId) == null) {
+                insert.set(qAccuracy.predictorId, predictorId)
+                        .set(qAccuracy.forecastDistanceInMinutes, forecastDistanceInMinutes)
+                        .set(qAccuracy.sampleCount, count)
+                        .set(qAccuracy.sumError, errors)
+                        .set(qAccuracy.sumAbsoluteError, absoluteErrors)
+                        .set(qAccuracy.scoredUntil, row.get(scoredUntil))
+                        .addBatch();
+            } else {
+                update.set(qAccuracy.sampleCount, qAccuracy.sampleCount.add(count))
+                        .set(qAccuracy.sumError, qAccuracy.sumError.add(errors))
+                        .set(qAccuracy.sumAbsoluteError, qAccuracy.sumAbsoluteError.add(absoluteErrors))
+                        .set(qAccuracy.scoredUntil, row.get(scoredUntil))
+                        .where(qAccuracy.predictorId.eq(predictorId),
+                                qAccuracy.forecastDistanceInMinutes.eq(forecastDistanceInMinutes))
+                        .addBatch();
+            }
+        }
+        if (!insert.isEmpty()) {
+            insert.execute();
+        }
+        if (!update.isEmpty()) {
+            update.execute();
+        }
+        return scores.size();
+    }
+
+    @TransactionalRead
+    @Override
+    public List<PredictionAccuracy> getPredictionAccuracy() {
+        return findPredictionAccuracy();
+    }
+
+    @TransactionalRead
+    @Override
+    public List<PredictionAccuracy> getPredictionAccuracyByFacility(long facilityId) {
+        return findPredictionAccuracy(qPredictor.facilityId.eq(facilityId));
+    }
+
+    private List<PredictionAccuracy> findPredictionAccuracy(Predicate... where) {
+        NumberExpression<Long> sampleCount = qAccuracy.sampleCount.sum();
+        NumberExpression<Long> sumError = qAccuracy.sumError.sum();
+        NumberExpression<Long> sumAbsoluteError = qAccuracy.sumAbsoluteError.sum();
+        return queryFactory.from(qAccuracy)
+                .innerJoin(qPredictor).on(qPredictor.id.eq(qAccuracy.predictorId))
+                .where(where)
+                .groupBy(qPredictor.type, qAccuracy.forecastDistanceInMinutes)
+                .orderBy(qPredictor.type.asc(), qAccuracy.forecastDistanceInMinutes.asc())
+                .select(qPredictor.type, qAccuracy.forecastDistanceInMinutes, sampleCount, sumError, sumAbsoluteError)
+                .fetch().stream()
+                .map(row -> new PredictionAccuracy(
+                        row.get(qPredictor.type),
+                        row.get(qAccuracy.forecastDistanceInMinutes),
+                        zeroIfNull(row.get(sampleCount)),
+                        zeroIfNull(row.get(sumError)),
+                        zeroIfNull(row.get(sumAbsoluteError))))
+                .collect(toList());
+    }
+
+    private static long zeroIfNull(Long value) {
+        return value == null ? 0 : value;
+    }
+
     private Expression<Prediction> historyToPredictionMapping() {
         return Projections.constructor(Prediction.class, qPredictionHistory.ts, qPredictionHistory.spacesAvailable);
     }
 
-    private static BooleanExpression isWithinPredictionWindow(DateTime time) {
-        time = toPredictionResolution(time);
-        return qPrediction.start.between(time.minus(PREDICTION_WINDOW).plus(PREDICTION_RESOLUTION), time);
+    /**
+     * Reading the cached predictions needs no transaction; one is started only if the predictions must be loaded.
+     */
+    private PredictionCache.Snapshot cachedPredictions() {
+        return predictionCache.get(() -> readTxTemplate.execute(tx -> loadPredictionCurves()));
     }
 
-    private static MappingProjection<PredictionBatch> predictionMapping(DateTime timeWithFullPrecision) {
-        DateTime time = toPredictionResolution(timeWithFullPrecision);
-        Path<Integer> spacesAvailableColumn = spacesAvailableAt(time);
-        return new MappingProjection<PredictionBatch>(PredictionBatch.class,
-                qPrediction.facilityId,
-                qPrediction.capacityType,
-                qPrediction.usage,
-                qPrediction.start,
-                spacesAvailableColumn) {
-            @Override
-            protected PredictionBatch map(Tuple row) {
-                PredictionBatch pb = new PredictionBatch();
-                pb.utilizationKey = new UtilizationKey(
-                        row.get(qPrediction.facilityId),
-                        row.get(qPrediction.capacityType),
-                        row.get(qPrediction.usage)
-                );
-                pb.sourceTimestamp = row.get(qPrediction.start);
-                Integer spacesAvailable = row.get(spacesAvailableColumn);
-                if (spacesAvailable != null) {
-                    pb.predictions.add(new Prediction(time, spacesAvailable));
-                }
-                return pb;
-            }
-        };
+    private List<PredictionCache.Curve> loadPredictionCurves() {
+        return queryFactory.from(qPrediction)
+                .select(curveColumns())
+                .where(qPrediction.start.isNotNull())
+                .fetch().stream()
+                .map(PredictionDao::toCurve)
+                .collect(toList());
     }
 
-    private static Path<Integer> spacesAvailableAt(DateTime timestamp) {
-        // Also other parts of this class assume prediction resolution,
-        // so we don't do the rounding here, but require the timestamp
-        // to already have been properly rounded.
-        assert timestamp.equals(toPredictionResolution(timestamp)) : "not in prediction resolution: " + timestamp;
+    private static Expression<?>[] curveColumns() {
+        List<Expression<?>> columns = new ArrayList<>(Arrays.asList(
+                qPrediction.facilityId, qPrediction.capacityType, qPrediction.usage, qPrediction.start));
+        columns.addAll(spacesAvailableColumnsBySlot);
+        return columns.toArray(new Expression<?>[columns.size()]);
+    }
 
-        String hhmm = DateTimeFormat.forPattern("HHmm").print(timestamp.withZone(DateTimeZone.UTC));
-        return spacesAvailableColumnsByHHmm.get(hhmm);
+    private static PredictionCache.Curve toCurve(Tuple row) {
+        int[] spacesAvailable = new int[PredictionCache.SLOTS];
+        for (int slot = 0; slot < spacesAvailable.length; slot++) {
+            Integer value = row.get(spacesAvailableColumnsBySlot.get(slot));
+            spacesAvailable[slot] = value == null ? PredictionCache.NO_PREDICTION : value;
+        }
+        return new PredictionCache.Curve(
+                new UtilizationKey(row.get(qPrediction.facilityId), row.get(qPrediction.capacityType), row.get(qPrediction.usage)),
+                row.get(qPrediction.start),
+                spacesAvailable);
     }
 
-    static DateTime toPredictionResolution(DateTime time) {
-        return TimeUtil.roundMinutes(PREDICTION_RESOLUTION.getMinutes(), time);
+    private static PredictionBatch toPredictionBatch(PredictionCache.Curve curve, DateTime time) {
+        PredictionBatch pb = new PredictionBatch();
+        pb.utilizationKey = curve.utilizationKey;
+        pb.sourceTimestamp = curve.start;
+        curve.spacesAvailableAt(time).ifPresent(spacesAvailable -> pb.predictions.add(new Prediction(time, spacesAvailable)));
+        return pb;
     }
 
-    private static Optional<PredictionBatch> asOptional(PredictionBatch pb) {
-        if (pb == null || pb.predictions.isEmpty()) {
-            return Optional.empty();
-        } else {
-            return Optional.of(pb);
-        }
+    static DateTime toPredictionResolution(DateTime time) {
+        return TimeUtil.roundMinutes(PREDICTION_RESOLUTION.getMinutes(), time);
     }
 
     @SuppressWarnings("unchecked")
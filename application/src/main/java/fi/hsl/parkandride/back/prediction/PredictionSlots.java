@@ -0,0 +1,177 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back.prediction;
+
+import fi.hsl.parkandride.core.domain.prediction.Prediction;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static fi.hsl.parkandride.back.prediction.PredictionCache.NO_PREDICTION;
+import static fi.hsl.parkandride.back.prediction.PredictionCache.SLOTS;
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+
+/**
+ * The predictions of one prediction window in prediction resolution, in slots indexed by the time of day (in UTC)
+ * like the columns of the facility_prediction table. Since the window is one day long, each slot has one timestamp
+ * in the window; the slot at index 0 of the window is the one of the start time.
+ * <p>
+ * Besides saving predictions, this is used for scoring predictions the same way they would have been saved.
+ */
+public final class PredictionSlots {
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final int RESOLUTION_MINUTES = PREDICTION_RESOLUTION.getMinutes();
+    private static final long NO_SOURCE = Long.MIN_VALUE;
+
+    public final DateTime start;
+    private final int startSlot;
+    private final int[] spacesAvailable;
+
+    private PredictionSlots(DateTime start, int[] spacesAvailable) {
+        this.start = start;
+        this.startSlot = (int) Math.floorMod(stepOf(start.getMillis()), (long) SLOTS);
+        this.spacesAvailable = spacesAvailable;
+    }
+
+    /**
+     * Rounds the predictions to prediction resolution, keeping the newest of the predictions which are rounded
+     * to the same time, interpolates linearly between them, and leaves out the predictions outside the window.
+     * The predictions outside the window are used for interpolating into the window.
+     *
+     * @param start in prediction resolution
+     */
+    public static PredictionSlots normalize(DateTime start, List<Prediction> predictions) {
+        long startStep = stepOf(start.getMillis());
+        int[] values = new int[SLOTS];
+        long[] sourceMillis = new long[SLOTS];
+        Arrays.fill(sourceMillis, NO_SOURCE);
+        // the nearest predictions on both sides of the window
+        long beforeIndex = Long.MIN_VALUE, afterIndex = Long.MAX_VALUE;
+        long beforeMillis = NO_SOURCE, afterMillis = NO_SOURCE;
+        int beforeValue = 0, afterValue = 0;
+
+        for (Prediction p : predictions) {
+            long millis = p.timestamp.getMillis();
+            long index = stepOf(millis) - startStep;
+            if (index < 0) {
+                if (index > beforeIndex || (index == beforeIndex && millis >= beforeMillis)) {
+                    beforeIndex = index;
+                    beforeMillis = millis;
+                    beforeValue = p.spacesAvailable;
+                }
+            } else if (index >= SLOTS) {
+                if (index < afterIndex || (index == afterIndex && millis >= afterMillis)) {
+                    afterIndex = index;
+                    afterMillis = millis;
+                    afterValue = p.spacesAvailable;
+                }
+            } else if (millis >= sourceMillis[(int) index]) {
+                values[(int) index] = p.spacesAvailable;
+                sourceMillis[(int) index] = millis;
+            }
+        }
+
+        PredictionSlots slots = new PredictionSlots(start, new int[SLOTS]);
+        Arrays.fill(slots.spacesAvailable, NO_PREDICTION);
+        long previousIndex = beforeIndex;
+        int previousValue = beforeValue;
+        for (int i = 0; i < SLOTS; i++) {
+            if (sourceMillis[i] != NO_SOURCE) {
+                if (previousIndex != Long.MIN_VALUE) {
+                    slots.interpolate(previousIndex, previousValue, i, values[i]);
+                }
+                slots.set(i, values[i]);
+                previousIndex = i;
+                previousValue = values[i];
+            }
+        }
+        if (previousIndex != Long.MIN_VALUE && afterIndex != Long.MAX_VALUE) {
+            slots.interpolate(previousIndex, previousValue, afterIndex, afterValue);
+        }
+        return slots;
+    }
+
+    /**
+     * Sets the slots between the indexes, exclusive, which are inside the window.
+     */
+    private void interpolate(long fromIndex, int fromValue, long toIndex, int toValue) {
+        int totalChange = toValue - fromValue;
+        long distance = toIndex - fromIndex;
+        for (long i = Math.max(fromIndex + 1, 0); i < Math.min(toIndex, SLOTS); i++) {
+            double proportion = (double) (i - fromIndex) / distance;
+            set((int) i, fromValue + (int) Math.round(totalChange * proportion));
+        }
+    }
+
+    /**
+     * Number of whole prediction resolution steps since the epoch, rounded like {@link PredictionDao#toPredictionResolution(DateTime)}.
+     */
+    static long stepOf(long millis) {
+        long minute = Math.floorDiv(millis, MILLIS_PER_MINUTE);
+        long remainder = Math.floorMod(minute, (long) RESOLUTION_MINUTES);
+        return (minute - remainder) / RESOLUTION_MINUTES + (remainder * 2 >= RESOLUTION_MINUTES ? 1 : 0);
+    }
+
+    private void set(int index, int value) {
+        spacesAvailable[slotAt(index)] = value;
+    }
+
+    /**
+     * @param index distance from the start in prediction resolution steps
+     * @return the spaces available, or {@link PredictionCache#NO_PREDICTION}
+     */
+    public int getAt(int index) {
+        return spacesAvailable[slotAt(index)];
+    }
+
+    public boolean isPredictedAt(int index) {
+        return getAt(index) != NO_PREDICTION;
+    }
+
+    /**
+     * @return the spaces available by the time of day slot, or {@link PredictionCache#NO_PREDICTION}
+     */
+    int getBySlot(int slot) {
+        return spacesAvailable[slot];
+    }
+
+    /**
+     * @return the time of day slot of the index
+     */
+    int slotAt(int index) {
+        return (startSlot + index) % SLOTS;
+    }
+
+    public DateTime timestampAt(int index) {
+        return start.plus(PREDICTION_RESOLUTION.multipliedBy(index));
+    }
+
+    /**
+     * @return the time of day slots which have a prediction
+     */
+    BitSet getPredictedSlots() {
+        BitSet predicted = new BitSet(SLOTS);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (spacesAvailable[slot] != NO_PREDICTION) {
+                predicted.set(slot);
+            }
+        }
+        return predicted;
+    }
+
+    List<Prediction> toPredictions() {
+        List<Prediction> predictions = new ArrayList<>();
+        for (int i = 0; i < SLOTS; i++) {
+            int value = getAt(i);
+            if (value != NO_PREDICTION) {
+                predictions.add(new Prediction(timestampAt(i), value));
+            }
+        }
+        return predictions;
+    }
+}
@@ -3,25 +3,54 @@
 
 package fi.hsl.parkandride.back.prediction;
 
+import com.querydsl.core.QueryException;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
 import com.querydsl.core.Tuple;
 import com.querydsl.sql.SQLExpressions;
+import com.querydsl.sql.dml.SQLInsertClause;
+import com.querydsl.sql.dml.SQLUpdateClause;
 import com.querydsl.sql.postgresql.PostgreSQLQueryFactory;
+import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.MappingProjection;
 import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.core.types.dsl.SimpleExpression;
 import fi.hsl.parkandride.back.sql.QPredictor;
 import fi.hsl.parkandride.core.back.PredictorRepository;
+import fi.hsl.parkandride.core.domain.CapacityType;
+import fi.hsl.parkandride.core.domain.Usage;
 import fi.hsl.parkandride.core.domain.UtilizationKey;
 import fi.hsl.parkandride.core.domain.prediction.PredictorState;
 import fi.hsl.parkandride.core.service.TransactionalRead;
 import fi.hsl.parkandride.core.service.TransactionalWrite;
 import fi.hsl.parkandride.core.service.ValidationService;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+import static fi.hsl.parkandride.back.SavepointUtil.releaseSavepoint;
+import static fi.hsl.parkandride.back.SavepointUtil.rollback;
+import static fi.hsl.parkandride.back.SavepointUtil.setSavepoint;
+import static org.springframework.transaction.annotation.Isolation.READ_COMMITTED;
+import static org.springframework.transaction.annotation.Propagation.REQUIRES_NEW;
 
 public class PredictorDao implements PredictorRepository {
 
+    private static final Logger log = LoggerFactory.getLogger(PredictorDao.class);
+
     public static final String PREDICTOR_ID_SEQ = "facility_id_seq";
     private static final SimpleExpression<Long> nextPredictorId = SQLExpressions.nextval(PREDICTOR_ID_SEQ);
 
@@ -35,6 +64,7 @@ public class PredictorDao implements PredictorRepository {
             state.latestUtilization = row.get(qPredictor.latestUtilization);
             state.moreUtilizations = row.get(qPredictor.moreUtilizations);
             state.internalState = row.get(qPredictor.internalState);
+            state.signalVersion = row.get(qPredictor.signalVersion);
             return state;
         }
     };
@@ -48,6 +78,26 @@ public class PredictorDao implements PredictorRepository {
     }
 
 
+    private static Predicate utilizationKeyIn(Collection<UtilizationKey> utilizationKeys) {
+        return utilizationKeyIn(utilizationKeys, qPredictor.facilityId, qPredictor.capacityType, qPredictor.usage);
+    }
+
+    /**
+     * (facility_id, capacity_type, usage) IN ((?, ?, ?), ...)
+     */
+    static Predicate utilizationKeyIn(Collection<UtilizationKey> utilizationKeys,
+                                      Expression<Long> facilityId, Expression<CapacityType> capacityType, Expression<Usage> usage) {
+        @SuppressWarnings("unchecked")
+        SimpleExpression<Tuple>[] rows = utilizationKeys.stream()
+                .map(key -> Expressions.list(
+                        Expressions.constant(key.facilityId),
+                        Expressions.constant(key.capacityType.name()),
+                        Expressions.constant(key.usage.name())))
+                .toArray(SimpleExpression[]::new);
+        return Expressions.list(facilityId, capacityType, usage).in(rows);
+    }
+
+
     private final PostgreSQLQueryFactory queryFactory;
     private final ValidationService validationService;
 
@@ -78,16 +128,62 @@ public class PredictorDao implements PredictorRepository {
         return enablePredictor(predictorType, utilizationKey);
     }
 
+    @TransactionalWrite
+    @Override
+    public void enablePredictors(Collection<String> predictorTypes, Collection<UtilizationKey> utilizationKeys) {
+        if (predictorTypes.isEmpty() || utilizationKeys.isEmpty()) {
+            return;
+        }
+        utilizationKeys.forEach(validationService::validate);
+        Multimap<String, UtilizationKey> existing = HashMultimap.create();
+        queryFactory.from(qPredictor)
+                .where(qPredictor.type.in(predictorTypes), utilizationKeyIn(utilizationKeys))
+                .select(qPredictor.type, qPredictor.facilityId, qPredictor.capacityType, qPredictor.usage)
+                .fetch()
+                .forEach(row -> existing.put(row.get(qPredictor.type), new UtilizationKey(
+                        row.get(qPredictor.facilityId), row.get(qPredictor.capacityType), row.get(qPredictor.usage))));
+
+        // PostgreSQL 9.3 has no INSERT ... ON CONFLICT, so insert only the missing predictors in one batch
+        SQLInsertClause insert = queryFactory.insert(qPredictor);
+        for (UtilizationKey utilizationKey : utilizationKeys) {
+            for (String predictorType : predictorTypes) {
+                if (!existing.containsEntry(predictorType, utilizationKey)) {
+                    insert.set(qPredictor.id, nextPredictorId)
+                            .set(qPredictor.type, predictorType)
+                            .set(qPredictor.facilityId, utilizationKey.facilityId)
+                            .set(qPredictor.capacityType, utilizationKey.capacityType)
+                            .set(qPredictor.usage, utilizationKey.usage)
+                            .addBatch();
+                }
+            }
+        }
+        if (!insert.isEmpty()) {
+            insert.execute();
+        }
+    }
+
     @TransactionalWrite
     @Override
     public void save(PredictorState state) {
         validationService.validate(state);
-        queryFactory.update(qPredictor)
+        SQLUpdateClause update = queryFactory.update(qPredictor)
                 .set(qPredictor.latestUtilization, state.latestUtilization)
-                .set(qPredictor.moreUtilizations, state.moreUtilizations)
                 .set(qPredictor.internalState, state.internalState)
-                .where(qPredictor.id.eq(state.predictorId))
-                .execute();
+                .setNull(qPredictor.claimToken)
+                .setNull(qPredictor.claimExpires)
+                .where(qPredictor.id.eq(state.predictorId));
+        if (state.moreUtilizations) {
+            update.set(qPredictor.moreUtilizations, true);
+        }
+        update.execute();
+        if (!state.moreUtilizations) {
+            // the update above locked the row, so no signal can slip in between
+            queryFactory.update(qPredictor)
+                    .set(qPredictor.moreUtilizations, false)
+                    .where(qPredictor.id.eq(state.predictorId),
+                            qPredictor.signalVersion.eq(state.signalVersion))
+                    .execute();
+        }
     }
 
     @TransactionalRead
@@ -111,6 +207,17 @@ public class PredictorDao implements PredictorRepository {
                 "No predictors with id " + predictorId);
     }
 
+    @TransactionalRead
+    @Override
+    public List<PredictorState> getByIds(Collection<Long> predictorIds) {
+        if (predictorIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return queryFactory.from(qPredictor)
+                .where(qPredictor.id.in(predictorIds))
+                .select(predictorMapping).fetch();
+    }
+
     @TransactionalRead
     @Override
     public List<PredictorState> findAllPredictors() {
@@ -126,13 +233,95 @@ public class PredictorDao implements PredictorRepository {
                 .select(qPredictor.id).fetch();
     }
 
+    @Transactional(readOnly = false, isolation = READ_COMMITTED, propagation = REQUIRES_NEW)
+    @Override
+    public List<Long> claimPredictorsNeedingUpdate(int limit, Duration claimDuration) {
+        return claim(null, limit, claimDuration);
+    }
+
+    @Transactional(readOnly = false, isolation = READ_COMMITTED, propagation = REQUIRES_NEW)
+    @Override
+    public List<Long> claimPredictorsNeedingUpdate(Collection<UtilizationKey> utilizationKeys, int limit, Duration claimDuration) {
+        if (utilizationKeys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return claim(utilizationKeyIn(utilizationKeys), limit, claimDuration);
+    }
+
+    private List<Long> claim(Predicate utilizationKeyFilter, int limit, Duration claimDuration) {
+        DateTime now = DateTime.now();
+        String claimToken = UUID.randomUUID().toString();
+        Set<Long> taken = new HashSet<>();
+        while (true) {
+            List<Long> candidates = queryFactory.from(qPredictor)
+                    .where(qPredictor.moreUtilizations.eq(true), isUnclaimed(now), utilizationKeyFilter,
+                            taken.isEmpty() ? null : qPredictor.id.notIn(taken))
+                    .orderBy(qPredictor.id.asc())
+                    .limit(limit)
+                    .select(qPredictor.id)
+                    .fetch();
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+            // PostgreSQL 9.3 has no SKIP LOCKED, but in READ COMMITTED a concurrent claimer waits for the row locks
+            // of the other claimer and then re-checks the condition, so that each predictor is claimed only once
+            // H2 fails concurrent updates of the same rows instead of waiting; the failure is rolled back
+            // to a savepoint, because on PostgreSQL any failure would abort the whole transaction
+            Connection connection = queryFactory.getConnection();
+            Savepoint savepoint = setSavepoint(connection);
+            long claimed;
+            try {
+                claimed = queryFactory.update(qPredictor)
+                        .set(qPredictor.claimToken, claimToken)
+                        .set(qPredictor.claimExpires, now.plus(claimDuration))
+                        .where(qPredictor.id.in(candidates),
+                                qPredictor.moreUtilizations.eq(true),
+                                isUnclaimed(now))
+                        .execute();
+                releaseSavepoint(connection, savepoint);
+            } catch (QueryException e) {
+                rollback(connection, savepoint);
+                log.debug("Failed to claim predictors {}, another node is claiming them", candidates, e);
+                claimed = 0;
+            }
+            if (claimed > 0) {
+                return queryFactory.from(qPredictor)
+                        .where(qPredictor.claimToken.eq(claimToken))
+                        .orderBy(qPredictor.id.asc())
+                        .select(qPredictor.id)
+                        .fetch();
+            }
+            // another node claimed all the candidates first, but there may be more predictors needing an update
+            taken.addAll(candidates);
+        }
+    }
+
+    private static Predicate isUnclaimed(DateTime now) {
+        return qPredictor.claimExpires.isNull().or(qPredictor.claimExpires.before(now));
+    }
+
     @TransactionalWrite
     @Override
     public void markPredictorsNeedAnUpdate(UtilizationKey utilizationKey) {
         validationService.validate(utilizationKey);
         queryFactory.update(qPredictor)
                 .set(qPredictor.moreUtilizations, true)
+                .set(qPredictor.signalVersion, qPredictor.signalVersion.add(1L))
                 .where(utilizationKeyEquals(utilizationKey))
                 .execute();
     }
+
+    @TransactionalWrite
+    @Override
+    public void markPredictorsNeedAnUpdate(Collection<UtilizationKey> utilizationKeys) {
+        if (utilizationKeys.isEmpty()) {
+            return;
+        }
+        utilizationKeys.forEach(validationService::validate);
+        queryFactory.update(qPredictor)
+                .set(qPredictor.moreUtilizations, true)
+                .set(qPredictor.signalVersion, qPredictor.signalVersion.add(1L))
+                .where(utilizationKeyIn(utilizationKeys))
+                .execute();
+    }
 }
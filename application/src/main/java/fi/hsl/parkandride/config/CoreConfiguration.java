@@ -5,15 +5,16 @@ package fi.hsl.parkandride.config;
 
 import com.querydsl.sql.postgresql.PostgreSQLQueryFactory;
 import fi.hsl.parkandride.back.*;
+import fi.hsl.parkandride.back.prediction.PredictionCache;
 import fi.hsl.parkandride.back.prediction.PredictionDao;
 import fi.hsl.parkandride.back.prediction.PredictorDao;
 import fi.hsl.parkandride.core.back.*;
-import fi.hsl.parkandride.core.domain.prediction.Predictor;
-import fi.hsl.parkandride.core.domain.prediction.RelativizedAverageOfPreviousWeeksPredictor;
+import fi.hsl.parkandride.core.domain.prediction.*;
 import fi.hsl.parkandride.core.service.*;
 import fi.hsl.parkandride.core.service.reporting.*;
 import org.jasypt.util.password.PasswordEncryptor;
 import org.jasypt.util.password.StrongPasswordEncryptor;
+import org.joda.time.Duration;
 import org.joda.time.format.ISOPeriodFormat;
 import org.joda.time.format.PeriodFormatter;
 import org.slf4j.Logger;
@@ -24,6 +25,9 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
@@ -32,12 +36,14 @@ import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.stream.Stream;
 
 @Configuration
 @Import(JdbcConfiguration.class)
 @EnableTransactionManagement(proxyTargetClass = true)
 @EnableScheduling
-public class CoreConfiguration {
+public class CoreConfiguration implements SchedulingConfigurer {
 
     private static final Logger log = LoggerFactory.getLogger(CoreConfiguration.class);
 
@@ -49,9 +55,45 @@ public class CoreConfiguration {
     @Value("${security.token.expires}") String tokenExpires;
     @Value("${password.expires}") String passwordExpires;
     @Value("${password.reminder}") String passwordReminder;
+    @Value("${facility.cache.maxAgeSeconds}") int facilityCacheMaxAgeSeconds;
+    @Value("${utilization.cache.maxAgeSeconds}") int utilizationCacheMaxAgeSeconds;
+    @Value("${utilization.ingest.async}") boolean utilizationIngestAsync;
+    @Value("${utilization.ingest.queueCapacity}") int utilizationIngestQueueCapacity;
+    @Value("${utilization.ingest.batchSize}") int utilizationIngestBatchSize;
+    @Value("${utilization.ingest.retryAfterSeconds}") int utilizationIngestRetryAfterSeconds;
+    @Value("${utilization.partitions.monthsInAdvance}") int utilizationPartitionsMonthsInAdvance;
+    @Value("${utilization.partitions.retentionMonths}") int utilizationPartitionsRetentionMonths;
+    @Value("${utilization.partitions.archive}") boolean utilizationPartitionsArchive;
+    @Value("${utilization.rollups.catchUpHours}") int utilizationRollupsCatchUpHours;
+    @Value("${prediction.update.concurrency}") int predictionUpdateConcurrency;
+    @Value("${prediction.update.predictorTimeoutSeconds}") int predictionUpdatePredictorTimeoutSeconds;
+    @Value("${spring.datasource.maximumPoolSize}") int dataSourceMaximumPoolSize;
+    @Value("${prediction.predictor}") String predictionPredictor;
+    @Value("${prediction.scheduler.minDelaySeconds}") int predictionSchedulerMinDelaySeconds;
+    @Value("${prediction.scheduler.maxDelaySeconds}") int predictionSchedulerMaxDelaySeconds;
+    @Value("${prediction.cache.maxAgeSeconds}") int predictionCacheMaxAgeSeconds;
+    @Value("${prediction.unchangedTolerance}") int predictionUnchangedTolerance;
+    @Value("${prediction.accuracy.delayMinutes}") int predictionAccuracyDelayMinutes;
+    @Value("${prediction.accuracy.catchUpHours}") int predictionAccuracyCatchUpHours;
+    @Value("${prediction.accuracy.maxUtilizationAgeMinutes}") int predictionAccuracyMaxUtilizationAgeMinutes;
+    @Value("${scheduling.poolSize}") int schedulingPoolSize;
 
     private PeriodFormatter periodFormatter = ISOPeriodFormat.standard();
 
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.setScheduler(taskScheduler());
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        // without a scheduler all the scheduled jobs share one thread, so a long job delays the others
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(schedulingPoolSize);
+        scheduler.setThreadNamePrefix("scheduling-");
+        return scheduler;
+    }
+
     @Bean
     public AuthenticationService authenticationService() {
         return new AuthenticationService(
@@ -153,7 +195,12 @@ public class CoreConfiguration {
 
     @Bean
     public FacilityRepository facilityRepository() {
-        return new FacilityDao(queryFactory, facilityHistoryRepository());
+        return new FacilityDao(queryFactory, facilityHistoryRepository(), facilityCache(), latestUtilizationsCache());
+    }
+
+    @Bean
+    public FacilityCache facilityCache() {
+        return new FacilityCache(Duration.standardSeconds(facilityCacheMaxAgeSeconds));
     }
 
     @Bean
@@ -163,7 +210,29 @@ public class CoreConfiguration {
 
     @Bean
     public FacilityService facilityService() {
-        return new FacilityService(facilityRepository(), utilizationRepository(), contactRepository(), validationService(), predictionService());
+        return new FacilityService(facilityRepository(), utilizationRepository(), contactRepository(), validationService(), predictionService(), utilizationIngestQueue(), latestUtilizationsCache());
+    }
+
+    @Bean
+    public UtilizationPartitionService utilizationPartitionService() {
+        return new UtilizationPartitionService(utilizationRepository(), lockRepository(),
+                utilizationPartitionsMonthsInAdvance, utilizationPartitionsRetentionMonths, utilizationPartitionsArchive);
+    }
+
+    @Bean
+    public UtilizationRollupService utilizationRollupService() {
+        return new UtilizationRollupService(utilizationRepository(), lockRepository(), utilizationRollupsCatchUpHours);
+    }
+
+    @Bean
+    public LatestUtilizationsCache latestUtilizationsCache() {
+        return new LatestUtilizationsCache(Duration.standardSeconds(utilizationCacheMaxAgeSeconds));
+    }
+
+    @Bean
+    public UtilizationIngestQueue utilizationIngestQueue() {
+        return new UtilizationIngestQueue(utilizationRepository(), predictionService(), transactionManager,
+                utilizationIngestAsync, utilizationIngestQueueCapacity, utilizationIngestBatchSize, utilizationIngestRetryAfterSeconds);
     }
 
     @Bean
@@ -183,7 +252,41 @@ public class CoreConfiguration {
 
     @Bean
     public PredictionService predictionService() {
-        return new PredictionService(utilizationRepository(), predictionRepository(), predictorRepository(), facilityRepository(), transactionManager, lockRepository(), predictors());
+        return new PredictionService(utilizationRepository(), predictionRepository(), predictorRepository(), facilityRepository(), transactionManager,
+                predictionUpdateConcurrency(), Duration.standardSeconds(predictionUpdatePredictorTimeoutSeconds),
+                new PredictionUpdateScheduler(Duration.standardSeconds(predictionSchedulerMinDelaySeconds), Duration.standardSeconds(predictionSchedulerMaxDelaySeconds)),
+                predictors());
+    }
+
+    @Bean
+    public PredictionBacktestService predictionBacktestService() {
+        // all predictors are compared, not only the installed ones
+        return new PredictionBacktestService(utilizationRepository(), transactionManager, Arrays.asList(
+                new SameAsLatestPredictor(),
+                new AverageOfPreviousWeeksPredictor(),
+                new RelativizedAverageOfPreviousWeeksPredictor(),
+                new IncrementalRelativizedAveragePredictor(),
+                new HoltWintersPredictor()),
+                Runtime.getRuntime().availableProcessors(),
+                // the prediction updates and requests need connections meanwhile
+                Math.max(1, dataSourceMaximumPoolSize / 2));
+    }
+
+    @Bean
+    public PredictionAccuracyService predictionAccuracyService() {
+        return new PredictionAccuracyService(predictionRepository(), lockRepository(),
+                predictionAccuracyDelayMinutes, predictionAccuracyCatchUpHours, predictionAccuracyMaxUtilizationAgeMinutes);
+    }
+
+    private int predictionUpdateConcurrency() {
+        // each parallel update holds a connection, so leave at least one for serving requests
+        int max = Math.max(1, dataSourceMaximumPoolSize - 1);
+        if (predictionUpdateConcurrency > max) {
+            log.warn("prediction.update.concurrency {} is too large for a connection pool of {}, using {}",
+                    predictionUpdateConcurrency, dataSourceMaximumPoolSize, max);
+            return max;
+        }
+        return Math.max(1, predictionUpdateConcurrency);
     }
 
     @Bean
@@ -193,12 +296,20 @@ public class CoreConfiguration {
 
     @Bean
     public Predictor[] predictors() {
-        return new Predictor[]{new RelativizedAverageOfPreviousWeeksPredictor()};
+        // only one predictor per utilization key may be installed, because their predictions share a table
+        return Stream.<Predictor>of(
+                new RelativizedAverageOfPreviousWeeksPredictor(),
+                new IncrementalRelativizedAveragePredictor(),
+                new HoltWintersPredictor())
+                .filter(predictor -> predictor.getType().equals(predictionPredictor))
+                .map(predictor -> new Predictor[]{predictor})
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown prediction.predictor: " + predictionPredictor));
     }
 
     @Bean
     public UtilizationRepository utilizationRepository() {
-        return new UtilizationDao(queryFactory);
+        return new UtilizationDao(queryFactory, latestUtilizationsCache());
     }
 
     @Bean
@@ -208,7 +319,12 @@ public class CoreConfiguration {
 
     @Bean
     public PredictionRepository predictionRepository() {
-        return new PredictionDao(queryFactory, validationService());
+        return new PredictionDao(queryFactory, validationService(), predictionCache(), transactionManager, predictionUnchangedTolerance);
+    }
+
+    @Bean
+    public PredictionCache predictionCache() {
+        return new PredictionCache(Duration.standardSeconds(predictionCacheMaxAgeSeconds));
     }
 
     @Bean
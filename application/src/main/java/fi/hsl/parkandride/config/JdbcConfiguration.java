@@ -149,6 +149,13 @@ public class JdbcConfiguration {
         conf.register("FACILITY_UTILIZATION", "CAPACITY_TYPE", new EnumByNameType<>(CapacityType.class));
         conf.register("FACILITY_UTILIZATION", "USAGE", new EnumByNameType<>(Usage.class));
 
+        conf.register("FACILITY_UTILIZATION_LATEST", "CAPACITY_TYPE", new EnumByNameType<>(CapacityType.class));
+        conf.register("FACILITY_UTILIZATION_LATEST", "USAGE", new EnumByNameType<>(Usage.class));
+
+        conf.register("FACILITY_UTILIZATION_ROLLUP", "CAPACITY_TYPE", new EnumByNameType<>(CapacityType.class));
+        conf.register("FACILITY_UTILIZATION_ROLLUP", "USAGE", new EnumByNameType<>(Usage.class));
+        conf.register("FACILITY_UTILIZATION_ROLLUP", "RESOLUTION", new EnumByNameType<>(RollupResolution.class));
+
         conf.register("FACILITY_PREDICTION", "CAPACITY_TYPE", new EnumByNameType<>(CapacityType.class));
         conf.register("FACILITY_PREDICTION", "USAGE", new EnumByNameType<>(Usage.class));
 
@@ -5,6 +5,9 @@ package fi.hsl.parkandride.core.back;
 
 import fi.hsl.parkandride.core.domain.*;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface FacilityRepository {
 
     long insertFacility(Facility facility);
@@ -17,6 +20,26 @@ public interface FacilityRepository {
 
     FacilityInfo getFacilityInfo(long facilityId);
 
+    /**
+     * Returns a facility from the in-process cache, loading it on a cache miss.
+     * The returned facility is shared and must not be modified.
+     */
+    Facility getCachedFacility(long facilityId);
+
+    /**
+     * Same as {@link #getCachedFacility(long)} for many facilities, loading all the missing ones at once.
+     * Facilities which don't exist are left out of the result.
+     */
+    Map<Long, Facility> getCachedFacilities(Collection<Long> facilityIds);
+
+    FacilityCacheStatus getCacheStatus();
+
+    /**
+     * Reads the operators of the facilities from the database, bypassing the cache, for authorizing changes.
+     * Facilities which don't exist are left out of the result.
+     */
+    Map<Long, Long> getOperatorIds(Collection<Long> facilityIds);
+
     Facility getFacilityForUpdate(long facilityId);
 
     SearchResults<FacilityInfo> findFacilities(PageableFacilitySearch search);
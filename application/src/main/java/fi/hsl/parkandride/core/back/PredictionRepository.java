@@ -5,13 +5,16 @@ package fi.hsl.parkandride.core.back;
 
 import fi.hsl.parkandride.core.domain.UtilizationKey;
 import fi.hsl.parkandride.core.domain.prediction.Prediction;
+import fi.hsl.parkandride.core.domain.prediction.PredictionAccuracy;
 import fi.hsl.parkandride.core.domain.prediction.PredictionBatch;
 import fi.hsl.parkandride.core.service.TransactionalWrite;
 import org.joda.time.DateTime;
 import org.joda.time.Hours;
 import org.joda.time.Minutes;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface PredictionRepository {
@@ -21,11 +24,42 @@ public interface PredictionRepository {
 
     void updatePredictions(PredictionBatch predictions, Long predictorId);
 
+    /**
+     * Same as {@link #updatePredictions(PredictionBatch, Long)} for many predictors, with a constant number of statements.
+     */
+    void updatePredictions(Map<Long, PredictionBatch> predictionsByPredictorId);
+
     void updateOnlyPredictionHistory(PredictionBatch pb, Long predictorId);
 
     Optional<PredictionBatch> getPrediction(UtilizationKey utilizationKey, DateTime time);
 
     List<PredictionBatch> getPredictionsByFacility(Long facilityId, DateTime time);
 
+    List<PredictionBatch> getPredictionsByFacilities(Collection<Long> facilityIds, DateTime time);
+
+    /**
+     * Predictions at {@code start + i * step} for {@code i < count}, read at once for each utilization key.
+     * Utilization keys without any of those predictions are left out.
+     *
+     * @param start in prediction resolution
+     * @param step  a positive multiple of the prediction resolution
+     * @throws IllegalArgumentException if the start or the step is not in prediction resolution, or the count is negative
+     */
+    List<PredictionBatch> getPredictionsByFacilities(Collection<Long> facilityIds, DateTime start, Minutes step, int count);
+
     List<Prediction> getPredictionHistoryByPredictor(Long predictorId, DateTime start, DateTime end, int forecastDistanceInMinutes);
+
+    /**
+     * Compares the prediction history after {@code start} and up to {@code end} which has not been compared yet
+     * with the utilization in effect at the predicted time, and adds the errors to the accuracy of each predictor
+     * and forecast distance. Predictions without an earlier utilization are skipped, as are the predictions whose
+     * latest earlier utilization is older than {@code maxUtilizationAge}, since it may no longer be in effect.
+     *
+     * @return number of predictor and forecast distance combinations updated
+     */
+    int updatePredictionAccuracy(DateTime start, DateTime end, Minutes maxUtilizationAge);
+
+    List<PredictionAccuracy> getPredictionAccuracy();
+
+    List<PredictionAccuracy> getPredictionAccuracyByFacility(long facilityId);
 }
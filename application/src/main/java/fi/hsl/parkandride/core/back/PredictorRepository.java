@@ -5,22 +5,52 @@ package fi.hsl.parkandride.core.back;
 
 import fi.hsl.parkandride.core.domain.UtilizationKey;
 import fi.hsl.parkandride.core.domain.prediction.PredictorState;
+import org.joda.time.Duration;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface PredictorRepository {
 
     Long enablePredictor(String predictorType, UtilizationKey utilizationKey);
 
+    /**
+     * Same as {@link #enablePredictor(String, UtilizationKey)} for all combinations of the predictor types
+     * and utilization keys, but with a constant number of statements.
+     */
+    void enablePredictors(Collection<String> predictorTypes, Collection<UtilizationKey> utilizationKeys);
+
+    /**
+     * Saves the state and releases the claim of the predictor. The predictor is marked up to date only if
+     * no more utilizations have been signalled after the state's {@link PredictorState#signalVersion}.
+     */
     void save(PredictorState state);
 
     PredictorState getById(Long predictorId);
 
     PredictorState getForUpdate(Long predictorId);
 
+    List<PredictorState> getByIds(Collection<Long> predictorIds);
+
     List<PredictorState> findAllPredictors();
 
     List<Long> findPredictorsNeedingUpdate();
 
+    /**
+     * Claims at most limit predictors which need an update and which no one else has claimed, so that
+     * the nodes of a cluster can update different predictors in parallel. The claim expires after the
+     * claim duration, or when the predictor is {@link #save(PredictorState) saved}.
+     *
+     * @return ids of the claimed predictors, or an empty list if there are no more predictors to claim
+     */
+    List<Long> claimPredictorsNeedingUpdate(int limit, Duration claimDuration);
+
+    /**
+     * Same as {@link #claimPredictorsNeedingUpdate(int, Duration)}, but only the predictors of the given utilization keys.
+     */
+    List<Long> claimPredictorsNeedingUpdate(Collection<UtilizationKey> utilizationKeys, int limit, Duration claimDuration);
+
     void markPredictorsNeedAnUpdate(UtilizationKey utilizationKey);
+
+    void markPredictorsNeedAnUpdate(Collection<UtilizationKey> utilizationKeys);
 }
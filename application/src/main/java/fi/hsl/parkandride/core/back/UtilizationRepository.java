@@ -6,9 +6,11 @@ package fi.hsl.parkandride.core.back;
 import com.mysema.commons.lang.CloseableIterator;
 import fi.hsl.parkandride.core.domain.Utilization;
 import fi.hsl.parkandride.core.domain.UtilizationKey;
+import fi.hsl.parkandride.core.domain.UtilizationRollup;
 import fi.hsl.parkandride.core.domain.UtilizationSearch;
 import org.joda.time.DateTime;
 import org.joda.time.Minutes;
+import org.joda.time.YearMonth;
 
 import java.util.List;
 import java.util.Optional;
@@ -27,4 +29,41 @@ public interface UtilizationRepository {
     List<Utilization> findUtilizationsWithResolution(UtilizationKey utilizationKey, DateTime start, DateTime end, Minutes resolution);
 
     CloseableIterator<Utilization> findUtilizations(UtilizationSearch search);
+
+    /**
+     * Finds the rollups of the periods which overlap the time range, using the coarsest rollup
+     * whose periods are not longer than the requested resolution. The rollups are ordered by period.
+     *
+     * @throws IllegalArgumentException if the resolution is finer than the finest rollup
+     */
+    List<UtilizationRollup> findUtilizationRollups(UtilizationKey utilizationKey, DateTime start, DateTime end, Minutes resolution);
+
+    /**
+     * Like {@link #findUtilizationRollups(UtilizationKey, DateTime, DateTime, Minutes)}, but for all
+     * the facilities, capacity types and usages matching the search.
+     */
+    List<UtilizationRollup> findUtilizationRollups(UtilizationSearch search, Minutes resolution);
+
+    /**
+     * Recalculates the rollups of the periods between start and end from the stored utilizations,
+     * fixing those which are missing or differ from the utilizations. The time range is extended
+     * to whole hours. The daily rollups of the range are recalculated from the hourly rollups of their days.
+     *
+     * @return the number of inserted, updated and deleted rollups
+     */
+    int rebuildUtilizationRollups(DateTime start, DateTime end);
+
+    /**
+     * Makes sure that the utilization storage has partitions for the given months, and that inserted
+     * utilizations are routed to them. Does nothing on databases which don't partition utilizations.
+     */
+    void createUtilizationPartitions(YearMonth from, YearMonth until);
+
+    /**
+     * Drops the utilization partitions of months before the limit, or if archive is true,
+     * only detaches them so that their data is no longer queried but can be backed up.
+     *
+     * @return the months of the removed partitions
+     */
+    List<YearMonth> removeUtilizationPartitionsBefore(YearMonth limit, boolean archive);
 }
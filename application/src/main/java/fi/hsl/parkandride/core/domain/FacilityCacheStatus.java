@@ -0,0 +1,16 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain;
+
+/**
+ * Metrics of the in-process facility cache of this node.
+ */
+public class FacilityCacheStatus {
+
+    public int size;
+
+    public long hitCount;
+
+    public long missCount;
+}
@@ -0,0 +1,38 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the latest utilizations of all facilities. A new instance is created
+ * whenever the snapshot changes, so derived data such as the serialized form can be cached per instance.
+ */
+public class LatestUtilizations {
+
+    public final Set<Utilization> utilizations;
+
+    public LatestUtilizations(Collection<Utilization> utilizations) {
+        this.utilizations = Collections.unmodifiableSet(new LinkedHashSet<>(utilizations));
+    }
+
+    /**
+     * @return a snapshot where the utilizations replace the older ones of the same utilization key,
+     * or this snapshot if nothing changed. Utilization keys which are not in this snapshot are ignored,
+     * since only the keys which the facility has pricing for are shown.
+     */
+    public LatestUtilizations merge(Collection<Utilization> newUtilizations) {
+        Map<UtilizationKey, Utilization> byKey = new LinkedHashMap<>();
+        utilizations.forEach(u -> byKey.put(u.getUtilizationKey(), u));
+        boolean changed = false;
+        for (Utilization u : newUtilizations) {
+            Utilization current = byKey.get(u.getUtilizationKey());
+            if (current != null && !u.timestamp.isBefore(current.timestamp) && !u.equals(current)) {
+                byKey.put(u.getUtilizationKey(), u.copy());
+                changed = true;
+            }
+        }
+        return changed ? new LatestUtilizations(byKey.values()) : this;
+    }
+}
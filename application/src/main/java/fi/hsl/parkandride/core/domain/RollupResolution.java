@@ -0,0 +1,61 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Minutes;
+
+import java.util.Optional;
+
+/**
+ * Granularities of the utilization rollups, from the finest to the coarsest.
+ * Periods are aligned to the local time of the default time zone, like the stored timestamps.
+ */
+public enum RollupResolution {
+
+    FIVE_MINUTES(Minutes.minutes(5)),
+    HOUR(Minutes.minutes(60)),
+    DAY(Minutes.minutes(24 * 60));
+
+    public final Minutes period;
+
+    RollupResolution(Minutes period) {
+        this.period = period;
+    }
+
+    public DateTime periodStart(DateTime instant) {
+        DateTime local = instant.withZone(DateTimeZone.getDefault());
+        switch (this) {
+            case FIVE_MINUTES:
+                return local.minuteOfHour().roundFloorCopy()
+                        .withMinuteOfHour(local.getMinuteOfHour() / 5 * 5);
+            case HOUR:
+                return local.hourOfDay().roundFloorCopy();
+            case DAY:
+                return local.withTimeAtStartOfDay();
+            default:
+                throw new AssertionError(this);
+        }
+    }
+
+    public DateTime nextPeriodStart(DateTime periodStart) {
+        // days are not always 24 hours long
+        return this == DAY ? periodStart.plusDays(1).withTimeAtStartOfDay() : periodStart.plus(period);
+    }
+
+    /**
+     * The coarsest rollup whose periods are not longer than the requested resolution,
+     * or empty if even the finest rollup is too coarse.
+     */
+    public static Optional<RollupResolution> coarsestFor(Minutes resolution) {
+        RollupResolution coarsest = null;
+        for (RollupResolution r : values()) {
+            if (!r.period.isGreaterThan(resolution)) {
+                coarsest = r;
+            }
+        }
+        return Optional.ofNullable(coarsest);
+    }
+}
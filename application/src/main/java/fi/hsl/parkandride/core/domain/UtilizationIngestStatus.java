@@ -0,0 +1,28 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain;
+
+/**
+ * Metrics of the utilization write-behind queue of this node.
+ */
+public class UtilizationIngestStatus {
+
+    /**
+     * Whether registered utilizations are queued, instead of being stored immediately.
+     */
+    public boolean async;
+
+    /**
+     * Utilizations which are queued or wait for a retry after a failed flush.
+     */
+    public int queueDepth;
+
+    public long lastFlushLatencyMillis;
+
+    public long flushedCount;
+
+    public long rejectedCount;
+
+    public long droppedCount;
+}
@@ -0,0 +1,152 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain;
+
+import com.google.common.base.MoreObjects;
+import org.joda.time.DateTime;
+
+import java.util.Objects;
+
+/**
+ * Aggregate of the utilizations of one capacity type and usage of a facility during one rollup period.
+ * The average is the average of the registered samples.
+ */
+public class UtilizationRollup {
+
+    public Long facilityId;
+    public CapacityType capacityType;
+    public Usage usage;
+    public RollupResolution resolution;
+    public DateTime periodStart;
+
+    public int minSpacesAvailable;
+    public int maxSpacesAvailable;
+    public long sumSpacesAvailable;
+    public int sampleCount;
+
+    /** Time of the last utilization of the period */
+    public DateTime lastTimestamp;
+    public int lastSpacesAvailable;
+    public int lastCapacity;
+
+    public static UtilizationRollup of(Utilization u, RollupResolution resolution) {
+        UtilizationRollup r = new UtilizationRollup();
+        r.facilityId = u.facilityId;
+        r.capacityType = u.capacityType;
+        r.usage = u.usage;
+        r.resolution = resolution;
+        r.periodStart = resolution.periodStart(u.timestamp);
+        r.minSpacesAvailable = u.spacesAvailable;
+        r.maxSpacesAvailable = u.spacesAvailable;
+        r.sumSpacesAvailable = u.spacesAvailable;
+        r.sampleCount = 1;
+        r.lastTimestamp = u.timestamp;
+        r.lastSpacesAvailable = u.spacesAvailable;
+        r.lastCapacity = u.capacity;
+        return r;
+    }
+
+    /**
+     * Copies the aggregates of this rollup to the period of a coarser resolution which contains this period.
+     */
+    public UtilizationRollup rollUpTo(RollupResolution coarser) {
+        UtilizationRollup r = new UtilizationRollup();
+        r.facilityId = facilityId;
+        r.capacityType = capacityType;
+        r.usage = usage;
+        r.resolution = coarser;
+        r.periodStart = coarser.periodStart(periodStart);
+        r.minSpacesAvailable = minSpacesAvailable;
+        r.maxSpacesAvailable = maxSpacesAvailable;
+        r.sumSpacesAvailable = sumSpacesAvailable;
+        r.sampleCount = sampleCount;
+        r.lastTimestamp = lastTimestamp;
+        r.lastSpacesAvailable = lastSpacesAvailable;
+        r.lastCapacity = lastCapacity;
+        return r;
+    }
+
+    public double getAverageSpacesAvailable() {
+        return sampleCount == 0 ? 0 : (double) sumSpacesAvailable / sampleCount;
+    }
+
+    public UtilizationKey getUtilizationKey() {
+        return new UtilizationKey(facilityId, capacityType, usage);
+    }
+
+    /**
+     * Adds the samples of another rollup of the same period to this one.
+     */
+    public void merge(UtilizationRollup other) {
+        minSpacesAvailable = Math.min(minSpacesAvailable, other.minSpacesAvailable);
+        maxSpacesAvailable = Math.max(maxSpacesAvailable, other.maxSpacesAvailable);
+        sumSpacesAvailable += other.sumSpacesAvailable;
+        sampleCount += other.sampleCount;
+        if (other.isLaterThan(this)) {
+            lastTimestamp = other.lastTimestamp;
+            lastSpacesAvailable = other.lastSpacesAvailable;
+            lastCapacity = other.lastCapacity;
+        }
+    }
+
+    private boolean isLaterThan(UtilizationRollup other) {
+        // many utilizations may have the same timestamp, so pick one of them deterministically
+        int cmp = lastTimestamp.compareTo(other.lastTimestamp);
+        if (cmp == 0) {
+            cmp = Integer.compare(lastSpacesAvailable, other.lastSpacesAvailable);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compare(lastCapacity, other.lastCapacity);
+        }
+        return cmp > 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof UtilizationRollup)) {
+            return false;
+        }
+        UtilizationRollup that = (UtilizationRollup) obj;
+        return Objects.equals(this.facilityId, that.facilityId)
+                && Objects.equals(this.capacityType, that.capacityType)
+                && Objects.equals(this.usage, that.usage)
+                && Objects.equals(this.resolution, that.resolution)
+                && isSameInstant(this.periodStart, that.periodStart)
+                && this.minSpacesAvailable == that.minSpacesAvailable
+                && this.maxSpacesAvailable == that.maxSpacesAvailable
+                && this.sumSpacesAvailable == that.sumSpacesAvailable
+                && this.sampleCount == that.sampleCount
+                && isSameInstant(this.lastTimestamp, that.lastTimestamp)
+                && this.lastSpacesAvailable == that.lastSpacesAvailable
+                && this.lastCapacity == that.lastCapacity;
+    }
+
+    private static boolean isSameInstant(DateTime a, DateTime b) {
+        return a == null ? b == null : b != null && a.isEqual(b);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(facilityId, capacityType, usage, resolution,
+                periodStart == null ? null : periodStart.getMillis());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("facilityId", facilityId)
+                .add("capacityType", capacityType)
+                .add("usage", usage)
+                .add("resolution", resolution)
+                .add("periodStart", periodStart)
+                .add("minSpacesAvailable", minSpacesAvailable)
+                .add("maxSpacesAvailable", maxSpacesAvailable)
+                .add("averageSpacesAvailable", getAverageSpacesAvailable())
+                .add("sampleCount", sampleCount)
+                .add("lastTimestamp", lastTimestamp)
+                .add("lastSpacesAvailable", lastSpacesAvailable)
+                .add("lastCapacity", lastCapacity)
+                .toString();
+    }
+}
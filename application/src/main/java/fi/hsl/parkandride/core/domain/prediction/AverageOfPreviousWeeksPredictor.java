@@ -7,6 +7,7 @@ import fi.hsl.parkandride.back.ListUtil;
 import fi.hsl.parkandride.core.back.PredictionRepository;
 import fi.hsl.parkandride.core.domain.Utilization;
 import org.joda.time.DateTime;
+import org.joda.time.ReadablePeriod;
 import org.joda.time.Weeks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +27,11 @@ public class AverageOfPreviousWeeksPredictor implements Predictor {
         return TYPE;
     }
 
+    @Override
+    public ReadablePeriod getHistoryLookback() {
+        return Weeks.weeks(3);
+    }
+
     @Override
     public List<Prediction> predict(PredictorState state, UtilizationHistory history, int maxCapacity) {
         Optional<Utilization> latest = history.getLatest();
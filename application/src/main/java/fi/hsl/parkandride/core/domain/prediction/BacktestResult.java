@@ -0,0 +1,107 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.*;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Accuracy and timing of the predictors replayed over past utilizations. Results of different
+ * utilization keys are combined with {@link #merge(BacktestResult)}.
+ */
+public class BacktestResult {
+
+    public int utilizationKeys;
+
+    public long utilizations;
+
+    public long elapsedMillis;
+
+    public final SortedMap<String, PredictorStatistics> predictors = new TreeMap<>();
+
+    public PredictorStatistics getPredictor(String predictorType) {
+        return predictors.computeIfAbsent(predictorType, PredictorStatistics::new);
+    }
+
+    public BacktestResult merge(BacktestResult that) {
+        this.utilizationKeys += that.utilizationKeys;
+        this.utilizations += that.utilizations;
+        that.predictors.forEach((predictorType, statistics) -> getPredictor(predictorType).merge(statistics));
+        return this;
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d utilization keys, %d utilizations, %d ms%n", utilizationKeys, utilizations, elapsedMillis));
+        predictors.values().forEach(p -> {
+            sb.append(String.format("%s: %d predictions, %.3f ms average, %.3f ms max%n",
+                    p.predictorType, p.predictCount, p.getAveragePredictMillis(), p.maxPredictNanos / 1e6));
+            p.getAccuracy().forEach(a -> sb.append(String.format("  %5d min: MAE %7.2f, bias %7.2f (%d samples)%n",
+                    a.forecastDistanceInMinutes, a.meanAbsoluteError, a.bias, a.sampleCount)));
+        });
+        return sb.toString();
+    }
+
+    public static class PredictorStatistics {
+
+        public final String predictorType;
+
+        public long predictCount;
+
+        @JsonIgnore
+        public long predictNanos;
+
+        @JsonIgnore
+        public long maxPredictNanos;
+
+        private final SortedMap<Integer, long[]> errorSumsByDistance = new TreeMap<>();
+
+        public PredictorStatistics(String predictorType) {
+            this.predictorType = predictorType;
+        }
+
+        public void addPredictTime(long nanos) {
+            predictCount++;
+            predictNanos += nanos;
+            maxPredictNanos = Math.max(maxPredictNanos, nanos);
+        }
+
+        public void addError(int forecastDistanceInMinutes, int predicted, int actual) {
+            long[] sums = errorSumsByDistance.computeIfAbsent(forecastDistanceInMinutes, distance -> new long[3]);
+            int error = predicted - actual;
+            sums[0]++;
+            sums[1] += error;
+            sums[2] += Math.abs(error);
+        }
+
+        public double getAveragePredictMillis() {
+            return predictCount == 0 ? 0 : predictNanos / 1e6 / predictCount;
+        }
+
+        public double getMaxPredictMillis() {
+            return maxPredictNanos / 1e6;
+        }
+
+        public List<PredictionAccuracy> getAccuracy() {
+            return errorSumsByDistance.entrySet().stream()
+                    .map(e -> new PredictionAccuracy(predictorType, e.getKey(), e.getValue()[0], e.getValue()[1], e.getValue()[2]))
+                    .collect(toList());
+        }
+
+        void merge(PredictorStatistics that) {
+            this.predictCount += that.predictCount;
+            this.predictNanos += that.predictNanos;
+            this.maxPredictNanos = Math.max(this.maxPredictNanos, that.maxPredictNanos);
+            that.errorSumsByDistance.forEach((distance, thatSums) -> {
+                long[] sums = errorSumsByDistance.computeIfAbsent(distance, d -> new long[3]);
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += thatSums[i];
+                }
+            });
+        }
+    }
+}
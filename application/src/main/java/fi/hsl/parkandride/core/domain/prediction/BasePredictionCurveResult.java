@@ -0,0 +1,23 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import fi.hsl.parkandride.core.domain.CapacityType;
+import fi.hsl.parkandride.core.domain.DefaultTimeZoneDateTimeSerializer;
+import fi.hsl.parkandride.core.domain.Usage;
+import org.joda.time.DateTime;
+
+/**
+ * Predictions at regular intervals: {@code spacesAvailable[i]} is the prediction at {@code start + i * step minutes},
+ * or null if there is no prediction for that time.
+ */
+public abstract class BasePredictionCurveResult {
+    public CapacityType capacityType;
+    public Usage usage;
+    @JsonSerialize(using = DefaultTimeZoneDateTimeSerializer.class)
+    public DateTime start;
+    public int step;
+    public Integer[] spacesAvailable;
+}
@@ -0,0 +1,228 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.mysema.commons.lang.CloseableIterator;
+import fi.hsl.parkandride.core.back.PredictionRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import org.joda.time.DateTime;
+import org.joda.time.Minutes;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+
+/**
+ * Additive Holt-Winters (triple exponential smoothing) with a weekly season of
+ * {@link PredictionRepository#PREDICTION_RESOLUTION} slots and a damped trend. The level, trend and seasonal
+ * components are kept in the predictor state, so each update reads only the utilizations received since
+ * the previous update. The first update initializes the components from the week before the latest utilization.
+ * <p>
+ * The season is counted in UTC, so after a daylight saving time change the seasonal components are one hour off
+ * until the smoothing has caught up.
+ */
+public class HoltWintersPredictor implements Predictor {
+
+    public static final String TYPE = "holt-winters";
+
+    private static final int SLOTS_PER_HOUR = Minutes.minutes(60).dividedBy(PREDICTION_RESOLUTION.getMinutes()).getMinutes();
+    private static final int PREDICTION_SLOTS = PredictionRepository.PREDICTION_WINDOW.toStandardMinutes()
+            .dividedBy(PREDICTION_RESOLUTION.getMinutes()).getMinutes();
+    static final int SEASON_SLOTS = 7 * 24 * SLOTS_PER_HOUR;
+
+    // the level follows the recent utilizations, the seasonal components remember a few weeks
+    private static final double LEVEL_SMOOTHING = 0.3;
+    private static final double TREND_SMOOTHING = 0.05;
+    private static final double SEASONAL_SMOOTHING = 0.25;
+    // the trend fades out within a few hours, so that it is not extrapolated over the whole prediction window
+    private static final double TREND_DAMPING = 0.98;
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public List<Prediction> predict(PredictorState state, UtilizationHistory history, int maxCapacity) {
+        Optional<Model> stored = Model.deserialize(state.internalState);
+        Model model;
+        if (stored.isPresent()) {
+            model = stored.get();
+            try (CloseableIterator<Utilization> updates = history.getUpdatesSince(state.latestUtilization)) {
+                while (updates.hasNext()) {
+                    Utilization u = updates.next();
+                    model.add(SlotHistory.slotOf(u.timestamp), u.spacesAvailable);
+                    updateLatestUtilization(state, u);
+                }
+            }
+        } else {
+            Optional<Model> initialized = initialize(state, history);
+            if (!initialized.isPresent()) {
+                return Collections.emptyList();
+            }
+            model = initialized.get();
+        }
+        state.internalState = model.serialize();
+        return predict(model, state.latestUtilization, maxCapacity);
+    }
+
+    private static Optional<Model> initialize(PredictorState state, UtilizationHistory history) {
+        Optional<Utilization> latest = history.getLatest();
+        if (!latest.isPresent()) {
+            return Optional.empty();
+        }
+        SlotHistory week = new SlotHistory(SEASON_SLOTS);
+        DateTime start = latest.get().timestamp.minus(PREDICTION_RESOLUTION.multipliedBy(SEASON_SLOTS));
+        history.getAt(start).ifPresent(u -> week.add(start, u.spacesAvailable));
+        try (CloseableIterator<Utilization> updates = history.getUpdatesSince(start)) {
+            while (updates.hasNext()) {
+                Utilization u = updates.next();
+                week.add(u.timestamp, u.spacesAvailable);
+                updateLatestUtilization(state, u);
+            }
+        }
+        if (week.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(Model.initialize(week, SlotHistory.slotOf(latest.get().timestamp)));
+    }
+
+    private static void updateLatestUtilization(PredictorState state, Utilization u) {
+        if (u.timestamp.isAfter(state.latestUtilization)) {
+            state.latestUtilization = u.timestamp;
+        }
+    }
+
+    private static List<Prediction> predict(Model model, DateTime now, int maxCapacity) {
+        // the latest slot may still receive utilizations, so it is smoothed only for the forecast
+        double seasonal = model.seasonal[model.index(model.latestSlot)];
+        double level = LEVEL_SMOOTHING * (model.latestValue - seasonal) + (1 - LEVEL_SMOOTHING) * (model.level + TREND_DAMPING * model.trend);
+        double trend = TREND_SMOOTHING * (level - model.level) + (1 - TREND_SMOOTHING) * TREND_DAMPING * model.trend;
+
+        List<Prediction> predictions = new ArrayList<>(PREDICTION_SLOTS + 1);
+        double dampedTrend = 0;
+        double damping = 1;
+        for (int i = 0; i <= PREDICTION_SLOTS; i++) {
+            if (i > 0) {
+                damping *= TREND_DAMPING;
+                dampedTrend += damping * trend;
+            }
+            double forecast = level + dampedTrend + model.seasonal[model.index(model.latestSlot + i)];
+            int spacesAvailable = (int) Math.round(forecast);
+            predictions.add(new Prediction(now.plus(PREDICTION_RESOLUTION.multipliedBy(i)),
+                    Math.min(maxCapacity, Math.max(0, spacesAvailable))));
+        }
+        return predictions;
+    }
+
+    /**
+     * The smoothed components; all slots before the latest slot have been smoothed, and the latest slot
+     * holds the latest spaces available until a utilization of a later slot arrives.
+     */
+    static final class Model {
+
+        private static final String FORMAT = "holtwinters1:";
+
+        long latestSlot;
+        int latestValue;
+        double level;
+        double trend;
+        final float[] seasonal = new float[SEASON_SLOTS];
+
+        static Model initialize(SlotHistory week, long latestSlot) {
+            Model model = new Model();
+            model.latestSlot = latestSlot;
+            long slotMillis = PREDICTION_RESOLUTION.toStandardDuration().getMillis();
+            int[] values = new int[SEASON_SLOTS];
+            BitSet present = new BitSet(SEASON_SLOTS);
+            long sum = 0;
+            for (long slot = latestSlot - SEASON_SLOTS + 1; slot <= latestSlot; slot++) {
+                OptionalInt value = week.get(new DateTime(slot * slotMillis));
+                if (value.isPresent()) {
+                    values[model.index(slot)] = value.getAsInt();
+                    present.set(model.index(slot));
+                    sum += value.getAsInt();
+                }
+            }
+            model.level = (double) sum / present.cardinality();
+            model.latestValue = week.get(new DateTime(latestSlot * slotMillis)).getAsInt();
+            present.stream().forEach(i -> model.seasonal[i] = (float) (values[i] - model.level));
+            return model;
+        }
+
+        void add(long slot, int spacesAvailable) {
+            if (slot < latestSlot) {
+                return; // utilizations are added in time order, so the slot already has a later value
+            }
+            if (slot > latestSlot) {
+                // slots without utilizations repeat the previous slot; a longer gap than a season is smoothed as one season
+                long gap = Math.min(slot - latestSlot, SEASON_SLOTS);
+                for (long s = slot - gap; s < slot; s++) {
+                    smooth(s, latestValue);
+                }
+                latestSlot = slot;
+            }
+            latestValue = spacesAvailable;
+        }
+
+        private void smooth(long slot, int value) {
+            int i = index(slot);
+            double previousLevel = level;
+            level = LEVEL_SMOOTHING * (value - seasonal[i]) + (1 - LEVEL_SMOOTHING) * (previousLevel + TREND_DAMPING * trend);
+            trend = TREND_SMOOTHING * (level - previousLevel) + (1 - TREND_SMOOTHING) * TREND_DAMPING * trend;
+            seasonal[i] = (float) (SEASONAL_SMOOTHING * (value - level) + (1 - SEASONAL_SMOOTHING) * seasonal[i]);
+        }
+
+        int index(long slot) {
+            return (int) Math.floorMod(slot, (long) SEASON_SLOTS);
+        }
+
+        String serialize() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+                out.writeInt(SEASON_SLOTS);
+                out.writeLong(latestSlot);
+                out.writeInt(latestValue);
+                out.writeDouble(level);
+                out.writeDouble(trend);
+                for (float value : seasonal) {
+                    out.writeFloat(value);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return FORMAT + Base64.getEncoder().encodeToString(bytes.toByteArray());
+        }
+
+        /**
+         * @return the model, or empty if the state is not a model of this season, for example if the predictor
+         * has not been updated yet
+         */
+        static Optional<Model> deserialize(String state) {
+            if (!state.startsWith(FORMAT)) {
+                return Optional.empty();
+            }
+            byte[] bytes = Base64.getDecoder().decode(state.substring(FORMAT.length()));
+            try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+                if (in.readInt() != SEASON_SLOTS) {
+                    return Optional.empty();
+                }
+                Model model = new Model();
+                model.latestSlot = in.readLong();
+                model.latestValue = in.readInt();
+                model.level = in.readDouble();
+                model.trend = in.readDouble();
+                for (int i = 0; i < SEASON_SLOTS; i++) {
+                    model.seasonal[i] = in.readFloat();
+                }
+                return Optional.of(model);
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+        }
+    }
+}
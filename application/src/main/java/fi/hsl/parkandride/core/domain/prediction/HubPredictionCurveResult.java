@@ -0,0 +1,25 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Arrays;
+
+public class HubPredictionCurveResult extends BasePredictionCurveResult {
+
+    public long hubId;
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("hubId", hubId)
+                .add("capacityType", capacityType)
+                .add("usage", usage)
+                .add("start", start)
+                .add("step", step)
+                .add("spacesAvailable", Arrays.toString(spacesAvailable))
+                .toString();
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.mysema.commons.lang.CloseableIterator;
+import fi.hsl.parkandride.core.back.PredictionRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import org.joda.time.DateTime;
+import org.joda.time.Minutes;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+import static fi.hsl.parkandride.core.domain.prediction.RelativizedAverageOfPreviousWeeksPredictor.LOOKBACK_MINUTES;
+
+/**
+ * Same prediction as {@link RelativizedAverageOfPreviousWeeksPredictor}, but the predictor keeps the history
+ * it needs in its state, so that each update reads only the utilizations received since the previous update.
+ */
+public class IncrementalRelativizedAveragePredictor implements Predictor {
+
+    public static final String TYPE = "incremental-relative-average-of-previous-weeks";
+
+    private static final int LOOKBACK_WEEKS = 3;
+    private static final int SLOTS_PER_HOUR = Minutes.minutes(60).dividedBy(PREDICTION_RESOLUTION.getMinutes()).getMinutes();
+    private static final int PREDICTION_SLOTS = PredictionRepository.PREDICTION_WINDOW.toStandardMinutes()
+            .dividedBy(PREDICTION_RESOLUTION.getMinutes()).getMinutes();
+    // weeks are counted in local time, so one extra hour covers the daylight saving time changes
+    static final int HISTORY_SLOTS = (LOOKBACK_WEEKS * 7 * 24 + 1) * SLOTS_PER_HOUR
+            + LOOKBACK_MINUTES.dividedBy(PREDICTION_RESOLUTION.getMinutes()).getMinutes() + 1;
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public List<Prediction> predict(PredictorState state, UtilizationHistory history, int maxCapacity) {
+        Optional<SlotHistory> stored = SlotHistory.deserialize(state.internalState, HISTORY_SLOTS);
+        SlotHistory slots;
+        DateTime since;
+        if (stored.isPresent()) {
+            slots = stored.get();
+            since = state.latestUtilization;
+        } else {
+            Optional<Utilization> latest = history.getLatest();
+            if (!latest.isPresent()) {
+                return Collections.emptyList();
+            }
+            slots = new SlotHistory(HISTORY_SLOTS);
+            DateTime start = latest.get().timestamp.minus(PREDICTION_RESOLUTION.multipliedBy(HISTORY_SLOTS));
+            history.getAt(start).ifPresent(u -> slots.add(start, u.spacesAvailable));
+            since = start.isAfter(state.latestUtilization) ? start : state.latestUtilization;
+        }
+
+        try (CloseableIterator<Utilization> updates = history.getUpdatesSince(since)) {
+            while (updates.hasNext()) {
+                Utilization u = updates.next();
+                slots.add(u.timestamp, u.spacesAvailable);
+                if (u.timestamp.isAfter(state.latestUtilization)) {
+                    state.latestUtilization = u.timestamp;
+                }
+            }
+        }
+        state.internalState = slots.serialize();
+        if (slots.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return predict(slots, state.latestUtilization, maxCapacity);
+    }
+
+    private static List<Prediction> predict(SlotHistory slots, DateTime now, int maxCapacity) {
+        int spacesAvailableCorrection = slots.get(now).getAsInt();
+        double utilizationMultiplier = getUtilizationMultiplier(slots, now);
+        List<Prediction> predictions = new ArrayList<>();
+        for (int i = 0; i <= PREDICTION_SLOTS; i++) {
+            DateTime timestamp = now.plus(PREDICTION_RESOLUTION.multipliedBy(i));
+            OptionalDouble averageChange = IntStream.rangeClosed(1, LOOKBACK_WEEKS)
+                    .mapToObj(weeks -> change(slots, now.minusWeeks(weeks), timestamp.minusWeeks(weeks)))
+                    .filter(OptionalInt::isPresent)
+                    .mapToInt(OptionalInt::getAsInt)
+                    .average();
+            if (averageChange.isPresent()) {
+                int spacesAvailable = (int) Math.round(utilizationMultiplier * averageChange.getAsDouble());
+                predictions.add(new Prediction(timestamp,
+                        Math.min(maxCapacity, Math.max(0, spacesAvailable + spacesAvailableCorrection))));
+            }
+        }
+        return predictions;
+    }
+
+    private static OptionalInt change(SlotHistory slots, DateTime referenceTime, DateTime time) {
+        OptionalInt reference = slots.get(referenceTime);
+        OptionalInt value = slots.get(time);
+        if (!reference.isPresent() || !value.isPresent()) {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(value.getAsInt() - reference.getAsInt());
+    }
+
+    private static double getUtilizationMultiplier(SlotHistory slots, DateTime now) {
+        double recentUtilizationArea = Math.max(1, calculateAreaAverage(slots, now).orElse(0));
+        double referenceUtilizationAreaAverage = Math.max(1,
+                IntStream.rangeClosed(1, LOOKBACK_WEEKS)
+                        .mapToObj(weeks -> calculateAreaAverage(slots, now.minusWeeks(weeks)))
+                        .filter(OptionalDouble::isPresent)
+                        .mapToDouble(OptionalDouble::getAsDouble)
+                        .average()
+                        .orElse(recentUtilizationArea));
+        return Math.max(1, recentUtilizationArea / referenceUtilizationAreaAverage);
+    }
+
+    /**
+     * Average distance from the spaces available at the end time during the lookback period which ends at it.
+     */
+    private static OptionalDouble calculateAreaAverage(SlotHistory slots, DateTime end) {
+        OptionalInt referenceSpaces = slots.get(end);
+        if (!referenceSpaces.isPresent()) {
+            return OptionalDouble.empty();
+        }
+        int lookbackSlots = LOOKBACK_MINUTES.dividedBy(PREDICTION_RESOLUTION.getMinutes()).getMinutes();
+        return IntStream.rangeClosed(0, lookbackSlots)
+                .mapToObj(i -> slots.get(end.minus(PREDICTION_RESOLUTION.multipliedBy(i))))
+                .filter(OptionalInt::isPresent)
+                .mapToInt(spaces -> Math.abs(spaces.getAsInt() - referenceSpaces.getAsInt()))
+                .average();
+    }
+}
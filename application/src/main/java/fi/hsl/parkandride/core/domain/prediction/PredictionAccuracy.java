@@ -0,0 +1,51 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * How far the predictions of one predictor type have been from the actual spaces available
+ * at one forecast distance.
+ */
+public class PredictionAccuracy {
+
+    public String predictorType;
+
+    public int forecastDistanceInMinutes;
+
+    public long sampleCount;
+
+    /**
+     * Mean of the absolute differences between the predicted and the actual spaces available.
+     */
+    public double meanAbsoluteError;
+
+    /**
+     * Mean of the predicted minus the actual spaces available; positive when too many spaces are predicted.
+     */
+    public double bias;
+
+    public PredictionAccuracy() {
+    }
+
+    public PredictionAccuracy(String predictorType, int forecastDistanceInMinutes, long sampleCount, long sumError, long sumAbsoluteError) {
+        this.predictorType = predictorType;
+        this.forecastDistanceInMinutes = forecastDistanceInMinutes;
+        this.sampleCount = sampleCount;
+        this.meanAbsoluteError = sampleCount == 0 ? 0 : (double) sumAbsoluteError / sampleCount;
+        this.bias = sampleCount == 0 ? 0 : (double) sumError / sampleCount;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("predictorType", predictorType)
+                .add("forecastDistanceInMinutes", forecastDistanceInMinutes)
+                .add("sampleCount", sampleCount)
+                .add("meanAbsoluteError", meanAbsoluteError)
+                .add("bias", bias)
+                .toString();
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import fi.hsl.parkandride.back.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.joda.time.Minutes;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import javax.validation.constraints.Min;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_WINDOW;
+
+public class PredictionCurveRequest {
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    public DateTime from;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    public DateTime to;
+
+    /** minutes between the predictions */
+    @Min(1)
+    public Integer step;
+
+    /**
+     * @return timestamp of the first prediction, in prediction resolution
+     */
+    public DateTime start() {
+        return TimeUtil.roundMinutes(PREDICTION_RESOLUTION.getMinutes(), from != null ? from : DateTime.now());
+    }
+
+    /**
+     * @return minutes between the predictions, a multiple of the prediction resolution
+     */
+    public Minutes step() {
+        int resolution = PREDICTION_RESOLUTION.getMinutes();
+        if (step == null) {
+            return PREDICTION_RESOLUTION;
+        }
+        return Minutes.minutes(Math.max(1, Math.round((float) step / resolution)) * resolution);
+    }
+
+    /**
+     * @return how many predictions there are from the start until the end of the range,
+     * at most one prediction window
+     */
+    public int size(DateTime start) {
+        int step = step().getMinutes();
+        int max = PREDICTION_WINDOW.toStandardMinutes().getMinutes() / step;
+        if (to == null) {
+            return max;
+        }
+        if (to.isBefore(start)) {
+            return 0;
+        }
+        long minutes = new Duration(start, to).getStandardMinutes();
+        return (int) Math.min(max, minutes / step + 1);
+    }
+
+
+    // generated getters and setters
+
+    public DateTime getFrom() {
+        return from;
+    }
+
+    public void setFrom(DateTime from) {
+        this.from = from;
+    }
+
+    public DateTime getTo() {
+        return to;
+    }
+
+    public void setTo(DateTime to) {
+        this.to = to;
+    }
+
+    public Integer getStep() {
+        return step;
+    }
+
+    public void setStep(Integer step) {
+        this.step = step;
+    }
+}
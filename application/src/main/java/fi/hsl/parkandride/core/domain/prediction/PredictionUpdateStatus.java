@@ -0,0 +1,53 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+
+import java.util.List;
+
+/**
+ * Metrics of the prediction updates of this node.
+ */
+public class PredictionUpdateStatus {
+
+    /**
+     * Utilization keys with new utilizations, which wait to be updated before the scheduled update.
+     */
+    public int queueLength;
+
+    public long maxLagMillis;
+
+    /**
+     * How long the latest utilization key taken from the queue had unprocessed utilizations.
+     */
+    public long lastLagMillis;
+
+    public List<Lag> lags;
+
+    public int updateBacklog;
+
+    public long lastUpdateDurationMillis;
+
+    public long updatedPredictorCount;
+
+    public long failedPredictorCount;
+
+    public long timedOutPredictorCount;
+
+    public static class Lag {
+
+        public UtilizationKey utilizationKey;
+
+        public long lagMillis;
+
+        public Lag() {
+        }
+
+        public Lag(UtilizationKey utilizationKey, long lagMillis) {
+            this.utilizationKey = utilizationKey;
+            this.lagMillis = lagMillis;
+        }
+    }
+}
@@ -3,6 +3,9 @@
 
 package fi.hsl.parkandride.core.domain.prediction;
 
+import org.joda.time.Period;
+import org.joda.time.ReadablePeriod;
+
 import java.util.List;
 
 public interface Predictor {
@@ -10,4 +13,12 @@ public interface Predictor {
     String getType();
 
     List<Prediction> predict(PredictorState state, UtilizationHistory history, int maxCapacity);
+
+    /**
+     * How far before the latest utilization the predictor reads the history. The history of that
+     * period is read for many predictors at once; reading older history is slower.
+     */
+    default ReadablePeriod getHistoryLookback() {
+        return Period.ZERO;
+    }
 }
@@ -20,6 +20,11 @@ public class PredictorState {
     @NotNull public DateTime latestUtilization = new DateTime(0);
     public boolean moreUtilizations = true;
     @NotNull public String internalState = "";
+    /**
+     * Version of the utilization signals which the state is based on. It is not part of the state itself, but when
+     * saving tells whether new utilizations have been signalled since, and the predictor still needs an update.
+     */
+    public long signalVersion;
 
     public PredictorState(Long predictorId, String predictorType, UtilizationKey utilizationKey) {
         this.predictorId = predictorId;
@@ -55,6 +60,7 @@ public class PredictorState {
                 .add("latestUtilization", latestUtilization)
                 .add("moreUtilizations", moreUtilizations)
                 .add("internalState", internalState)
+                .add("signalVersion", signalVersion)
                 .toString();
     }
 }
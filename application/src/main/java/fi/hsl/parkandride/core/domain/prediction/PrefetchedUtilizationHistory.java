@@ -0,0 +1,99 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.commons.lang.IteratorAdapter;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import fi.hsl.parkandride.core.domain.UtilizationSearch;
+import org.joda.time.DateTime;
+
+import java.util.*;
+
+/**
+ * Utilization history which is read from the database for many utilization keys at once. Only the utilizations
+ * since the window start are read; requests which need older utilizations are passed to {@link UtilizationHistoryImpl}.
+ */
+public class PrefetchedUtilizationHistory implements UtilizationHistory {
+
+    private final DateTime windowStart;
+    private final Optional<Utilization> latest;
+    private final SortedUtilizationHistory utilizations;
+    private final UtilizationHistory fallback;
+
+    private PrefetchedUtilizationHistory(DateTime windowStart, Optional<Utilization> latest, List<Utilization> utilizations, UtilizationHistory fallback) {
+        this.windowStart = windowStart;
+        this.latest = latest;
+        this.utilizations = SortedUtilizationHistory.of(utilizations);
+        this.fallback = fallback;
+    }
+
+    /**
+     * Reads the latest utilizations with one query and the utilizations since the window start with another.
+     * Must be called in a transaction.
+     */
+    public static Map<UtilizationKey, UtilizationHistory> prefetch(UtilizationRepository utilizationRepository,
+                                                                   Collection<UtilizationKey> utilizationKeys,
+                                                                   DateTime windowStart) {
+        UtilizationSearch search = new UtilizationSearch();
+        utilizationKeys.forEach(key -> {
+            search.facilityIds.add(key.facilityId);
+            search.capacityTypes.add(key.capacityType);
+            search.usages.add(key.usage);
+        });
+        search.start = windowStart;
+        search.end = new DateTime().plusYears(1);
+
+        Map<UtilizationKey, Utilization> latestByKey = new HashMap<>();
+        utilizationRepository.findLatestUtilization(search.facilityIds.toArray(new Long[search.facilityIds.size()]))
+                .forEach(u -> latestByKey.put(u.getUtilizationKey(), u));
+
+        Map<UtilizationKey, List<Utilization>> utilizationsByKey = new HashMap<>();
+        utilizationKeys.forEach(key -> utilizationsByKey.put(key, new ArrayList<>()));
+        try (CloseableIterator<Utilization> it = utilizationRepository.findUtilizations(search)) {
+            while (it.hasNext()) {
+                Utilization u = it.next();
+                List<Utilization> list = utilizationsByKey.get(u.getUtilizationKey());
+                if (list != null) { // the search matches also other combinations of the facilities, capacity types and usages
+                    list.add(u);
+                }
+            }
+        }
+
+        Map<UtilizationKey, UtilizationHistory> histories = new HashMap<>();
+        utilizationsByKey.forEach((key, list) -> histories.put(key, new PrefetchedUtilizationHistory(
+                windowStart, Optional.ofNullable(latestByKey.get(key)), list, new UtilizationHistoryImpl(utilizationRepository, key))));
+        return histories;
+    }
+
+    @Override
+    public Optional<Utilization> getLatest() {
+        return latest;
+    }
+
+    @Override
+    public List<Utilization> getRange(DateTime startInclusive, DateTime endInclusive) {
+        if (startInclusive.isBefore(windowStart)) {
+            return fallback.getRange(startInclusive, endInclusive);
+        }
+        return utilizations.getInEffectAtSteps(startInclusive, endInclusive, getAt(startInclusive));
+    }
+
+    @Override
+    public CloseableIterator<Utilization> getUpdatesSince(DateTime startExclusive) {
+        if (startExclusive.isBefore(windowStart)) {
+            return fallback.getUpdatesSince(startExclusive);
+        }
+        return new IteratorAdapter<>(utilizations.getAfter(startExclusive).iterator());
+    }
+
+    @Override
+    public Optional<Utilization> getAt(DateTime timestamp) {
+        Optional<Utilization> inEffect = utilizations.getAt(timestamp);
+        // the utilization in effect may be older than the window
+        return inEffect.isPresent() ? inEffect : fallback.getAt(timestamp);
+    }
+}
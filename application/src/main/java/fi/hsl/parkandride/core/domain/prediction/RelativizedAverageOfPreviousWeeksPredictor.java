@@ -30,6 +30,11 @@ public class RelativizedAverageOfPreviousWeeksPredictor implements Predictor {
         return TYPE;
     }
 
+    @Override
+    public ReadablePeriod getHistoryLookback() {
+        return Weeks.weeks(3).toPeriod().plus(LOOKBACK_MINUTES);
+    }
+
     @Override
     public List<Prediction> predict(PredictorState state, UtilizationHistory history, int maxCapacity) {
         Optional<Utilization> latest = history.getLatest();
@@ -37,22 +42,21 @@ public class RelativizedAverageOfPreviousWeeksPredictor implements Predictor {
             return Collections.emptyList();
         }
         DateTime now = state.latestUtilization = latest.get().timestamp;
-        final UtilizationHistory inMemoryHistory = new UtilizationHistoryList(history.getRange(now.minusWeeks(3).minus(LOOKBACK_MINUTES), now));
+        final SortedUtilizationHistory inMemoryHistory = new SortedUtilizationHistory(history.getRange(now.minusWeeks(3).minus(LOOKBACK_MINUTES), now));
 
         List<List<Prediction>> groupedByWeek =
                 LOOKBACK_PERIODS.stream()
                         .map(offset -> {
                             DateTime start = now.minus(offset);
                             DateTime end = start.plus(PredictionRepository.PREDICTION_WINDOW);
-                            Optional<Utilization> utilizationAtReferenceTime = inMemoryHistory.getAt(start);
-                            if (!utilizationAtReferenceTime.isPresent()) {
+                            OptionalInt spacesAvailableAtReferenceTime = inMemoryHistory.getSpacesAvailableAt(start);
+                            if (!spacesAvailableAtReferenceTime.isPresent()) {
                                 return null;
                             }
 
-                            Integer spacesAvailableAtReferenceTime = utilizationAtReferenceTime.get().spacesAvailable;
                             List<Utilization> utilizations = inMemoryHistory.getRange(start, end);
                             return utilizations.stream()
-                                    .map(u -> new Prediction(u.timestamp.plus(offset), u.spacesAvailable - spacesAvailableAtReferenceTime))
+                                    .map(u -> new Prediction(u.timestamp.plus(offset), u.spacesAvailable - spacesAvailableAtReferenceTime.getAsInt()))
                                     .collect(Collectors.toList());
                         })
                         .filter(Objects::nonNull)
@@ -0,0 +1,74 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.commons.lang.IteratorAdapter;
+import fi.hsl.parkandride.core.domain.Utilization;
+import org.joda.time.DateTime;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * In-memory utilization history of one utilization key for replaying predictors over past utilizations.
+ * It has the same semantics as {@link UtilizationHistoryImpl}, but {@link #asOf(DateTime)} hides the
+ * utilizations after a point in time without copying them, so that a predictor can be run at each step
+ * of the replay without seeing the future.
+ */
+public class ReplayUtilizationHistory implements UtilizationHistory {
+
+    private final SortedUtilizationHistory sorted;
+
+    public ReplayUtilizationHistory(List<Utilization> utilizations) {
+        this(SortedUtilizationHistory.of(utilizations));
+    }
+
+    private ReplayUtilizationHistory(SortedUtilizationHistory sorted) {
+        this.sorted = sorted;
+    }
+
+    /**
+     * @return the history without the utilizations after {@code now}
+     */
+    public ReplayUtilizationHistory asOf(DateTime now) {
+        return new ReplayUtilizationHistory(sorted.asOf(now));
+    }
+
+    public int size() {
+        return sorted.size();
+    }
+
+    /**
+     * Same as {@link #getAt(DateTime)}, but reads only the spaces available.
+     */
+    public OptionalInt getSpacesAvailableAt(DateTime timestamp) {
+        return sorted.getSpacesAvailableAt(timestamp);
+    }
+
+    @Override
+    public Optional<Utilization> getLatest() {
+        return sorted.getLatest();
+    }
+
+    /**
+     * The utilizations in effect at each step of prediction resolution, like
+     * {@link fi.hsl.parkandride.core.back.UtilizationRepository#findUtilizationsWithResolution}.
+     */
+    @Override
+    public List<Utilization> getRange(DateTime startInclusive, DateTime endInclusive) {
+        return sorted.getInEffectAtSteps(startInclusive, endInclusive, sorted.getAt(startInclusive));
+    }
+
+    @Override
+    public CloseableIterator<Utilization> getUpdatesSince(DateTime startExclusive) {
+        return new IteratorAdapter<>(sorted.getAfter(startExclusive).iterator());
+    }
+
+    @Override
+    public Optional<Utilization> getAt(DateTime timestamp) {
+        return sorted.getAt(timestamp);
+    }
+}
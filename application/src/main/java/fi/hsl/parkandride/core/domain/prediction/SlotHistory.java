@@ -0,0 +1,122 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import fi.hsl.parkandride.core.back.PredictionRepository;
+import org.joda.time.DateTime;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Spaces available of one utilization key at {@link PredictionRepository#PREDICTION_RESOLUTION} over
+ * a rolling window which ends at the latest utilization. Each slot holds the latest spaces available
+ * of that slot, and slots without utilizations repeat the previous slot. The history is compact enough
+ * to be stored in {@link PredictorState#internalState}, so that predictors can extend it with only the
+ * utilizations which have arrived since the previous update.
+ */
+public class SlotHistory {
+
+    private static final long SLOT_MILLIS = PredictionRepository.PREDICTION_RESOLUTION.toStandardDuration().getMillis();
+    private static final short NO_DATA = Short.MIN_VALUE;
+    private static final long NO_SLOT = Long.MIN_VALUE;
+    private static final String FORMAT = "slots1:";
+
+    private final short[] values;
+    private long latestSlot = NO_SLOT;
+
+    public SlotHistory(int size) {
+        this.values = new short[size];
+        Arrays.fill(values, NO_DATA);
+    }
+
+    public static long slotOf(DateTime time) {
+        return Math.floorDiv(time.getMillis(), SLOT_MILLIS);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public boolean isEmpty() {
+        return latestSlot == NO_SLOT;
+    }
+
+    public void add(DateTime timestamp, int spacesAvailable) {
+        long slot = slotOf(timestamp);
+        if (isEmpty()) {
+            latestSlot = slot;
+        } else if (slot < latestSlot) {
+            return; // utilizations are added in time order, so the slot already has a later value
+        } else if (slot > latestSlot) {
+            short previous = values[index(latestSlot)];
+            long gap = Math.min(slot - latestSlot - 1, values.length);
+            for (long s = slot - gap; s < slot; s++) {
+                values[index(s)] = previous;
+            }
+            latestSlot = slot;
+        }
+        values[index(slot)] = (short) Math.max(NO_DATA + 1, Math.min(Short.MAX_VALUE, spacesAvailable));
+    }
+
+    /**
+     * @return spaces available at the time, or empty if the time is outside the history or before the first utilization
+     */
+    public OptionalInt get(DateTime time) {
+        long slot = slotOf(time);
+        if (isEmpty() || slot > latestSlot || slot <= latestSlot - values.length) {
+            return OptionalInt.empty();
+        }
+        short value = values[index(slot)];
+        return value == NO_DATA ? OptionalInt.empty() : OptionalInt.of(value);
+    }
+
+    private int index(long slot) {
+        return (int) Math.floorMod(slot, (long) values.length);
+    }
+
+    public String serialize() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // runs of repeated values compress well
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(values.length);
+            out.writeLong(latestSlot);
+            for (short value : values) {
+                out.writeShort(value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return FORMAT + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @return the history, or empty if the state is not a history of the given size, for example if the predictor
+     * has not been updated yet
+     */
+    public static Optional<SlotHistory> deserialize(String state, int size) {
+        if (!state.startsWith(FORMAT)) {
+            return Optional.empty();
+        }
+        byte[] bytes = Base64.getDecoder().decode(state.substring(FORMAT.length()));
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+            if (in.readInt() != size) {
+                return Optional.empty();
+            }
+            SlotHistory history = new SlotHistory(size);
+            history.latestSlot = in.readLong();
+            for (int i = 0; i < size; i++) {
+                history.values[i] = in.readShort();
+            }
+            return Optional.of(history);
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.commons.lang.IteratorAdapter;
+import fi.hsl.parkandride.core.back.PredictionRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import org.joda.time.DateTime;
+
+import java.util.*;
+
+/**
+ * In-memory utilization history with the same semantics as {@link UtilizationHistoryList}, but the utilizations
+ * are sorted once and their timestamps and spaces available are kept in parallel arrays, so that the lookups
+ * are binary searches instead of scans over the whole history.
+ * <p>
+ * The other in-memory histories, which mimic the database instead, are built on the same lookups.
+ */
+public class SortedUtilizationHistory implements UtilizationHistory {
+
+    private final List<Utilization> utilizations;
+    private final long[] timestamps;
+    private final int[] spacesAvailable;
+    private final int size;
+
+    public SortedUtilizationHistory(List<Utilization> utilizationList) {
+        this(requireNotEmpty(utilizationList));
+    }
+
+    private SortedUtilizationHistory(Utilization[] sorted) {
+        this.utilizations = Collections.unmodifiableList(Arrays.asList(sorted));
+        this.timestamps = new long[sorted.length];
+        this.spacesAvailable = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            timestamps[i] = sorted[i].timestamp.getMillis();
+            spacesAvailable[i] = sorted[i].spacesAvailable;
+        }
+        this.size = sorted.length;
+    }
+
+    private SortedUtilizationHistory(SortedUtilizationHistory history, int size) {
+        this.utilizations = history.utilizations.subList(0, size);
+        this.timestamps = history.timestamps;
+        this.spacesAvailable = history.spacesAvailable;
+        this.size = size;
+    }
+
+    /**
+     * Same as the constructor, but the utilizations may be empty.
+     */
+    static SortedUtilizationHistory of(List<Utilization> utilizations) {
+        return new SortedUtilizationHistory(sort(utilizations));
+    }
+
+    private static Utilization[] requireNotEmpty(List<Utilization> utilizationList) {
+        if (utilizationList == null || utilizationList.isEmpty())
+            throw new IllegalArgumentException("utilizationList must not be null or empty.");
+        return sort(utilizationList);
+    }
+
+    private static Utilization[] sort(List<Utilization> utilizations) {
+        Utilization[] sorted = utilizations.toArray(new Utilization[utilizations.size()]);
+        Arrays.sort(sorted, (a, b) -> a.timestamp.compareTo(b.timestamp)); // stable and linear for already sorted input
+        return sorted;
+    }
+
+    /**
+     * @return the history without the utilizations after {@code now}, sharing the utilizations of this history
+     */
+    public SortedUtilizationHistory asOf(DateTime now) {
+        return new SortedUtilizationHistory(this, indexOfFirstAfter(now.getMillis()));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Optional<Utilization> getLatest() {
+        return size > 0 ? Optional.of(utilizations.get(size - 1)) : Optional.empty();
+    }
+
+    @Override
+    public List<Utilization> getRange(DateTime startInclusive, DateTime endInclusive) {
+        int from = indexOfFirstNotBefore(startInclusive.getMillis());
+        int to = indexOfFirstAfter(endInclusive.getMillis());
+        return from < to ? utilizations.subList(from, to) : Collections.emptyList();
+    }
+
+    @Override
+    public CloseableIterator<Utilization> getUpdatesSince(DateTime startExclusive) {
+        // inclusive like UtilizationHistoryList
+        return new IteratorAdapter<>(utilizations.subList(indexOfFirstNotBefore(startExclusive.getMillis()), size).iterator());
+    }
+
+    @Override
+    public Optional<Utilization> getAt(DateTime timestamp) {
+        int index = indexOfFirstAfter(timestamp.getMillis()) - 1;
+        return index >= 0 ? Optional.of(utilizations.get(index)) : Optional.empty();
+    }
+
+    /**
+     * Same as {@link #getAt(DateTime)}, but reads only the spaces available.
+     */
+    public OptionalInt getSpacesAvailableAt(DateTime timestamp) {
+        int index = indexOfFirstAfter(timestamp.getMillis()) - 1;
+        return index >= 0 ? OptionalInt.of(spacesAvailable[index]) : OptionalInt.empty();
+    }
+
+    /**
+     * The utilizations after the timestamp, like {@link UtilizationHistoryImpl#getUpdatesSince(DateTime)}.
+     */
+    List<Utilization> getAfter(DateTime startExclusive) {
+        return utilizations.subList(indexOfFirstAfter(startExclusive.getMillis()), size);
+    }
+
+    /**
+     * The utilizations in effect at each step of prediction resolution, like
+     * {@link fi.hsl.parkandride.core.back.UtilizationRepository#findUtilizationsWithResolution}.
+     *
+     * @param inEffectAtStart the utilization in effect at the start, which may be older than this history
+     */
+    List<Utilization> getInEffectAtSteps(DateTime startInclusive, DateTime endInclusive, Optional<Utilization> inEffectAtStart) {
+        List<Utilization> results = new ArrayList<>();
+        int next = indexOfFirstAfter(startInclusive.getMillis());
+        Utilization current = inEffectAtStart.orElse(null);
+        for (DateTime instant = startInclusive; !instant.isAfter(endInclusive); instant = instant.plus(PredictionRepository.PREDICTION_RESOLUTION)) {
+            long millis = instant.getMillis();
+            while (next < size && timestamps[next] <= millis) {
+                current = utilizations.get(next++);
+            }
+            if (current != null) {
+                Utilization u = current.copy();
+                u.timestamp = instant;
+                results.add(u);
+            }
+        }
+        return results;
+    }
+
+    private int indexOfFirstNotBefore(long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOfFirstAfter(long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -14,10 +14,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.function.Predicate;
 
 import static fi.hsl.parkandride.core.domain.Permission.*;
 import static fi.hsl.parkandride.core.service.AuthenticationService.authorize;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toSet;
 
 public class FacilityService {
     private static final Logger logger = LoggerFactory.getLogger(FacilityService.class);
@@ -27,13 +28,17 @@ public class FacilityService {
     private final ContactRepository contactRepository;
     private final ValidationService validationService;
     private final PredictionService predictionService;
+    private final UtilizationIngestQueue ingestQueue;
+    private final LatestUtilizationsCache latestUtilizationsCache;
 
-    public FacilityService(FacilityRepository repository, UtilizationRepository utilizationRepository, ContactRepository contactRepository, ValidationService validationService, PredictionService predictionService) {
+    public FacilityService(FacilityRepository repository, UtilizationRepository utilizationRepository, ContactRepository contactRepository, ValidationService validationService, PredictionService predictionService, UtilizationIngestQueue ingestQueue, LatestUtilizationsCache latestUtilizationsCache) {
         this.repository = repository;
         this.utilizationRepository = utilizationRepository;
         this.contactRepository = contactRepository;
         this.validationService = validationService;
         this.predictionService = predictionService;
+        this.ingestQueue = ingestQueue;
+        this.latestUtilizationsCache = latestUtilizationsCache;
     }
 
     @TransactionalWrite
@@ -98,8 +103,8 @@ public class FacilityService {
 
     @TransactionalWrite
     public void registerUtilization(long facilityId, List<Utilization> utilization, User currentUser) {
-        FacilityInfo facility = repository.getFacilityInfo(facilityId);
-        authorize(currentUser, facility, FACILITY_UTILIZATION_UPDATE);
+        authorizeUtilizationUpdate(currentUser, Collections.singleton(facilityId));
+        FacilityInfo facility = repository.getCachedFacility(facilityId);
 
         initUtilizationDefaults(facility, utilization);
         validateUtilizations(facilityId, utilization);
@@ -107,8 +112,88 @@ public class FacilityService {
 
         checkUtilizationApplicability(facility, utilization);
 
-        utilizationRepository.insertUtilizations(utilization);
-        predictionService.signalUpdateNeeded(utilization);
+        storeUtilizations(utilization);
+    }
+
+    /**
+     * Registers utilizations of many facilities at once. Unlike {@link #registerUtilization(long, List, User)},
+     * every utilization must define its facility. All utilizations are validated before any of them are
+     * stored, and the violations of every invalid utilization are reported together.
+     */
+    @TransactionalWrite
+    public void registerUtilizations(List<Utilization> utilizations, User currentUser) {
+        Map<Long, FacilityInfo> facilities = getFacilitiesForUtilizationUpdate(utilizations, currentUser);
+
+        List<Violation> violations = new ArrayList<>();
+        for (int i = 0; i < utilizations.size(); i++) {
+            Utilization u = utilizations.get(i);
+            List<Violation> utilizationViolations = new ArrayList<>();
+            FacilityInfo facility = facilities.get(u.facilityId);
+            if (facility != null) {
+                initUtilizationDefaults(facility, u);
+            } else if (u.facilityId != null) {
+                utilizationViolations.add(new Violation("NotFound", "facilityId", "facility " + u.facilityId + " not found"));
+            }
+            utilizationViolations.addAll(validateUtilization(u));
+            violations.addAll(Violation.withPathPrefix("[" + i + "].", utilizationViolations));
+        }
+        if (!violations.isEmpty()) {
+            throw new ValidationException(violations);
+        }
+        autoUpdateFacilityCapacity(utilizations);
+
+        utilizations.stream()
+                .collect(groupingBy(u -> u.facilityId))
+                .forEach((facilityId, facilityUtilizations) -> checkUtilizationApplicability(facilities.get(facilityId), facilityUtilizations));
+
+        storeUtilizations(utilizations);
+    }
+
+    /**
+     * Whether registered utilizations are stored later through the write-behind queue, so that they may
+     * not yet be included in the latest utilizations when the registration returns.
+     */
+    public boolean isUtilizationIngestAsync() {
+        return ingestQueue.isEnabled();
+    }
+
+    public FacilityCacheStatus getFacilityCacheStatus() {
+        return repository.getCacheStatus();
+    }
+
+    /**
+     * Stores validated utilizations, either immediately or through the write-behind queue if it is enabled.
+     */
+    private void storeUtilizations(List<Utilization> utilizations) {
+        if (ingestQueue.isEnabled()) {
+            ingestQueue.enqueue(utilizations);
+        } else {
+            utilizationRepository.insertUtilizations(utilizations);
+            predictionService.signalUpdateNeeded(utilizations);
+        }
+    }
+
+    /**
+     * Facilities which don't exist are left out; they are reported as validation errors of the utilizations which refer to them.
+     */
+    private Map<Long, FacilityInfo> getFacilitiesForUtilizationUpdate(List<Utilization> utilizations, User currentUser) {
+        Set<Long> facilityIds = utilizations.stream()
+                .map(u -> u.facilityId)
+                .filter(Objects::nonNull)
+                .collect(toSet());
+        Set<Long> existing = authorizeUtilizationUpdate(currentUser, facilityIds);
+        return new HashMap<>(repository.getCachedFacilities(existing));
+    }
+
+    /**
+     * Authorizes against the operators read from the database, since a cached facility may be stale.
+     *
+     * @return the ids of the facilities which exist
+     */
+    private Set<Long> authorizeUtilizationUpdate(User currentUser, Collection<Long> facilityIds) {
+        Map<Long, Long> operatorIds = repository.getOperatorIds(facilityIds);
+        operatorIds.values().forEach(operatorId -> authorize(currentUser, () -> operatorId, FACILITY_UTILIZATION_UPDATE));
+        return operatorIds.keySet();
     }
 
     /**
@@ -131,9 +216,13 @@ public class FacilityService {
             if (u.facilityId == null) {
                 u.facilityId = facility.id;
             }
-            if (u.capacity == null) {
-                u.capacity = facility.builtCapacity.getOrDefault(u.capacityType, u.spacesAvailable);
-            }
+            initUtilizationDefaults(facility, u);
+        }
+    }
+
+    private static void initUtilizationDefaults(FacilityInfo facility, Utilization u) {
+        if (u.capacity == null) {
+            u.capacity = facility.builtCapacity.getOrDefault(u.capacityType, u.spacesAvailable);
         }
     }
 
@@ -147,11 +236,16 @@ public class FacilityService {
     }
 
     private List<Violation> validateUtilization(Utilization u, long expectedFacilityId) {
-        List<Violation> violations = new ArrayList<>();
-        validationService.validate(u, violations);
+        List<Violation> violations = validateUtilization(u);
         if (!Objects.equals(u.facilityId, expectedFacilityId)) {
             violations.add(new Violation("NotEqual", "facilityId", "Expected to be " + expectedFacilityId + " but was " + u.facilityId));
         }
+        return violations;
+    }
+
+    private List<Violation> validateUtilization(Utilization u) {
+        List<Violation> violations = new ArrayList<>();
+        validationService.validate(u, violations);
         if (isFarIntoFuture(u.timestamp)) {
             violations.add(new Violation("NotFuture", "timestamp", u.timestamp + " is too far into future; the current time is " + DateTime.now()));
         }
@@ -166,6 +260,9 @@ public class FacilityService {
 
     private void autoUpdateFacilityCapacity(List<Utilization> utilization) {
         for (Utilization u : utilization) {
+            if (!isCapacityOutdated(repository.getCachedFacility(u.facilityId), u)) {
+                continue;
+            }
             Facility facility = repository.getFacility(u.facilityId);
 
             Integer builtCapacity = facility.builtCapacity.get(u.capacityType);
@@ -178,22 +275,44 @@ public class FacilityService {
                 repository.updateFacility(facility.id, facility);
             }
 
-            Predicate<UnavailableCapacity> matchesUtilization = uc -> uc.capacityType.equals(u.capacityType) && uc.usage.equals(u.usage);
-            int unavailableCapacity = facility.unavailableCapacities.stream()
-                    .filter(matchesUtilization)
-                    .map(uc -> uc.capacity)
-                    .findFirst()
-                    .orElse(0);
-            if (builtCapacity - unavailableCapacity != u.capacity) {
-                facility.unavailableCapacities.removeIf(matchesUtilization);
+            if (builtCapacity - getUnavailableCapacity(facility, u) != u.capacity) {
+                facility.unavailableCapacities.removeIf(uc -> matchesUtilization(uc, u));
                 facility.unavailableCapacities.add(new UnavailableCapacity(u.capacityType, u.usage, builtCapacity - u.capacity));
                 repository.updateFacility(facility.id, facility);
             }
         }
     }
 
-    @TransactionalRead
+    private static boolean isCapacityOutdated(Facility facility, Utilization u) {
+        Integer builtCapacity = facility.builtCapacity.get(u.capacityType);
+        return builtCapacity != null &&
+                (builtCapacity < u.capacity || builtCapacity - getUnavailableCapacity(facility, u) != u.capacity);
+    }
+
+    private static int getUnavailableCapacity(Facility facility, Utilization u) {
+        return facility.unavailableCapacities.stream()
+                .filter(uc -> matchesUtilization(uc, u))
+                .map(uc -> uc.capacity)
+                .findFirst()
+                .orElse(0);
+    }
+
+    private static boolean matchesUtilization(UnavailableCapacity uc, Utilization u) {
+        return uc.capacityType.equals(u.capacityType) && uc.usage.equals(u.usage);
+    }
+
+    /**
+     * Without facility IDs, returns the latest utilizations of all facilities from an in-memory snapshot.
+     * Not transactional, so that the snapshot can be served without reserving a database connection.
+     */
     public Set<Utilization> findLatestUtilization(Long... facilityIds) {
+        if (facilityIds.length == 0) {
+            return getLatestUtilizations().utilizations;
+        }
         return utilizationRepository.findLatestUtilization(facilityIds);
     }
+
+    public LatestUtilizations getLatestUtilizations() {
+        return latestUtilizationsCache.get(() -> utilizationRepository.findLatestUtilization());
+    }
 }
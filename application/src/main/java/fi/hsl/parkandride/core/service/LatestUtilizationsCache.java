@@ -0,0 +1,43 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.core.domain.LatestUtilizations;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.util.SnapshotCache;
+import org.joda.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Holds the latest utilizations of all facilities, so that polling them doesn't need a database connection.
+ * New utilizations are merged into a copy of the snapshot when their transaction commits, and facility changes,
+ * which may change the shown utilization keys, reload it. Utilizations and facilities changed on other cluster
+ * nodes, and the first utilizations of new utilization keys, are seen when the snapshot expires.
+ */
+public class LatestUtilizationsCache {
+
+    private final SnapshotCache<LatestUtilizations> snapshot;
+
+    public LatestUtilizationsCache(Duration maxAge) {
+        this.snapshot = new SnapshotCache<>(maxAge);
+    }
+
+    public LatestUtilizations get(Supplier<Set<Utilization>> loader) {
+        return snapshot.get(() -> new LatestUtilizations(loader.get()));
+    }
+
+    public void utilizationsAdded(Collection<Utilization> utilizations) {
+        List<Utilization> copy = new ArrayList<>(utilizations);
+        snapshot.updateAfterCommit(latest -> latest.merge(copy));
+    }
+
+    public void invalidate() {
+        snapshot.invalidate();
+    }
+}
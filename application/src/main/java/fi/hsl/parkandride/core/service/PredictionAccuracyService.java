@@ -0,0 +1,74 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.core.back.LockRepository;
+import fi.hsl.parkandride.core.back.PredictionRepository;
+import fi.hsl.parkandride.core.domain.Lock;
+import fi.hsl.parkandride.core.domain.LockException;
+import fi.hsl.parkandride.core.domain.prediction.PredictionAccuracy;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.joda.time.Minutes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Scores the prediction history against the actual utilizations, so that the predictors can be compared
+ * by their error at each forecast distance. Each run scores only the history which has not been scored yet.
+ * The predictions of the last delayMinutes are left for the next run, because their utilizations may not
+ * have arrived yet, and history older than catchUpHours is never scored. Predictions are not scored against
+ * utilizations older than maxUtilizationAgeMinutes, which facilities that stopped reporting would leave behind.
+ */
+public class PredictionAccuracyService {
+
+    private static final Logger log = LoggerFactory.getLogger(PredictionAccuracyService.class);
+
+    private final PredictionRepository predictionRepository;
+    private final LockRepository lockRepository;
+    private final int delayMinutes;
+    private final int catchUpHours;
+    private final Minutes maxUtilizationAge;
+
+    public PredictionAccuracyService(PredictionRepository predictionRepository, LockRepository lockRepository,
+                                     int delayMinutes, int catchUpHours, int maxUtilizationAgeMinutes) {
+        this.predictionRepository = predictionRepository;
+        this.lockRepository = lockRepository;
+        this.delayMinutes = delayMinutes;
+        this.catchUpHours = catchUpHours;
+        this.maxUtilizationAge = Minutes.minutes(maxUtilizationAgeMinutes);
+    }
+
+    @Scheduled(cron = "${prediction.accuracy.cron}")
+    public void scorePredictions() {
+        Optional<Lock> lock = Optional.empty();
+        try {
+            lock = Optional.of(lockRepository.acquireLock("prediction-accuracy", Duration.standardMinutes(10)));
+            doScorePredictions(DateTime.now());
+        } catch (LockException e) {
+            log.debug("Failed to get lock for scoring predictions - another node scores them.");
+        } finally {
+            lock.ifPresent(l -> lockRepository.releaseLock(l));
+        }
+    }
+
+    int doScorePredictions(DateTime now) {
+        DateTime end = now.minusMinutes(delayMinutes);
+        int updated = predictionRepository.updatePredictionAccuracy(end.minusHours(catchUpHours), end, maxUtilizationAge);
+        log.debug("Scored the predictions of {} predictors and forecast distances until {}", updated, end);
+        return updated;
+    }
+
+    public List<PredictionAccuracy> getPredictionAccuracy() {
+        return predictionRepository.getPredictionAccuracy();
+    }
+
+    public List<PredictionAccuracy> getPredictionAccuracyByFacility(long facilityId) {
+        return predictionRepository.getPredictionAccuracyByFacility(facilityId);
+    }
+}
@@ -0,0 +1,169 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import com.mysema.commons.lang.CloseableIterator;
+import fi.hsl.parkandride.back.TimeUtil;
+import fi.hsl.parkandride.back.prediction.PredictionDao;
+import fi.hsl.parkandride.back.prediction.PredictionSlots;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import fi.hsl.parkandride.core.domain.prediction.*;
+import org.joda.time.DateTime;
+import org.joda.time.Minutes;
+import org.joda.time.ReadablePeriod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_WINDOW;
+
+/**
+ * Replays the predictors over past utilizations and scores their predictions against the utilizations
+ * which followed, at the forecast distances of the prediction history. The history of each utilization key
+ * is read once and the keys are replayed in parallel. The histories are read by at most maxConnections threads
+ * at a time, so that the backtest leaves connections for the rest of the application. Nothing is written
+ * to the database.
+ */
+public class PredictionBacktestService {
+
+    private static final Logger log = LoggerFactory.getLogger(PredictionBacktestService.class);
+
+    private static final int[] SCORED_INDEXES = PredictionDao.predictionsDistancesToStore.stream()
+            .mapToLong(distance -> distance.getStandardMinutes() / PREDICTION_RESOLUTION.getMinutes())
+            .filter(index -> index < PREDICTION_WINDOW.toStandardMinutes().getMinutes() / PREDICTION_RESOLUTION.getMinutes())
+            .mapToInt(index -> (int) index)
+            .toArray();
+
+    private final UtilizationRepository utilizationRepository;
+    private final TransactionTemplate txTemplate;
+    private final List<Predictor> predictors;
+    private final int parallelism;
+    private final Semaphore connections;
+
+    public PredictionBacktestService(UtilizationRepository utilizationRepository, PlatformTransactionManager transactionManager,
+                                     List<Predictor> predictors, int parallelism, int maxConnections) {
+        this.utilizationRepository = utilizationRepository;
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.txTemplate.setReadOnly(true);
+        this.txTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.predictors = predictors;
+        this.parallelism = parallelism;
+        this.connections = new Semaphore(maxConnections);
+    }
+
+    /**
+     * Runs the predictors at every {@code step} from {@code start} to {@code end}, whenever there are new
+     * utilizations, like the scheduled prediction update does. The predictions are scored until {@code end}.
+     */
+    public BacktestResult backtest(Collection<UtilizationKey> utilizationKeys, DateTime start, DateTime end, Minutes step) {
+        long startedAt = System.currentTimeMillis();
+        DateTime historyStart = start.minus(maxHistoryLookback());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            BacktestResult result = pool.submit(() -> utilizationKeys.parallelStream()
+                    .map(utilizationKey -> backtest(utilizationKey, historyStart, start, end, step))
+                    .reduce(BacktestResult::merge) // merges into the left result, so there must be no shared identity
+                    .orElseGet(BacktestResult::new))
+                    .get();
+            result.elapsedMillis = System.currentTimeMillis() - startedAt;
+            log.info("Backtested {} utilization keys from {} to {} in {} ms", result.utilizationKeys, start, end, result.elapsedMillis);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Backtest was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Backtest failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private BacktestResult backtest(UtilizationKey utilizationKey, DateTime historyStart, DateTime start, DateTime end, Minutes step) {
+        ReplayUtilizationHistory history = new ReplayUtilizationHistory(readHistory(utilizationKey, historyStart, end));
+        BacktestResult result = new BacktestResult();
+        result.utilizationKeys = 1;
+        result.utilizations = history.size();
+        for (Predictor predictor : predictors) {
+            replay(predictor, utilizationKey, history, start, end, step, result.getPredictor(predictor.getType()));
+        }
+        return result;
+    }
+
+    private List<Utilization> readHistory(UtilizationKey utilizationKey, DateTime historyStart, DateTime end) {
+        connections.acquireUninterruptibly();
+        try {
+            return txTemplate.execute(tx -> {
+                List<Utilization> utilizations = new ArrayList<>();
+                // the utilization in effect at the start of the history, which the predictors see as the latest before any updates
+                utilizationRepository.findUtilizationAtInstant(utilizationKey, historyStart)
+                        .filter(u -> u.timestamp.isBefore(historyStart))
+                        .ifPresent(utilizations::add);
+                try (CloseableIterator<Utilization> it = utilizationRepository.findUtilizationsBetween(utilizationKey, historyStart, end)) {
+                    it.forEachRemaining(utilizations::add);
+                }
+                return utilizations;
+            });
+        } finally {
+            connections.release();
+        }
+    }
+
+    private static void replay(Predictor predictor, UtilizationKey utilizationKey, ReplayUtilizationHistory history,
+                               DateTime start, DateTime end, Minutes step, BacktestResult.PredictorStatistics statistics) {
+        PredictorState state = new PredictorState(0L, predictor.getType(), utilizationKey);
+        for (DateTime now = start; !now.isAfter(end); now = now.plus(step)) {
+            ReplayUtilizationHistory visible = history.asOf(now);
+            Optional<Utilization> latest = visible.getLatest();
+            if (!latest.isPresent() || !latest.get().timestamp.isAfter(state.latestUtilization)) {
+                continue; // the predictor is updated only when there are new utilizations
+            }
+            long before = System.nanoTime();
+            List<Prediction> predictions = predictor.predict(state, visible, maxCapacity(latest.get()));
+            statistics.addPredictTime(System.nanoTime() - before);
+            score(predictions, state.latestUtilization, history, end, statistics);
+        }
+    }
+
+    private static void score(List<Prediction> predictions, DateTime sourceTimestamp, ReplayUtilizationHistory history,
+                              DateTime end, BacktestResult.PredictorStatistics statistics) {
+        if (predictions.isEmpty()) {
+            return;
+        }
+        PredictionSlots slots = PredictionSlots.normalize(TimeUtil.roundMinutes(PREDICTION_RESOLUTION.getMinutes(), sourceTimestamp), predictions);
+        for (int index : SCORED_INDEXES) {
+            DateTime timestamp = slots.timestampAt(index);
+            if (timestamp.isAfter(end) || !slots.isPredictedAt(index)) {
+                continue;
+            }
+            OptionalInt actual = history.getSpacesAvailableAt(timestamp);
+            if (actual.isPresent()) {
+                statistics.addError(index * PREDICTION_RESOLUTION.getMinutes(), slots.getAt(index), actual.getAsInt());
+            }
+        }
+    }
+
+    private static int maxCapacity(Utilization latest) {
+        // the facility's capacity may have changed since, so the capacity of the utilization is used instead
+        return latest.capacity != null ? latest.capacity : Integer.MAX_VALUE;
+    }
+
+    private ReadablePeriod maxHistoryLookback() {
+        DateTime reference = new DateTime(0);
+        return predictors.stream()
+                .map(Predictor::getHistoryLookback)
+                .max(Comparator.comparing((ReadablePeriod period) -> reference.plus(period)))
+                .orElse(PREDICTION_RESOLUTION);
+    }
+}
@@ -3,23 +3,36 @@
 
 package fi.hsl.parkandride.core.service;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import fi.hsl.parkandride.core.back.*;
 import fi.hsl.parkandride.core.domain.*;
 import fi.hsl.parkandride.core.domain.prediction.*;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
+import org.joda.time.Hours;
+import org.joda.time.Minutes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 import static org.springframework.transaction.annotation.Isolation.READ_COMMITTED;
 import static org.springframework.transaction.annotation.Propagation.REQUIRES_NEW;
 
@@ -27,27 +40,74 @@ public class PredictionService {
 
     private static final Logger log = LoggerFactory.getLogger(PredictionService.class);
 
+    // extra history, so that the utilization in effect at the start of a predictor's lookback is usually prefetched too
+    private static final Hours HISTORY_PREFETCH_MARGIN = Hours.ONE;
+
+    private static final CapacityType[] CAPACITY_TYPES = CapacityType.values();
+    private static final Usage[] USAGES = Usage.values();
+
     private final UtilizationRepository utilizationRepository;
     private final PredictionRepository predictionRepository;
     private final PredictorRepository predictorRepository;
     private final PlatformTransactionManager transactionManager;
     private final Map<String, Predictor> predictorsByType;
     private final FacilityRepository facilityRepository;
-    private final LockRepository lockRepository;
+    private final TransactionTemplate txTemplate;
+    private final ExecutorService updateExecutor;
+    private final int updateConcurrency;
+    private final Duration predictorTimeout;
+    private final PredictionUpdateScheduler updateScheduler;
+
+    /** Utilization keys whose predictors are known to exist, so that they need not be enabled again */
+    private final Set<UtilizationKey> enabledUtilizationKeys = ConcurrentHashMap.newKeySet();
+
+    /** Updates of the batches which are being updated; the scheduled and the due updates may run at the same time */
+    private final Set<PredictorUpdate> runningUpdates = ConcurrentHashMap.newKeySet();
+    private final AtomicLong updatedPredictorCount = new AtomicLong();
+    private final AtomicLong failedPredictorCount = new AtomicLong();
+    private final AtomicLong timedOutPredictorCount = new AtomicLong();
+    private volatile long lastUpdateDurationMillis;
 
     public PredictionService(UtilizationRepository utilizationRepository,
                              PredictionRepository predictionRepository,
                              PredictorRepository predictorRepository,
                              FacilityRepository facilityRepository,
                              PlatformTransactionManager transactionManager,
-                             LockRepository lockRepository,
+                             Predictor... predictors) {
+        this(utilizationRepository, predictionRepository, predictorRepository, facilityRepository, transactionManager,
+                1, Duration.standardMinutes(2), new PredictionUpdateScheduler(Duration.standardSeconds(5), Duration.standardMinutes(5)),
+                predictors);
+    }
+
+    /**
+     * @param updateConcurrency how many predictors are updated in parallel; each of them uses a database connection
+     * @param predictorTimeout  how long the update of one predictor may take before it's interrupted
+     * @param updateScheduler   decides which predictors with new utilizations are updated before the scheduled update
+     */
+    public PredictionService(UtilizationRepository utilizationRepository,
+                             PredictionRepository predictionRepository,
+                             PredictorRepository predictorRepository,
+                             FacilityRepository facilityRepository,
+                             PlatformTransactionManager transactionManager,
+                             int updateConcurrency,
+                             Duration predictorTimeout,
+                             PredictionUpdateScheduler updateScheduler,
                              Predictor... predictors) {
         this.utilizationRepository = utilizationRepository;
         this.predictionRepository = predictionRepository;
         this.predictorRepository = predictorRepository;
         this.transactionManager = transactionManager;
         this.facilityRepository = facilityRepository;
-        this.lockRepository = lockRepository;
+        this.updateConcurrency = updateConcurrency;
+        this.predictorTimeout = predictorTimeout;
+        this.updateScheduler = updateScheduler;
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.txTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED); // TODO: set in Core/JdbcConfiguration
+        this.txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.updateExecutor = Executors.newFixedThreadPool(updateConcurrency, new ThreadFactoryBuilder()
+                .setNameFormat("prediction-update-%d")
+                .setDaemon(true)
+                .build());
         Map<String, Predictor> predictorsByType = new HashMap<>();
         for (Predictor predictor : predictors) {
             predictorsByType.put(predictor.getType(), predictor);
@@ -57,17 +117,51 @@ public class PredictionService {
 
     @TransactionalWrite
     public void signalUpdateNeeded(List<Utilization> utilizations) {
-        utilizations.stream()
+        Set<UtilizationKey> utilizationKeys = utilizations.stream()
                 .map(Utilization::getUtilizationKey)
-                .distinct()
-                .forEach(this::signalUpdateNeeded);
+                .collect(toSet());
+        Set<UtilizationKey> newUtilizationKeys = utilizationKeys.stream()
+                .filter(utilizationKey -> !enabledUtilizationKeys.contains(utilizationKey))
+                .collect(toSet());
+        if (!newUtilizationKeys.isEmpty()) {
+            predictorRepository.enablePredictors(predictorsByType.keySet(), newUtilizationKeys);
+            rememberEnabledAfterCommit(newUtilizationKeys);
+        }
+        predictorRepository.markPredictorsNeedAnUpdate(utilizationKeys);
+        scheduleUpdateAfterCommit(utilizationKeys);
     }
 
-    private void signalUpdateNeeded(UtilizationKey utilizationKey) {
-        // TODO: should we cache that which predictors are already enabled? it would require resetting the cache when DevHelper.deleteAll() is called
-        predictorsByType.keySet().stream()
-                .forEach(predictorType -> predictorRepository.enablePredictor(predictorType, utilizationKey));
-        predictorRepository.markPredictorsNeedAnUpdate(utilizationKey);
+    private void scheduleUpdateAfterCommit(Set<UtilizationKey> utilizationKeys) {
+        // the predictors can't be claimed before the transaction has marked them
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    updateScheduler.utilizationsArrived(utilizationKeys, System.currentTimeMillis());
+                }
+            });
+        } else {
+            updateScheduler.utilizationsArrived(utilizationKeys, System.currentTimeMillis());
+        }
+    }
+
+    private void rememberEnabledAfterCommit(Set<UtilizationKey> utilizationKeys) {
+        // if the transaction rolls back, the predictors were not created after all
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    enabledUtilizationKeys.addAll(utilizationKeys);
+                }
+            });
+        }
+    }
+
+    /**
+     * Forgets which predictors have been enabled. Must be called when predictors are deleted.
+     */
+    public void forgetEnabledPredictors() {
+        enabledUtilizationKeys.clear();
     }
 
     private Optional<Predictor> getPredictor(String predictorType) {
@@ -79,10 +173,12 @@ public class PredictionService {
     }
 
     public Optional<PredictionBatch> getPrediction(UtilizationKey utilizationKey, DateTime time) {
+        recordPredictionsRead(singleton(utilizationKey.facilityId));
         return predictionRepository.getPrediction(utilizationKey, time);
     }
 
     public List<PredictionBatch> getPredictionsByFacility(Long facilityId, DateTime time) {
+        recordPredictionsRead(singleton(facilityId));
         return predictionRepository.getPredictionsByFacility(facilityId, time);
     }
 
@@ -95,59 +191,445 @@ public class PredictionService {
      * @return prediction results
      */
     public List<PredictionResult> getPredictionResultByFacility(long facilityId, DateTime time) {
-        final Facility facility = facilityRepository.getFacility(facilityId);
-
-        Map<CapacityType, Set<Usage>> usagesByCapacityType = FacilityUtil.usagesByCapacityType(facility);
+        final Predicate<UtilizationKey> matchesCurrentCapacity = matchesCurrentCapacity(facilityRepository.getCachedFacility(facilityId));
 
         return getPredictionsByFacility(facilityId, time)
                 .stream()
+                .filter(pb -> matchesCurrentCapacity.test(pb.utilizationKey))
                 .flatMap(pb -> PredictionResult.from(pb).stream())
-                .filter(pr -> usagesByCapacityType.getOrDefault(pr.capacityType, emptySet()).contains(pr.usage))
-                .filter(pr -> facility.builtCapacity.getOrDefault(pr.capacityType, 0) > 0)
                 .collect(toList());
     }
 
+    /**
+     * Get the predictions of a hub, summed from the predictions of its facilities by capacity type and usage.
+     * Predictions that don't match the current built capacity or usage of their facility are left out.
+     *
+     * @param hub the hub
+     * @param time the timestamp for the predictions
+     * @return prediction results, at most one for each capacity type and usage
+     */
+    public List<HubPredictionResult> getPredictionResultByHub(Hub hub, DateTime time) {
+        Map<Long, Predicate<UtilizationKey>> filtersByFacilityId = getCapacityFilters(hub);
+        recordPredictionsRead(filtersByFacilityId.keySet());
+
+        // sums indexed by capacity type and usage
+        int[] spacesAvailable = new int[CAPACITY_TYPES.length * USAGES.length];
+        DateTime[] timestamps = new DateTime[spacesAvailable.length];
+        predictionRepository.getPredictionsByFacilities(filtersByFacilityId.keySet(), time)
+                .stream()
+                .filter(pb -> filtersByFacilityId.get(pb.utilizationKey.facilityId).test(pb.utilizationKey))
+                .flatMap(pb -> PredictionResult.from(pb).stream())
+                .forEach(pr -> {
+                    int i = indexOf(pr.capacityType, pr.usage);
+                    spacesAvailable[i] += pr.spacesAvailable;
+                    timestamps[i] = pr.timestamp;
+                });
+
+        List<HubPredictionResult> results = new ArrayList<>();
+        for (int i = 0; i < spacesAvailable.length; i++) {
+            if (timestamps[i] != null) {
+                HubPredictionResult result = new HubPredictionResult();
+                result.hubId = hub.id;
+                result.capacityType = CAPACITY_TYPES[i / USAGES.length];
+                result.usage = USAGES[i % USAGES.length];
+                result.timestamp = timestamps[i];
+                result.spacesAvailable = spacesAvailable[i];
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Get the predictions of a facility at regular intervals. Predictions that don't match the current
+     * built capacity or usage of the facility are left out.
+     *
+     * @param start the timestamp of the first prediction, in prediction resolution
+     * @param step minutes between the predictions, a multiple of the prediction resolution
+     * @param size how many predictions to return for each capacity type and usage
+     */
+    public List<PredictionCurveResult> getPredictionCurveByFacility(long facilityId, DateTime start, Minutes step, int size) {
+        final Predicate<UtilizationKey> matchesCurrentCapacity = matchesCurrentCapacity(facilityRepository.getCachedFacility(facilityId));
+        recordPredictionsRead(singleton(facilityId));
+
+        return predictionRepository.getPredictionsByFacilities(singleton(facilityId), start, step, size)
+                .stream()
+                .filter(pb -> matchesCurrentCapacity.test(pb.utilizationKey))
+                .map(pb -> {
+                    PredictionCurveResult result = new PredictionCurveResult();
+                    result.facilityId = facilityId;
+                    result.capacityType = pb.utilizationKey.capacityType;
+                    result.usage = pb.utilizationKey.usage;
+                    result.start = start;
+                    result.step = step.getMinutes();
+                    result.spacesAvailable = new Integer[size];
+                    pb.predictions.forEach(p -> result.spacesAvailable[indexOf(p.timestamp, start, step)] = p.spacesAvailable);
+                    return result;
+                })
+                .collect(toList());
+    }
+
+    /**
+     * Same as {@link #getPredictionCurveByFacility(long, DateTime, Minutes, int)} for a hub, summed from
+     * the predictions of its facilities like in {@link #getPredictionResultByHub(Hub, DateTime)}.
+     */
+    public List<HubPredictionCurveResult> getPredictionCurveByHub(Hub hub, DateTime start, Minutes step, int size) {
+        Map<Long, Predicate<UtilizationKey>> filtersByFacilityId = getCapacityFilters(hub);
+        recordPredictionsRead(filtersByFacilityId.keySet());
+
+        // sums indexed by capacity type and usage, and by time
+        Integer[][] spacesAvailable = new Integer[CAPACITY_TYPES.length * USAGES.length][];
+        predictionRepository.getPredictionsByFacilities(filtersByFacilityId.keySet(), start, step, size)
+                .stream()
+                .filter(pb -> filtersByFacilityId.get(pb.utilizationKey.facilityId).test(pb.utilizationKey))
+                .forEach(pb -> {
+                    int i = indexOf(pb.utilizationKey.capacityType, pb.utilizationKey.usage);
+                    if (spacesAvailable[i] == null) {
+                        spacesAvailable[i] = new Integer[size];
+                    }
+                    Integer[] sums = spacesAvailable[i];
+                    for (Prediction p : pb.predictions) {
+                        int t = indexOf(p.timestamp, start, step);
+                        sums[t] = (sums[t] == null ? 0 : sums[t]) + p.spacesAvailable;
+                    }
+                });
+
+        List<HubPredictionCurveResult> results = new ArrayList<>();
+        for (int i = 0; i < spacesAvailable.length; i++) {
+            if (spacesAvailable[i] != null) {
+                HubPredictionCurveResult result = new HubPredictionCurveResult();
+                result.hubId = hub.id;
+                result.capacityType = CAPACITY_TYPES[i / USAGES.length];
+                result.usage = USAGES[i % USAGES.length];
+                result.start = start;
+                result.step = step.getMinutes();
+                result.spacesAvailable = spacesAvailable[i];
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private void recordPredictionsRead(Collection<Long> facilityIds) {
+        long now = System.currentTimeMillis();
+        facilityIds.forEach(facilityId -> updateScheduler.predictionsRead(facilityId, now));
+    }
+
+    private Map<Long, Predicate<UtilizationKey>> getCapacityFilters(Hub hub) {
+        Map<Long, Predicate<UtilizationKey>> filtersByFacilityId = new HashMap<>();
+        facilityRepository.getCachedFacilities(hub.facilityIds)
+                .forEach((facilityId, facility) -> filtersByFacilityId.put(facilityId, matchesCurrentCapacity(facility)));
+        return filtersByFacilityId;
+    }
+
+    private static Predicate<UtilizationKey> matchesCurrentCapacity(Facility facility) {
+        Map<CapacityType, Set<Usage>> usagesByCapacityType = FacilityUtil.usagesByCapacityType(facility);
+        return key -> usagesByCapacityType.getOrDefault(key.capacityType, emptySet()).contains(key.usage)
+                && facility.builtCapacity.getOrDefault(key.capacityType, 0) > 0;
+    }
+
+    private static int indexOf(CapacityType capacityType, Usage usage) {
+        return capacityType.ordinal() * USAGES.length + usage.ordinal();
+    }
+
+    private static int indexOf(DateTime time, DateTime start, Minutes step) {
+        return (int) (new Duration(start, time).getStandardMinutes() / step.getMinutes());
+    }
+
     @Scheduled(cron = "0 */5 * * * *") // every 5 minutes to match PredictionDao.PREDICTION_RESOLUTION
     public void updatePredictions() {
-        Optional<Lock> lock = Optional.empty();
+        // All nodes update predictions at the same time. Each of them claims a batch of predictors at a time,
+        // so the work is shared between them and a predictor is updated by only one node.
+        log.info("Updating predictions");
+        long start = System.nanoTime();
+        Set<Long> updated = new HashSet<>();
+        List<Long> claimed;
+        while (!(claimed = claimPredictorsNeedingUpdate()).isEmpty()) {
+            // a predictor may leave more utilizations to process, but it must wait for the next run;
+            // it stays claimed, so the next claim returns other predictors
+            List<Long> predictorIds = claimed.stream()
+                    .filter(updated::add)
+                    .collect(toList());
+            if (!updatePredictors(predictorIds)) {
+                break;
+            }
+        }
+        lastUpdateDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Updating {} predictors took {} ms", updated.size(), lastUpdateDurationMillis);
+    }
+
+    /**
+     * Updates the predictors whose utilization keys the update scheduler considers due, so that busy facilities
+     * need not wait for the scheduled update. Only this node knows about the utilizations it has received.
+     * Each run updates all the keys which are due at its start, one batch at a time, so that each batch holds
+     * the database connections only briefly. Keys which become due meanwhile wait for the next run.
+     */
+    @Scheduled(fixedDelayString = "${prediction.scheduler.pollDelay}")
+    public void updateDuePredictions() {
+        long now = System.currentTimeMillis();
+        List<UtilizationKey> due;
+        while (!(due = updateScheduler.pollDue(updateConcurrency, now)).isEmpty()) {
+            List<Long> claimed = predictorRepository.claimPredictorsNeedingUpdate(due, due.size() * predictorsByType.size(),
+                    predictorTimeout.multipliedBy(2));
+            log.debug("Updating predictors {} of due utilization keys {}", claimed, due);
+            if (!claimed.isEmpty() && !updatePredictors(claimed)) {
+                break;
+            }
+        }
+    }
+
+    private List<Long> claimPredictorsNeedingUpdate() {
+        // the claim outlives the timeout so that no one else starts updating a predictor which is still being updated
+        return predictorRepository.claimPredictorsNeedingUpdate(updateConcurrency, predictorTimeout.multipliedBy(2));
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    private boolean updatePredictors(List<Long> predictorIds) {
+        long startedMillis = System.currentTimeMillis();
+        List<PredictorUpdate> updates = predictorIds.stream()
+                .map(PredictorUpdate::new)
+                .collect(toList());
+        prefetchHistories(updates);
+        for (PredictorUpdate update : updates) {
+            update.future = updateExecutor.submit(update);
+        }
+        runningUpdates.addAll(updates);
         try {
-            lock = Optional.of(lockRepository.acquireLock("update-predictions", Duration.standardMinutes(2)));
-            doUpdatePredictions();
-        } catch (LockException e) {
-            log.debug("Failed to get lock for updating predictions - another node updates them.");
-            return;
+            for (PredictorUpdate update : updates) {
+                update.await();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while updating predictions, cancelling the remaining updates");
+            updates.forEach(update -> update.future.cancel(true));
+            Thread.currentThread().interrupt();
+            return false;
         } finally {
-            lock.ifPresent(l -> lockRepository.releaseLock(l));
+            runningUpdates.removeAll(updates);
         }
+        List<PredictorUpdate> saved = saveUpdates(updates.stream()
+                .filter(PredictorUpdate::isCompleted)
+                .collect(toList()));
+        // the keys of the updated predictors need no longer wait for an update before the scheduled one
+        updateScheduler.predictorsUpdated(saved.stream()
+                .map(update -> update.state.utilizationKey)
+                .collect(toSet()), startedMillis);
+        return true;
     }
 
-    private void doUpdatePredictions() {
-        log.info("Updating predictions");
-        TransactionTemplate txTemplate = new TransactionTemplate(transactionManager);
-        txTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED); // TODO: set in Core/JdbcConfiguration
-        txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    /**
+     * Saves the predictions of all the predictors in one transaction, so that they are written in batches.
+     * If that fails, each predictor is saved in its own transaction, so that one failing predictor doesn't
+     * fail the others.
+     *
+     * @return the updates which were saved
+     */
+    private List<PredictorUpdate> saveUpdates(List<PredictorUpdate> updates) {
+        if (updates.isEmpty()) {
+            return updates;
+        }
+        try {
+            save(updates);
+            updatedPredictorCount.addAndGet(updates.size());
+            return updates;
+        } catch (RuntimeException e) {
+            log.warn("Failed to save the predictions of predictors {} together, saving them one at a time",
+                    updates.stream().map(update -> update.predictorId).collect(toList()), e);
+        }
+        List<PredictorUpdate> saved = new ArrayList<>();
+        for (PredictorUpdate update : updates) {
+            try {
+                save(singletonList(update));
+                updatedPredictorCount.incrementAndGet();
+                saved.add(update);
+            } catch (RuntimeException e) {
+                failedPredictorCount.incrementAndGet();
+                log.error("Failed to save the predictions of predictor {}", update.predictorId, e);
+            }
+        }
+        return saved;
+    }
+
+    private void save(List<PredictorUpdate> updates) {
+        txTemplate.execute(tx -> {
+            Map<Long, PredictionBatch> predictionsByPredictorId = new HashMap<>();
+            updates.stream()
+                    .filter(update -> update.predictions != null)
+                    .forEach(update -> predictionsByPredictorId.put(update.predictorId, update.predictions));
+            predictionRepository.updatePredictions(predictionsByPredictorId);
+            // save state even if predictor is not present: this disables uninstalled predictors
+            updates.forEach(update -> predictorRepository.save(update.state));
+            return null;
+        });
+    }
+
+    /**
+     * Reads the utilization history of all the predictors with a couple of queries,
+     * instead of each predictor reading its own history.
+     */
+    private void prefetchHistories(List<PredictorUpdate> updates) {
+        Map<Long, PredictorUpdate> updatesById = updates.stream()
+                .collect(toMap(update -> update.predictorId, update -> update));
+        try {
+            txTemplate.execute(tx -> {
+                List<PredictorState> states = predictorRepository.getByIds(updatesById.keySet());
+                DateTime now = new DateTime();
+                DateTime windowStart = states.stream()
+                        .map(state -> predictorsByType.get(state.predictorType))
+                        .filter(Objects::nonNull)
+                        .map(predictor -> now.minus(predictor.getHistoryLookback()))
+                        .min(Comparator.naturalOrder())
+                        .orElse(now)
+                        .minus(HISTORY_PREFETCH_MARGIN);
+                Set<UtilizationKey> utilizationKeys = states.stream()
+                        .map(state -> state.utilizationKey)
+                        .collect(toSet());
+                Map<UtilizationKey, UtilizationHistory> histories = PrefetchedUtilizationHistory.prefetch(utilizationRepository, utilizationKeys, windowStart);
+                for (PredictorState state : states) {
+                    PredictorUpdate update = updatesById.get(state.predictorId);
+                    update.prefetchedHistory = histories.get(state.utilizationKey);
+                    update.prefetchedSignalVersion = state.signalVersion;
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.warn("Failed to prefetch utilization history of predictors {}, reading it separately for each of them", updatesById.keySet(), e);
+            updates.forEach(update -> update.prefetchedHistory = null);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updateExecutor.shutdownNow();
+    }
+
+    /** Predictors of the current update batches which are not yet updated */
+    public int getUpdateBacklog() {
+        return (int) runningUpdates.stream()
+                .filter(update -> !update.future.isDone())
+                .count();
+    }
 
-        for (Long predictorId : findPredictorsNeedingUpdate()) {
+    public long getLastUpdateDurationMillis() {
+        return lastUpdateDurationMillis;
+    }
+
+    public long getUpdatedPredictorCount() {
+        return updatedPredictorCount.get();
+    }
+
+    public long getFailedPredictorCount() {
+        return failedPredictorCount.get();
+    }
+
+    public long getTimedOutPredictorCount() {
+        return timedOutPredictorCount.get();
+    }
+
+    /** Utilization keys with new utilizations, which wait to be updated before the scheduled update */
+    public int getUpdateQueueLength() {
+        return updateScheduler.getQueueLength();
+    }
+
+    /** How long the queued utilization keys have had unprocessed utilizations */
+    public Map<UtilizationKey, Long> getUpdateLagMillis() {
+        return updateScheduler.getLagMillis(System.currentTimeMillis());
+    }
+
+    public long getMaxUpdateLagMillis() {
+        return updateScheduler.getMaxLagMillis(System.currentTimeMillis());
+    }
+
+    public long getLastUpdateLagMillis() {
+        return updateScheduler.getLastPolledLagMillis();
+    }
+
+    public PredictionUpdateStatus getUpdateStatus() {
+        PredictionUpdateStatus status = new PredictionUpdateStatus();
+        status.queueLength = getUpdateQueueLength();
+        status.maxLagMillis = getMaxUpdateLagMillis();
+        status.lastLagMillis = getLastUpdateLagMillis();
+        status.lags = getUpdateLagMillis().entrySet().stream()
+                .map(e -> new PredictionUpdateStatus.Lag(e.getKey(), e.getValue()))
+                .sorted(Comparator.comparingLong((PredictionUpdateStatus.Lag lag) -> lag.lagMillis).reversed())
+                .collect(toList());
+        status.updateBacklog = getUpdateBacklog();
+        status.lastUpdateDurationMillis = getLastUpdateDurationMillis();
+        status.updatedPredictorCount = getUpdatedPredictorCount();
+        status.failedPredictorCount = getFailedPredictorCount();
+        status.timedOutPredictorCount = getTimedOutPredictorCount();
+        return status;
+    }
+
+    private class PredictorUpdate implements Runnable {
+        final Long predictorId;
+        // set before the update is submitted
+        UtilizationHistory prefetchedHistory;
+        long prefetchedSignalVersion;
+        volatile long startNanos;
+        Future<?> future;
+        // results, which are visible to the caller when the future is done
+        PredictorState state;
+        PredictionBatch predictions;
+
+        PredictorUpdate(Long predictorId) {
+            this.predictorId = predictorId;
+        }
+
+        @Override
+        public void run() {
+            startNanos = System.nanoTime();
             try {
                 txTemplate.execute(tx -> {
-                    updatePredictor(predictorId);
-                    log.debug("Updating predictor {} done", predictorId);
+                    predict(this);
+                    log.debug("Predicting predictor {} done", predictorId);
                     return null;
                 });
             } catch (Exception e) {
+                failedPredictorCount.incrementAndGet();
                 log.error("Failed to update predictor {}", predictorId, e);
             }
         }
-    }
 
-    private List<Long> findPredictorsNeedingUpdate() {
-        List<Long> predictorIds = predictorRepository.findPredictorsNeedingUpdate();
-        Collections.shuffle(predictorIds); // distribute the load over all servers
-        return predictorIds;
+        /**
+         * @return true if the predictor has a new state to save
+         */
+        boolean isCompleted() {
+            return future.isDone() && !future.isCancelled() && state != null;
+        }
+
+        /**
+         * Waits for the update to finish, and interrupts it if it has been running longer than the timeout.
+         * The timeout is measured from the start of the update, not from the time it was queued.
+         */
+        void await() throws InterruptedException {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(predictorTimeout.getMillis());
+            while (true) {
+                long started = startNanos;
+                long remaining = started == 0 ? timeout : started + timeout - System.nanoTime();
+                try {
+                    future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    if (startNanos != 0 && System.nanoTime() - startNanos >= timeout) {
+                        future.cancel(true);
+                        timedOutPredictorCount.incrementAndGet();
+                        log.warn("Updating predictor {} took longer than {}, interrupted it", predictorId, predictorTimeout);
+                        return;
+                    }
+                } catch (ExecutionException | CancellationException e) {
+                    return; // run() handles its own errors
+                }
+            }
+        }
     }
 
-    private void updatePredictor(Long predictorId) {
-        final PredictorState state = predictorRepository.getById(predictorId);
+    /**
+     * Calculates the new state and predictions of the predictor. They are saved by {@link #saveUpdates(List)}.
+     */
+    private void predict(PredictorUpdate update) {
+        final PredictorState state = predictorRepository.getById(update.predictorId);
         if (state.moreUtilizations == false) {
             log.debug("Another cluster node already updated predictor ID {} (type {} for {}), skipping...", state.predictorId, state.predictorType, state.utilizationKey);
             return;
@@ -156,32 +638,21 @@ public class PredictionService {
         state.moreUtilizations = false; // by default mark everything as processed, but allow the predictor to override it (and uninstalled predictors get disabled)
         getPredictor(state.predictorType).ifPresent(predictor -> {
             // TODO: consider the update interval of prediction types? or leave that up to the predictor?
-            List<Prediction> predictions = predictor.predict(state, new UtilizationHistoryImpl(utilizationRepository, state.utilizationKey), getAvailableMaxCapacity(state));
+            UtilizationHistory history;
+            if (update.prefetchedHistory != null) {
+                history = update.prefetchedHistory;
+                // the prefetched history lacks the utilizations which were signalled after it was read
+                state.signalVersion = update.prefetchedSignalVersion;
+            } else {
+                history = new UtilizationHistoryImpl(utilizationRepository, state.utilizationKey);
+            }
+            List<Prediction> predictions = predictor.predict(state, history, getAvailableMaxCapacity(state));
             // TODO: should we set state.latestUtilization here so that all predictors don't need to remember do it? or will some predictors use different logic for it, for example if they process only part of the updates?
             // TODO: save to prediction log
             log.debug("Got {} predictions. state = {}", predictions.size(), state);
-            predictionRepository.updatePredictions(toPredictionBatch(state, predictions), predictorId);
-        });
-        predictorRepository.save(state); // save state even if predictor is not present: this disables uninstalled predictors
-    }
-
-    @Transactional(readOnly = false, isolation = READ_COMMITTED, propagation = REQUIRES_NEW)
-    public void updatePredictionsHistoryForFacility(List<Utilization> utilizationList) {
-        utilizationList.stream()
-                .map(utilization -> utilization.getUtilizationKey())
-                .distinct()
-                .flatMap(utilizationKey ->
-                        predictorsByType.keySet().stream()
-                                .map(predictorType -> predictorRepository.enablePredictor(predictorType, utilizationKey)))
-                .forEach(predictorId -> updatePredictionHistoryForPredictor(predictorId, utilizationList));
-    }
-
-    private void updatePredictionHistoryForPredictor(Long predictorId, List<Utilization> utilizationList) {
-        PredictorState state = predictorRepository.getById(predictorId);
-        getPredictor(state.predictorType).ifPresent(predictor -> {
-            List<Prediction> predictions = predictor.predict(state, new UtilizationHistoryList(utilizationList), getAvailableMaxCapacity(state));
-            predictionRepository.updateOnlyPredictionHistory(toPredictionBatch(state, predictions), predictorId);
+            update.predictions = toPredictionBatch(state, predictions);
         });
+        update.state = state;
     }
 
     private static PredictionBatch toPredictionBatch(PredictorState state, List<Prediction> predictions) {
@@ -194,7 +665,7 @@ public class PredictionService {
 
     private int getAvailableMaxCapacity(PredictorState state) {
         final UtilizationKey uKey = state.utilizationKey;
-        final Facility facility = facilityRepository.getFacility(uKey.facilityId);
+        final Facility facility = facilityRepository.getCachedFacility(uKey.facilityId);
         final int builtCapacity = facility.builtCapacity.get(uKey.capacityType);
         final int unavailable = facility.unavailableCapacities.stream()
                 .filter(uc -> uc.capacityType == uKey.capacityType && uc.usage == uKey.usage)
@@ -0,0 +1,170 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import org.joda.time.Duration;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the utilization keys which have new utilizations by how soon their predictors should be updated.
+ * A key is due when its oldest unprocessed utilization has waited for a delay, which shrinks from the maximum
+ * delay towards the minimum delay as utilizations arrive more often and its facility's predictions are read more
+ * often. Busy facilities are thus updated within seconds and quiet ones at the pace of the scheduled update.
+ * <p>
+ * The queue is kept in memory on the node which received the utilizations; the scheduled update of all
+ * predictors which need an update remains as a fallback for the other nodes and after a restart.
+ */
+public class PredictionUpdateScheduler {
+
+    private static final long RATE_TIME_CONSTANT_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // at one utilization or read per 5 minutes (the pace of the scheduled update) the maximum delay is used
+    private static final double REFERENCE_ACTIVITY_PER_HOUR = 12;
+
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+
+    private final Map<UtilizationKey, Entry> entries = new HashMap<>();
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong((Entry e) -> e.dueMillis));
+    private final Map<UtilizationKey, DecayingRate> arrivalRates = new HashMap<>();
+    private final ConcurrentMap<Long, DecayingRate> readRatesByFacility = new ConcurrentHashMap<>();
+    private volatile long lastPolledLagMillis;
+
+    public PredictionUpdateScheduler(Duration minDelay, Duration maxDelay) {
+        this.minDelayMillis = minDelay.getMillis();
+        this.maxDelayMillis = maxDelay.getMillis();
+    }
+
+    /**
+     * Records that new utilizations of the keys have been saved.
+     */
+    public synchronized void utilizationsArrived(Collection<UtilizationKey> utilizationKeys, long nowMillis) {
+        for (UtilizationKey utilizationKey : utilizationKeys) {
+            arrivalRates.computeIfAbsent(utilizationKey, k -> new DecayingRate()).increment(nowMillis);
+            Entry entry = entries.get(utilizationKey);
+            if (entry == null) {
+                entry = new Entry(utilizationKey, nowMillis);
+                entry.dueMillis = nowMillis + delayMillis(utilizationKey, nowMillis);
+                entries.put(utilizationKey, entry);
+                queue.add(entry);
+            } else {
+                entry.lastArrivedMillis = nowMillis;
+                // the staleness is counted from the oldest unprocessed utilization; more activity only hastens the update
+                long dueMillis = entry.pendingSinceMillis + delayMillis(utilizationKey, nowMillis);
+                if (dueMillis < entry.dueMillis) {
+                    queue.remove(entry);
+                    entry.dueMillis = dueMillis;
+                    queue.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that predictions of the facility have been read.
+     */
+    public void predictionsRead(long facilityId, long nowMillis) {
+        readRatesByFacility.computeIfAbsent(facilityId, id -> new DecayingRate()).increment(nowMillis);
+    }
+
+    /**
+     * Removes the keys which are due from the queue, the most overdue first.
+     */
+    public synchronized List<UtilizationKey> pollDue(int limit, long nowMillis) {
+        List<UtilizationKey> due = new ArrayList<>();
+        while (due.size() < limit && !queue.isEmpty() && queue.peek().dueMillis <= nowMillis) {
+            Entry entry = queue.poll();
+            entries.remove(entry.utilizationKey);
+            lastPolledLagMillis = nowMillis - entry.pendingSinceMillis;
+            due.add(entry.utilizationKey);
+        }
+        return due;
+    }
+
+    /**
+     * Removes the keys whose predictors have been updated by other means than {@link #pollDue(int, long)}, such as
+     * the scheduled update. Keys which have received utilizations after the update started are kept, because the
+     * update may not have seen them.
+     */
+    public synchronized void predictorsUpdated(Collection<UtilizationKey> utilizationKeys, long updateStartedMillis) {
+        for (UtilizationKey utilizationKey : utilizationKeys) {
+            Entry entry = entries.get(utilizationKey);
+            if (entry != null && entry.lastArrivedMillis <= updateStartedMillis) {
+                entries.remove(utilizationKey);
+                queue.remove(entry);
+            }
+        }
+    }
+
+    public synchronized int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * @return how long the queued keys have had unprocessed utilizations
+     */
+    public synchronized Map<UtilizationKey, Long> getLagMillis(long nowMillis) {
+        Map<UtilizationKey, Long> lags = new HashMap<>();
+        entries.forEach((utilizationKey, entry) -> lags.put(utilizationKey, nowMillis - entry.pendingSinceMillis));
+        return lags;
+    }
+
+    public synchronized long getMaxLagMillis(long nowMillis) {
+        return entries.values().stream()
+                .mapToLong(entry -> nowMillis - entry.pendingSinceMillis)
+                .max()
+                .orElse(0);
+    }
+
+    /** How long the latest key taken from the queue had unprocessed utilizations */
+    public long getLastPolledLagMillis() {
+        return lastPolledLagMillis;
+    }
+
+    private long delayMillis(UtilizationKey utilizationKey, long nowMillis) {
+        DecayingRate reads = readRatesByFacility.get(utilizationKey.facilityId);
+        double activity = arrivalRates.get(utilizationKey).perHour(nowMillis)
+                + (reads != null ? reads.perHour(nowMillis) : 0);
+        long delay = (long) (maxDelayMillis * Math.min(1, REFERENCE_ACTIVITY_PER_HOUR / activity));
+        return Math.max(minDelayMillis, delay);
+    }
+
+    private static final class Entry {
+        final UtilizationKey utilizationKey;
+        final long pendingSinceMillis;
+        long lastArrivedMillis;
+        long dueMillis;
+
+        Entry(UtilizationKey utilizationKey, long pendingSinceMillis) {
+            this.utilizationKey = utilizationKey;
+            this.pendingSinceMillis = pendingSinceMillis;
+            this.lastArrivedMillis = pendingSinceMillis;
+        }
+    }
+
+    /**
+     * Event count which decays exponentially, so that at a steady rate it approaches the rate times the time constant.
+     */
+    private static final class DecayingRate {
+        private double count;
+        private long updatedMillis;
+
+        synchronized void increment(long nowMillis) {
+            count = countAt(nowMillis) + 1;
+            updatedMillis = nowMillis;
+        }
+
+        synchronized double perHour(long nowMillis) {
+            return countAt(nowMillis) * TimeUnit.HOURS.toMillis(1) / RATE_TIME_CONSTANT_MILLIS;
+        }
+
+        private double countAt(long nowMillis) {
+            return count * Math.exp(-Math.max(0, nowMillis - updatedMillis) / (double) RATE_TIME_CONSTANT_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.core.domain.UtilizationIngestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue for validated utilizations. When enabled, utilization registration only enqueues the
+ * utilizations, and {@link #flush()} stores them in large batches, signaling each predictor once per batch.
+ * A full queue rejects new utilizations with {@link UtilizationQueueFullException} instead of blocking the
+ * request thread. Queued utilizations are kept only in memory, so the mode trades durability for throughput.
+ * <p>
+ * A batch which fails because the database is unavailable is retried on the next flush. A batch which fails
+ * because of its data, for example after its facility's capacity has been removed, is stored row by row,
+ * and the rows which cannot be stored are logged and dropped, so that they don't block the rest of the queue.
+ */
+public class UtilizationIngestQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(UtilizationIngestQueue.class);
+
+    private final UtilizationRepository utilizationRepository;
+    private final PredictionService predictionService;
+    private final TransactionTemplate txTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int retryAfterSeconds;
+    private final BlockingQueue<Utilization> queue = new LinkedBlockingQueue<>();
+    // room in the queue; reserved when the utilizations are enqueued and released when they have been stored or dropped
+    private final Semaphore capacity;
+
+    private volatile List<Utilization> failedBatch = new ArrayList<>();
+
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long lastFlushLatencyMillis;
+
+    public UtilizationIngestQueue(UtilizationRepository utilizationRepository,
+                                  PredictionService predictionService,
+                                  PlatformTransactionManager transactionManager,
+                                  boolean enabled,
+                                  int capacity,
+                                  int batchSize,
+                                  int retryAfterSeconds) {
+        this.utilizationRepository = utilizationRepository;
+        this.predictionService = predictionService;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.capacity = new Semaphore(capacity);
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.txTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enqueues either all or none of the utilizations. Inside a transaction they are queued only when the
+     * transaction commits, so that the utilizations of a failed request are not stored.
+     *
+     * @throws UtilizationQueueFullException if the queue does not have room for all of them
+     */
+    public void enqueue(List<Utilization> utilizations) {
+        List<Utilization> copy = new ArrayList<>(utilizations);
+        if (!capacity.tryAcquire(copy.size())) {
+            rejectedCount.addAndGet(copy.size());
+            throw new UtilizationQueueFullException(retryAfterSeconds);
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            queue.addAll(copy);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                queue.addAll(copy);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    capacity.release(copy.size());
+                }
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${utilization.ingest.flushDelay}")
+    public synchronized void flush() {
+        while (true) {
+            List<Utilization> batch = failedBatch;
+            failedBatch = new ArrayList<>();
+            queue.drainTo(batch, Math.max(0, batchSize - batch.size()));
+            if (batch.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                store(batch);
+            } catch (Exception e) {
+                if (!isCausedByData(e)) {
+                    log.error("Failed to store {} queued utilizations, retrying on next flush", batch.size(), e);
+                    failedBatch = batch;
+                    return;
+                }
+                log.warn("Failed to store {} queued utilizations, storing them one by one", batch.size(), e);
+                List<Utilization> remaining = storeOneByOne(batch);
+                if (!remaining.isEmpty()) {
+                    failedBatch = remaining;
+                    return;
+                }
+                continue;
+            }
+            capacity.release(batch.size());
+            lastFlushLatencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            flushedCount.addAndGet(batch.size());
+            log.debug("Stored {} queued utilizations in {} ms, {} still queued", batch.size(), lastFlushLatencyMillis, queue.size());
+        }
+    }
+
+    /**
+     * @return the utilizations which were not stored because the database became unavailable
+     */
+    private List<Utilization> storeOneByOne(List<Utilization> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            Utilization u = batch.get(i);
+            try {
+                store(Collections.singletonList(u));
+                flushedCount.incrementAndGet();
+            } catch (Exception e) {
+                if (!isCausedByData(e)) {
+                    log.error("Failed to store {} queued utilizations, retrying on next flush", batch.size() - i, e);
+                    return new ArrayList<>(batch.subList(i, batch.size()));
+                }
+                log.error("Dropped queued utilization {} which cannot be stored", u, e);
+                droppedCount.incrementAndGet();
+            }
+            capacity.release();
+        }
+        return Collections.emptyList();
+    }
+
+    private void store(List<Utilization> utilizations) {
+        txTemplate.execute(tx -> {
+            utilizationRepository.insertUtilizations(utilizations);
+            predictionService.signalUpdateNeeded(utilizations);
+            return null;
+        });
+    }
+
+    /**
+     * Integrity constraint violations (SQL state class 23) and data exceptions (class 22) fail again on retry.
+     */
+    private static boolean isCausedByData(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ValidationException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                return sqlState != null && (sqlState.startsWith("23") || sqlState.startsWith("22"));
+            }
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public UtilizationIngestStatus getStatus() {
+        UtilizationIngestStatus status = new UtilizationIngestStatus();
+        status.async = enabled;
+        status.queueDepth = getQueueDepth();
+        status.lastFlushLatencyMillis = getLastFlushLatencyMillis();
+        status.flushedCount = getFlushedCount();
+        status.rejectedCount = getRejectedCount();
+        status.droppedCount = getDroppedCount();
+        return status;
+    }
+
+    public int getQueueDepth() {
+        return queue.size() + failedBatch.size();
+    }
+
+    public long getLastFlushLatencyMillis() {
+        return lastFlushLatencyMillis;
+    }
+
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,67 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.core.back.LockRepository;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Lock;
+import fi.hsl.parkandride.core.domain.LockException;
+import org.joda.time.Duration;
+import org.joda.time.YearMonth;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Creates the utilization partitions of the coming months in advance, and removes the partitions
+ * which are older than the retention period. Retention is disabled when the retention period is zero.
+ */
+public class UtilizationPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(UtilizationPartitionService.class);
+
+    private final UtilizationRepository utilizationRepository;
+    private final LockRepository lockRepository;
+    private final int monthsInAdvance;
+    private final int retentionMonths;
+    private final boolean archive;
+
+    public UtilizationPartitionService(UtilizationRepository utilizationRepository,
+                                       LockRepository lockRepository,
+                                       int monthsInAdvance,
+                                       int retentionMonths,
+                                       boolean archive) {
+        this.utilizationRepository = utilizationRepository;
+        this.lockRepository = lockRepository;
+        this.monthsInAdvance = monthsInAdvance;
+        this.retentionMonths = retentionMonths;
+        this.archive = archive;
+    }
+
+    @Scheduled(cron = "${utilization.partitions.cron}")
+    public void maintainPartitions() {
+        Optional<Lock> lock = Optional.empty();
+        try {
+            lock = Optional.of(lockRepository.acquireLock("utilization-partitions", Duration.standardMinutes(10)));
+            doMaintainPartitions(YearMonth.now());
+        } catch (LockException e) {
+            log.debug("Failed to get lock for maintaining utilization partitions - another node maintains them.");
+        } finally {
+            lock.ifPresent(l -> lockRepository.releaseLock(l));
+        }
+    }
+
+    void doMaintainPartitions(YearMonth currentMonth) {
+        utilizationRepository.createUtilizationPartitions(currentMonth, currentMonth.plusMonths(monthsInAdvance));
+        if (retentionMonths > 0) {
+            List<YearMonth> removed = utilizationRepository.removeUtilizationPartitionsBefore(currentMonth.minusMonths(retentionMonths), archive);
+            if (!removed.isEmpty()) {
+                log.info("{} utilization partitions of months {}", archive ? "Archived" : "Dropped", removed);
+            }
+        }
+    }
+}
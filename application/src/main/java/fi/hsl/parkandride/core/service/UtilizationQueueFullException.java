@@ -0,0 +1,14 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+public class UtilizationQueueFullException extends RuntimeException {
+
+    public final int retryAfterSeconds;
+
+    public UtilizationQueueFullException(int retryAfterSeconds) {
+        super("Too many utilizations waiting to be stored; retry after " + retryAfterSeconds + " seconds");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,55 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.core.back.LockRepository;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Lock;
+import fi.hsl.parkandride.core.domain.LockException;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.Optional;
+
+/**
+ * The utilization rollups are updated when utilizations are inserted. This job recalculates the rollups
+ * of the recent past, filling the gaps left by utilizations which were stored some other way.
+ */
+public class UtilizationRollupService {
+
+    private static final Logger log = LoggerFactory.getLogger(UtilizationRollupService.class);
+
+    private final UtilizationRepository utilizationRepository;
+    private final LockRepository lockRepository;
+    private final int catchUpHours;
+
+    public UtilizationRollupService(UtilizationRepository utilizationRepository, LockRepository lockRepository, int catchUpHours) {
+        this.utilizationRepository = utilizationRepository;
+        this.lockRepository = lockRepository;
+        this.catchUpHours = catchUpHours;
+    }
+
+    @Scheduled(cron = "${utilization.rollups.cron}")
+    public void catchUpRollups() {
+        Optional<Lock> lock = Optional.empty();
+        try {
+            lock = Optional.of(lockRepository.acquireLock("utilization-rollups", Duration.standardMinutes(10)));
+            doCatchUpRollups(DateTime.now());
+        } catch (LockException e) {
+            log.debug("Failed to get lock for catching up utilization rollups - another node updates them.");
+        } finally {
+            lock.ifPresent(l -> lockRepository.releaseLock(l));
+        }
+    }
+
+    void doCatchUpRollups(DateTime now) {
+        int fixed = utilizationRepository.rebuildUtilizationRollups(now.minusHours(catchUpHours), now);
+        if (fixed > 0) {
+            log.info("Fixed {} utilization rollups of the last {} hours", fixed, catchUpHours);
+        }
+    }
+}
@@ -6,7 +6,6 @@ package fi.hsl.parkandride.core.service.reporting;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
-import com.mysema.commons.lang.CloseableIterator;
 import fi.hsl.parkandride.back.RegionRepository;
 import fi.hsl.parkandride.core.back.UtilizationRepository;
 import fi.hsl.parkandride.core.domain.*;
@@ -268,16 +267,29 @@ public class MaxUtilizationReportService extends AbstractReportService {
     }
 
     private Map<MaxUtilizationReportKeyWithDate, Integer> getFacilityStats(ReportContext ctx, ReportParameters parameters, UtilizationSearch search) {
-        try (CloseableIterator<Utilization> utilizations = utilizationRepository.findUtilizations(search)) {
-            return stream(spliteratorUnknownSize(addFilters(utilizations, ctx, parameters), Spliterator.ORDERED), false)
-                    .filter(u -> hasBuiltCapacity(u, ctx.facilities))
-                    .collect(toMap(
-                            u -> new MaxUtilizationReportKeyWithDate(u, ctx.facilities.get(u.facilityId)),
-                            u -> u.spacesAvailable,
-                            Math::min,
-                            LinkedHashMap::new
-                    ));
-        }
+        // the daily rollups have the minimum spaces available of each day, so the utilizations need not be read
+        Iterator<Utilization> dailyMinimums = utilizationRepository.findUtilizationRollups(search, RollupResolution.DAY.period).stream()
+                .map(MaxUtilizationReportService::toDailyMinimum)
+                .iterator();
+        return stream(spliteratorUnknownSize(addFilters(dailyMinimums, ctx, parameters), Spliterator.ORDERED), false)
+                .filter(u -> hasBuiltCapacity(u, ctx.facilities))
+                .collect(toMap(
+                        u -> new MaxUtilizationReportKeyWithDate(u, ctx.facilities.get(u.facilityId)),
+                        u -> u.spacesAvailable,
+                        Math::min,
+                        LinkedHashMap::new
+                ));
+    }
+
+    private static Utilization toDailyMinimum(UtilizationRollup day) {
+        Utilization u = new Utilization();
+        u.facilityId = day.facilityId;
+        u.capacityType = day.capacityType;
+        u.usage = day.usage;
+        u.timestamp = day.periodStart;
+        u.spacesAvailable = day.minSpacesAvailable;
+        u.capacity = day.lastCapacity;
+        return u;
     }
 
     private static class MaxUtilizationReportInfo {
@@ -3,7 +3,6 @@
 
 package fi.hsl.parkandride.dev;
 
-import com.google.common.collect.Lists;
 import fi.hsl.parkandride.FeatureProfile;
 import fi.hsl.parkandride.back.ContactDao;
 import fi.hsl.parkandride.back.FacilityDao;
@@ -11,6 +10,7 @@ import fi.hsl.parkandride.back.HubDao;
 import fi.hsl.parkandride.back.OperatorDao;
 import fi.hsl.parkandride.core.back.*;
 import fi.hsl.parkandride.core.domain.*;
+import fi.hsl.parkandride.core.domain.prediction.BacktestResult;
 import fi.hsl.parkandride.core.service.*;
 import org.joda.time.DateTime;
 import org.joda.time.Minutes;
@@ -21,6 +21,7 @@ import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
@@ -32,6 +33,7 @@ import java.util.stream.StreamSupport;
 import static fi.hsl.parkandride.front.UrlSchema.*;
 import static java.util.Spliterators.spliteratorUnknownSize;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.web.bind.annotation.RequestMethod.*;
 
@@ -59,6 +61,8 @@ public class DevController {
 
     @Resource PredictionService predictionService;
 
+    @Resource PredictionBacktestService predictionBacktestService;
+
     @Resource FacilityService facilityService;
 
     @Resource UtilizationRepository utilizationRepository;
@@ -162,23 +166,16 @@ public class DevController {
         return new ResponseEntity<>(CREATED);
     }
 
-    @RequestMapping(method = PUT, value = DEV_PREDICTION_HISTORY)
-    @TransactionalRead // each call to predictionService.updatePredictionsHistoryForFacility creates a separate write transaction to avoid too long transactions
-    public ResponseEntity<Void> generatePredictionHistory(@NotNull @PathVariable(FACILITY_ID) Long facilityId) {
+    @RequestMapping(method = GET, value = DEV_PREDICTION_BACKTEST)
+    public ResponseEntity<BacktestResult> backtestPredictors(@NotNull @PathVariable(FACILITY_ID) Long facilityId,
+                                                             @RequestParam(value = "weeks", defaultValue = "1") int weeks) {
         facilityRepository.getFacility(facilityId); // ensure facility exists
-        final UtilizationSearch utilizationSearch = new UtilizationSearch();
-        utilizationSearch.start = DateTime.now().minusWeeks(5);
-        utilizationSearch.end = DateTime.now();
-        utilizationSearch.facilityIds = Collections.singleton(facilityId);
-        final List<Utilization> utilizations = Lists.newArrayList(utilizationRepository.findUtilizations(utilizationSearch));
-        DateTime lastTimestamp = utilizations.stream().map(u -> u.timestamp).max(DateTime::compareTo).orElse(utilizationSearch.end);
-        StreamSupport.stream(
-                spliteratorUnknownSize(new DateTimeIterator(utilizationSearch.start.plusWeeks(4),
-                        lastTimestamp.minus(PredictionRepository.PREDICTION_RESOLUTION), // avoid collision with scheduled predictions
-                        PredictionRepository.PREDICTION_RESOLUTION), Spliterator.ORDERED), false)
-                .map(endTime -> utilizations.stream().filter(utilization -> utilization.timestamp.isBefore(endTime)).collect(toList()))
-                .forEach(utilizationList -> predictionService.updatePredictionsHistoryForFacility(utilizationList));
-        return new ResponseEntity<>(CREATED);
+        Set<UtilizationKey> utilizationKeys = utilizationRepository.findLatestUtilization(facilityId).stream()
+                .map(Utilization::getUtilizationKey)
+                .collect(toSet());
+        DateTime end = DateTime.now();
+        BacktestResult result = predictionBacktestService.backtest(utilizationKeys, end.minusWeeks(weeks), end, PredictionRepository.PREDICTION_RESOLUTION);
+        return new ResponseEntity<>(result, OK);
     }
 
     @RequestMapping(method = PUT, value = DEV_PREDICTION)
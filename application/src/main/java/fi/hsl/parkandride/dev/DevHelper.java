@@ -6,6 +6,8 @@ package fi.hsl.parkandride.dev;
 import com.querydsl.sql.RelationalPath;
 import com.querydsl.sql.postgresql.PostgreSQLQueryFactory;
 import fi.hsl.parkandride.FeatureProfile;
+import fi.hsl.parkandride.back.FacilityCache;
+import fi.hsl.parkandride.back.prediction.PredictionCache;
 import fi.hsl.parkandride.back.sql.*;
 import fi.hsl.parkandride.core.back.UserRepository;
 import fi.hsl.parkandride.core.domain.*;
@@ -40,6 +42,14 @@ public class DevHelper {
 
     @Resource BatchingRequestLogService batchingRequestLogService;
 
+    @Resource FacilityCache facilityCache;
+
+    @Resource LatestUtilizationsCache latestUtilizationsCache;
+
+    @Resource PredictionService predictionService;
+
+    @Resource PredictionCache predictionCache;
+
     @Inject
     public DevHelper(PostgreSQLQueryFactory queryFactory, JdbcTemplate jdbcTemplate) {
         this.queryFactory = queryFactory;
@@ -119,8 +129,11 @@ public class DevHelper {
     public void deleteFacilities() {
         delete(
                 QFacilityPredictionHistory.facilityPredictionHistory,
+                QPredictionAccuracy.predictionAccuracy,
                 QFacilityPrediction.facilityPrediction,
                 QPredictor.predictor,
+                QFacilityUtilizationLatest.facilityUtilizationLatest,
+                QFacilityUtilizationRollup.facilityUtilizationRollup,
                 QFacilityUtilization.facilityUtilization,
                 QFacilityService.facilityService,
                 QFacilityPaymentMethod.facilityPaymentMethod,
@@ -132,6 +145,10 @@ public class DevHelper {
                 QUnavailableCapacityHistory.unavailableCapacityHistory,
                 QFacilityCapacityHistory.facilityCapacityHistory,
                 QFacility.facility);
+        facilityCache.invalidateAll();
+        latestUtilizationsCache.invalidate();
+        predictionService.forgetEnabledPredictors();
+        predictionCache.invalidate();
         resetPredictorSequence();
         resetFacilitySequence();
     }
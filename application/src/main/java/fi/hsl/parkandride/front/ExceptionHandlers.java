@@ -10,6 +10,7 @@ import fi.hsl.parkandride.core.domain.NotFoundException;
 import fi.hsl.parkandride.core.domain.Violation;
 import fi.hsl.parkandride.core.service.AccessDeniedException;
 import fi.hsl.parkandride.core.service.AuthenticationRequiredException;
+import fi.hsl.parkandride.core.service.UtilizationQueueFullException;
 import fi.hsl.parkandride.core.service.ValidationException;
 import org.apache.catalina.connector.ClientAbortException;
 import org.joda.time.DateTime;
@@ -96,6 +97,13 @@ public class ExceptionHandlers {
         return new ResponseEntity<Void>((Void) null, FORBIDDEN);
     }
 
+    @ExceptionHandler(UtilizationQueueFullException.class)
+    public ResponseEntity<Map<String, Object>> utilizationQueueFullException(HttpServletRequest request, UtilizationQueueFullException ex) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", String.valueOf(ex.retryAfterSeconds));
+        return handleError(request, TOO_MANY_REQUESTS, ex, ex.getMessage(), null, headers);
+    }
+
     private String getPath(JsonMappingException jsonEx) {
         StringBuilder path = new StringBuilder();
         for (JsonMappingException.Reference ref : jsonEx.getPath()) {
@@ -130,6 +138,11 @@ public class ExceptionHandlers {
 
     private ResponseEntity<Map<String, Object>> handleError(HttpServletRequest request, HttpStatus status, Throwable ex,
                                                             String message, List<Violation> violations) {
+        return handleError(request, status, ex, message, violations, new HttpHeaders());
+    }
+
+    private ResponseEntity<Map<String, Object>> handleError(HttpServletRequest request, HttpStatus status, Throwable ex,
+                                                            String message, List<Violation> violations, HttpHeaders headers) {
         ex = resolveError(ex);
         Map<String, Object> errorAttributes = new LinkedHashMap<>();
         errorAttributes.put("status", status.value());
@@ -139,7 +152,6 @@ public class ExceptionHandlers {
         if (violations != null && !violations.isEmpty()) {
             errorAttributes.put("violations", violations);
         }
-        HttpHeaders headers = new HttpHeaders();
         headers.setContentType(APPLICATION_JSON);
         return new ResponseEntity<>(errorAttributes, headers, status);
     }
@@ -0,0 +1,31 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.front;
+
+import fi.hsl.parkandride.core.domain.FacilityCacheStatus;
+import fi.hsl.parkandride.core.domain.User;
+import fi.hsl.parkandride.core.service.FacilityService;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.inject.Inject;
+
+import static fi.hsl.parkandride.core.domain.Permission.REPORT_GENERATE;
+import static fi.hsl.parkandride.core.service.AuthenticationService.authorize;
+import static fi.hsl.parkandride.front.UrlSchema.FACILITY_CACHE;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+@RestController
+public class FacilityCacheController {
+
+    @Inject
+    FacilityService facilityService;
+
+    @RequestMapping(method = GET, value = FACILITY_CACHE, produces = APPLICATION_JSON_VALUE)
+    public FacilityCacheStatus getFacilityCacheStatus(User currentUser) {
+        authorize(currentUser, REPORT_GENERATE);
+        return facilityService.getFacilityCacheStatus();
+    }
+}
@@ -3,7 +3,12 @@
 
 package fi.hsl.parkandride.front;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
 import fi.hsl.parkandride.core.domain.*;
+import fi.hsl.parkandride.core.domain.prediction.PredictionCurveRequest;
+import fi.hsl.parkandride.core.domain.prediction.PredictionCurveResult;
 import fi.hsl.parkandride.core.domain.prediction.PredictionRequest;
 import fi.hsl.parkandride.core.domain.prediction.PredictionResult;
 import fi.hsl.parkandride.core.service.FacilityService;
@@ -14,6 +19,7 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -22,11 +28,17 @@ import javax.inject.Inject;
 import javax.validation.Valid;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static fi.hsl.parkandride.front.UrlSchema.*;
 import static fi.hsl.parkandride.front.geojson.FeatureCollection.FACILITY_TO_FEATURE;
+import static java.util.Collections.emptySet;
+import static org.springframework.http.HttpStatus.ACCEPTED;
 import static org.springframework.http.HttpStatus.CREATED;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
 import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.web.bind.annotation.RequestMethod.*;
 
@@ -35,8 +47,14 @@ public class FacilityController {
 
     private final Logger log = LoggerFactory.getLogger(FacilityController.class);
 
+    // an entity tag of an If-None-Match list, without its weakness indicator
+    private static final Pattern ENTITY_TAG = Pattern.compile("(?:W/)?(\"[^\"]*\")");
+
     @Inject FacilityService facilityService;
     @Inject PredictionService predictionService;
+    @Inject ObjectMapper objectMapper;
+
+    private volatile SerializedUtilizations serializedUtilizations;
 
     @RequestMapping(method = POST, value = FACILITIES, produces = APPLICATION_JSON_VALUE)
     public ResponseEntity<Facility> createFacility(@RequestBody Facility facility,
@@ -96,10 +114,70 @@ public class FacilityController {
     }
 
     @RequestMapping(method = GET, value = UTILIZATIONS, produces = APPLICATION_JSON_VALUE)
-    public ResponseEntity<Set<Utilization>> getUtilizations() {
+    public ResponseEntity<byte[]> getUtilizations(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws JsonProcessingException {
         log.info("getUtilizations()");
-        Set<Utilization> results = facilityService.findLatestUtilization();
-        return new ResponseEntity<>(results, OK);
+        SerializedUtilizations results = serialize(facilityService.getLatestUtilizations());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(results.etag);
+        if (matchesAny(ifNoneMatch, results.etag)) {
+            return new ResponseEntity<>(headers, NOT_MODIFIED);
+        }
+        headers.setContentType(APPLICATION_JSON);
+        return new ResponseEntity<>(results.json, headers, OK);
+    }
+
+    /**
+     * Compares the entity tags of an If-None-Match header with the current one like RFC 7232 requires: weakly,
+     * so that the weak form of the tag matches too, and against each tag of the list. "*" matches any tag.
+     */
+    private static boolean matchesAny(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        if (ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        Matcher m = ENTITY_TAG.matcher(ifNoneMatch);
+        while (m.find()) {
+            if (m.group(1).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SerializedUtilizations serialize(LatestUtilizations latest) throws JsonProcessingException {
+        SerializedUtilizations current = serializedUtilizations;
+        if (current == null || current.source != latest) {
+            current = new SerializedUtilizations(latest, objectMapper.writeValueAsBytes(latest.utilizations));
+            serializedUtilizations = current;
+        }
+        return current;
+    }
+
+    private static class SerializedUtilizations {
+        final LatestUtilizations source;
+        final byte[] json;
+        final String etag;
+
+        SerializedUtilizations(LatestUtilizations source, byte[] json) {
+            this.source = source;
+            this.json = json;
+            this.etag = '"' + Hashing.md5().hashBytes(json).toString() + '"';
+        }
+    }
+
+    @RequestMapping(method = PUT, value = UTILIZATIONS, produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<Set<Utilization>> registerUtilizations(@RequestBody List<Utilization> utilizations,
+                                                                 User currentUser) {
+        log.info("registerUtilizations({} utilizations)", utilizations.size());
+        facilityService.registerUtilizations(utilizations, currentUser);
+        Long[] facilityIds = utilizations.stream()
+                .map(u -> u.facilityId)
+                .distinct()
+                .toArray(Long[]::new);
+        Set<Utilization> results = facilityIds.length > 0 ? facilityService.findLatestUtilization(facilityIds) : emptySet();
+        return new ResponseEntity<>(results, registrationStatus());
     }
 
     @RequestMapping(method = PUT, value = FACILITY_UTILIZATION, produces = APPLICATION_JSON_VALUE)
@@ -109,7 +187,15 @@ public class FacilityController {
         log.info("registerUtilization({})", facilityId);
         facilityService.registerUtilization(facilityId, utilization, currentUser);
         Set<Utilization> results = facilityService.findLatestUtilization(facilityId);
-        return new ResponseEntity<>(results, OK);
+        return new ResponseEntity<>(results, registrationStatus());
+    }
+
+    /**
+     * Queued utilizations are stored after the response, so the returned latest utilizations may not
+     * include them yet. That is signaled with 202 Accepted.
+     */
+    private HttpStatus registrationStatus() {
+        return facilityService.isUtilizationIngestAsync() ? ACCEPTED : OK;
     }
 
     @RequestMapping(method = GET, value = FACILITY_UTILIZATION, produces = APPLICATION_JSON_VALUE)
@@ -128,4 +214,13 @@ public class FacilityController {
         return new ResponseEntity<>(results, OK);
     }
 
+    @RequestMapping(method = GET, value = FACILITY_PREDICTION_CURVE, produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<PredictionCurveResult>> getPredictionCurve(@PathVariable(FACILITY_ID) long facilityId,
+                                                                          @ModelAttribute @Valid PredictionCurveRequest request) {
+        DateTime start = request.start();
+        log.info("getPredictionCurve({}, {}, {})", facilityId, start, request.step());
+        List<PredictionCurveResult> results = predictionService.getPredictionCurveByFacility(facilityId, start, request.step(), request.size(start));
+        return new ResponseEntity<>(results, OK);
+    }
+
 }
@@ -7,7 +7,9 @@ import fi.hsl.parkandride.core.domain.Hub;
 import fi.hsl.parkandride.core.domain.HubSearch;
 import fi.hsl.parkandride.core.domain.SearchResults;
 import fi.hsl.parkandride.core.domain.User;
+import fi.hsl.parkandride.core.domain.prediction.HubPredictionCurveResult;
 import fi.hsl.parkandride.core.domain.prediction.HubPredictionResult;
+import fi.hsl.parkandride.core.domain.prediction.PredictionCurveRequest;
 import fi.hsl.parkandride.core.domain.prediction.PredictionRequest;
 import fi.hsl.parkandride.core.service.HubService;
 import fi.hsl.parkandride.core.service.PredictionService;
@@ -27,8 +29,6 @@ import java.util.List;
 
 import static fi.hsl.parkandride.front.UrlSchema.*;
 import static fi.hsl.parkandride.front.geojson.FeatureCollection.HUB_TO_FEATURE;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toList;
 import static org.springframework.http.HttpStatus.CREATED;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
@@ -98,13 +98,16 @@ public class HubController {
                                                                    @ModelAttribute @Valid PredictionRequest request) {
         DateTime time = request.requestedTime();
         log.info("getPrediction({}, {})", hubId, time);
-        final List<HubPredictionResult> results = hubService.getHub(hubId).facilityIds
-                .stream()
-                .flatMap(facilityId -> predictionService.getPredictionResultByFacility(facilityId, time).stream())
-                .collect(groupingBy(result -> result.capacityType.name() + result.usage.name()))
-                .values().stream()
-                .map(list -> HubPredictionResult.sumFrom(hubId, list))
-                .collect(toList());
+        final List<HubPredictionResult> results = predictionService.getPredictionResultByHub(hubService.getHub(hubId), time);
+        return new ResponseEntity<>(results, OK);
+    }
+
+    @RequestMapping(method = GET, value = HUB_PREDICTION_CURVE, produces = APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<HubPredictionCurveResult>> getPredictionCurve(@PathVariable(HUB_ID) long hubId,
+                                                                             @ModelAttribute @Valid PredictionCurveRequest request) {
+        DateTime start = request.start();
+        log.info("getPredictionCurve({}, {}, {})", hubId, start, request.step());
+        final List<HubPredictionCurveResult> results = predictionService.getPredictionCurveByHub(hubService.getHub(hubId), start, request.step(), request.size(start));
         return new ResponseEntity<>(results, OK);
     }
 }
@@ -0,0 +1,41 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.front;
+
+import fi.hsl.parkandride.core.domain.User;
+import fi.hsl.parkandride.core.domain.prediction.PredictionAccuracy;
+import fi.hsl.parkandride.core.service.PredictionAccuracyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.inject.Inject;
+import java.util.List;
+
+import static fi.hsl.parkandride.core.domain.Permission.REPORT_GENERATE;
+import static fi.hsl.parkandride.core.service.AuthenticationService.authorize;
+import static fi.hsl.parkandride.front.UrlSchema.FACILITY_ID;
+import static fi.hsl.parkandride.front.UrlSchema.PREDICTION_ACCURACY;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+@RestController
+public class PredictionAccuracyController {
+    private static final Logger log = LoggerFactory.getLogger(PredictionAccuracyController.class);
+
+    @Inject
+    PredictionAccuracyService predictionAccuracyService;
+
+    @RequestMapping(method = GET, value = PREDICTION_ACCURACY, produces = APPLICATION_JSON_VALUE)
+    public List<PredictionAccuracy> getPredictionAccuracy(@RequestParam(value = FACILITY_ID, required = false) Long facilityId,
+                                                          User currentUser) {
+        authorize(currentUser, REPORT_GENERATE);
+        log.info("getPredictionAccuracy({})", facilityId);
+        return facilityId == null
+                ? predictionAccuracyService.getPredictionAccuracy()
+                : predictionAccuracyService.getPredictionAccuracyByFacility(facilityId);
+    }
+}
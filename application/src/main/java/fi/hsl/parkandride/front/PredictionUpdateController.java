@@ -0,0 +1,31 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.front;
+
+import fi.hsl.parkandride.core.domain.User;
+import fi.hsl.parkandride.core.domain.prediction.PredictionUpdateStatus;
+import fi.hsl.parkandride.core.service.PredictionService;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.inject.Inject;
+
+import static fi.hsl.parkandride.core.domain.Permission.REPORT_GENERATE;
+import static fi.hsl.parkandride.core.service.AuthenticationService.authorize;
+import static fi.hsl.parkandride.front.UrlSchema.PREDICTION_UPDATES;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+@RestController
+public class PredictionUpdateController {
+
+    @Inject
+    PredictionService predictionService;
+
+    @RequestMapping(method = GET, value = PREDICTION_UPDATES, produces = APPLICATION_JSON_VALUE)
+    public PredictionUpdateStatus getPredictionUpdateStatus(User currentUser) {
+        authorize(currentUser, REPORT_GENERATE);
+        return predictionService.getUpdateStatus();
+    }
+}
@@ -32,6 +32,8 @@ public final class UrlSchema {
     public static final String FACILITY_PREDICTION_ABSOLUTE = FACILITY_PREDICTION + "?" + ABSOLUTE_TIME + "={timestamp}";
     public static final String RELATIVE_TIME = "after";
     public static final String FACILITY_PREDICTION_RELATIVE = FACILITY_PREDICTION + "?" + RELATIVE_TIME + "={hhmm}";
+    public static final String FACILITY_PREDICTION_CURVE = FACILITY_PREDICTION + "/curve";
+    public static final String CURVE_RANGE = "?from={from}&to={to}&step={step}";
 
     public static final String CAPACITY_TYPES = API + "/capacity-types";
     public static final String USAGES = API + "/usages";
@@ -43,6 +45,7 @@ public final class UrlSchema {
     public static final String HUB_PREDICTION = HUB + "/prediction";
     public static final String HUB_PREDICTION_ABSOLUTE = HUB_PREDICTION + "?" + ABSOLUTE_TIME + "={timestamp}";;
     public static final String HUB_PREDICTION_RELATIVE = HUB_PREDICTION + "?" + RELATIVE_TIME + "={hhmm}";
+    public static final String HUB_PREDICTION_CURVE = HUB_PREDICTION + "/curve";
 
     public static final String CONTACTS = API + "/contacts";
     public static final String CONTACT_ID = "contactId";
@@ -70,6 +73,10 @@ public final class UrlSchema {
     public static final String TOKEN = USERS + "/{" + USER_ID + "}/token";
     public static final String PASSWORD = USERS + "/{" + USER_ID + "}/password";
     public static final String ROLES = INTERNAL + "/roles";
+    public static final String PREDICTION_ACCURACY = INTERNAL + "/prediction-accuracy";
+    public static final String PREDICTION_UPDATES = INTERNAL + "/prediction-updates";
+    public static final String UTILIZATION_INGEST = INTERNAL + "/utilization-ingest";
+    public static final String FACILITY_CACHE = INTERNAL + "/facility-cache";
 
     public static final String PAYMENT_METHODS = API + "/payment-methods";
     public static final String FACILITY_STATUSES = API + "/facility-statuses";
@@ -89,7 +96,7 @@ public final class UrlSchema {
     public static final String DEV_HUBS = DEV_API + "/hubs";
     public static final String DEV_UTILIZATION = DEV_FACILITIES + "/{" + FACILITY_ID + "}/utilization";
     public static final String DEV_PREDICTION = DEV_API + "/prediction";
-    public static final String DEV_PREDICTION_HISTORY = DEV_FACILITIES + "/{" + FACILITY_ID + "}/prediction_history";
+    public static final String DEV_PREDICTION_BACKTEST = DEV_FACILITIES + "/{" + FACILITY_ID + "}/prediction_backtest";
 
     public static String urlEncode(String str) {
         try {
@@ -0,0 +1,91 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.util;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Version bookkeeping of an in-process cache. Every invalidation increments the version, and a value loaded
+ * from the database is stored only if no invalidation happened while it was being loaded, so a concurrent load
+ * cannot resurrect stale data. Invalidations made inside a transaction are repeated when the transaction
+ * completes, and nothing is stored until then, so uncommitted changes are never shared with other transactions.
+ * <p>
+ * Alternatively, a cache may apply the changes to its contents itself once their transaction has committed
+ * ({@link #updateAfterCommit}). Values loaded by a thread whose transaction has such pending updates are not
+ * stored, since they may include its uncommitted changes.
+ * <p>
+ * The stores and invalidations are run while holding the lock of this object.
+ */
+public class CacheVersion {
+
+    private long version;
+    private int pendingInvalidations;
+
+    public synchronized long get() {
+        return version;
+    }
+
+    /**
+     * Runs the store if the cache has not been invalidated since {@code versionBeforeLoad} was read,
+     * and no invalidating transaction is still pending.
+     *
+     * @return whether the store was run
+     */
+    public synchronized boolean storeIfCurrent(long versionBeforeLoad, Runnable store) {
+        if (version != versionBeforeLoad || pendingInvalidations > 0 || TransactionSynchronizationManager.hasResource(this)) {
+            return false;
+        }
+        store.run();
+        return true;
+    }
+
+    /**
+     * Runs the invalidation now, and if a transaction is active, again when it completes.
+     */
+    public void invalidate(Runnable invalidation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            doInvalidate(invalidation, 0);
+            return;
+        }
+        doInvalidate(invalidation, 1);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                doInvalidate(invalidation, -1);
+            }
+        });
+    }
+
+    /**
+     * Runs the update after the current transaction has committed, or immediately if no transaction is active.
+     */
+    public void updateAfterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+        if (!TransactionSynchronizationManager.hasResource(this)) {
+            TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheVersion.this);
+                }
+            });
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
+
+    private synchronized void doInvalidate(Runnable invalidation, int pendingDelta) {
+        version++;
+        pendingInvalidations += pendingDelta;
+        invalidation.run();
+    }
+}
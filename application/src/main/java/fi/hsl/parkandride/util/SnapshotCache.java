@@ -0,0 +1,129 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.util;
+
+import org.joda.time.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds an immutable snapshot of data which is read much more often than it changes, so that reading it doesn't
+ * need a database connection. The snapshot is loaded when it is first read, and reloaded when it is older than
+ * the max age, so that changes made on other cluster nodes are seen. Only one thread loads it at a time; the others
+ * keep reading the previous snapshot meanwhile, and wait only if there is none.
+ * <p>
+ * Changes made on this node are applied to a copy of the snapshot once their transaction has committed
+ * ({@link #updateAfterCommit}). The updates which are applied while the snapshot is being loaded are applied
+ * to the loaded snapshot too, since it may or may not include them, so they must be idempotent.
+ */
+public class SnapshotCache<T> {
+
+    private final long maxAgeMillis;
+    private final CacheVersion version = new CacheVersion();
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private volatile Entry<T> current;
+    private List<UnaryOperator<T>> updatesDuringLoad;
+
+    public SnapshotCache(Duration maxAge) {
+        this.maxAgeMillis = maxAge.getMillis();
+    }
+
+    public T get(Supplier<T> loader) {
+        Entry<T> entry = current;
+        if (entry != null && entry.isFresh()) {
+            return entry.value;
+        }
+        if (entry == null) {
+            loadLock.lock();
+        } else if (!loadLock.tryLock()) {
+            return entry.value; // being reloaded by another thread
+        }
+        try {
+            entry = current;
+            if (entry != null && entry.isFresh()) {
+                return entry.value;
+            }
+            return load(loader);
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the update to the snapshot once the current transaction has committed.
+     */
+    public void updateAfterCommit(UnaryOperator<T> update) {
+        version.updateAfterCommit(() -> apply(update));
+    }
+
+    /**
+     * Drops the snapshot now and when the current transaction completes, so that the next read reloads it.
+     */
+    public void invalidate() {
+        version.invalidate(this::clear);
+    }
+
+    private T load(Supplier<T> loader) {
+        long versionBeforeLoad = version.get();
+        startRecordingUpdates();
+        try {
+            long expires = System.currentTimeMillis() + maxAgeMillis;
+            T loaded = loader.get();
+            if (version.storeIfCurrent(versionBeforeLoad, () -> store(loaded, expires))) {
+                return current.value;
+            }
+            return loaded;
+        } finally {
+            stopRecordingUpdates();
+        }
+    }
+
+    private synchronized void startRecordingUpdates() {
+        updatesDuringLoad = new ArrayList<>();
+    }
+
+    private synchronized void stopRecordingUpdates() {
+        updatesDuringLoad = null;
+    }
+
+    private synchronized void store(T loaded, long expires) {
+        T value = loaded;
+        for (UnaryOperator<T> update : updatesDuringLoad) {
+            value = update.apply(value);
+        }
+        current = new Entry<>(value, expires);
+    }
+
+    private synchronized void apply(UnaryOperator<T> update) {
+        Entry<T> entry = current;
+        if (entry != null) {
+            current = new Entry<>(update.apply(entry.value), entry.expires);
+        }
+        if (updatesDuringLoad != null) {
+            updatesDuringLoad.add(update);
+        }
+    }
+
+    private synchronized void clear() {
+        current = null;
+    }
+
+    private static final class Entry<T> {
+        final T value;
+        final long expires;
+
+        Entry(T value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+CREATE TABLE facility_utilization_latest (
+  facility_id      BIGINT      NOT NULL,
+  capacity_type    VARCHAR(64) NOT NULL,
+  usage            VARCHAR(64) NOT NULL,
+  ts               TIMESTAMP   NOT NULL,
+  spaces_available INT         NOT NULL,
+  capacity         INT         NOT NULL,
+
+  PRIMARY KEY (facility_id, capacity_type, usage),
+
+  CONSTRAINT facility_utilization_latest_facility_id_fk FOREIGN KEY (facility_id)
+  REFERENCES facility (id),
+
+  CONSTRAINT facility_utilization_latest_capacity_type_fk FOREIGN KEY (capacity_type)
+  REFERENCES capacity_type (name),
+
+  CONSTRAINT facility_utilization_latest_usage_fk FOREIGN KEY (usage)
+  REFERENCES usage (name)
+);
+
+-- if many utilizations share the latest timestamp, pick one of them deterministically
+INSERT INTO facility_utilization_latest (facility_id, capacity_type, usage, ts, spaces_available, capacity)
+  SELECT u.facility_id, u.capacity_type, u.usage, u.ts, max(u.spaces_available), max(u.capacity)
+  FROM facility_utilization u
+    JOIN (SELECT facility_id, capacity_type, usage, max(ts) AS ts
+          FROM facility_utilization
+          GROUP BY facility_id, capacity_type, usage) latest
+      ON u.facility_id = latest.facility_id
+         AND u.capacity_type = latest.capacity_type
+         AND u.usage = latest.usage
+         AND u.ts = latest.ts
+  GROUP BY u.facility_id, u.capacity_type, u.usage, u.ts;
@@ -0,0 +1,28 @@
+CREATE TABLE facility_utilization_rollup (
+  facility_id           BIGINT      NOT NULL,
+  capacity_type         VARCHAR(64) NOT NULL,
+  usage                 VARCHAR(64) NOT NULL,
+  resolution            VARCHAR(16) NOT NULL,
+  period_start          TIMESTAMP   NOT NULL,
+  min_spaces_available  INT         NOT NULL,
+  max_spaces_available  INT         NOT NULL,
+  sum_spaces_available  BIGINT      NOT NULL,
+  sample_count          INT         NOT NULL,
+  last_ts               TIMESTAMP   NOT NULL,
+  last_spaces_available INT         NOT NULL,
+  last_capacity         INT         NOT NULL,
+
+  PRIMARY KEY (facility_id, capacity_type, usage, resolution, period_start),
+
+  CONSTRAINT facility_utilization_rollup_facility_id_fk FOREIGN KEY (facility_id)
+  REFERENCES facility (id),
+
+  CONSTRAINT facility_utilization_rollup_capacity_type_fk FOREIGN KEY (capacity_type)
+  REFERENCES capacity_type (name),
+
+  CONSTRAINT facility_utilization_rollup_usage_fk FOREIGN KEY (usage)
+  REFERENCES usage (name)
+);
+
+-- for finding all facilities' rollups of a time range
+CREATE INDEX facility_utilization_rollup_period_idx ON facility_utilization_rollup (resolution, period_start);
@@ -0,0 +1,9 @@
+-- a node claims the predictors it updates, so that the nodes of a cluster can update predictors in parallel
+ALTER TABLE predictor
+  ADD COLUMN claim_token VARCHAR(64);
+
+ALTER TABLE predictor
+  ADD COLUMN claim_expires TIMESTAMP;
+
+CREATE INDEX predictor_more_utilizations_idx
+  ON predictor (more_utilizations, claim_expires);
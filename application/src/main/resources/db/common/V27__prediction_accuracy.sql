@@ -0,0 +1,17 @@
+-- running sums of the errors of the prediction history compared to the actual utilizations
+CREATE TABLE prediction_accuracy (
+  predictor_id                 BIGINT    NOT NULL,
+  forecast_distance_in_minutes INT       NOT NULL,
+  sample_count                 BIGINT    NOT NULL,
+  sum_error                    BIGINT    NOT NULL,
+  sum_absolute_error           BIGINT    NOT NULL,
+  scored_until                 TIMESTAMP NOT NULL,
+
+  PRIMARY KEY (predictor_id, forecast_distance_in_minutes),
+
+  CONSTRAINT prediction_accuracy_predictor_id_fk FOREIGN KEY (predictor_id)
+  REFERENCES predictor (id)
+);
+
+-- for finding the prediction history which has not been scored yet
+CREATE INDEX facility_prediction_history_ts_idx ON facility_prediction_history (ts);
@@ -0,0 +1,4 @@
+-- incremented whenever new utilizations are signalled, so that an update which started before the signal
+-- does not mark the predictor up to date
+ALTER TABLE predictor
+  ADD COLUMN signal_version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,3 @@
+-- lets H2 read the pages of a utilization search in time order without sorting all matching rows
+CREATE INDEX facility_utilization_ts_idx
+  ON facility_utilization (ts);
@@ -0,0 +1,66 @@
+-- Monthly partitioning of facility_utilization using table inheritance.
+-- The parent table stays empty: a trigger routes every inserted row (also from COPY) to the partition
+-- of its month, creating the partition when needed. Queries which restrict ts are pruned to the
+-- matching partitions by constraint exclusion.
+
+CREATE OR REPLACE FUNCTION facility_utilization_partition_name(month_ts TIMESTAMP)
+  RETURNS TEXT AS $$
+BEGIN
+  RETURN 'facility_utilization_' || to_char(month_ts, '"y"YYYY"m"MM');
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION create_facility_utilization_partition(month_ts TIMESTAMP)
+  RETURNS TEXT AS $$
+DECLARE
+  start_ts  TIMESTAMP := date_trunc('month', month_ts);
+  end_ts    TIMESTAMP := date_trunc('month', month_ts) + INTERVAL '1 month';
+  partition_name TEXT := facility_utilization_partition_name(month_ts);
+BEGIN
+  IF NOT EXISTS(SELECT 1
+                FROM pg_class c
+                  JOIN pg_namespace n ON n.oid = c.relnamespace
+                WHERE c.relname = partition_name
+                      AND n.nspname = current_schema()) THEN
+    EXECUTE format('CREATE TABLE %I (CHECK (ts >= %L AND ts < %L)) INHERITS (facility_utilization)',
+                   partition_name, start_ts, end_ts);
+    EXECUTE format('CREATE INDEX %I ON %I (facility_id, capacity_type, usage, ts)',
+                   partition_name || '_idx', partition_name);
+    EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I FOREIGN KEY (facility_id) REFERENCES facility (id)',
+                   partition_name, partition_name || '_facility_id_fk');
+    EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I FOREIGN KEY (capacity_type) REFERENCES capacity_type (name)',
+                   partition_name, partition_name || '_capacity_type_fk');
+    EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I FOREIGN KEY (usage) REFERENCES usage (name)',
+                   partition_name, partition_name || '_usage_fk');
+  END IF;
+  RETURN partition_name;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION facility_utilization_insert()
+  RETURNS TRIGGER AS $$
+BEGIN
+  EXECUTE format('INSERT INTO %I SELECT ($1).*', create_facility_utilization_partition(NEW.ts))
+  USING NEW;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- move existing utilizations to partitions
+DO $$
+DECLARE
+  month_ts TIMESTAMP;
+BEGIN
+  FOR month_ts IN SELECT DISTINCT date_trunc('month', ts)
+               FROM ONLY facility_utilization LOOP
+    EXECUTE format('INSERT INTO %I SELECT * FROM ONLY facility_utilization WHERE ts >= %L AND ts < %L',
+                   create_facility_utilization_partition(month_ts), month_ts, month_ts + INTERVAL '1 month');
+  END LOOP;
+END;
+$$;
+
+TRUNCATE ONLY facility_utilization;
+
+CREATE TRIGGER facility_utilization_insert_trigger
+BEFORE INSERT ON facility_utilization
+FOR EACH ROW EXECUTE PROCEDURE facility_utilization_insert();
@@ -0,0 +1,24 @@
+-- Roll up the existing utilizations. Later utilizations are rolled up when they are inserted.
+-- If many utilizations share the last timestamp of a period, pick one of them deterministically.
+
+INSERT INTO facility_utilization_rollup (facility_id, capacity_type, usage, resolution, period_start,
+                                         min_spaces_available, max_spaces_available, sum_spaces_available, sample_count,
+                                         last_ts, last_spaces_available, last_capacity)
+  SELECT facility_id, capacity_type, usage, resolution, period_start,
+    min(spaces_available), max(spaces_available), sum(spaces_available), count(*),
+    max(ts),
+    (array_agg(spaces_available ORDER BY ts DESC, spaces_available DESC, capacity DESC))[1],
+    (array_agg(capacity ORDER BY ts DESC, spaces_available DESC, capacity DESC))[1]
+  FROM (SELECT facility_id, capacity_type, usage, ts, spaces_available, capacity,
+          'FIVE_MINUTES' AS resolution,
+          date_trunc('hour', ts) + floor(extract(MINUTE FROM ts) / 5) * INTERVAL '5 minutes' AS period_start
+        FROM facility_utilization
+        UNION ALL
+        SELECT facility_id, capacity_type, usage, ts, spaces_available, capacity,
+          'HOUR', date_trunc('hour', ts)
+        FROM facility_utilization
+        UNION ALL
+        SELECT facility_id, capacity_type, usage, ts, spaces_available, capacity,
+          'DAY', date_trunc('day', ts)
+        FROM facility_utilization) u
+  GROUP BY facility_id, capacity_type, usage, resolution, period_start;
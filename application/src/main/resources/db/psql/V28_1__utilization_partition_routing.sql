@@ -0,0 +1,69 @@
+-- Route the inserted utilizations to the partitions of their months with static INSERT statements.
+-- Checking pg_class and running a dynamic INSERT for each row made COPY about as slow as single inserts.
+-- The partitions are created in advance by the partition maintenance job, which regenerates the routing
+-- after creating or removing partitions. Rows of other months still fall back to creating their partition.
+
+CREATE OR REPLACE FUNCTION create_facility_utilization_partition(month_ts TIMESTAMP)
+  RETURNS TEXT AS $$
+DECLARE
+  start_ts  TIMESTAMP := date_trunc('month', month_ts);
+  end_ts    TIMESTAMP := date_trunc('month', month_ts) + INTERVAL '1 month';
+  partition_name TEXT := facility_utilization_partition_name(month_ts);
+BEGIN
+  IF NOT EXISTS(SELECT 1
+                FROM pg_class c
+                  JOIN pg_namespace n ON n.oid = c.relnamespace
+                WHERE c.relname = partition_name
+                      AND n.nspname = current_schema()) THEN
+    BEGIN
+      EXECUTE format('CREATE TABLE %I (CHECK (ts >= %L AND ts < %L)) INHERITS (facility_utilization)',
+                     partition_name, start_ts, end_ts);
+      EXECUTE format('CREATE INDEX %I ON %I (facility_id, capacity_type, usage, ts)',
+                     partition_name || '_idx', partition_name);
+      EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I FOREIGN KEY (facility_id) REFERENCES facility (id)',
+                     partition_name, partition_name || '_facility_id_fk');
+      EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I FOREIGN KEY (capacity_type) REFERENCES capacity_type (name)',
+                     partition_name, partition_name || '_capacity_type_fk');
+      EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I FOREIGN KEY (usage) REFERENCES usage (name)',
+                     partition_name, partition_name || '_usage_fk');
+    EXCEPTION
+      -- another transaction created the partition concurrently; a concurrent CREATE TABLE
+      -- reports the duplicate either as duplicate_table or as a unique_violation in pg_type
+      WHEN duplicate_table OR unique_violation THEN
+        NULL;
+    END;
+  END IF;
+  RETURN partition_name;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION refresh_facility_utilization_routing()
+  RETURNS VOID AS $$
+DECLARE
+  fallback  TEXT := 'EXECUTE format(''INSERT INTO %I SELECT ($1).*'', create_facility_utilization_partition(NEW.ts)) USING NEW;';
+  routes    TEXT := '';
+  p         RECORD;
+BEGIN
+  -- the latest months first, because nearly all utilizations are inserted to them
+  FOR p IN SELECT c.relname AS name,
+             to_date(substring(c.relname FROM 'y(\d{4}m\d{2})$'), 'YYYY"m"MM') AS start_date
+           FROM pg_inherits i
+             JOIN pg_class c ON c.oid = i.inhrelid
+           WHERE i.inhparent = 'facility_utilization'::regclass
+                 AND c.relname ~ '^facility_utilization_y\d{4}m\d{2}$'
+           ORDER BY c.relname DESC LOOP
+    routes := routes || format('%s NEW.ts >= %L AND NEW.ts < %L THEN INSERT INTO %I VALUES (NEW.*); ',
+                               CASE WHEN routes = '' THEN 'IF' ELSE 'ELSIF' END,
+                               p.start_date::TIMESTAMP,
+                               p.start_date::TIMESTAMP + INTERVAL '1 month',
+                               p.name);
+  END LOOP;
+  EXECUTE 'CREATE OR REPLACE FUNCTION facility_utilization_insert() RETURNS TRIGGER AS '
+          || quote_literal('BEGIN '
+                           || CASE WHEN routes = '' THEN fallback ELSE routes || 'ELSE ' || fallback || ' END IF; ' END
+                           || 'RETURN NULL; END;')
+          || ' LANGUAGE plpgsql';
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT refresh_facility_utilization_routing();
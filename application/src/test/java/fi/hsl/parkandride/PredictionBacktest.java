@@ -0,0 +1,80 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.joda.time.DateTime;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Profile;
+
+import fi.hsl.parkandride.config.CoreConfiguration;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import fi.hsl.parkandride.core.domain.prediction.BacktestResult;
+import fi.hsl.parkandride.core.service.PredictionBacktestService;
+
+/**
+ * Backtests the predictors against a database, e.g. a copy of the production data in H2:
+ * <pre>
+ * PredictionBacktest --spring.datasource.url=jdbc:h2:file:./backtest 4 weeks 12 34
+ * </pre>
+ * The facility ids are optional; without them all facilities with utilizations are backtested.
+ */
+@org.springframework.context.annotation.Configuration
+@EnableAutoConfiguration
+@Import(CoreConfiguration.class)
+@Profile("backtest")
+public class PredictionBacktest {
+
+    public static void main(String[] args) {
+        SpringApplication application = new SpringApplication(PredictionBacktest.class);
+        application.setWebEnvironment(false);
+        application.setAdditionalProfiles("backtest");
+        application.run(args);
+    }
+
+    @Inject
+    UtilizationRepository utilizationRepository;
+
+    @Inject
+    PredictionBacktestService predictionBacktestService;
+
+    @Bean
+    public CommandLineRunner runner() {
+        return (String... args) -> {
+            List<String> arguments = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).collect(toList());
+            if (arguments.size() < 2 || !"weeks".equals(arguments.get(1))) {
+                throw new RuntimeException("Expected arguments: <number of weeks> weeks [facility id...]");
+            }
+            int weeks = Integer.parseInt(arguments.get(0));
+            Long[] facilityIds = arguments.subList(2, arguments.size()).stream().map(Long::valueOf).toArray(Long[]::new);
+
+            Set<Utilization> latest = utilizationRepository.findLatestUtilization(facilityIds);
+            Set<UtilizationKey> utilizationKeys = latest.stream()
+                    .map(Utilization::getUtilizationKey)
+                    .collect(toSet());
+            DateTime end = latest.stream()
+                    .map(u -> u.timestamp)
+                    .max(DateTime::compareTo)
+                    .orElseGet(DateTime::now);
+            BacktestResult result = predictionBacktestService.backtest(utilizationKeys, end.minusWeeks(weeks), end, PREDICTION_RESOLUTION);
+            System.out.print(result.format());
+        };
+    }
+
+}
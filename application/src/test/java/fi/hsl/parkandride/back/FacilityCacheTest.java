@@ -0,0 +1,62 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back;
+
+import fi.hsl.parkandride.core.domain.Facility;
+import fi.hsl.parkandride.core.domain.FacilityCacheStatus;
+import org.joda.time.Duration;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FacilityCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final LongFunction<Facility> loader = id -> {
+        loads.incrementAndGet();
+        Facility facility = new Facility();
+        facility.id = id;
+        return facility;
+    };
+
+    @Test
+    public void loads_the_facility_once_until_invalidated() {
+        FacilityCache cache = new FacilityCache(Duration.standardHours(1));
+
+        cache.get(1L, loader);
+        cache.get(1L, loader);
+        assertThat(loads.get()).isEqualTo(1);
+
+        cache.invalidate(1L);
+        cache.get(1L, loader);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void reloads_the_facility_when_it_expires() {
+        FacilityCache cache = new FacilityCache(Duration.ZERO);
+
+        cache.get(1L, loader);
+        cache.get(1L, loader);
+
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void status_counts_the_hits_and_misses() {
+        FacilityCache cache = new FacilityCache(Duration.standardHours(1));
+
+        cache.get(1L, loader);
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+
+        FacilityCacheStatus status = cache.getStatus();
+        assertThat(status.size).isEqualTo(2);
+        assertThat(status.hitCount).isEqualTo(1);
+        assertThat(status.missCount).isEqualTo(2);
+    }
+}
@@ -33,6 +33,7 @@ import static fi.hsl.parkandride.core.domain.Sort.Dir.DESC;
 import static fi.hsl.parkandride.core.domain.Usage.PARK_AND_RIDE;
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -98,6 +99,9 @@ public class FacilityDaoTest extends AbstractDaoTest {
     @Inject
     OperatorRepository operatorDao;
 
+    @Inject
+    FacilityCache facilityCache;
+
     private FacilityContacts dummyContacts;
 
     private Long operatorId;
@@ -373,6 +377,63 @@ public class FacilityDaoTest extends AbstractDaoTest {
         assertThat(results.get(1).id).isEqualTo(id2);
     }
 
+    @Test
+    public void cached_facility_is_loaded_once() {
+        long id = facilityDao.insertFacility(createFacility());
+        long misses = facilityCache.getMissCount();
+        long hits = facilityCache.getHitCount();
+
+        Facility first = facilityDao.getCachedFacility(id);
+        Facility second = facilityDao.getCachedFacility(id);
+
+        assertThat(second).isSameAs(first);
+        assertThat(facilityCache.getMissCount()).isEqualTo(misses + 1);
+        assertThat(facilityCache.getHitCount()).isEqualTo(hits + 1);
+    }
+
+    @Test
+    public void cached_facilities_are_loaded_together() {
+        long id1 = facilityDao.insertFacility(createFacility());
+        long id2 = facilityDao.insertFacility(createFacility());
+        Facility first = facilityDao.getCachedFacility(id1);
+
+        Map<Long, Facility> facilities = facilityDao.getCachedFacilities(asList(id1, id2, 0L));
+
+        assertThat(facilities.keySet()).containsOnly(id1, id2);
+        assertThat(facilities.get(id1)).isSameAs(first);
+        assertThat(facilities.get(id2).builtCapacity).isEqualTo(facilityDao.getFacility(id2).builtCapacity);
+        assertThat(facilities.get(id2).pricing).isEqualTo(facilityDao.getFacility(id2).pricing);
+        assertThat(facilityDao.getCachedFacility(id2)).isSameAs(facilities.get(id2));
+    }
+
+    @Test
+    public void update_invalidates_cached_facility() {
+        long id = facilityDao.insertFacility(createFacility());
+        Facility cached = facilityDao.getCachedFacility(id);
+        long version = facilityCache.getVersion();
+
+        Facility facility = facilityDao.getFacility(id);
+        facility.builtCapacity = ImmutableMap.of(CAR, 60);
+        facilityDao.updateFacility(id, facility);
+
+        assertThat(facilityCache.getVersion()).isGreaterThan(version);
+        Facility updated = facilityDao.getCachedFacility(id);
+        assertThat(updated).isNotSameAs(cached);
+        assertThat(updated.builtCapacity).isEqualTo(ImmutableMap.of(CAR, 60));
+    }
+
+    @Test
+    public void operator_ids_are_read_from_the_database() {
+        long id = facilityDao.insertFacility(createFacility());
+
+        assertThat(facilityDao.getOperatorIds(asList(id, 0L))).containsOnly(entry(id, operatorId));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void get_cached_throws_an_exception_if_not_found() {
+        facilityDao.getCachedFacility(0);
+    }
+
     @Test(expected = NotFoundException.class)
     public void get_throws_an_exception_if_not_found() {
         facilityDao.getFacility(0);
@@ -0,0 +1,73 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back;
+
+import com.mysema.commons.lang.CloseableIterator;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.core.domain.UtilizationSearch;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run with {@code mvn test -P streaming}, which gives the tests a heap too small to hold the searched utilizations.
+ */
+@Transactional
+public class UtilizationDaoStreamingTest extends AbstractDaoTest {
+
+    private static final int ROWS = 1_000_000;
+
+    @Inject Dummies dummies;
+    @Inject UtilizationRepository utilizationDao;
+    @Inject DataSource dataSource;
+
+    @Test
+    public void findUtilizations_streams_in_constant_memory() {
+        long facilityId = dummies.createFacility();
+        insertUtilizations(facilityId, ROWS);
+
+        UtilizationSearch search = new UtilizationSearch();
+        search.start = new DateTime(2000, 1, 1, 0, 0);
+        search.end = search.start.plusSeconds(ROWS);
+
+        int count = 0;
+        DateTime previous = null;
+        try (CloseableIterator<Utilization> utilizations = utilizationDao.findUtilizations(search)) {
+            while (utilizations.hasNext()) {
+                Utilization u = utilizations.next();
+                if (previous != null) {
+                    assertThat(u.timestamp.isBefore(previous)).as("in time order").isFalse();
+                }
+                previous = u.timestamp;
+                count++;
+            }
+        }
+
+        assertThat(count).isEqualTo(ROWS);
+    }
+
+    private void insertUtilizations(long facilityId, int rows) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        String database = jdbcTemplate.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+        if (database.equals("PostgreSQL")) {
+            jdbcTemplate.update("" +
+                    "INSERT INTO facility_utilization (facility_id, capacity_type, usage, ts, spaces_available, capacity) " +
+                    "SELECT ?, 'CAR', 'PARK_AND_RIDE', TIMESTAMP '2000-01-01 00:00:00' + x * INTERVAL '1 second', x % 100, 100 " +
+                    "FROM generate_series(1, ?) x", facilityId, rows);
+        } else {
+            jdbcTemplate.update("" +
+                    "INSERT INTO facility_utilization (facility_id, capacity_type, usage, ts, spaces_available, capacity) " +
+                    "SELECT ?, 'CAR', 'PARK_AND_RIDE', DATEADD('SECOND', X, TIMESTAMP '2000-01-01 00:00:00'), MOD(X, 100), 100 " +
+                    "FROM SYSTEM_RANGE(1, ?)", facilityId, rows);
+        }
+    }
+}
@@ -4,10 +4,13 @@
 package fi.hsl.parkandride.back;
 
 import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.sql.postgresql.PostgreSQLQueryFactory;
+import fi.hsl.parkandride.back.sql.QFacilityUtilizationRollup;
 import fi.hsl.parkandride.core.back.FacilityRepository;
 import fi.hsl.parkandride.core.back.UtilizationRepository;
 import fi.hsl.parkandride.core.domain.*;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Minutes;
 import org.junit.Before;
 import org.junit.Test;
@@ -24,7 +27,9 @@ import static fi.hsl.parkandride.core.domain.Usage.COMMERCIAL;
 import static fi.hsl.parkandride.core.domain.Usage.HSL_TRAVEL_CARD;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
 
 @Transactional
 public class UtilizationDaoTest extends AbstractDaoTest {
@@ -32,6 +37,7 @@ public class UtilizationDaoTest extends AbstractDaoTest {
     @Inject Dummies dummies;
     @Inject UtilizationRepository utilizationDao;
     @Inject FacilityRepository facilityDao;
+    @Inject PostgreSQLQueryFactory queryFactory;
 
     private long facilityId;
 
@@ -70,6 +76,30 @@ public class UtilizationDaoTest extends AbstractDaoTest {
         assertThat(results).containsOnly(u2);
     }
 
+    @Test
+    public void findLatestUtilization_returns_latest_entry_of_separate_inserts() {
+        Utilization u1 = newUtilization(facilityId, new DateTime(2000, 1, 1, 12, 0), 100, 150);
+        Utilization u2 = newUtilization(facilityId, new DateTime(2000, 1, 1, 13, 0), 200, 250);
+        utilizationDao.insertUtilizations(asList(u1));
+        utilizationDao.insertUtilizations(asList(u2));
+
+        Set<Utilization> results = utilizationDao.findLatestUtilization(facilityId);
+
+        assertThat(results).containsOnly(u2);
+    }
+
+    @Test
+    public void findLatestUtilization_ignores_utilizations_older_than_the_latest() {
+        Utilization u1 = newUtilization(facilityId, new DateTime(2000, 1, 1, 12, 0), 100, 150);
+        Utilization u2 = newUtilization(facilityId, new DateTime(2000, 1, 1, 13, 0), 200, 250);
+        utilizationDao.insertUtilizations(asList(u2));
+        utilizationDao.insertUtilizations(asList(u1));
+
+        Set<Utilization> results = utilizationDao.findLatestUtilization(facilityId);
+
+        assertThat(results).containsOnly(u2);
+    }
+
     @Test
     public void findLatestUtilization_returns_each_capacity_type_and_usage_combination() {
         Utilization u1 = newUtilization(facilityId, new DateTime(2000, 1, 1, 12, 0), 100, 100);
@@ -303,6 +333,163 @@ public class UtilizationDaoTest extends AbstractDaoTest {
                 newUtilization(facilityId, end, 100, 100));
     }
 
+    @Test
+    public void findUtilizationsWithResolution_uses_the_last_of_many_utilizations_between_steps() {
+        DateTime start = new DateTime(2000, 1, 1, 12, 0);
+        DateTime end = start.plusHours(1);
+        Minutes resolution = Minutes.minutes(30);
+
+        Utilization u1 = newUtilization(facilityId, start.minusMinutes(5), 100, 100);
+        Utilization u2 = newUtilization(facilityId, start.plusMinutes(10), 90, 100);
+        Utilization u3 = newUtilization(facilityId, start.plusMinutes(20), 80, 100);
+        Utilization u4 = newUtilization(facilityId, start.plusMinutes(30), 70, 100);
+        utilizationDao.insertUtilizations(asList(u1, u2, u3, u4));
+        UtilizationKey utilizationKey = u1.getUtilizationKey();
+
+        List<Utilization> results = utilizationDao.findUtilizationsWithResolution(utilizationKey, start, end, resolution);
+        assertThat(results).containsExactly(
+                newUtilization(facilityId, start, 100, 100),
+                newUtilization(facilityId, start.plus(resolution), 70, 100),
+                newUtilization(facilityId, end, 70, 100));
+    }
+
+    @Test
+    public void findUtilizationsWithResolution_steps_in_absolute_time_over_a_daylight_saving_fall_back() {
+        DateTime fallBack = findDaylightSavingFallBack(DateTimeZone.getDefault(), 2015);
+        assumeTrue(fallBack != null);
+        DateTime start = fallBack.minusHours(1);
+        DateTime end = fallBack.plusHours(1);
+        Minutes resolution = Minutes.minutes(30);
+
+        Utilization u1 = newUtilization(facilityId, start.minusHours(1), 100, 100);
+        utilizationDao.insertUtilizations(asList(u1));
+
+        List<Utilization> results = utilizationDao.findUtilizationsWithResolution(u1.getUtilizationKey(), start, end, resolution);
+        assertThat(results.stream().map(u -> u.timestamp.getMillis()).collect(toList())).containsExactly(
+                start.getMillis(),
+                start.plus(resolution).getMillis(),
+                fallBack.getMillis(),
+                fallBack.plus(resolution).getMillis(),
+                end.getMillis());
+    }
+
+
+    // utilization rollups
+
+    @Test
+    public void inserted_utilizations_are_rolled_up_at_every_resolution() {
+        DateTime start = new DateTime(2000, 1, 1, 12, 0);
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(facilityId, start.plusMinutes(1), 100, 300),
+                newUtilization(facilityId, start.plusMinutes(3), 50, 300)));
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(facilityId, start.plusMinutes(7), 30, 300)));
+        UtilizationKey key = new UtilizationKey(facilityId, CAR, HSL_TRAVEL_CARD);
+
+        List<UtilizationRollup> fiveMinutes = utilizationDao.findUtilizationRollups(key, start, start.plusHours(1), Minutes.minutes(5));
+        assertThat(resolutions(fiveMinutes)).containsExactly(RollupResolution.FIVE_MINUTES, RollupResolution.FIVE_MINUTES);
+        assertThat(fiveMinutes.get(0).periodStart.getMillis()).isEqualTo(start.getMillis());
+        assertThat(fiveMinutes.get(1).periodStart.getMillis()).isEqualTo(start.plusMinutes(5).getMillis());
+        assertThat(fiveMinutes.get(0).minSpacesAvailable).isEqualTo(50);
+        assertThat(fiveMinutes.get(0).maxSpacesAvailable).isEqualTo(100);
+        assertThat(fiveMinutes.get(0).getAverageSpacesAvailable()).isEqualTo(75.0);
+        assertThat(fiveMinutes.get(0).lastSpacesAvailable).isEqualTo(50);
+
+        List<UtilizationRollup> days = utilizationDao.findUtilizationRollups(key, start, start, Minutes.minutes(24 * 60));
+        assertThat(days).hasSize(1);
+        UtilizationRollup day = days.get(0);
+        assertThat(day.resolution).isEqualTo(RollupResolution.DAY);
+        assertThat(day.periodStart.getMillis()).isEqualTo(start.withTimeAtStartOfDay().getMillis());
+        assertThat(day.sampleCount).isEqualTo(3);
+        assertThat(day.minSpacesAvailable).isEqualTo(30);
+        assertThat(day.maxSpacesAvailable).isEqualTo(100);
+        assertThat(day.getAverageSpacesAvailable()).isEqualTo(60.0);
+        assertThat(day.lastTimestamp.getMillis()).isEqualTo(start.plusMinutes(7).getMillis());
+        assertThat(day.lastSpacesAvailable).isEqualTo(30);
+    }
+
+    @Test
+    public void findUtilizationRollups_uses_the_coarsest_rollup_not_longer_than_the_resolution() {
+        DateTime start = new DateTime(2000, 1, 1, 12, 0);
+        utilizationDao.insertUtilizations(asList(newUtilization(facilityId, start, 100, 100)));
+        UtilizationKey key = new UtilizationKey(facilityId, CAR, HSL_TRAVEL_CARD);
+
+        assertThat(resolutions(utilizationDao.findUtilizationRollups(key, start, start, Minutes.minutes(30))))
+                .containsExactly(RollupResolution.FIVE_MINUTES);
+        assertThat(resolutions(utilizationDao.findUtilizationRollups(key, start, start, Minutes.minutes(180))))
+                .containsExactly(RollupResolution.HOUR);
+        assertThat(resolutions(utilizationDao.findUtilizationRollups(key, start, start, Minutes.minutes(7 * 24 * 60))))
+                .containsExactly(RollupResolution.DAY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findUtilizationRollups_rejects_resolutions_finer_than_the_finest_rollup() {
+        DateTime start = new DateTime(2000, 1, 1, 12, 0);
+        utilizationDao.findUtilizationRollups(new UtilizationKey(facilityId, CAR, HSL_TRAVEL_CARD), start, start, Minutes.ONE);
+    }
+
+    @Test
+    public void utilizations_of_the_repeated_hour_of_a_daylight_saving_fall_back_are_rolled_up_together() {
+        DateTimeZone zone = DateTimeZone.getDefault();
+        DateTime fallBack = findDaylightSavingFallBack(zone, 2015);
+        assumeTrue(fallBack != null);
+        // the local times of the hour before the fall-back are repeated after it
+        int repeatedMillis = zone.getOffset(fallBack.getMillis() - 1) - zone.getOffset(fallBack.getMillis());
+        DateTime beforeFallBack = fallBack.minusMillis(repeatedMillis).plusMinutes(1);
+        DateTime afterFallBack = fallBack.plusMinutes(2);
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(facilityId, beforeFallBack, 100, 300),
+                newUtilization(facilityId, afterFallBack, 50, 300)));
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(facilityId, afterFallBack.plusMinutes(1), 30, 300)));
+        UtilizationKey key = new UtilizationKey(facilityId, CAR, HSL_TRAVEL_CARD);
+
+        List<UtilizationRollup> fiveMinutes = utilizationDao.findUtilizationRollups(key, beforeFallBack, afterFallBack, Minutes.minutes(5));
+        assertThat(fiveMinutes).hasSize(1);
+        assertThat(fiveMinutes.get(0).sampleCount).isEqualTo(3);
+        assertThat(fiveMinutes.get(0).minSpacesAvailable).isEqualTo(30);
+        assertThat(fiveMinutes.get(0).maxSpacesAvailable).isEqualTo(100);
+        assertThat(fiveMinutes.get(0).lastSpacesAvailable).isEqualTo(30);
+        List<UtilizationRollup> days = utilizationDao.findUtilizationRollups(key, beforeFallBack, afterFallBack, Minutes.minutes(24 * 60));
+        assertThat(days).hasSize(1);
+        assertThat(days.get(0).sampleCount).isEqualTo(3);
+    }
+
+    @Test
+    public void rebuildUtilizationRollups_fills_missing_rollups() {
+        DateTime start = new DateTime(2000, 1, 1, 12, 0);
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(facilityId, start, 100, 100),
+                newUtilization(facilityId, start.plusHours(1), 50, 100)));
+        UtilizationKey key = new UtilizationKey(facilityId, CAR, HSL_TRAVEL_CARD);
+        List<UtilizationRollup> expected = utilizationDao.findUtilizationRollups(key, start, start.plusHours(1), Minutes.minutes(60));
+        queryFactory.delete(QFacilityUtilizationRollup.facilityUtilizationRollup).execute();
+
+        int fixed = utilizationDao.rebuildUtilizationRollups(start, start.plusHours(1));
+
+        assertThat(fixed).isEqualTo(5); // two 5 minute, two hour and one day rollup
+        assertThat(utilizationDao.findUtilizationRollups(key, start, start.plusHours(1), Minutes.minutes(60))).isEqualTo(expected);
+        assertThat(utilizationDao.rebuildUtilizationRollups(start, start.plusHours(1))).isEqualTo(0);
+    }
+
+    @Test
+    public void rebuildUtilizationRollups_merges_the_daily_rollups_from_all_the_hours_of_the_day() {
+        DateTime start = new DateTime(2000, 1, 1, 12, 0);
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(facilityId, start, 100, 100),
+                newUtilization(facilityId, start.plusHours(6), 50, 100)));
+        UtilizationKey key = new UtilizationKey(facilityId, CAR, HSL_TRAVEL_CARD);
+        List<UtilizationRollup> expected = utilizationDao.findUtilizationRollups(key, start, start, Minutes.minutes(24 * 60));
+        QFacilityUtilizationRollup qRollup = QFacilityUtilizationRollup.facilityUtilizationRollup;
+        queryFactory.delete(qRollup).where(qRollup.resolution.eq(RollupResolution.DAY)).execute();
+
+        int fixed = utilizationDao.rebuildUtilizationRollups(start, start);
+
+        assertThat(fixed).isEqualTo(1);
+        assertThat(utilizationDao.findUtilizationRollups(key, start, start, Minutes.minutes(24 * 60))).isEqualTo(expected);
+        assertThat(expected.get(0).sampleCount).isEqualTo(2);
+    }
+
 
     // helpers
 
@@ -326,6 +513,22 @@ public class UtilizationDaoTest extends AbstractDaoTest {
         return facilityId;
     }
 
+    private static DateTime findDaylightSavingFallBack(DateTimeZone zone, int year) {
+        long end = new DateTime(year + 1, 1, 1, 0, 0, zone).getMillis();
+        long previous = new DateTime(year, 1, 1, 0, 0, zone).getMillis();
+        for (long transition = zone.nextTransition(previous); transition > previous && transition < end;
+             previous = transition, transition = zone.nextTransition(transition)) {
+            if (zone.getOffset(transition) < zone.getOffset(transition - 1)) {
+                return new DateTime(transition, zone);
+            }
+        }
+        return null;
+    }
+
+    private static List<RollupResolution> resolutions(List<UtilizationRollup> rollups) {
+        return rollups.stream().map(r -> r.resolution).collect(toList());
+    }
+
     private static Utilization newUtilization(long facilityId, DateTime time, int spacesAvailable, int capacity) {
         Utilization u = new Utilization();
         u.facilityId = facilityId;
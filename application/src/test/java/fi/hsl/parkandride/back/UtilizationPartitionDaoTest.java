@@ -0,0 +1,185 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back;
+
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import org.joda.time.DateTime;
+import org.joda.time.YearMonth;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.util.Optional;
+
+import static fi.hsl.parkandride.core.domain.CapacityType.CAR;
+import static fi.hsl.parkandride.core.domain.Usage.HSL_TRAVEL_CARD;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Utilizations are partitioned only on PostgreSQL, so these tests are skipped on other databases.
+ * Being transactional, they roll back also the partitions they create.
+ */
+@Transactional
+public class UtilizationPartitionDaoTest extends AbstractDaoTest {
+
+    private static final YearMonth JANUARY = new YearMonth(1990, 1);
+    private static final YearMonth FEBRUARY = new YearMonth(1990, 2);
+    private static final YearMonth MARCH = new YearMonth(1990, 3);
+
+    @Inject Dummies dummies;
+    @Inject UtilizationRepository utilizationDao;
+    @Inject DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+    private long facilityId;
+
+    @Before
+    public void initialize() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        String database = jdbcTemplate.execute((ConnectionCallback<String>) c -> c.getMetaData().getDatabaseProductName());
+        assumeTrue(database.equals("PostgreSQL"));
+        facilityId = dummies.createFacility();
+    }
+
+    @Test
+    public void creates_a_partition_for_each_month() {
+        utilizationDao.createUtilizationPartitions(JANUARY, MARCH);
+
+        assertThat(isPartition(JANUARY)).isTrue();
+        assertThat(isPartition(FEBRUARY)).isTrue();
+        assertThat(isPartition(MARCH)).isTrue();
+        assertThat(isPartition(MARCH.plusMonths(1))).isFalse();
+    }
+
+    @Test
+    public void created_partitions_are_routed_to_without_dynamic_statements() {
+        utilizationDao.createUtilizationPartitions(JANUARY, FEBRUARY);
+
+        assertThat(routing()).contains("INSERT INTO " + partitionName(JANUARY) + " ");
+        assertThat(routing()).contains("INSERT INTO " + partitionName(FEBRUARY) + " ");
+
+        utilizationDao.insertUtilizations(singletonList(newUtilization(new DateTime(1990, 1, 15, 12, 0), 10)));
+        assertThat(countOnly(partitionName(JANUARY))).isEqualTo(1);
+    }
+
+    @Test
+    public void removed_partitions_are_no_longer_routed_to() {
+        utilizationDao.createUtilizationPartitions(JANUARY, FEBRUARY);
+
+        utilizationDao.removeUtilizationPartitionsBefore(FEBRUARY, true);
+
+        assertThat(routing()).doesNotContain(partitionName(JANUARY));
+        assertThat(routing()).contains("INSERT INTO " + partitionName(FEBRUARY) + " ");
+    }
+
+    @Test
+    public void inserted_utilizations_are_stored_in_the_partition_of_their_month() {
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(new DateTime(1990, 1, 31, 23, 59), 10),
+                newUtilization(new DateTime(1990, 2, 1, 0, 0), 20)));
+
+        assertThat(countOnly("facility_utilization")).isEqualTo(0);
+        assertThat(countOnly(partitionName(JANUARY))).isEqualTo(1);
+        assertThat(countOnly(partitionName(FEBRUARY))).isEqualTo(1);
+    }
+
+    @Test
+    public void archived_partitions_are_kept_but_no_longer_queried() {
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(new DateTime(1990, 1, 15, 12, 0), 10),
+                newUtilization(new DateTime(1990, 2, 15, 12, 0), 20)));
+
+        assertThat(utilizationDao.removeUtilizationPartitionsBefore(FEBRUARY, true)).containsExactly(JANUARY);
+
+        assertThat(isPartition(JANUARY)).isFalse();
+        assertThat(isPartition(FEBRUARY)).isTrue();
+        assertThat(countOnly(partitionName(JANUARY))).isEqualTo(1);
+        assertThat(count("facility_utilization")).isEqualTo(1);
+    }
+
+    @Test
+    public void dropped_partitions_are_removed() {
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(new DateTime(1990, 1, 15, 12, 0), 10),
+                newUtilization(new DateTime(1990, 2, 15, 12, 0), 20)));
+
+        assertThat(utilizationDao.removeUtilizationPartitionsBefore(FEBRUARY, false)).containsExactly(JANUARY);
+
+        assertThat(tableExists(partitionName(JANUARY))).isFalse();
+        assertThat(isPartition(FEBRUARY)).isTrue();
+        assertThat(count("facility_utilization")).isEqualTo(1);
+    }
+
+    @Test
+    public void findUtilizationAtInstant_prefers_the_recent_partitions() {
+        utilizationDao.insertUtilizations(asList(
+                newUtilization(new DateTime(1990, 1, 15, 12, 0), 10),
+                newUtilization(new DateTime(1990, 3, 10, 12, 0), 30)));
+
+        Optional<Utilization> found = utilizationDao.findUtilizationAtInstant(utilizationKey(), new DateTime(1990, 3, 15, 12, 0));
+
+        assertThat(found.map(u -> u.spacesAvailable).orElse(null)).isEqualTo(30);
+    }
+
+    @Test
+    public void findUtilizationAtInstant_falls_back_to_older_partitions() {
+        utilizationDao.insertUtilizations(singletonList(newUtilization(new DateTime(1990, 1, 15, 12, 0), 10)));
+
+        Optional<Utilization> found = utilizationDao.findUtilizationAtInstant(utilizationKey(), new DateTime(1990, 3, 15, 12, 0));
+
+        assertThat(found.map(u -> u.spacesAvailable).orElse(null)).isEqualTo(10);
+    }
+
+    private boolean isPartition(YearMonth month) {
+        return jdbcTemplate.queryForObject("" +
+                "SELECT count(*) " +
+                "FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = 'facility_utilization'::regclass AND c.relname = ?", Integer.class, partitionName(month)) > 0;
+    }
+
+    private String routing() {
+        return jdbcTemplate.queryForObject("SELECT prosrc FROM pg_proc WHERE proname = 'facility_utilization_insert'", String.class);
+    }
+
+    private boolean tableExists(String table) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM pg_class WHERE relname = ?", Integer.class, table) > 0;
+    }
+
+    private int countOnly(String table) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM ONLY " + table + " WHERE facility_id = ?", Integer.class, facilityId);
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM " + table + " WHERE facility_id = ?", Integer.class, facilityId);
+    }
+
+    private static String partitionName(YearMonth month) {
+        return String.format("facility_utilization_y%04dm%02d", month.getYear(), month.getMonthOfYear());
+    }
+
+    private UtilizationKey utilizationKey() {
+        return new UtilizationKey(facilityId, CAR, HSL_TRAVEL_CARD);
+    }
+
+    private Utilization newUtilization(DateTime time, int spacesAvailable) {
+        Utilization u = new Utilization();
+        u.facilityId = facilityId;
+        u.capacityType = CAR;
+        u.usage = HSL_TRAVEL_CARD;
+        u.timestamp = time;
+        u.spacesAvailable = spacesAvailable;
+        u.capacity = 100;
+        return u;
+    }
+}
@@ -0,0 +1,133 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back.prediction;
+
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import fi.hsl.parkandride.core.domain.prediction.Prediction;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_WINDOW;
+import static fi.hsl.parkandride.core.domain.CapacityType.CAR;
+import static fi.hsl.parkandride.core.domain.Usage.PARK_AND_RIDE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PredictionCacheTest {
+
+    private static final UtilizationKey KEY = new UtilizationKey(1L, CAR, PARK_AND_RIDE);
+
+    private final DateTime now = PredictionDao.toPredictionResolution(new DateTime());
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Supplier<List<PredictionCache.Curve>> loader = () -> {
+        loads.incrementAndGet();
+        return Collections.singletonList(newCurve(now));
+    };
+
+    @Test
+    public void loads_the_predictions_once_until_invalidated() {
+        PredictionCache cache = new PredictionCache(Duration.standardHours(1));
+
+        cache.get(loader);
+        cache.get(loader);
+        assertThat(loads.get()).isEqualTo(1);
+
+        cache.invalidate();
+        cache.get(loader);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void reloads_the_predictions_when_they_expire() {
+        PredictionCache cache = new PredictionCache(Duration.ZERO);
+
+        cache.get(loader);
+        cache.get(loader);
+
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void finds_the_predictions_by_utilization_key_and_facility() {
+        PredictionCache.Snapshot snapshot = new PredictionCache(Duration.ZERO).get(loader);
+
+        assertThat(snapshot.get(KEY).isPresent()).isTrue();
+        assertThat(snapshot.get(new UtilizationKey(2L, CAR, PARK_AND_RIDE)).isPresent()).isFalse();
+        assertThat(snapshot.getByFacility(1L)).hasSize(1);
+        assertThat(snapshot.getByFacility(2L)).isEmpty();
+    }
+
+    @Test
+    public void saved_curves_replace_the_cached_ones_without_reloading() {
+        PredictionCache cache = new PredictionCache(Duration.standardHours(1));
+        cache.get(loader);
+
+        cache.curvesSaved(Collections.singletonList(newCurve(now.plusMinutes(5))));
+
+        assertThat(cache.get(loader).get(KEY).map(curve -> curve.start).orElse(null)).isEqualTo(now.plusMinutes(5));
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void saved_curves_do_not_replace_newer_ones() {
+        PredictionCache cache = new PredictionCache(Duration.standardHours(1));
+        cache.get(loader);
+
+        cache.curvesSaved(Collections.singletonList(newCurve(now.minusMinutes(5))));
+
+        assertThat(cache.get(loader).get(KEY).map(curve -> curve.start).orElse(null)).isEqualTo(now);
+    }
+
+    @Test
+    public void saving_predictions_replaces_only_the_predicted_slots() {
+        PredictionCache.Curve curve = newCurve(now);
+        PredictionSlots slots = PredictionSlots.normalize(now.plusMinutes(5), Collections.singletonList(new Prediction(now.plusMinutes(5), 1000)));
+
+        PredictionCache.Curve saved = curve.withPredictions(slots);
+
+        assertThat(saved.start).isEqualTo(now.plusMinutes(5));
+        assertThat(saved.spacesAvailableAt(now.plusMinutes(5))).isEqualTo(OptionalInt.of(1000));
+        assertThat(saved.spacesAvailableAt(now)).isEqualTo(OptionalInt.of(PredictionCache.Curve.slotOf(now)));
+    }
+
+    @Test
+    public void curve_is_indexed_by_time_of_day() {
+        PredictionCache.Curve curve = newCurve(now);
+
+        assertThat(curve.spacesAvailableAt(now)).isEqualTo(OptionalInt.of(PredictionCache.Curve.slotOf(now)));
+        assertThat(curve.spacesAvailableAt(now.plusDays(1))).isEqualTo(OptionalInt.of(PredictionCache.Curve.slotOf(now)));
+    }
+
+    @Test
+    public void curve_is_within_the_prediction_window_from_its_start() {
+        PredictionCache.Curve curve = newCurve(now);
+
+        assertThat(curve.isWithinPredictionWindow(now.minusMinutes(5))).as("before start").isFalse();
+        assertThat(curve.isWithinPredictionWindow(now)).as("start").isTrue();
+        assertThat(curve.isWithinPredictionWindow(now.plus(PREDICTION_WINDOW).minusMinutes(5))).as("end").isTrue();
+        assertThat(curve.isWithinPredictionWindow(now.plus(PREDICTION_WINDOW))).as("after end").isFalse();
+    }
+
+    @Test
+    public void missing_slots_have_no_prediction() {
+        int[] spacesAvailable = new int[PredictionCache.SLOTS];
+        Arrays.fill(spacesAvailable, PredictionCache.NO_PREDICTION);
+        PredictionCache.Curve curve = new PredictionCache.Curve(KEY, now, spacesAvailable);
+
+        assertThat(curve.spacesAvailableAt(now)).isEqualTo(OptionalInt.empty());
+    }
+
+    private static PredictionCache.Curve newCurve(DateTime start) {
+        int[] spacesAvailable = new int[PredictionCache.SLOTS];
+        Arrays.setAll(spacesAvailable, slot -> slot);
+        return new PredictionCache.Curve(KEY, start, spacesAvailable);
+    }
+}
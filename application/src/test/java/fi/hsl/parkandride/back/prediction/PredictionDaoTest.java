@@ -7,15 +7,19 @@ import fi.hsl.parkandride.back.AbstractDaoTest;
 import fi.hsl.parkandride.back.Dummies;
 import fi.hsl.parkandride.core.back.PredictionRepository;
 import fi.hsl.parkandride.core.back.PredictorRepository;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
 import fi.hsl.parkandride.core.domain.CapacityType;
 import fi.hsl.parkandride.core.domain.Usage;
+import fi.hsl.parkandride.core.domain.Utilization;
 import fi.hsl.parkandride.core.domain.UtilizationKey;
 import fi.hsl.parkandride.core.domain.prediction.Prediction;
+import fi.hsl.parkandride.core.domain.prediction.PredictionAccuracy;
 import fi.hsl.parkandride.core.domain.prediction.PredictionBatch;
 import fi.hsl.parkandride.core.service.ValidationException;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
+import org.joda.time.Minutes;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -24,7 +28,9 @@ import org.junit.rules.ExpectedException;
 import javax.inject.Inject;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.IntStream;
 
@@ -40,12 +46,14 @@ public class PredictionDaoTest extends AbstractDaoTest {
     private static final CapacityType CAPACITY_TYPE = CAR;
     private static final Usage USAGE = PARK_AND_RIDE;
     private static final String DUMMY_PREDICTOR_TYPE = "dummy";
+    private static final Minutes MAX_UTILIZATION_AGE = Minutes.minutes(120);
     @Rule
     public final ExpectedException thrown = ExpectedException.none();
 
     @Inject Dummies dummies;
     @Inject PredictionRepository predictionDao;
     @Inject PredictorRepository predictorDao;
+    @Inject UtilizationRepository utilizationDao;
 
     private final DateTime now = new DateTime();
     private long facilityId;
@@ -226,6 +234,77 @@ public class PredictionDaoTest extends AbstractDaoTest {
     }
 
 
+    // batches
+
+    @Test
+    public void saves_predictions_of_many_predictors_at_once() {
+        PredictionBatch pb1 = newPredictionBatch(now, new Prediction(now, 111));
+        PredictionBatch pb2 = newPredictionBatch(now.plusMinutes(5), new Prediction(now.plusMinutes(5), 222)); // different columns
+        pb2.utilizationKey.usage = COMMERCIAL;
+        PredictionBatch pb3 = newPredictionBatch(now, new Prediction(now, 333), new Prediction(now.plusHours(1), 333));
+        pb3.utilizationKey.facilityId = dummies.createFacility();
+        predictionDao.updatePredictions(pb1, predictorId); // the lookup row already exists for one of them
+
+        Map<Long, PredictionBatch> predictionsByPredictorId = new HashMap<>();
+        pb1.predictions = Collections.singletonList(new Prediction(now, 112));
+        predictionsByPredictorId.put(predictorId, pb1);
+        predictionsByPredictorId.put(newPredictorId(pb2), pb2);
+        predictionsByPredictorId.put(newPredictorId(pb3), pb3);
+        predictionDao.updatePredictions(predictionsByPredictorId);
+
+        assertPredictionsSavedAsIs(pb1);
+        assertPredictionsSavedAsIs(pb2);
+        assertPredictionEquals(new Prediction(now.plusMinutes(30), 333), pb3);
+    }
+
+    @Test
+    public void predicting_again_from_the_same_utilization_replaces_the_history() {
+        PredictionBatch pb = newPredictionBatch(now, new Prediction(now, 10), new Prediction(now.plus(PREDICTION_WINDOW), 10));
+        predictionDao.updatePredictions(pb, predictorId);
+        pb.predictions = Arrays.asList(new Prediction(now, 20), new Prediction(now.plus(PREDICTION_WINDOW), 20));
+        predictionDao.updatePredictions(pb, predictorId);
+
+        assertThat(predictionDao.getPredictionHistoryByPredictor(predictorId, now, now.plus(PREDICTION_WINDOW), 60))
+                .containsOnly(new Prediction(toPredictionResolution(now.plusHours(1)), 20));
+    }
+
+    @Test
+    public void unchanged_predictions_only_move_the_prediction_window() {
+        DateTime t2 = now.plusMinutes(10);
+        predictionDao.updatePredictions(newPredictionBatch(now, new Prediction(now, 10), new Prediction(now.plus(PREDICTION_WINDOW), 10)), predictorId);
+        PredictionBatch pb2 = newPredictionBatch(t2, new Prediction(t2, 10), new Prediction(t2.plus(PREDICTION_WINDOW), 10));
+        predictionDao.updatePredictions(pb2, predictorId);
+
+        assertPredictionEquals(new Prediction(t2.plus(PREDICTION_WINDOW).minusMinutes(5), 10), pb2);
+    }
+
+    @Test
+    public void unchanged_predictions_are_kept_in_the_history() {
+        DateTime t2 = now.plusMinutes(10);
+        predictionDao.updatePredictions(newPredictionBatch(now, new Prediction(now, 10), new Prediction(now.plus(PREDICTION_WINDOW), 10)), predictorId);
+        predictionDao.updatePredictions(newPredictionBatch(t2, new Prediction(t2, 10), new Prediction(t2.plus(PREDICTION_WINDOW), 10)), predictorId);
+
+        assertThat(predictionDao.getPredictionHistoryByPredictor(predictorId, now, now.plus(PREDICTION_WINDOW), 60))
+                .containsOnly(
+                        new Prediction(toPredictionResolution(now.plusHours(1)), 10),
+                        new Prediction(toPredictionResolution(t2.plusHours(1)), 10));
+    }
+
+    @Test
+    public void changed_predictions_are_written() {
+        DateTime t2 = now.plusMinutes(10);
+        predictionDao.updatePredictions(newPredictionBatch(now, new Prediction(now, 10), new Prediction(now.plus(PREDICTION_WINDOW), 10)), predictorId);
+        PredictionBatch pb2 = newPredictionBatch(t2, new Prediction(t2, 11), new Prediction(t2.plus(PREDICTION_WINDOW), 11));
+        predictionDao.updatePredictions(pb2, predictorId);
+
+        assertPredictionEquals(new Prediction(t2.plusHours(1), 11), pb2);
+        assertThat(predictionDao.getPredictionHistoryByPredictor(predictorId, now, now.plus(PREDICTION_WINDOW), 60))
+                .containsOnly(
+                        new Prediction(toPredictionResolution(now.plusHours(1)), 10),
+                        new Prediction(toPredictionResolution(t2.plusHours(1)), 11));
+    }
+
+
     // aggregate accessors
 
     @Test
@@ -251,6 +330,37 @@ public class PredictionDaoTest extends AbstractDaoTest {
                 toPredictionResolution(pb3));
     }
 
+    @Test
+    public void finds_the_predictions_of_facilities_at_regular_intervals() {
+        DateTime start = toPredictionResolution(now);
+        PredictionBatch pb = newPredictionBatch(now, new Prediction(now, 10), new Prediction(now.plus(PREDICTION_WINDOW), 10));
+        predictionDao.updatePredictions(pb, predictorId);
+
+        List<PredictionBatch> results = predictionDao.getPredictionsByFacilities(Collections.singleton(facilityId), start, Minutes.minutes(30), 3);
+
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).predictions).containsExactly(
+                new Prediction(start, 10),
+                new Prediction(start.plusMinutes(30), 10),
+                new Prediction(start.plusMinutes(60), 10));
+    }
+
+    @Test
+    public void predictions_at_regular_intervals_must_start_in_prediction_resolution() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("not in prediction resolution");
+
+        predictionDao.getPredictionsByFacilities(Collections.singleton(facilityId), toPredictionResolution(now).plusMinutes(1), Minutes.minutes(30), 3);
+    }
+
+    @Test
+    public void predictions_at_regular_intervals_must_step_in_prediction_resolution() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("multiple of the prediction resolution");
+
+        predictionDao.getPredictionsByFacilities(Collections.singleton(facilityId), toPredictionResolution(now), Minutes.minutes(7), 3);
+    }
+
 
     // history
 
@@ -314,6 +424,79 @@ public class PredictionDaoTest extends AbstractDaoTest {
         predictionDao.updateOnlyPredictionHistory(pb, predictorId); // this used to crash with "Unique index or primary key violation"
     }
 
+    // accuracy
+
+    @Test
+    public void prediction_history_is_scored_against_the_actual_utilization() {
+        DateTime start = toPredictionResolution(now).minusHours(2);
+        predictionDao.updateOnlyPredictionHistory(newPredictionBatch(start,
+                new Prediction(start, 10),
+                new Prediction(start.plus(PREDICTION_WINDOW), 10)), predictorId);
+        utilizationDao.insertUtilizations(Collections.singletonList(newUtilization(start.minusMinutes(1), 14)));
+
+        int updated = predictionDao.updatePredictionAccuracy(start.minusHours(1), start.plusMinutes(30), MAX_UTILIZATION_AGE);
+
+        assertThat(updated).as("distances 5, 10, 15, 20 and 30 minutes").isEqualTo(5);
+        List<PredictionAccuracy> accuracy = predictionDao.getPredictionAccuracy();
+        assertThat(accuracy).extracting("forecastDistanceInMinutes").containsExactly(5, 10, 15, 20, 30);
+        assertThat(accuracy).extracting("predictorType").containsOnly(DUMMY_PREDICTOR_TYPE);
+        assertThat(accuracy).extracting("sampleCount").containsOnly(1L);
+        assertThat(accuracy).extracting("meanAbsoluteError").containsOnly(4.0);
+        assertThat(accuracy).extracting("bias").containsOnly(-4.0);
+        assertThat(predictionDao.getPredictionAccuracyByFacility(facilityId)).hasSize(5);
+        assertThat(predictionDao.getPredictionAccuracyByFacility(facilityId + 1)).isEmpty();
+    }
+
+    @Test
+    public void prediction_history_is_scored_only_once() {
+        DateTime start = toPredictionResolution(now).minusHours(2);
+        predictionDao.updateOnlyPredictionHistory(newPredictionBatch(start,
+                new Prediction(start, 10),
+                new Prediction(start.plus(PREDICTION_WINDOW), 10)), predictorId);
+        utilizationDao.insertUtilizations(Collections.singletonList(newUtilization(start, 20)));
+
+        predictionDao.updatePredictionAccuracy(start.minusHours(1), start.plusMinutes(10), MAX_UTILIZATION_AGE);
+        predictionDao.updatePredictionAccuracy(start.minusHours(1), start.plusMinutes(10), MAX_UTILIZATION_AGE);
+        predictionDao.updatePredictionAccuracy(start.minusHours(1), start.plusHours(1), MAX_UTILIZATION_AGE);
+
+        assertThat(predictionDao.getPredictionAccuracy())
+                .extracting("sampleCount")
+                .as("5, 10, 15, 20, 30, 45 and 60 minutes once each")
+                .containsExactly(1L, 1L, 1L, 1L, 1L, 1L, 1L);
+    }
+
+    @Test
+    public void predictions_without_an_earlier_utilization_are_not_scored() {
+        DateTime start = toPredictionResolution(now).minusHours(2);
+        predictionDao.updateOnlyPredictionHistory(newPredictionBatch(start,
+                new Prediction(start, 10),
+                new Prediction(start.plus(PREDICTION_WINDOW), 10)), predictorId);
+        utilizationDao.insertUtilizations(Collections.singletonList(newUtilization(start.plusMinutes(12), 20)));
+
+        predictionDao.updatePredictionAccuracy(start.minusHours(1), start.plusMinutes(20), MAX_UTILIZATION_AGE);
+
+        assertThat(predictionDao.getPredictionAccuracy())
+                .extracting("sampleCount")
+                .as("5, 10, 15 and 20 minutes")
+                .containsExactly(0L, 0L, 1L, 1L);
+    }
+
+    @Test
+    public void predictions_are_not_scored_against_too_old_utilizations() {
+        DateTime start = toPredictionResolution(now).minusHours(2);
+        predictionDao.updateOnlyPredictionHistory(newPredictionBatch(start,
+                new Prediction(start, 10),
+                new Prediction(start.plus(PREDICTION_WINDOW), 10)), predictorId);
+        utilizationDao.insertUtilizations(Collections.singletonList(newUtilization(start.minus(MAX_UTILIZATION_AGE).plusMinutes(7), 20)));
+
+        predictionDao.updatePredictionAccuracy(start.minusHours(1), start.plusMinutes(20), MAX_UTILIZATION_AGE);
+
+        assertThat(predictionDao.getPredictionAccuracy())
+                .extracting("sampleCount")
+                .as("5 minutes; the utilization is too old for 10, 15 and 20 minutes")
+                .containsExactly(1L, 0L, 0L, 0L);
+    }
+
     // helpers
 
     public Long newPredictorId(PredictionBatch pb) {
@@ -330,6 +513,17 @@ public class PredictionDaoTest extends AbstractDaoTest {
         return batch;
     }
 
+    private Utilization newUtilization(DateTime timestamp, int spacesAvailable) {
+        Utilization u = new Utilization();
+        u.facilityId = facilityId;
+        u.capacityType = CAPACITY_TYPE;
+        u.usage = USAGE;
+        u.timestamp = timestamp;
+        u.spacesAvailable = spacesAvailable;
+        u.capacity = 100;
+        return u;
+    }
+
     private static PredictionBatch toPredictionResolution(PredictionBatch pb) {
         PredictionBatch copy = new PredictionBatch();
         copy.utilizationKey = pb.utilizationKey;
@@ -0,0 +1,112 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back.prediction;
+
+import fi.hsl.parkandride.core.domain.prediction.Prediction;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_WINDOW;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Compares normalizing a prediction batch into the slot array with the earlier stream based normalization.
+ * Run with {@link #main(String[])}; it is not run by the unit tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PredictionNormalizationBenchmark {
+
+    /**
+     * Minutes between the predictions; 1 is finer than the prediction resolution, 5 is the same and 60 needs interpolation.
+     */
+    @Param({"1", "5", "60"})
+    public int intervalMinutes;
+
+    private DateTime start;
+    private List<Prediction> predictions;
+
+    @Setup
+    public void setup() {
+        start = PredictionDao.toPredictionResolution(new DateTime(2016, 6, 1, 12, 0));
+        predictions = new ArrayList<>();
+        Random random = new Random(42);
+        for (DateTime t = start.minusMinutes(intervalMinutes); t.isBefore(start.plus(PREDICTION_WINDOW).plusMinutes(intervalMinutes)); t = t.plusMinutes(intervalMinutes)) {
+            predictions.add(new Prediction(t, random.nextInt(500)));
+        }
+    }
+
+    @Benchmark
+    public List<Prediction> streams() {
+        return legacyNormalizeToPredictionWindow(start, predictions);
+    }
+
+    @Benchmark
+    public PredictionSlots slots() {
+        return PredictionSlots.normalize(start, predictions);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PredictionNormalizationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    // the normalization which PredictionDao used before PredictionSlots
+
+    static List<Prediction> legacyNormalizeToPredictionWindow(DateTime start, List<Prediction> predictions) {
+        DateTime end = start.plus(PREDICTION_WINDOW).minus(PREDICTION_RESOLUTION);
+        return predictions.stream()
+                .collect(Collectors.toMap(
+                        p -> PredictionDao.toPredictionResolution(p.timestamp),
+                        Function.identity(),
+                        (a, b) -> a.timestamp.isAfter(b.timestamp) ? a : b,
+                        HashMap::new))
+                .values().stream()
+                .map(p -> new Prediction(PredictionDao.toPredictionResolution(p.timestamp), p.spacesAvailable))
+                .sorted(Comparator.comparing(p -> p.timestamp))
+                .map(Collections::singletonList)
+                .reduce(new ArrayList<>(), legacyLinearInterpolation()).stream()
+                .filter(p -> !p.timestamp.isBefore(start) && !p.timestamp.isAfter(end))
+                .collect(toList());
+    }
+
+    private static BinaryOperator<List<Prediction>> legacyLinearInterpolation() {
+        return (interpolated, input) -> {
+            if (interpolated.isEmpty()) {
+                interpolated.addAll(input);
+                return interpolated;
+            }
+            Prediction previous = interpolated.get(interpolated.size() - 1);
+            Prediction next = input.get(0);
+            for (DateTime timestamp = previous.timestamp.plus(PREDICTION_RESOLUTION);
+                 timestamp.isBefore(next.timestamp);
+                 timestamp = timestamp.plus(PREDICTION_RESOLUTION)) {
+                double totalDuration = new Duration(previous.timestamp, next.timestamp).getMillis();
+                double currentDuration = new Duration(previous.timestamp, timestamp).getMillis();
+                double proportion = currentDuration / totalDuration;
+                int totalChange = next.spacesAvailable - previous.spacesAvailable;
+                int currentChange = (int) Math.round(totalChange * proportion);
+                interpolated.add(new Prediction(timestamp, previous.spacesAvailable + currentChange));
+            }
+            interpolated.add(next);
+            return interpolated;
+        };
+    }
+}
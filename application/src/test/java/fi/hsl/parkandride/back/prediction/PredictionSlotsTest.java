@@ -0,0 +1,58 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.back.prediction;
+
+import fi.hsl.parkandride.core.domain.prediction.Prediction;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_WINDOW;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PredictionSlotsTest {
+
+    private final DateTime start = PredictionDao.toPredictionResolution(new DateTime(2016, 6, 1, 12, 0));
+
+    @Test
+    public void slots_are_indexed_by_the_time_of_day() {
+        PredictionSlots slots = PredictionSlots.normalize(start, Arrays.asList(new Prediction(start.plusMinutes(10), 42)));
+
+        int slot = PredictionCache.Curve.slotOf(start.plusMinutes(10));
+        assertThat(slots.slotAt(2)).isEqualTo(slot);
+        assertThat(slots.getAt(2)).isEqualTo(42);
+        assertThat(slots.getBySlot(slot)).isEqualTo(42);
+        assertThat(slots.getPredictedSlots().cardinality()).isEqualTo(1);
+        assertThat(slots.getAt(1)).isEqualTo(PredictionCache.NO_PREDICTION);
+    }
+
+    @Test
+    public void rounds_like_the_prediction_resolution() {
+        for (int seconds = -600; seconds <= 600; seconds += 13) {
+            DateTime time = start.plusSeconds(seconds);
+            long expected = PredictionDao.toPredictionResolution(time).getMillis() / PREDICTION_RESOLUTION.toStandardDuration().getMillis();
+            assertThat(PredictionSlots.stepOf(time.getMillis())).as(time.toString()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void normalizes_like_the_stream_based_implementation() {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            List<Prediction> predictions = new ArrayList<>();
+            for (int i = random.nextInt(30); i >= 0; i--) {
+                DateTime time = start.minus(PREDICTION_WINDOW).plusMinutes(random.nextInt(3 * 24 * 60));
+                predictions.add(new Prediction(time.plusSeconds(random.nextInt(60)), random.nextInt(1000)));
+            }
+
+            assertThat(PredictionSlots.normalize(start, predictions).toPredictions()).as(predictions.toString())
+                    .isEqualTo(PredictionNormalizationBenchmark.legacyNormalizeToPredictionWindow(start, predictions));
+        }
+    }
+}
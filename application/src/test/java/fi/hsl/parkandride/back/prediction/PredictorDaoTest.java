@@ -12,13 +12,21 @@ import fi.hsl.parkandride.core.domain.UtilizationKey;
 import fi.hsl.parkandride.core.domain.prediction.PredictorState;
 import fi.hsl.parkandride.core.service.ValidationException;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import javax.inject.Inject;
-
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class PredictorDaoTest extends AbstractDaoTest {
@@ -136,6 +144,132 @@ public class PredictorDaoTest extends AbstractDaoTest {
         assertThat(predictorRepository.findPredictorsNeedingUpdate()).containsExactly(state.predictorId);
     }
 
+    @Test
+    public void utilizations_signalled_during_an_update_are_not_marked_processed() {
+        PredictorState state = enablePredictor("type", utilizationKey);
+
+        predictorRepository.markPredictorsNeedAnUpdate(utilizationKey);
+        state.moreUtilizations = false;
+        predictorRepository.save(state);
+
+        assertThat(predictorRepository.findPredictorsNeedingUpdate()).containsExactly(state.predictorId);
+    }
+
+
+    // batches
+
+    @Test
+    public void enables_predictors_of_all_types_for_all_utilization_keys() {
+        UtilizationKey utilizationKey2 = new UtilizationKey(facilityId, CapacityType.ELECTRIC_CAR, Usage.PARK_AND_RIDE);
+        PredictorState existing = enablePredictor("type1", utilizationKey);
+
+        predictorRepository.enablePredictors(asList("type1", "type2"), asList(utilizationKey, utilizationKey2));
+
+        assertThat(predictorRepository.findAllPredictors()).hasSize(4).contains(existing);
+
+        predictorRepository.enablePredictors(asList("type1", "type2"), asList(utilizationKey, utilizationKey2));
+        assertThat(predictorRepository.findAllPredictors()).as("enabled again").hasSize(4);
+    }
+
+    @Test
+    public void can_mark_predictors_of_many_utilization_keys_to_have_received_new_utilizations() {
+        UtilizationKey utilizationKey2 = new UtilizationKey(facilityId, CapacityType.ELECTRIC_CAR, Usage.PARK_AND_RIDE);
+        UtilizationKey otherKey = new UtilizationKey(facilityId, CapacityType.CAR, Usage.COMMERCIAL);
+        PredictorState state1 = enablePredictor("type", utilizationKey);
+        PredictorState state2 = enablePredictor("type", utilizationKey2);
+        PredictorState other = enablePredictor("type", otherKey);
+        for (PredictorState state : asList(state1, state2, other)) {
+            state.moreUtilizations = false;
+            predictorRepository.save(state);
+        }
+
+        predictorRepository.markPredictorsNeedAnUpdate(asList(utilizationKey, utilizationKey2));
+
+        assertThat(predictorRepository.findPredictorsNeedingUpdate()).containsOnly(state1.predictorId, state2.predictorId);
+    }
+
+
+    // claiming predictors for update
+
+    @Test
+    public void claimed_predictors_are_not_claimed_again() {
+        PredictorState state1 = enablePredictor("type1", utilizationKey);
+        PredictorState state2 = enablePredictor("type2", utilizationKey);
+
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(1, Duration.standardMinutes(1))).containsExactly(state1.predictorId);
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(1, Duration.standardMinutes(1))).containsExactly(state2.predictorId);
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(1, Duration.standardMinutes(1))).isEmpty();
+    }
+
+    @Test
+    public void concurrent_claimers_claim_all_the_predictors_once() throws Exception {
+        List<Long> predictorIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            predictorIds.add(enablePredictor("type" + i, utilizationKey).predictorId);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Long>>> claimers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                claimers.add(executor.submit(() -> {
+                    // every claimer starts from the same candidates, yet none of them stops before all are claimed
+                    List<Long> claimedByThis = new ArrayList<>();
+                    List<Long> claimed;
+                    while (!(claimed = predictorRepository.claimPredictorsNeedingUpdate(2, Duration.standardMinutes(1))).isEmpty()) {
+                        claimedByThis.addAll(claimed);
+                    }
+                    return claimedByThis;
+                }));
+            }
+            List<Long> claimedByAll = new ArrayList<>();
+            for (Future<List<Long>> claimer : claimers) {
+                claimedByAll.addAll(claimer.get());
+            }
+            assertThat(claimedByAll).hasSameSizeAs(predictorIds).containsOnly(predictorIds.toArray(new Long[predictorIds.size()]));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void saving_a_predictor_releases_its_claim() {
+        PredictorState state = enablePredictor("type", utilizationKey);
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(10, Duration.standardMinutes(1))).containsExactly(state.predictorId);
+
+        predictorRepository.save(state);
+
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(10, Duration.standardMinutes(1))).containsExactly(state.predictorId);
+    }
+
+    @Test
+    public void expired_claims_can_be_claimed_again() {
+        PredictorState state = enablePredictor("type", utilizationKey);
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(10, Duration.millis(-1))).containsExactly(state.predictorId);
+
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(10, Duration.standardMinutes(1))).containsExactly(state.predictorId);
+    }
+
+    @Test
+    public void predictors_without_new_utilizations_are_not_claimed() {
+        PredictorState state = enablePredictor("type", utilizationKey);
+        state.moreUtilizations = false;
+        predictorRepository.save(state);
+
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(10, Duration.standardMinutes(1))).isEmpty();
+    }
+
+    @Test
+    public void claims_only_the_predictors_of_the_given_utilization_keys() {
+        UtilizationKey otherKey = new UtilizationKey(dummies.createFacility(), CapacityType.CAR, Usage.PARK_AND_RIDE);
+        PredictorState state = enablePredictor("type", utilizationKey);
+        enablePredictor("type", otherKey);
+
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(Collections.singleton(utilizationKey), 10, Duration.standardMinutes(1)))
+                .containsExactly(state.predictorId);
+        assertThat(predictorRepository.claimPredictorsNeedingUpdate(Collections.singleton(utilizationKey), 10, Duration.standardMinutes(1)))
+                .isEmpty();
+    }
+
 
     // uniqueness
 
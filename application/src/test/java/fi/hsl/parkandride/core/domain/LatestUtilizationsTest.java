@@ -0,0 +1,55 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static fi.hsl.parkandride.core.domain.CapacityType.CAR;
+import static fi.hsl.parkandride.core.domain.CapacityType.ELECTRIC_CAR;
+import static fi.hsl.parkandride.core.domain.Usage.PARK_AND_RIDE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatestUtilizationsTest {
+
+    private final DateTime now = new DateTime();
+
+    @Test
+    public void newer_utilizations_replace_the_older_ones() {
+        LatestUtilizations latest = new LatestUtilizations(Arrays.asList(
+                utilization(CAR, now, 10),
+                utilization(ELECTRIC_CAR, now, 1)));
+
+        LatestUtilizations merged = latest.merge(Collections.singletonList(utilization(CAR, now.plusMinutes(1), 9)));
+
+        assertThat(merged.utilizations).containsExactly(
+                utilization(CAR, now.plusMinutes(1), 9),
+                utilization(ELECTRIC_CAR, now, 1));
+    }
+
+    @Test
+    public void older_utilizations_and_unknown_utilization_keys_are_ignored() {
+        LatestUtilizations latest = new LatestUtilizations(Collections.singletonList(utilization(CAR, now, 10)));
+
+        LatestUtilizations merged = latest.merge(Arrays.asList(
+                utilization(CAR, now.minusMinutes(1), 9),
+                utilization(ELECTRIC_CAR, now, 1)));
+
+        assertThat(merged).isSameAs(latest);
+    }
+
+    private static Utilization utilization(CapacityType capacityType, DateTime timestamp, int spacesAvailable) {
+        Utilization u = new Utilization();
+        u.facilityId = 1L;
+        u.capacityType = capacityType;
+        u.usage = PARK_AND_RIDE;
+        u.timestamp = timestamp;
+        u.spacesAvailable = spacesAvailable;
+        u.capacity = 100;
+        return u;
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static fi.hsl.parkandride.core.domain.prediction.HoltWintersPredictor.SEASON_SLOTS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Transactional
+public class HoltWintersPredictorTest extends AbstractPredictorTest {
+
+    public HoltWintersPredictorTest() {
+        super(new HoltWintersPredictor());
+    }
+
+    @After
+    public void checkUpdatesLatestUtilization() {
+        if (latestInsertedUtilization.isPresent()) {
+            assertThat(predictorState.latestUtilization).isEqualTo(latestInsertedUtilization.get().timestamp);
+        }
+    }
+
+    @Test
+    public void when_utilization_is_constant_then_predicts_the_same() {
+        insertUtilization(now.minusHours(2), 10);
+        insertUtilization(now.minusHours(1), 10);
+        insertUtilization(now, 10);
+
+        List<Prediction> predictions = predict();
+
+        assertThat(predictions).isNotEmpty();
+        assertThat(predictions).extracting("spacesAvailable").containsOnly(10);
+        assertThat(predictions.get(0).timestamp).isEqualTo(now);
+    }
+
+    @Test
+    public void when_1_week_old_history_exists_then_predicts_the_weekly_pattern() {
+        for (int i = 0; i <= SEASON_SLOTS; i++) {
+            insertUtilization(now.minusMinutes(5 * (SEASON_SLOTS - i)), dailyPattern(i));
+        }
+
+        List<Prediction> predictions = predict();
+
+        assertThat(predictions).contains(
+                new Prediction(now.plusMinutes(5), dailyPattern(1)),
+                new Prediction(now.plusHours(6), dailyPattern(6 * 12)),
+                new Prediction(now.plusHours(18), dailyPattern(18 * 12)));
+    }
+
+    @Test
+    public void keeps_the_model_in_the_predictor_state() {
+        insertUtilization(now, 10);
+
+        predict();
+
+        assertThat(HoltWintersPredictor.Model.deserialize(predictorState.internalState)).isPresent();
+    }
+
+    @Test
+    public void updates_the_model_with_the_new_utilizations() {
+        insertUtilization(now.minusHours(1), 10);
+        insertUtilization(now.minusMinutes(5), 10);
+        predict();
+        String previousState = predictorState.internalState;
+        insertUtilization(now, 20);
+
+        List<Prediction> predictions = predict();
+
+        assertThat(predictorState.internalState).isNotEqualTo(previousState);
+        assertThat(predictions.get(0).spacesAvailable).isStrictlyBetween(10, 20);
+    }
+
+    private static int dailyPattern(int slot) {
+        return slot % (24 * 12) < 12 * 12 ? 150 : 100;
+    }
+}
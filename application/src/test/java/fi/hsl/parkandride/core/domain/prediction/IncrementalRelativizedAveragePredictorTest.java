@@ -0,0 +1,83 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static fi.hsl.parkandride.core.domain.prediction.RelativizedAverageOfPreviousWeeksPredictor.LOOKBACK_MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Transactional
+public class IncrementalRelativizedAveragePredictorTest extends AbstractPredictorTest {
+
+    private final IncrementalRelativizedAveragePredictor predictor;
+
+    public IncrementalRelativizedAveragePredictorTest() {
+        this(new IncrementalRelativizedAveragePredictor());
+    }
+
+    private IncrementalRelativizedAveragePredictorTest(IncrementalRelativizedAveragePredictor predictor) {
+        super(predictor);
+        this.predictor = predictor;
+    }
+
+    @After
+    public void checkUpdatesLatestUtilization() {
+        if (latestInsertedUtilization.isPresent()) {
+            assertThat(predictorState.latestUtilization).isEqualTo(latestInsertedUtilization.get().timestamp);
+        }
+    }
+
+    @Test
+    public void when_1_week_old_history_exists_and_recent_utilization_is_at_same_level_then_predicts_similar_to_last_weeks_utilization() {
+        insertUtilization(now.minusDays(7), 10);
+        insertUtilization(now.minusDays(7).plusMinutes(5), 11);
+        insertUtilization(now.minusDays(7).plusMinutes(10), 12);
+        insertUtilization(now.minusDays(7).plusMinutes(15), 13);
+        insertUtilization(now.minusDays(7).plusMinutes(20), 14);
+        insertUtilization(now.minus(LOOKBACK_MINUTES), 10);
+        insertUtilization(now, 10);
+
+        List<Prediction> predictions = predict();
+
+        assertThat(predictions).containsSubsequence(
+                new Prediction(now, 10),
+                new Prediction(now.plusMinutes(5), 11),
+                new Prediction(now.plusMinutes(10), 12),
+                new Prediction(now.plusMinutes(15), 13),
+                new Prediction(now.plusMinutes(20), 14));
+    }
+
+    @Test
+    public void keeps_the_history_in_the_predictor_state() {
+        insertUtilization(now, 10);
+
+        predict();
+
+        assertThat(SlotHistory.deserialize(predictorState.internalState, IncrementalRelativizedAveragePredictor.HISTORY_SLOTS))
+                .isPresent();
+    }
+
+    @Test
+    public void predicts_the_same_when_updated_incrementally_as_when_updated_from_scratch() {
+        for (int i = 0; i < 2 * 24 * 12; i++) {
+            insertUtilization(now.minusDays(8).plusMinutes(5 * i), i % 50);
+        }
+        insertUtilization(now.minusHours(3), 20);
+        predict();
+        insertUtilization(now.minusHours(1), 25);
+        insertUtilization(now, 30);
+
+        List<Prediction> incremental = predict();
+        PredictorState fromScratch = new PredictorState(2L, predictorState.predictorType, utilizationKey);
+
+        assertThat(incremental).isNotEmpty();
+        assertThat(incremental).isEqualTo(predictor.predict(fromScratch, utilizationHistory, availableMaxCapacity));
+        assertThat(fromScratch.internalState).isEqualTo(predictorState.internalState);
+    }
+}
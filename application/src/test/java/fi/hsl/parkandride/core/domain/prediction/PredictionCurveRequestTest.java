@@ -0,0 +1,62 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import org.joda.time.DateTime;
+import org.joda.time.Minutes;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PredictionCurveRequestTest {
+
+    private final PredictionCurveRequest request = new PredictionCurveRequest();
+    private final DateTime start = new DateTime(2016, 3, 1, 12, 0);
+
+    @Test
+    public void start_is_rounded_to_prediction_resolution() {
+        request.from = start.plusMinutes(1);
+        assertThat(request.start()).isEqualTo(start);
+
+        request.from = start.plusMinutes(4);
+        assertThat(request.start()).isEqualTo(start.plusMinutes(5));
+    }
+
+    @Test
+    public void step_is_rounded_to_a_multiple_of_prediction_resolution() {
+        assertThat(request.step()).as("default").isEqualTo(Minutes.minutes(5));
+
+        request.step = 1;
+        assertThat(request.step()).isEqualTo(Minutes.minutes(5));
+
+        request.step = 14;
+        assertThat(request.step()).isEqualTo(Minutes.minutes(15));
+
+        request.step = 60;
+        assertThat(request.step()).isEqualTo(Minutes.minutes(60));
+    }
+
+    @Test
+    public void size_covers_the_range_inclusive() {
+        request.to = start.plusHours(1);
+        assertThat(request.size(start)).isEqualTo(13);
+
+        request.step = 15;
+        assertThat(request.size(start)).isEqualTo(5);
+
+        request.to = start.minusMinutes(5);
+        assertThat(request.size(start)).isEqualTo(0);
+    }
+
+    @Test
+    public void size_is_at_most_one_prediction_window() {
+        assertThat(request.size(start)).as("default").isEqualTo(288);
+
+        request.to = start.plusDays(7);
+        assertThat(request.size(start)).isEqualTo(288);
+
+        request.step = 60;
+        assertThat(request.size(start)).isEqualTo(24);
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.google.common.collect.Lists;
+import com.mysema.commons.lang.CloseableIterator;
+import fi.hsl.parkandride.back.AbstractDaoTest;
+import fi.hsl.parkandride.back.Dummies;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.CapacityType;
+import fi.hsl.parkandride.core.domain.Usage;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Transactional
+public class PrefetchedUtilizationHistoryTest extends AbstractDaoTest {
+
+    @Inject Dummies dummies;
+    @Inject UtilizationRepository utilizationRepository;
+
+    private final DateTime now = new DateTime().withSecondOfMinute(0).withMillisOfSecond(0);
+    private final DateTime windowStart = now.minusHours(1);
+    private UtilizationKey key1;
+    private UtilizationKey key2;
+    private Map<UtilizationKey, UtilizationHistory> prefetched;
+
+    @Before
+    public void initTestData() {
+        long facilityId = dummies.createFacility();
+        key1 = new UtilizationKey(facilityId, CapacityType.CAR, Usage.PARK_AND_RIDE);
+        key2 = new UtilizationKey(facilityId, CapacityType.CAR, Usage.COMMERCIAL);
+        UtilizationKey notPrefetched = new UtilizationKey(facilityId, CapacityType.ELECTRIC_CAR, Usage.COMMERCIAL);
+        List<Utilization> utilizations = new ArrayList<>();
+        for (int minutes = 0; minutes < 120; minutes += 7) {
+            utilizations.add(newUtilization(key1, now.minusMinutes(minutes), minutes));
+            utilizations.add(newUtilization(key2, now.minusMinutes(minutes + 3), 100 - minutes));
+            utilizations.add(newUtilization(notPrefetched, now.minusMinutes(minutes), 1));
+        }
+        utilizationRepository.insertUtilizations(utilizations);
+
+        prefetched = PrefetchedUtilizationHistory.prefetch(utilizationRepository, Arrays.asList(key1, key2), windowStart);
+    }
+
+    @Test
+    public void has_a_history_for_each_utilization_key() {
+        assertThat(prefetched.keySet()).containsOnly(key1, key2);
+    }
+
+    @Test
+    public void returns_the_same_history_as_reading_it_separately() {
+        for (UtilizationKey key : Arrays.asList(key1, key2)) {
+            UtilizationHistory expected = new UtilizationHistoryImpl(utilizationRepository, key);
+            UtilizationHistory actual = prefetched.get(key);
+
+            assertThat(actual.getLatest()).as("latest").isEqualTo(expected.getLatest());
+            for (DateTime time : Arrays.asList(now, now.minusMinutes(30), windowStart, windowStart.minusMinutes(20))) {
+                assertThat(actual.getAt(time)).as("at " + time).isEqualTo(expected.getAt(time));
+                assertThat(actual.getRange(time, now)).as("range from " + time).isEqualTo(expected.getRange(time, now));
+                assertThat(toList(actual.getUpdatesSince(time))).as("updates since " + time).isEqualTo(toList(expected.getUpdatesSince(time)));
+            }
+        }
+    }
+
+    private static List<Utilization> toList(CloseableIterator<Utilization> utilizations) {
+        try (CloseableIterator<Utilization> it = utilizations) {
+            return Lists.newArrayList(it);
+        }
+    }
+
+    private static Utilization newUtilization(UtilizationKey key, DateTime timestamp, int spacesAvailable) {
+        Utilization u = new Utilization();
+        u.facilityId = key.facilityId;
+        u.capacityType = key.capacityType;
+        u.usage = key.usage;
+        u.timestamp = timestamp;
+        u.spacesAvailable = spacesAvailable;
+        u.capacity = 100;
+        return u;
+    }
+}
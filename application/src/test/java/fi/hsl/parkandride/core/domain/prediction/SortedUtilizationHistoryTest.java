@@ -0,0 +1,103 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import com.google.common.collect.Lists;
+import com.mysema.commons.lang.CloseableIterator;
+import fi.hsl.parkandride.core.domain.Utilization;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Random;
+
+import static fi.hsl.parkandride.core.domain.CapacityType.CAR;
+import static fi.hsl.parkandride.core.domain.Usage.PARK_AND_RIDE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SortedUtilizationHistoryTest {
+
+    private static final DateTime NOW = new DateTime(2016, 6, 1, 12, 0);
+
+    @Test
+    public void returns_the_same_results_as_the_list_based_history() {
+        Random random = new Random(1);
+        List<Utilization> utilizations = new ArrayList<>();
+        for (int minutes = 0; minutes < 7 * 24 * 60; minutes += 1 + random.nextInt(20)) {
+            utilizations.add(newUtilization(NOW.minusMinutes(minutes), random.nextInt(100)));
+        }
+        Collections.shuffle(utilizations, random);
+        UtilizationHistory expected = new UtilizationHistoryList(utilizations);
+        SortedUtilizationHistory actual = new SortedUtilizationHistory(utilizations);
+
+        assertThat(actual.getLatest()).isEqualTo(expected.getLatest());
+        for (int i = 0; i < 100; i++) {
+            DateTime start = NOW.minusMinutes(random.nextInt(8 * 24 * 60));
+            DateTime end = start.plusMinutes(random.nextInt(24 * 60));
+
+            assertThat(actual.getAt(start)).as("at " + start).isEqualTo(expected.getAt(start));
+            assertThat(actual.getSpacesAvailableAt(start)).as("spaces available at " + start)
+                    .isEqualTo(expected.getAt(start).map(u -> OptionalInt.of(u.spacesAvailable)).orElse(OptionalInt.empty()));
+            assertThat(actual.getRange(start, end)).as("range from " + start + " to " + end)
+                    .isEqualTo(sortedByTimestamp(expected.getRange(start, end)));
+            assertThat(toList(actual.getUpdatesSince(start))).as("updates since " + start)
+                    .isEqualTo(sortedByTimestamp(toList(expected.getUpdatesSince(start))));
+        }
+    }
+
+    @Test
+    public void range_boundaries_are_inclusive() {
+        SortedUtilizationHistory history = new SortedUtilizationHistory(Lists.newArrayList(
+                newUtilization(NOW.minusMinutes(10), 1),
+                newUtilization(NOW.minusMinutes(5), 2),
+                newUtilization(NOW, 3)));
+
+        assertThat(history.getRange(NOW.minusMinutes(10), NOW)).hasSize(3);
+        assertThat(history.getRange(NOW.minusMinutes(9), NOW.minusMinutes(1))).hasSize(1);
+        assertThat(history.getRange(NOW.plusMinutes(1), NOW.plusMinutes(2))).isEmpty();
+        assertThat(history.getAt(NOW.minusMinutes(11)).isPresent()).isFalse();
+    }
+
+    @Test
+    public void as_of_view_hides_the_later_utilizations() {
+        SortedUtilizationHistory history = new SortedUtilizationHistory(Lists.newArrayList(
+                newUtilization(NOW.minusMinutes(10), 1),
+                newUtilization(NOW.minusMinutes(5), 2),
+                newUtilization(NOW, 3)));
+
+        SortedUtilizationHistory visible = history.asOf(NOW.minusMinutes(5));
+
+        assertThat(visible.size()).isEqualTo(2);
+        assertThat(visible.getLatest().get().spacesAvailable).isEqualTo(2);
+        assertThat(visible.getSpacesAvailableAt(NOW)).isEqualTo(OptionalInt.of(2));
+        assertThat(visible.getRange(NOW.minusMinutes(10), NOW)).hasSize(2);
+        assertThat(history.asOf(NOW.minusMinutes(11)).getLatest().isPresent()).isFalse();
+    }
+
+    private static List<Utilization> sortedByTimestamp(List<Utilization> utilizations) {
+        List<Utilization> sorted = new ArrayList<>(utilizations);
+        sorted.sort((a, b) -> a.timestamp.compareTo(b.timestamp));
+        return sorted;
+    }
+
+    private static List<Utilization> toList(CloseableIterator<Utilization> utilizations) {
+        try (CloseableIterator<Utilization> it = utilizations) {
+            return Lists.newArrayList(it);
+        }
+    }
+
+    private static Utilization newUtilization(DateTime time, int spacesAvailable) {
+        Utilization u = new Utilization();
+        u.facilityId = 1L;
+        u.capacityType = CAR;
+        u.usage = PARK_AND_RIDE;
+        u.timestamp = time;
+        u.spacesAvailable = spacesAvailable;
+        u.capacity = 100;
+        return u;
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.domain.prediction;
+
+import fi.hsl.parkandride.core.back.PredictionRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import org.joda.time.DateTime;
+import org.joda.time.ReadablePeriod;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static fi.hsl.parkandride.core.domain.CapacityType.CAR;
+import static fi.hsl.parkandride.core.domain.Usage.PARK_AND_RIDE;
+import static fi.hsl.parkandride.core.domain.prediction.RelativizedAverageOfPreviousWeeksPredictor.LOOKBACK_MINUTES;
+import static fi.hsl.parkandride.core.domain.prediction.RelativizedAverageOfPreviousWeeksPredictor.LOOKBACK_PERIODS;
+
+/**
+ * Compares the in-memory utilization histories with the lookups which
+ * {@link RelativizedAverageOfPreviousWeeksPredictor} does on three weeks of utilizations.
+ * Run with {@link #main(String[])}; it is not run by the unit tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UtilizationHistoryBenchmark {
+
+    /**
+     * Minutes between the utilization updates.
+     */
+    @Param({"1", "5"})
+    public int intervalMinutes;
+
+    private DateTime now;
+    private List<Utilization> utilizations;
+
+    @Setup
+    public void setup() {
+        now = new DateTime(2016, 6, 1, 12, 0);
+        utilizations = new ArrayList<>();
+        Random random = new Random(42);
+        for (DateTime t = now.minusWeeks(3).minus(LOOKBACK_MINUTES); !t.isAfter(now); t = t.plusMinutes(intervalMinutes)) {
+            Utilization u = new Utilization();
+            u.facilityId = 1L;
+            u.capacityType = CAR;
+            u.usage = PARK_AND_RIDE;
+            u.timestamp = t;
+            u.spacesAvailable = random.nextInt(500);
+            u.capacity = 500;
+            utilizations.add(u);
+        }
+    }
+
+    @Benchmark
+    public void list(Blackhole blackhole) {
+        lookups(UtilizationHistoryList::new, blackhole);
+    }
+
+    @Benchmark
+    public void sorted(Blackhole blackhole) {
+        lookups(SortedUtilizationHistory::new, blackhole);
+    }
+
+    private void lookups(Function<List<Utilization>, UtilizationHistory> constructor, Blackhole blackhole) {
+        UtilizationHistory history = constructor.apply(utilizations);
+        blackhole.consume(history.getLatest());
+        blackhole.consume(history.getRange(now.minus(LOOKBACK_MINUTES), now));
+        for (ReadablePeriod offset : LOOKBACK_PERIODS) {
+            DateTime start = now.minus(offset);
+            blackhole.consume(history.getAt(start));
+            blackhole.consume(history.getRange(start, start.plus(PredictionRepository.PREDICTION_WINDOW)));
+            blackhole.consume(history.getRange(start.minus(LOOKBACK_MINUTES), start));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UtilizationHistoryBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
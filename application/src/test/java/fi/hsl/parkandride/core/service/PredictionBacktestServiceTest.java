@@ -0,0 +1,117 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.back.AbstractDaoTest;
+import fi.hsl.parkandride.back.Dummies;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.CapacityType;
+import fi.hsl.parkandride.core.domain.Usage;
+import fi.hsl.parkandride.core.domain.Utilization;
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import fi.hsl.parkandride.core.domain.prediction.*;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static fi.hsl.parkandride.core.back.PredictionRepository.PREDICTION_RESOLUTION;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PredictionBacktestServiceTest extends AbstractDaoTest {
+
+    @Inject Dummies dummies;
+    @Inject UtilizationRepository utilizationRepository;
+    @Inject PlatformTransactionManager transactionManager;
+
+    private final DateTime end = new DateTime(2016, 6, 8, 12, 0);
+    private final DateTime start = end.minusDays(1);
+    private long facilityId;
+
+    @Before
+    public void initTestData() {
+        facilityId = dummies.createFacility();
+    }
+
+    @Test
+    public void scores_the_predictions_against_the_following_utilizations() {
+        List<Utilization> utilizations = new ArrayList<>();
+        for (DateTime t = start.minusDays(1); !t.isAfter(end); t = t.plusMinutes(5)) {
+            utilizations.add(newUtilization(facilityId, t, utilizations.size())); // one more space every 5 minutes
+        }
+        utilizationRepository.insertUtilizations(utilizations);
+        PredictionBacktestService backtestService = newBacktestService(new SameAsLatestPredictor());
+
+        BacktestResult result = backtestService.backtest(Collections.singleton(utilizationKey()), start, end, PREDICTION_RESOLUTION);
+
+        assertThat(result.utilizationKeys).as("utilization keys").isEqualTo(1);
+        assertThat(result.utilizations).as("utilizations since the start and the one in effect at the start").isEqualTo(24 * 12 + 2);
+        BacktestResult.PredictorStatistics statistics = result.getPredictor(SameAsLatestPredictor.TYPE);
+        assertThat(statistics.predictCount).as("predict count").isEqualTo(24 * 12 + 1);
+        List<PredictionAccuracy> accuracy = statistics.getAccuracy();
+        assertThat(accuracy.stream().map(a -> a.forecastDistanceInMinutes).collect(toList()))
+                .as("forecast distances").contains(5, 60);
+        for (PredictionAccuracy a : accuracy) {
+            int expectedError = a.forecastDistanceInMinutes / 5;
+            assertThat(a.bias).as("bias at %d minutes", a.forecastDistanceInMinutes).isEqualTo(-expectedError);
+            assertThat(a.meanAbsoluteError).as("mean absolute error at %d minutes", a.forecastDistanceInMinutes).isEqualTo(expectedError);
+            assertThat(a.sampleCount).as("samples at %d minutes", a.forecastDistanceInMinutes).isEqualTo(24 * 12 + 1 - expectedError);
+        }
+    }
+
+    @Test
+    public void does_not_predict_without_new_utilizations() {
+        utilizationRepository.insertUtilizations(Arrays.asList(
+                newUtilization(facilityId, start.minusHours(1), 10),
+                newUtilization(facilityId, start.plusHours(1), 20)));
+        PredictionBacktestService backtestService = newBacktestService(new SameAsLatestPredictor());
+
+        BacktestResult result = backtestService.backtest(Collections.singleton(utilizationKey()), start, end, PREDICTION_RESOLUTION);
+
+        assertThat(result.getPredictor(SameAsLatestPredictor.TYPE).predictCount).as("predict count").isEqualTo(2);
+    }
+
+    @Test
+    public void merges_the_results_of_all_utilization_keys() {
+        long otherFacilityId = dummies.createFacility();
+        utilizationRepository.insertUtilizations(Arrays.asList(
+                newUtilization(facilityId, start.plusHours(1), 10),
+                newUtilization(otherFacilityId, start.plusHours(1), 20)));
+        PredictionBacktestService backtestService = newBacktestService(new SameAsLatestPredictor());
+
+        BacktestResult result = backtestService.backtest(Arrays.asList(utilizationKey(), new UtilizationKey(otherFacilityId, CapacityType.CAR, Usage.PARK_AND_RIDE)),
+                start, end, PREDICTION_RESOLUTION);
+
+        assertThat(result.utilizationKeys).as("utilization keys").isEqualTo(2);
+        assertThat(result.getPredictor(SameAsLatestPredictor.TYPE).predictCount).as("predict count").isEqualTo(2);
+    }
+
+    // helpers
+
+    private PredictionBacktestService newBacktestService(Predictor... predictors) {
+        return new PredictionBacktestService(utilizationRepository, transactionManager, Arrays.asList(predictors), 2, 1);
+    }
+
+    private UtilizationKey utilizationKey() {
+        return new UtilizationKey(facilityId, CapacityType.CAR, Usage.PARK_AND_RIDE);
+    }
+
+    private static Utilization newUtilization(long facilityId, DateTime timestamp, int spacesAvailable) {
+        Utilization u = new Utilization();
+        u.facilityId = facilityId;
+        u.capacityType = CapacityType.CAR;
+        u.usage = Usage.PARK_AND_RIDE;
+        u.timestamp = timestamp;
+        u.spacesAvailable = spacesAvailable;
+        u.capacity = 1000;
+        return u;
+    }
+}
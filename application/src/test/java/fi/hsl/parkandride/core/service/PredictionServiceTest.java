@@ -11,6 +11,7 @@ import fi.hsl.parkandride.core.domain.Usage;
 import fi.hsl.parkandride.core.domain.Utilization;
 import fi.hsl.parkandride.core.domain.prediction.*;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Matchers;
@@ -36,7 +37,6 @@ public class PredictionServiceTest extends AbstractDaoTest {
     @Inject PredictorRepository predictorRepository;
     @Inject FacilityRepository facilityRepository;
     @Inject PlatformTransactionManager transactionManager;
-    @Inject LockRepository lockRepostory;
 
     private PredictionService predictionService;
     private final DateTime now = new DateTime();
@@ -58,6 +58,20 @@ public class PredictionServiceTest extends AbstractDaoTest {
         assertThat(predictorRepository.findAllPredictors()).as("all predictors, after").isNotEmpty();
     }
 
+    @Test
+    public void marks_already_enabled_predictors_to_need_an_update_when_signaling_again() {
+        usePredictor(new SameAsLatestPredictor());
+        predictionService.signalUpdateNeeded(Collections.singletonList(newUtilization(facilityId, now, 0)));
+        PredictorState state = predictorRepository.findAllPredictors().get(0);
+        state.moreUtilizations = false;
+        predictorRepository.save(state);
+
+        predictionService.signalUpdateNeeded(Collections.singletonList(newUtilization(facilityId, now.plusMinutes(1), 0)));
+
+        assertThat(predictorRepository.findAllPredictors()).as("all predictors").hasSize(1);
+        assertThat(predictorRepository.findPredictorsNeedingUpdate()).containsExactly(state.predictorId);
+    }
+
     @Test
     public void updates_predictions() {
         usePredictor(new SameAsLatestPredictor());
@@ -71,6 +85,83 @@ public class PredictionServiceTest extends AbstractDaoTest {
         assertThat(prediction.get().predictions.get(0).spacesAvailable).as("prediction.spacesAvailable").isEqualTo(42);
     }
 
+    @Test
+    public void updates_the_predictors_of_due_utilization_keys_before_the_scheduled_update() {
+        predictionService = new PredictionService(utilizationRepository, predictionRepository, predictorRepository, facilityRepository,
+                transactionManager, 1, Duration.standardSeconds(30), new PredictionUpdateScheduler(Duration.ZERO, Duration.ZERO),
+                new SameAsLatestPredictor());
+        Utilization u = newUtilization(facilityId, now, 42);
+        registerUtilizations(u);
+        assertThat(predictionService.getUpdateQueueLength()).as("queue length, before").isEqualTo(1);
+
+        predictionService.updateDuePredictions();
+
+        assertThat(predictionService.getUpdateQueueLength()).as("queue length, after").isEqualTo(0);
+        assertThat(predictionService.getPrediction(u.getUtilizationKey(), now.plusHours(1))).as("prediction").isNotEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void updates_all_due_utilization_keys_in_batches() {
+        predictionService = new PredictionService(utilizationRepository, predictionRepository, predictorRepository, facilityRepository,
+                transactionManager, 1, Duration.standardSeconds(30), new PredictionUpdateScheduler(Duration.ZERO, Duration.ZERO),
+                new SameAsLatestPredictor());
+        Utilization u1 = newUtilization(facilityId, now, 42);
+        Utilization u2 = newUtilization(dummies.createFacility(), now, 42);
+        registerUtilizations(u1, u2);
+
+        predictionService.updateDuePredictions();
+
+        assertThat(predictionService.getUpdateQueueLength()).as("queue length, after").isEqualTo(0);
+        assertThat(predictionService.getPrediction(u1.getUtilizationKey(), now.plusHours(1))).as("prediction 1").isNotEqualTo(Optional.empty());
+        assertThat(predictionService.getPrediction(u2.getUtilizationKey(), now.plusHours(1))).as("prediction 2").isNotEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void the_scheduled_update_removes_the_updated_utilization_keys_from_the_queue() {
+        usePredictor(new SameAsLatestPredictor());
+        registerUtilizations(newUtilization(facilityId, now, 42));
+        assertThat(predictionService.getUpdateQueueLength()).as("queue length, before").isEqualTo(1);
+
+        predictionService.updatePredictions();
+
+        assertThat(predictionService.getUpdateQueueLength()).as("queue length, after").isEqualTo(0);
+    }
+
+    @Test
+    public void does_not_update_the_predictors_before_they_are_due() {
+        usePredictor(new SameAsLatestPredictor());
+        Utilization u = newUtilization(facilityId, now, 42);
+        registerUtilizations(u);
+
+        predictionService.updateDuePredictions();
+
+        assertThat(predictionService.getUpdateQueueLength()).as("queue length").isEqualTo(1);
+        assertThat(predictionService.getPrediction(u.getUtilizationKey(), now.plusHours(1))).as("prediction").isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void a_predictor_which_fails_to_save_does_not_fail_the_others() {
+        long otherFacilityId = dummies.createFacility();
+        usePredictor(new SameAsLatestPredictor() {
+            @Override
+            public List<Prediction> predict(PredictorState state, UtilizationHistory history, int maxCapacity) {
+                List<Prediction> predictions = super.predict(state, history, maxCapacity);
+                if (state.utilizationKey.facilityId == otherFacilityId) {
+                    return Collections.singletonList(new Prediction(predictions.get(0).timestamp, -1)); // fails validation
+                }
+                return predictions;
+            }
+        }, 2, Duration.standardSeconds(30));
+        Utilization u = newUtilization(facilityId, now, 42);
+        registerUtilizations(u, newUtilization(otherFacilityId, now, 42));
+
+        predictionService.updatePredictions();
+
+        assertThat(predictionService.getPrediction(u.getUtilizationKey(), now.plusHours(1))).as("prediction").isNotEqualTo(Optional.empty());
+        assertThat(predictionService.getUpdatedPredictorCount()).as("updated predictors").isEqualTo(1);
+        assertThat(predictionService.getFailedPredictorCount()).as("failed predictors").isEqualTo(1);
+    }
+
     @Test
     public void saves_predictor_state_between_updates() {
         List<String> spy = new ArrayList<>();
@@ -122,6 +213,43 @@ public class PredictionServiceTest extends AbstractDaoTest {
         assertThat(spy.getMaxConcurrentPredictors()).as("max concurrent predictors").isEqualTo(1);
     }
 
+    @Test
+    public void updates_different_predictors_in_parallel() {
+        ConcurrentPredictorsSpy spy = new ConcurrentPredictorsSpy();
+        usePredictor(spy, 2, Duration.standardSeconds(30));
+        registerUtilizations(Stream.generate(() -> newUtilization(dummies.createFacility(), now, 42))
+                .limit(6)
+                .toArray(Utilization[]::new));
+
+        predictionService.updatePredictions();
+
+        assertThat(spy.getMaxConcurrentPredictors()).as("max concurrent predictors").isBetween(1, 2);
+        assertThat(predictionService.getUpdatedPredictorCount()).as("updated predictors").isEqualTo(6);
+        assertThat(predictionService.getUpdateBacklog()).as("backlog").isEqualTo(0);
+    }
+
+    @Test
+    public void interrupts_predictors_which_take_longer_than_the_timeout() {
+        usePredictor(new SameAsLatestPredictor() {
+            @Override
+            public List<Prediction> predict(PredictorState state, UtilizationHistory history, int maxCapacity) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("interrupted", e);
+                }
+                return super.predict(state, history, maxCapacity);
+            }
+        }, 1, Duration.millis(100));
+        registerUtilizations(newUtilization(facilityId, now, 42));
+
+        long start = System.currentTimeMillis();
+        predictionService.updatePredictions();
+
+        assertThat(System.currentTimeMillis() - start).as("update duration").isLessThan(5_000);
+        assertThat(predictionService.getTimedOutPredictorCount()).as("timed out predictors").isEqualTo(1);
+    }
+
     /* Disabled concurrent updates due to concurrency problems in cluster
     @Test
     public void allows_updating_different_predictors_concurrently() throws InterruptedException {
@@ -143,7 +271,13 @@ public class PredictionServiceTest extends AbstractDaoTest {
 
     private void usePredictor(Predictor predictor) {
         predictionService = new PredictionService(utilizationRepository, predictionRepository,
-                predictorRepository, facilityRepository, transactionManager, lockRepostory, predictor);
+                predictorRepository, facilityRepository, transactionManager, predictor);
+    }
+
+    private void usePredictor(Predictor predictor, int concurrency, Duration predictorTimeout) {
+        predictionService = new PredictionService(utilizationRepository, predictionRepository,
+                predictorRepository, facilityRepository, transactionManager, concurrency, predictorTimeout,
+                new PredictionUpdateScheduler(Duration.standardSeconds(5), Duration.standardMinutes(5)), predictor);
     }
 
     private void registerUtilizations(Utilization... utilizations) {
@@ -0,0 +1,96 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.core.domain.CapacityType;
+import fi.hsl.parkandride.core.domain.Usage;
+import fi.hsl.parkandride.core.domain.UtilizationKey;
+import org.joda.time.Duration;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PredictionUpdateSchedulerTest {
+
+    private static final long MIN_DELAY = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private final PredictionUpdateScheduler scheduler = new PredictionUpdateScheduler(Duration.millis(MIN_DELAY), Duration.millis(MAX_DELAY));
+    private final UtilizationKey quiet = new UtilizationKey(1L, CapacityType.CAR, Usage.PARK_AND_RIDE);
+    private final UtilizationKey busy = new UtilizationKey(2L, CapacityType.CAR, Usage.PARK_AND_RIDE);
+    private final long start = TimeUnit.DAYS.toMillis(100);
+
+    @Test
+    public void quiet_keys_are_due_after_the_maximum_delay() {
+        scheduler.utilizationsArrived(Collections.singleton(quiet), start);
+
+        assertThat(scheduler.pollDue(10, start + MAX_DELAY - 1)).isEmpty();
+        assertThat(scheduler.pollDue(10, start + MAX_DELAY)).containsExactly(quiet);
+        assertThat(scheduler.getQueueLength()).isEqualTo(0);
+    }
+
+    @Test
+    public void frequent_utilizations_make_the_key_due_sooner() {
+        long now = start;
+        for (int i = 0; i < 120; i++, now += TimeUnit.SECONDS.toMillis(30)) {
+            scheduler.utilizationsArrived(Collections.singleton(busy), now);
+            scheduler.pollDue(10, now);
+        }
+        scheduler.utilizationsArrived(Collections.singleton(quiet), now);
+        scheduler.utilizationsArrived(Collections.singleton(busy), now);
+
+        assertThat(scheduler.pollDue(10, now + TimeUnit.MINUTES.toMillis(1))).containsExactly(busy);
+    }
+
+    @Test
+    public void frequent_reads_make_the_key_due_sooner() {
+        for (int i = 0; i < 1000; i++) {
+            scheduler.predictionsRead(busy.facilityId, start);
+        }
+        scheduler.utilizationsArrived(Collections.singleton(quiet), start);
+        scheduler.utilizationsArrived(Collections.singleton(busy), start);
+
+        assertThat(scheduler.pollDue(10, start + MIN_DELAY)).containsExactly(busy);
+    }
+
+    @Test
+    public void the_most_overdue_keys_are_polled_first() {
+        scheduler.utilizationsArrived(Collections.singleton(quiet), start);
+        scheduler.utilizationsArrived(Collections.singleton(busy), start + 1);
+
+        assertThat(scheduler.pollDue(1, start + MAX_DELAY + 1)).containsExactly(quiet);
+        assertThat(scheduler.pollDue(1, start + MAX_DELAY + 1)).containsExactly(busy);
+    }
+
+    @Test
+    public void lag_is_counted_from_the_oldest_unprocessed_utilization() {
+        scheduler.utilizationsArrived(Collections.singleton(quiet), start);
+        scheduler.utilizationsArrived(Collections.singleton(quiet), start + 1000);
+
+        assertThat(scheduler.getQueueLength()).isEqualTo(1);
+        assertThat(scheduler.getLagMillis(start + 2000)).containsEntry(quiet, 2000L);
+        assertThat(scheduler.getMaxLagMillis(start + 2000)).isEqualTo(2000);
+
+        scheduler.pollDue(10, start + MAX_DELAY);
+
+        assertThat(scheduler.getLastPolledLagMillis()).isEqualTo(MAX_DELAY);
+        assertThat(scheduler.getMaxLagMillis(start + MAX_DELAY)).isEqualTo(0);
+    }
+
+    @Test
+    public void updated_keys_are_removed_unless_utilizations_arrived_during_the_update() {
+        scheduler.utilizationsArrived(Collections.singleton(quiet), start);
+        scheduler.utilizationsArrived(Collections.singleton(busy), start);
+        scheduler.utilizationsArrived(Collections.singleton(busy), start + 2000);
+
+        scheduler.predictorsUpdated(Arrays.asList(quiet, busy), start + 1000);
+
+        assertThat(scheduler.getQueueLength()).isEqualTo(1);
+        assertThat(scheduler.pollDue(10, start + MAX_DELAY)).containsExactly(busy);
+    }
+}
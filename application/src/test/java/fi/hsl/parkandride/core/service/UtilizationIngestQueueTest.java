@@ -0,0 +1,147 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import com.querydsl.core.QueryException;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import fi.hsl.parkandride.core.domain.Utilization;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+
+public class UtilizationIngestQueueTest {
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock UtilizationRepository utilizationRepository;
+    @Mock PredictionService predictionService;
+    @Mock PlatformTransactionManager transactionManager;
+
+    @Test
+    public void rejects_all_utilizations_when_the_queue_does_not_have_room_for_them() {
+        UtilizationIngestQueue queue = newQueue(3, 10);
+        queue.enqueue(utilizations(2));
+
+        try {
+            queue.enqueue(utilizations(2));
+            fail("should have rejected the utilizations");
+        } catch (UtilizationQueueFullException e) {
+            assertThat(e.retryAfterSeconds).isEqualTo(5);
+        }
+        assertThat(queue.getQueueDepth()).isEqualTo(2);
+        assertThat(queue.getRejectedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void flush_stores_queued_utilizations_in_batches() {
+        UtilizationIngestQueue queue = newQueue(10, 2);
+        queue.enqueue(utilizations(5));
+
+        queue.flush();
+
+        verify(utilizationRepository, times(3)).insertUtilizations(anyListOf(Utilization.class));
+        verify(predictionService, times(3)).signalUpdateNeeded(anyListOf(Utilization.class));
+        assertThat(queue.getQueueDepth()).isEqualTo(0);
+        assertThat(queue.getFlushedCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void failed_batch_is_retried_on_next_flush() {
+        UtilizationIngestQueue queue = newQueue(10, 10);
+        doThrow(new RuntimeException("database down")).doNothing()
+                .when(utilizationRepository).insertUtilizations(anyListOf(Utilization.class));
+        queue.enqueue(utilizations(3));
+
+        queue.flush();
+        assertThat(queue.getQueueDepth()).isEqualTo(3);
+        assertThat(queue.getFlushedCount()).isEqualTo(0);
+
+        queue.flush();
+        assertThat(queue.getQueueDepth()).isEqualTo(0);
+        assertThat(queue.getFlushedCount()).isEqualTo(3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void utilizations_which_cannot_be_stored_are_dropped() {
+        UtilizationIngestQueue queue = newQueue(10, 10);
+        doAnswer(invocation -> {
+            List<Utilization> batch = (List<Utilization>) invocation.getArguments()[0];
+            if (batch.stream().anyMatch(u -> u.facilityId == 1)) {
+                throw new QueryException(new SQLException("foreign key violation", "23503"));
+            }
+            return null;
+        }).when(utilizationRepository).insertUtilizations(anyListOf(Utilization.class));
+        queue.enqueue(utilizations(3));
+
+        queue.flush();
+
+        assertThat(queue.getQueueDepth()).isEqualTo(0);
+        assertThat(queue.getFlushedCount()).isEqualTo(2);
+        assertThat(queue.getDroppedCount()).isEqualTo(1);
+        queue.enqueue(utilizations(10)); // all the room has been released
+    }
+
+    @Test
+    public void utilizations_are_queued_when_the_transaction_commits() {
+        UtilizationIngestQueue queue = newQueue(3, 10);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            queue.enqueue(utilizations(2));
+            assertThat(queue.getQueueDepth()).isEqualTo(0);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            assertThat(queue.getQueueDepth()).isEqualTo(2);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void utilizations_of_a_rolled_back_transaction_are_not_queued() {
+        UtilizationIngestQueue queue = newQueue(3, 10);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            queue.enqueue(utilizations(2));
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(queue.getQueueDepth()).isEqualTo(0);
+        queue.enqueue(utilizations(3)); // the room has been released
+    }
+
+    private UtilizationIngestQueue newQueue(int capacity, int batchSize) {
+        return new UtilizationIngestQueue(utilizationRepository, predictionService, transactionManager, true, capacity, batchSize, 5);
+    }
+
+    private static List<Utilization> utilizations(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> {
+                    Utilization u = new Utilization();
+                    u.facilityId = (long) i;
+                    return u;
+                })
+                .collect(toList());
+    }
+}
@@ -0,0 +1,52 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.core.service;
+
+import fi.hsl.parkandride.core.back.LockRepository;
+import fi.hsl.parkandride.core.back.UtilizationRepository;
+import org.joda.time.YearMonth;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import static java.util.Collections.emptyList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.*;
+
+public class UtilizationPartitionServiceTest {
+
+    private static final YearMonth NOW = new YearMonth(2016, 3);
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock UtilizationRepository utilizationRepository;
+    @Mock LockRepository lockRepository;
+
+    @Test
+    public void creates_partitions_in_advance() {
+        new UtilizationPartitionService(utilizationRepository, lockRepository, 2, 0, true).doMaintainPartitions(NOW);
+
+        verify(utilizationRepository).createUtilizationPartitions(NOW, new YearMonth(2016, 5));
+    }
+
+    @Test
+    public void keeps_all_partitions_when_retention_is_disabled() {
+        new UtilizationPartitionService(utilizationRepository, lockRepository, 2, 0, true).doMaintainPartitions(NOW);
+
+        verify(utilizationRepository, never()).removeUtilizationPartitionsBefore(any(), anyBoolean());
+    }
+
+    @Test
+    public void removes_partitions_older_than_retention() {
+        when(utilizationRepository.removeUtilizationPartitionsBefore(any(), anyBoolean())).thenReturn(emptyList());
+
+        new UtilizationPartitionService(utilizationRepository, lockRepository, 2, 24, false).doMaintainPartitions(NOW);
+
+        verify(utilizationRepository).removeUtilizationPartitionsBefore(new YearMonth(2014, 3), false);
+    }
+}
@@ -432,6 +432,25 @@ public class ApiDocumentation extends AbstractIntegrationTest {
                 .andExpect(jsonPath("[*]", hasSize(2)));
     }
 
+    @Test
+    public void utilizationsUpdateExample() throws Exception {
+        Facility facility1 = facilityService.getFacility(facilityId);
+        Facility facility2 = dummies.createFacility(facility1.operatorId, facility1.contacts);
+        facility2.id = facilityRepository.insertFacility(facility2);
+        Utilization u1 = newUtilization();
+        u1.facilityId = facility1.id;
+        Utilization u2 = newUtilization();
+        u2.facilityId = facility2.id;
+
+        MockHttpServletRequestBuilder request = put(UrlSchema.UTILIZATIONS)
+                .header("Authorization", "Bearer " + authToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Arrays.asList(u1, u2)));
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("[*]", hasSize(2)));
+    }
+
     @Test
     public void predictionExample() throws Exception {
         final long hubId = dummies.createHub(facilityId);
@@ -446,6 +465,10 @@ public class ApiDocumentation extends AbstractIntegrationTest {
         mockMvc.perform(get(UrlSchema.FACILITY_PREDICTION_RELATIVE, facilityId, "90"))
                 .andExpect(status().isOk())
                 .andDo(document("prediction-relative-example-minutes", requestPreprocessor, responsePreprocessor));
+        DateTime curveStart = new DateTime().plusHours(1);
+        mockMvc.perform(get(UrlSchema.FACILITY_PREDICTION_CURVE + UrlSchema.CURVE_RANGE, facilityId, curveStart, curveStart.plusHours(1), 15))
+                .andExpect(status().isOk())
+                .andDo(document("prediction-curve-example", requestPreprocessor, responsePreprocessor));
 
         mockMvc.perform(get(UrlSchema.HUB_PREDICTION_ABSOLUTE, hubId, new DateTime().plusHours(1).plusMinutes(30)))
                 .andExpect(status().isOk())
@@ -456,6 +479,9 @@ public class ApiDocumentation extends AbstractIntegrationTest {
         mockMvc.perform(get(UrlSchema.HUB_PREDICTION_RELATIVE, hubId, "90"))
                 .andExpect(status().isOk())
                 .andDo(document("hub-prediction-relative-example-minutes", requestPreprocessor, responsePreprocessor));
+        mockMvc.perform(get(UrlSchema.HUB_PREDICTION_CURVE + UrlSchema.CURVE_RANGE, hubId, curveStart, curveStart.plusHours(1), 15))
+                .andExpect(status().isOk())
+                .andDo(document("hub-prediction-curve-example", requestPreprocessor, responsePreprocessor));
     }
 
     @Test
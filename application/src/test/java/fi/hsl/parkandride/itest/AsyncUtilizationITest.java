@@ -0,0 +1,81 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.itest;
+
+import fi.hsl.parkandride.back.Dummies;
+import fi.hsl.parkandride.back.FacilityDao;
+import fi.hsl.parkandride.core.domain.*;
+import fi.hsl.parkandride.core.service.UtilizationIngestQueue;
+import fi.hsl.parkandride.front.UrlSchema;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.test.IntegrationTest;
+
+import javax.inject.Inject;
+
+import static com.jayway.restassured.RestAssured.when;
+import static fi.hsl.parkandride.core.domain.CapacityType.CAR;
+import static fi.hsl.parkandride.core.domain.Role.ADMIN;
+import static fi.hsl.parkandride.core.domain.Role.OPERATOR_API;
+import static fi.hsl.parkandride.core.domain.Usage.PARK_AND_RIDE;
+import static org.hamcrest.Matchers.*;
+import static org.springframework.http.HttpStatus.ACCEPTED;
+import static org.springframework.http.HttpStatus.OK;
+
+@IntegrationTest({
+        "server.port:0",
+        "utilization.ingest.async:true",
+        "utilization.ingest.flushDelay:3600000"})
+public class AsyncUtilizationITest extends AbstractIntegrationTest {
+
+    @Inject Dummies dummies;
+    @Inject FacilityDao facilityDao;
+    @Inject UtilizationIngestQueue ingestQueue;
+
+    private long facilityId;
+    private String operatorToken;
+    private String adminToken;
+
+    @Before
+    public void initFixture() {
+        devHelper.deleteAll();
+        facilityId = dummies.createFacility();
+        Facility facility = facilityDao.getFacility(facilityId);
+        devHelper.createOrUpdateUser(new NewUser(1L, "operator", OPERATOR_API, facility.operatorId, "operator"));
+        devHelper.createOrUpdateUser(new NewUser(2L, "admin", ADMIN, "admin"));
+        operatorToken = devHelper.login("operator").token;
+        adminToken = devHelper.login("admin").token;
+    }
+
+    @Test
+    public void queued_utilizations_are_accepted_and_stored_on_flush() {
+        givenWithContent(operatorToken)
+                .body(new JSONObjectBuilder()
+                        .put("capacityType", CAR)
+                        .put("usage", PARK_AND_RIDE)
+                        .put("timestamp", DateTime.now())
+                        .put("spacesAvailable", 42)
+                        .asArray())
+                .when().put(UrlSchema.FACILITY_UTILIZATION, facilityId)
+                .then().statusCode(ACCEPTED.value())
+                .body(".", empty());
+        givenWithContent(adminToken)
+                .when().get(UrlSchema.UTILIZATION_INGEST)
+                .then().statusCode(OK.value())
+                .body("async", is(true))
+                .body("queueDepth", is(1));
+
+        ingestQueue.flush();
+
+        when().get(UrlSchema.FACILITY_UTILIZATION, facilityId)
+                .then().statusCode(OK.value())
+                .body("spacesAvailable", contains(42));
+        givenWithContent(adminToken)
+                .when().get(UrlSchema.UTILIZATION_INGEST)
+                .then().statusCode(OK.value())
+                .body("queueDepth", is(0))
+                .body("flushedCount", is(1));
+    }
+}
@@ -7,9 +7,12 @@ import com.google.common.collect.ImmutableMap;
 import com.jayway.restassured.path.json.JsonPath;
 import com.jayway.restassured.response.Response;
 import fi.hsl.parkandride.back.Dummies;
+import fi.hsl.parkandride.back.TimeUtil;
 import fi.hsl.parkandride.core.back.PredictionRepository;
 import fi.hsl.parkandride.core.domain.*;
+import fi.hsl.parkandride.core.domain.prediction.HubPredictionCurveResult;
 import fi.hsl.parkandride.core.domain.prediction.HubPredictionResult;
+import fi.hsl.parkandride.core.domain.prediction.PredictionCurveResult;
 import fi.hsl.parkandride.core.domain.prediction.PredictionResult;
 import fi.hsl.parkandride.core.service.FacilityService;
 import fi.hsl.parkandride.core.service.PredictionService;
@@ -235,6 +238,37 @@ public class PredictionITest extends AbstractIntegrationTest {
                 );
     }
 
+    @Test
+    public void returns_the_prediction_curve_in_one_array() {
+        makeDummyPredictions();
+        DateTime start = TimeUtil.roundMinutes(PredictionRepository.PREDICTION_RESOLUTION.getMinutes(), now);
+
+        PredictionCurveResult[] curves = toPredictionCurves(when().get(UrlSchema.FACILITY_PREDICTION_CURVE + UrlSchema.CURVE_RANGE,
+                facilityId, start, start.plusHours(2), 30));
+
+        assertThat(curves).hasSize(1);
+        assertThat(curves[0].facilityId).isEqualTo(facilityId);
+        assertThat(curves[0].capacityType).isEqualTo(CAR);
+        assertThat(curves[0].usage).isEqualTo(PARK_AND_RIDE);
+        assertThat(curves[0].start.getMillis()).isEqualTo(start.getMillis());
+        assertThat(curves[0].step).isEqualTo(30);
+        assertThat(curves[0].spacesAvailable).containsExactly(
+                SPACES_AVAILABLE, SPACES_AVAILABLE, SPACES_AVAILABLE, SPACES_AVAILABLE, SPACES_AVAILABLE);
+    }
+
+    @Test
+    public void prediction_curve_has_no_values_outside_the_prediction_window() {
+        makeDummyPredictions();
+        DateTime start = TimeUtil.roundMinutes(PredictionRepository.PREDICTION_RESOLUTION.getMinutes(), now).minusMinutes(10);
+
+        PredictionCurveResult[] curves = toPredictionCurves(when().get(UrlSchema.FACILITY_PREDICTION_CURVE + UrlSchema.CURVE_RANGE,
+                facilityId, start, start.plusMinutes(20), 5));
+
+        assertThat(curves).hasSize(1);
+        assertThat(curves[0].spacesAvailable).containsExactly(
+                null, null, SPACES_AVAILABLE, SPACES_AVAILABLE, SPACES_AVAILABLE);
+    }
+
     // predictions for hubs
 
     @Test
@@ -343,6 +377,26 @@ public class PredictionITest extends AbstractIntegrationTest {
         assertThat(parkAndRide.spacesAvailable).isEqualTo(SPACES_AVAILABLE * 2);
     }
 
+    @Test
+    public void hub_sums_prediction_curves_for_facilities() {
+        final long facility2Id = dummies.createFacility();
+        final Long operator2Id = facilityService.getFacility(facility2Id).operatorId;
+        final User user2 = devHelper.createOrUpdateUser(new NewUser(2L, "operator2", OPERATOR_API, operator2Id, "operator"));
+        final long hubId = dummies.createHub(facilityId, facility2Id);
+
+        makeDummyPredictions(Usage.PARK_AND_RIDE, facilityId, user, CapacityType.CAR);
+        makeDummyPredictions(Usage.PARK_AND_RIDE, facility2Id, user2, CapacityType.CAR);
+        DateTime start = TimeUtil.roundMinutes(PredictionRepository.PREDICTION_RESOLUTION.getMinutes(), now);
+
+        HubPredictionCurveResult[] curves = when().get(UrlSchema.HUB_PREDICTION_CURVE + UrlSchema.CURVE_RANGE, hubId, start, start.plusHours(1), 60)
+                .then().assertThat().statusCode(HttpStatus.OK.value())
+                .extract().as(HubPredictionCurveResult[].class);
+
+        assertThat(curves).hasSize(1);
+        assertThat(curves[0].hubId).isEqualTo(hubId);
+        assertThat(curves[0].spacesAvailable).containsExactly(SPACES_AVAILABLE * 2, SPACES_AVAILABLE * 2);
+    }
+
     @Test
     public void hub_with_no_facilities_returns_empty_prediction() {
         final long hubId = dummies.createHub();
@@ -388,6 +442,11 @@ public class PredictionITest extends AbstractIntegrationTest {
                 .extract().as(PredictionResult[].class);
     }
 
+    private static PredictionCurveResult[] toPredictionCurves(Response response) {
+        return response.then().assertThat().statusCode(HttpStatus.OK.value())
+                .extract().as(PredictionCurveResult[].class);
+    }
+
     private static HubPredictionResult[] toHubPredictions(Response response) {
         return response.then().assertThat().statusCode(HttpStatus.OK.value())
                 .extract().as(HubPredictionResult[].class);
@@ -17,6 +17,7 @@ import fi.hsl.parkandride.front.UrlSchema;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.ISODateTimeFormat;
+import org.json.simple.JSONArray;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -26,6 +27,7 @@ import org.springframework.http.converter.HttpMessageNotReadableException;
 import javax.inject.Inject;
 import java.util.List;
 
+import static com.jayway.restassured.RestAssured.given;
 import static com.jayway.restassured.RestAssured.when;
 import static fi.hsl.parkandride.core.domain.CapacityType.*;
 import static fi.hsl.parkandride.core.domain.DayType.*;
@@ -419,6 +421,87 @@ public class UtilizationITest extends AbstractIntegrationTest {
         assertThat(getUtilizations()).containsOnly(u2, u4);
     }
 
+    @Test
+    public void latest_utilizations_are_not_resent_if_unchanged() {
+        submitUtilization(OK, facility.id, minValidPayload());
+        String etag = when().get(UrlSchema.UTILIZATIONS)
+                .then().statusCode(OK.value())
+                .extract().header("ETag");
+
+        given().header("If-None-Match", etag)
+                .when().get(UrlSchema.UTILIZATIONS)
+                .then().statusCode(NOT_MODIFIED.value());
+
+        submitUtilization(OK, facility.id, minValidPayload().put(Key.SPACES_AVAILABLE, 43));
+        given().header("If-None-Match", etag)
+                .when().get(UrlSchema.UTILIZATIONS)
+                .then().statusCode(OK.value())
+                .header("ETag", not(etag))
+                .body("[0].spacesAvailable", is(43));
+    }
+
+    @Test
+    public void latest_utilizations_are_not_resent_if_any_of_the_entity_tags_matches() {
+        submitUtilization(OK, facility.id, minValidPayload());
+        String etag = when().get(UrlSchema.UTILIZATIONS)
+                .then().statusCode(OK.value())
+                .extract().header("ETag");
+
+        given().header("If-None-Match", "W/" + etag)
+                .when().get(UrlSchema.UTILIZATIONS)
+                .then().statusCode(NOT_MODIFIED.value());
+        given().header("If-None-Match", "\"other\", " + etag)
+                .when().get(UrlSchema.UTILIZATIONS)
+                .then().statusCode(NOT_MODIFIED.value());
+        given().header("If-None-Match", "*")
+                .when().get(UrlSchema.UTILIZATIONS)
+                .then().statusCode(NOT_MODIFIED.value());
+        given().header("If-None-Match", "\"other\", W/\"another\"")
+                .when().get(UrlSchema.UTILIZATIONS)
+                .then().statusCode(OK.value());
+    }
+
+    @Test
+    public void registers_utilizations_of_many_facilities_with_one_request() {
+        Facility facility2 = createFacility(2, "another facility", operator, contact);
+
+        submitUtilizations(OK,
+                minValidPayload().put(Key.FACILITY_ID, facility.id).put(Key.SPACES_AVAILABLE, 10),
+                minValidPayload().put(Key.FACILITY_ID, facility2.id).put(Key.SPACES_AVAILABLE, 20));
+
+        assertThat(getFacilityUtilization(facility.id))
+                .extracting("facilityId", "spacesAvailable", "capacity")
+                .containsOnly(tuple(facility.id, 10, CAR_BUILT_CAPACITY));
+        assertThat(getFacilityUtilization(facility2.id))
+                .extracting("facilityId", "spacesAvailable", "capacity")
+                .containsOnly(tuple(facility2.id, 20, CAR_BUILT_CAPACITY));
+    }
+
+    @Test
+    public void bulk_registration_cannot_update_other_operators_facility() {
+        Operator operator2 = createOperator(2, "another operator");
+        Facility facility2 = createFacility(2, "another facility", operator2, contact);
+
+        submitUtilizations(FORBIDDEN,
+                minValidPayload().put(Key.FACILITY_ID, facility.id),
+                minValidPayload().put(Key.FACILITY_ID, facility2.id));
+
+        assertThat(getFacilityUtilization(facility.id)).isEmpty();
+    }
+
+    @Test
+    public void bulk_registration_reports_violations_of_all_utilizations() {
+        submitUtilizations(BAD_REQUEST,
+                minValidPayload().put(Key.FACILITY_ID, facility.id),
+                minValidPayload().put(Key.FACILITY_ID, null).put(Key.CAPACITY, 100),
+                minValidPayload().put(Key.FACILITY_ID, facility.id + 100).put(Key.CAPACITY, 100))
+                .spec(assertResponse(ValidationException.class))
+                .body("violations.path", contains("[1]." + Key.FACILITY_ID, "[2]." + Key.FACILITY_ID))
+                .body("violations.type", contains("NotNull", "NotFound"));
+
+        assertThat(getFacilityUtilization(facility.id)).isEmpty();
+    }
+
 
     // helpers
 
@@ -436,6 +519,16 @@ public class UtilizationITest extends AbstractIntegrationTest {
                 .then().statusCode(expectedStatus.value());
     }
 
+    private ValidatableResponse submitUtilizations(HttpStatus expectedStatus, JSONObjectBuilder... builders) {
+        JSONArray payload = new JSONArray();
+        for (JSONObjectBuilder builder : builders) {
+            payload.add(builder.jsonObject);
+        }
+        return givenWithContent(authToken).body(payload)
+                .when().put(UrlSchema.UTILIZATIONS)
+                .then().statusCode(expectedStatus.value());
+    }
+
     private DateTime getUtilizationTimestamp() {
         return ISODateTimeFormat.dateTimeParser().parseDateTime(getUtilizationTimestampString());
     }
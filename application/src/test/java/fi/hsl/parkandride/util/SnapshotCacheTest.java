@@ -0,0 +1,91 @@
+// Copyright © 2016 HSL <https://www.hsl.fi>
+// This program is dual-licensed under the EUPL v1.2 and AGPLv3 licenses.
+
+package fi.hsl.parkandride.util;
+
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SnapshotCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Supplier<Integer> loader = () -> {
+        loads.incrementAndGet();
+        return 0;
+    };
+
+    @Test
+    public void loads_the_snapshot_once_until_invalidated() {
+        SnapshotCache<Integer> cache = new SnapshotCache<>(Duration.standardHours(1));
+
+        cache.get(loader);
+        cache.get(loader);
+        assertThat(loads.get()).isEqualTo(1);
+
+        cache.invalidate();
+        cache.get(loader);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void reloads_the_snapshot_when_it_expires() {
+        SnapshotCache<Integer> cache = new SnapshotCache<>(Duration.ZERO);
+
+        cache.get(loader);
+        cache.get(loader);
+
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void updates_the_snapshot_without_reloading_it() {
+        SnapshotCache<Integer> cache = new SnapshotCache<>(Duration.standardHours(1));
+        cache.get(loader);
+
+        cache.updateAfterCommit(value -> value + 1);
+
+        assertThat(cache.get(loader)).isEqualTo(1);
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void updates_are_applied_only_when_the_transaction_commits() {
+        SnapshotCache<Integer> cache = new SnapshotCache<>(Duration.standardHours(1));
+        cache.get(loader);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.updateAfterCommit(value -> value + 1);
+            assertThat(cache.get(loader)).isEqualTo(0);
+
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            synchronizations.forEach(TransactionSynchronization::afterCommit);
+            synchronizations.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(cache.get(loader)).isEqualTo(1);
+    }
+
+    @Test
+    public void updates_committed_during_a_load_are_applied_to_the_loaded_snapshot() {
+        SnapshotCache<Integer> cache = new SnapshotCache<>(Duration.standardHours(1));
+
+        Integer loaded = cache.get(() -> {
+            cache.updateAfterCommit(value -> value + 1);
+            return 10;
+        });
+
+        assertThat(loaded).isEqualTo(11);
+        assertThat(cache.get(loader)).isEqualTo(11);
+        assertThat(loads.get()).isEqualTo(0);
+    }
+}